@@ -1,18 +1,120 @@
 package com.example.aiexcel.config;
 
+import com.example.aiexcel.service.ai.AiResponseCache;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.impl.CachingAiService;
+import com.example.aiexcel.service.ai.impl.CoalescingAiService;
+import com.example.aiexcel.service.ai.impl.QwenAiService;
+import com.example.aiexcel.service.concurrent.VirtualThreads;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.WorkbookCache;
 import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
 public class ServiceConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(ServiceConfig.class);
+
+    @Bean
+    public WorkbookCache workbookCache(@Value("${excel.cache.max-bytes:268435456}") long maxBytes,
+                                       @Value("${excel.cache.max-entry-bytes:33554432}") long maxEntryBytes) {
+        return new WorkbookCache(maxBytes, maxEntryBytes);
+    }
+
+    @Bean
+    public ExcelService excelService(@Value("${excel.cache.enabled:true}") boolean cacheEnabled,
+                                     @Value("${ai.context.max-tokens:6000}") int promptTokenBudget,
+                                     WorkbookCache workbookCache) {
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        excelService.setPromptTokenBudget(promptTokenBudget);
+        if (cacheEnabled) {
+            excelService.setWorkbookCache(workbookCache);
+        }
+        return excelService;
+    }
+
+    @Bean
+    public AiResponseCache aiResponseCache(@Value("${ai.cache.max-bytes:67108864}") long maxBytes,
+                                           @Value("${ai.cache.ttl-minutes:60}") long ttlMinutes,
+                                           @Value("${ai.cache.max-temperature:0}") double maxTemperature,
+                                           @Value("${ai.cache.redis.enabled:false}") boolean redisEnabled,
+                                           ObjectProvider<RedisConnectionFactory> redisConnectionFactory) {
+        AiResponseCache cache = new AiResponseCache(maxBytes, ttlMinutes, maxTemperature);
+        if (redisEnabled) {
+            RedisConnectionFactory connectionFactory = redisConnectionFactory.getIfAvailable();
+            if (connectionFactory == null) {
+                logger.warn("Redis tier for AI responses is enabled but no RedisConnectionFactory is available");
+            } else {
+                RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+                template.setConnectionFactory(connectionFactory);
+                template.setKeySerializer(RedisSerializer.string());
+                template.setValueSerializer(RedisSerializer.byteArray());
+                template.afterPropertiesSet();
+                cache.setRedisTemplate(template);
+                logger.info("AI responses will be mirrored to Redis");
+            }
+        }
+        return cache;
+    }
+
     @Bean
-    public ExcelService excelService() {
-        return new ExcelServiceImpl();
+    public CoalescingAiService coalescingAiService(QwenAiService qwenAiService,
+                                                   @Value("${ai.coalescing.key:full}") String keyStrategy) {
+        return new CoalescingAiService(qwenAiService, CoalescingAiService.KeyStrategy.from(keyStrategy));
+    }
+
+    /**
+     * 业务代码注入的AiService：Qwen服务外依次包一层并发请求合并和响应缓存
+     */
+    @Bean
+    @Primary
+    public AiService aiService(QwenAiService qwenAiService,
+                               CoalescingAiService coalescingAiService,
+                               AiResponseCache aiResponseCache,
+                               @Value("${ai.coalescing.enabled:true}") boolean coalescingEnabled,
+                               @Value("${ai.cache.enabled:true}") boolean cacheEnabled) {
+        AiService service = coalescingEnabled ? coalescingAiService : qwenAiService;
+        return cacheEnabled ? new CachingAiService(service, aiResponseCache) : service;
+    }
+
+    /**
+     * 分析请求并行派生子任务（如多个AI调用）使用的执行器
+     * spring.threads.virtual.enabled=true 且运行在Java 21及以上时每个任务一个虚拟线程（Tomcat同样切换到虚拟线程），
+     * 否则使用固定大小的平台线程池
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService analysisExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                            @Value("${analysis.executor.threads:8}") int threads) {
+        if (virtualThreads) {
+            if (VirtualThreads.isSupported()) {
+                logger.info("Analysis tasks run on virtual threads");
+                return VirtualThreads.newThreadPerTaskExecutor("analysis-");
+            }
+            logger.warn("Virtual threads requested but not supported on Java {}, using {} platform threads for analysis tasks",
+                    Runtime.version(), threads);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "analysis-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Bean
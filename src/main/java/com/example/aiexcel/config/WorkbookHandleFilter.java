@@ -0,0 +1,95 @@
+package com.example.aiexcel.config;
+
+import com.example.aiexcel.service.WorkbookHandleService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.support.DefaultMultipartHttpServletRequest;
+import org.springframework.web.multipart.support.StandardMultipartHttpServletRequest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 工作簿句柄过滤器
+ * 请求携带handle参数（或X-Workbook-Handle请求头）且没有上传file时，
+ * 把句柄对应的已保存文件作为file部分注入请求，现有接口无需修改即可接受句柄
+ */
+@Component
+public class WorkbookHandleFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookHandleFilter.class);
+
+    public static final String HANDLE_PARAMETER = "handle";
+    public static final String HANDLE_HEADER = "X-Workbook-Handle";
+    private static final String FILE_PARAMETER = "file";
+
+    @Autowired
+    private WorkbookHandleService workbookHandleService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        // 句柄管理接口自身不需要注入
+        return !path.startsWith("/api/") || path.startsWith("/api/workbooks");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String handle = request.getHeader(HANDLE_HEADER);
+        if (handle == null || handle.isBlank()) {
+            handle = request.getParameter(HANDLE_PARAMETER);
+        }
+        if (handle == null || handle.isBlank()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        boolean multipart = request.getContentType() != null
+                && request.getContentType().toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE);
+        MultiValueMap<String, MultipartFile> files = new LinkedMultiValueMap<>();
+        if (multipart) {
+            StandardMultipartHttpServletRequest multipartRequest = new StandardMultipartHttpServletRequest(request);
+            if (multipartRequest.getFile(FILE_PARAMETER) != null) {
+                // 同时上传了文件时以上传的文件为准
+                filterChain.doFilter(multipartRequest, response);
+                return;
+            }
+            files.putAll(multipartRequest.getMultiFileMap());
+        }
+
+        MultipartFile storedFile = workbookHandleService.resolve(handle.trim(), FILE_PARAMETER);
+        if (storedFile == null) {
+            logger.warn("Workbook handle {} not found or expired, uri={}", handle, request.getRequestURI());
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            objectMapper.writeValue(response.getWriter(), Map.of(
+                "success", false,
+                "error", "Workbook handle not found or expired: " + handle
+            ));
+            return;
+        }
+
+        files.add(FILE_PARAMETER, storedFile);
+        // 普通参数和请求体仍从原始请求读取
+        filterChain.doFilter(new DefaultMultipartHttpServletRequest(request, files,
+                Collections.emptyMap(), Collections.emptyMap()), response);
+    }
+}
@@ -2,17 +2,28 @@ package com.example.aiexcel.controller;
 
 import com.example.aiexcel.service.AiAdvancedOperationsService;
 import com.example.aiexcel.service.AiExcelIntegrationService;
+import com.example.aiexcel.service.WorkbookHandleService;
+import com.example.aiexcel.service.ai.AiResponseCache;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.impl.CoalescingAiService;
+import com.example.aiexcel.service.excel.TableQuery;
 import com.example.aiexcel.config.EnvFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api")
@@ -29,15 +40,27 @@ public class AiExcelController {
     @Autowired
     private AiService aiService;
 
+    @Autowired
+    private WorkbookHandleService workbookHandleService;
+
+    @Autowired
+    private AiResponseCache aiResponseCache;
+
+    @Autowired
+    private CoalescingAiService coalescingAiService;
+
+    // 异步请求的等待上限，应大于AI接口的响应超时
+    @Value("${ai.async.request-timeout-ms:180000}")
+    private long asyncRequestTimeoutMs;
+
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> uploadExcel(@RequestParam("file") MultipartFile file) {
         logger.info("/api/upload called, file={}", file == null ? "<none>" : file.getOriginalFilename());
         try {
-            // 上传功能将在集成服务中实现
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "message", "File uploaded successfully"
-            );
+            // 保存文件并返回句柄，后续请求可用handle参数代替重新上传文件
+            Map<String, Object> response = new HashMap<>(workbookHandleService.store(file));
+            response.put("success", true);
+            response.put("message", "File uploaded successfully");
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             Map<String, Object> response = Map.of(
@@ -72,32 +95,38 @@ public class AiExcelController {
     }
 
     @PostMapping(value = "/ai/excel-with-ai-download", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public ResponseEntity<byte[]> processExcelWithAIAndDownload(
+    public ResponseEntity<StreamingResponseBody> processExcelWithAIAndDownload(
             @RequestParam("file") MultipartFile file,
             @RequestParam("command") String command) {
         logger.info("/api/ai/excel-with-ai-download called, file={}, command={}", file == null ? "<none>" : file.getOriginalFilename(), command);
         try {
-            // 重新实现，直接在内存中处理而不保存到文件
+            // 直接在内存中处理而不保存到文件
             org.apache.poi.ss.usermodel.Workbook workbook = aiExcelIntegrationService.getExcelWorkbookWithAIChanges(file, command);
 
             if (workbook != null) {
-                // 将工作簿转换为字节数组
-                byte[] fileContent = aiExcelIntegrationService.getExcelAsBytes(workbook, file.getOriginalFilename());
+                // 边序列化边写入响应流，客户端无需等待整个文件生成
+                StreamingResponseBody body = outputStream -> {
+                    try {
+                        aiExcelIntegrationService.writeExcel(workbook, outputStream);
+                    } finally {
+                        workbook.close();
+                    }
+                };
 
                 String outputFileName = "modified_" + file.getOriginalFilename();
                 return ResponseEntity.ok()
                     .header("Content-Disposition", "attachment; filename=\"" + outputFileName + "\"")
-                    .body(fileContent);
+                    .body(body);
             } else {
                 // 如果处理失败，返回错误
-                return ResponseEntity.badRequest().body(null);
+                return ResponseEntity.badRequest().build();
             }
         } catch (IOException e) {
             e.printStackTrace();
-            return ResponseEntity.badRequest().body(null);
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
-            return ResponseEntity.badRequest().body(null);
+            return ResponseEntity.badRequest().build();
         }
     }
 
@@ -214,10 +243,13 @@ public class AiExcelController {
     @PostMapping("/excel/sort-data")
     public ResponseEntity<Map<String, Object>> sortData(@RequestParam("file") MultipartFile file,
                                                         @RequestParam("sortColumn") String sortColumn,
-                                                        @RequestParam("sortOrder") String sortOrder) {
+                                                        @RequestParam(value = "sortOrder", required = false, defaultValue = "asc") String sortOrder,
+                                                        @RequestParam(value = "sheet", required = false) String sheet,
+                                                        @RequestParam(value = "page", required = false, defaultValue = "1") int page,
+                                                        @RequestParam(value = "pageSize", required = false, defaultValue = "100") int pageSize) {
         logger.info("/api/excel/sort-data called, file={}, sortColumn={}, sortOrder={}", file == null ? "<none>" : file.getOriginalFilename(), sortColumn, sortOrder);
         try {
-            Map<String, Object> result = aiExcelIntegrationService.sortExcelData(file, sortColumn, sortOrder);
+            Map<String, Object> result = aiExcelIntegrationService.sortExcelData(file, sortColumn, sortOrder, sheet, page, pageSize);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -237,11 +269,14 @@ public class AiExcelController {
     @PostMapping("/excel/filter-data")
     public ResponseEntity<Map<String, Object>> filterData(@RequestParam("file") MultipartFile file,
                                                           @RequestParam("filterColumn") String filterColumn,
-                                                          @RequestParam("filterCondition") String filterCondition,
-                                                          @RequestParam("filterValue") String filterValue) {
+                                                          @RequestParam(value = "filterCondition", required = false, defaultValue = "equals") String filterCondition,
+                                                          @RequestParam(value = "filterValue", required = false, defaultValue = "") String filterValue,
+                                                          @RequestParam(value = "sheet", required = false) String sheet,
+                                                          @RequestParam(value = "page", required = false, defaultValue = "1") int page,
+                                                          @RequestParam(value = "pageSize", required = false, defaultValue = "100") int pageSize) {
         logger.info("/api/excel/filter-data called, file={}, filterColumn={}, filterCondition={}, filterValue={}", file == null ? "<none>" : file.getOriginalFilename(), filterColumn, filterCondition, filterValue);
         try {
-            Map<String, Object> result = aiExcelIntegrationService.filterExcelData(file, filterColumn, filterCondition, filterValue);
+            Map<String, Object> result = aiExcelIntegrationService.filterExcelData(file, filterColumn, filterCondition, filterValue, sheet, page, pageSize);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -258,6 +293,34 @@ public class AiExcelController {
         }
     }
 
+    /**
+     * 筛选、排序后下载结果工作簿（只含值），排序和筛选参数均可省略
+     */
+    @PostMapping(value = "/excel/sort-filter-download", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+    public ResponseEntity<StreamingResponseBody> sortFilterDownload(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "sheet", required = false) String sheet,
+            @RequestParam(value = "sortColumn", required = false) String sortColumn,
+            @RequestParam(value = "sortOrder", required = false, defaultValue = "asc") String sortOrder,
+            @RequestParam(value = "filterColumn", required = false) String filterColumn,
+            @RequestParam(value = "filterCondition", required = false, defaultValue = "equals") String filterCondition,
+            @RequestParam(value = "filterValue", required = false, defaultValue = "") String filterValue) {
+        logger.info("/api/excel/sort-filter-download called, file={}, sortColumn={}, filterColumn={}", file == null ? "<none>" : file.getOriginalFilename(), sortColumn, filterColumn);
+        try {
+            // 在写出响应之前完成排序和筛选，参数错误时仍能返回400
+            TableQuery.Selection selection = aiExcelIntegrationService.selectSortedFiltered(file, sheet,
+                    sortColumn, sortOrder, filterColumn, filterCondition, filterValue);
+            StreamingResponseBody body = outputStream -> aiExcelIntegrationService.writeSelection(selection, outputStream);
+            String outputFileName = "sorted_" + file.getOriginalFilename();
+            return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=\"" + outputFileName + "\"")
+                .body(body);
+        } catch (Exception e) {
+            logger.warn("Sort/filter download failed: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/status")
     public ResponseEntity<Map<String, Object>> getApiStatus(@RequestParam(value = "reveal", required = false, defaultValue = "false") boolean reveal) {
         // 使用统一的 EnvFile 工具读取运行时配置
@@ -306,34 +369,8 @@ public class AiExcelController {
     }
 
     @PostMapping("/ai/chat")
-    public ResponseEntity<Map<String, Object>> chatWithAI(@RequestBody Map<String, String> request) {
-        String userMessage = request.get("message");
-
-        if (userMessage == null || userMessage.trim().isEmpty()) {
-            Map<String, Object> response = Map.of(
-                "success", false,
-                "error", "Message is required"
-            );
-            return ResponseEntity.badRequest().body(response);
-        }
-
-        try {
-            // 使用AI服务回复用户消息
-            String aiResponse = aiExcelIntegrationService.chatWithAI(userMessage);
-
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "message", aiResponse
-            );
-
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            Map<String, Object> response = Map.of(
-                "success", false,
-                "error", "Error processing AI chat: " + e.getMessage()
-            );
-            return ResponseEntity.badRequest().body(response);
-        }
+    public DeferredResult<ResponseEntity<Map<String, Object>>> chatWithAI(@RequestBody Map<String, String> request) {
+        return deferChat(request.get("message"));
     }
 
     @GetMapping("/health")
@@ -346,96 +383,113 @@ public class AiExcelController {
     }
 
     @PostMapping("/ai/chat-stream")
-    public ResponseEntity<Map<String, Object>> chatWithAIStream(@RequestBody Map<String, String> request) {
-        String userMessage = request.get("message");
+    public DeferredResult<ResponseEntity<Map<String, Object>>> chatWithAIStream(@RequestBody Map<String, String> request) {
+        return deferChat(request.get("message"));
+    }
+
+    /**
+     * 异步处理聊天请求：Tomcat线程在发出AI请求后立即释放，响应到达后再写回结果
+     */
+    private DeferredResult<ResponseEntity<Map<String, Object>>> deferChat(String userMessage) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> deferred = new DeferredResult<>(asyncRequestTimeoutMs);
+        deferred.onTimeout(() -> deferred.setErrorResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of(
+            "success", false,
+            "error", "AI chat timed out"
+        ))));
 
         if (userMessage == null || userMessage.trim().isEmpty()) {
             Map<String, Object> response = Map.of(
                 "success", false,
                 "error", "Message is required"
             );
-            return ResponseEntity.badRequest().body(response);
+            deferred.setResult(ResponseEntity.badRequest().body(response));
+            return deferred;
         }
 
-        try {
-            // 使用AI服务回复用户消息
-            String aiResponse = aiExcelIntegrationService.chatWithAI(userMessage);
+        // 使用AI服务回复用户消息
+        aiExcelIntegrationService.chatWithAIAsync(userMessage).whenComplete((aiResponse, error) -> {
+            if (error == null) {
+                Map<String, Object> response = Map.of(
+                    "success", true,
+                    "message", aiResponse
+                );
+                deferred.setResult(ResponseEntity.ok(response));
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                Map<String, Object> response = Map.of(
+                    "success", false,
+                    "error", "Error processing AI chat: " + cause.getMessage()
+                );
+                deferred.setResult(ResponseEntity.badRequest().body(response));
+            }
+        });
+        return deferred;
+    }
 
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "message", aiResponse
-            );
+    /**
+     * 获取AI响应缓存的统计信息（命中率、节省的时间等）
+     */
+    @GetMapping("/ai/cache-stats")
+    public ResponseEntity<Map<String, Object>> getAiCacheStats() {
+        Map<String, Object> response = new HashMap<>(aiResponseCache.getStats());
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
 
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            Map<String, Object> response = Map.of(
-                "success", false,
-                "error", "Error processing AI chat: " + e.getMessage()
-            );
-            return ResponseEntity.badRequest().body(response);
-        }
+    /**
+     * 获取并发相同AI请求合并的统计信息
+     */
+    @GetMapping("/ai/coalescing-stats")
+    public ResponseEntity<Map<String, Object>> getAiCoalescingStats() {
+        Map<String, Object> response = new HashMap<>(coalescingAiService.getStats());
+        response.put("success", true);
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping(value = "/ai/chat-sse", produces = org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE)
-    public org.springframework.web.servlet.mvc.method.annotation.SseEmitter chatWithAISSE(@RequestParam String message) {
-        org.springframework.web.servlet.mvc.method.annotation.SseEmitter emitter = new org.springframework.web.servlet.mvc.method.annotation.SseEmitter(Long.MAX_VALUE); // 设置长时间连接
+    public SseEmitter chatWithAISSE(@RequestParam String message) {
+        SseEmitter emitter = new SseEmitter(asyncRequestTimeoutMs);
 
-        // 在单独的线程中处理响应
-        Runnable task = () -> {
-            try {
-                if (message == null || message.trim().isEmpty()) {
-                    emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
-                            .name("error")
-                            .data("Message is required"));
-                    emitter.complete();
-                    return;
-                }
+        try {
+            if (message == null || message.trim().isEmpty()) {
+                emitter.send(SseEmitter.event()
+                        .name("error")
+                        .data("Message is required"));
+                emitter.complete();
+                return emitter;
+            }
 
-                // 使用AI服务回复用户消息
-                String aiResponse = aiExcelIntegrationService.chatWithAI(message);
-
-                // 先发送一个开始事件
-                emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
-                        .name("start")
-                        .data(""));
-
-                // 将AI响应按单词分割模拟流式输出
-                String[] words = aiResponse.split("(?<=\\S)\\s+");
-
-                for (int i = 0; i < words.length; i++) {
-                    String word = words[i];
-                    if (!word.trim().isEmpty()) {
-                        // 添加空格（除了第一个词）
-                        if (i > 0) {
-                            word = " " + word;
-                        }
-
-                        emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
-                                .name("chunk")
-                                .data(word));
-                        Thread.sleep(50); // 模拟打字延迟
-                    }
-                }
+            // 先发送一个开始事件
+            emitter.send(SseEmitter.event()
+                    .name("start")
+                    .data(""));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
 
-                // 发送完成事件
-                emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
-                        .name("done")
-                        .data("[DONE]"));
-                emitter.complete();
-            } catch (Exception e) {
-                try {
-                    emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
+        // AI每返回一个片段就立即转发；客户端断开时send抛出IOException，上游读取随之停止
+        aiExcelIntegrationService.streamChatWithAI(message, token -> emitter.send(SseEmitter.event()
+                .name("chunk")
+                .data(token))
+        ).whenComplete((aiResponse, error) -> {
+            try {
+                if (error == null) {
+                    // 发送完成事件
+                    emitter.send(SseEmitter.event()
+                            .name("done")
+                            .data("[DONE]"));
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    emitter.send(SseEmitter.event()
                             .name("error")
-                            .data("Error: " + e.getMessage()));
-                    emitter.complete();
-                } catch (Exception ex) {
-                    emitter.completeWithError(ex);
+                            .data("Error: " + cause.getMessage()));
                 }
+                emitter.complete();
+            } catch (Exception ex) {
+                emitter.completeWithError(ex);
             }
-        };
-
-        // 异步执行任务
-        new Thread(task).start();
+        });
 
         return emitter;
     }
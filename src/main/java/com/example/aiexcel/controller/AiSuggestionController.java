@@ -1,14 +1,19 @@
 package com.example.aiexcel.controller;
 
 import com.example.aiexcel.service.AiSuggestionService;
+import com.example.aiexcel.service.concurrent.TaskScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * AI智能建议控制器
@@ -21,6 +26,10 @@ public class AiSuggestionController {
     @Autowired
     private AiSuggestionService aiSuggestionService;
 
+    @Autowired
+    @Qualifier("analysisExecutor")
+    private ExecutorService analysisExecutor;
+
     private static final Logger logger = LoggerFactory.getLogger(AiSuggestionController.class);
 
     /**
@@ -175,10 +184,24 @@ public class AiSuggestionController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            // 获取所有类型的建议
-            Map<String, Object> dataTypeSuggestions = aiSuggestionService.analyzeDataTypesAndSuggest(file);
-            Map<String, Object> formattingSuggestions = aiSuggestionService.getFormattingSuggestions(file);
-            Map<String, Object> performanceSuggestions = aiSuggestionService.getPerformanceSuggestions(file);
+            // 在请求线程上只读取一次工作簿，子任务只使用读取结果，不再访问工作簿
+            AiSuggestionService.WorkbookSnapshot snapshot = aiSuggestionService.snapshot(file);
+
+            // 三类建议相互独立，并行请求AI；任一失败时取消其余请求
+            Map<String, Object> dataTypeSuggestions;
+            Map<String, Object> formattingSuggestions;
+            Map<String, Object> performanceSuggestions;
+            try (TaskScope scope = new TaskScope(analysisExecutor)) {
+                Future<Map<String, Object>> dataTypes = scope.fork(() -> aiSuggestionService.analyzeDataTypesAndSuggest(file, snapshot));
+                Future<Map<String, Object>> formatting = scope.fork(() -> aiSuggestionService.getFormattingSuggestions(file, snapshot));
+                Future<Map<String, Object>> performance = scope.fork(() -> aiSuggestionService.getPerformanceSuggestions(file, snapshot));
+                scope.join();
+                dataTypeSuggestions = dataTypes.get();
+                formattingSuggestions = formatting.get();
+                performanceSuggestions = performance.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
 
             // 组合结果
             Map<String, Object> result = Map.of(
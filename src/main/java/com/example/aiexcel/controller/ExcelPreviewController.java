@@ -1,15 +1,24 @@
 package com.example.aiexcel.controller;
 
 import com.example.aiexcel.service.ExcelPreviewService;
+import com.example.aiexcel.service.excel.WorkbookCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Excel预览控制器
@@ -22,8 +31,16 @@ public class ExcelPreviewController {
     @Autowired
     private ExcelPreviewService excelPreviewService;
 
+    @Autowired
+    private WorkbookCache workbookCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     private static final Logger logger = LoggerFactory.getLogger(ExcelPreviewController.class);
 
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
     /**
      * 获取Excel文件的预览数据
      */
@@ -64,6 +81,58 @@ public class ExcelPreviewController {
         }
     }
 
+    /**
+     * 获取工作表的一个可见窗口（分页预览）
+     * 可通过sheet或sheetIndex选择工作表；cursor为上一次响应中的nextCursor/previousCursor，提供时忽略其他窗口参数
+     */
+    @GetMapping("/preview-window")
+    public ResponseEntity<Map<String, Object>> previewWindow(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "sheet", required = false) String sheet,
+            @RequestParam(value = "sheetIndex", defaultValue = "0") int sheetIndex,
+            @RequestParam(value = "startRow", defaultValue = "0") int startRow,
+            @RequestParam(value = "startCol", defaultValue = "0") int startCol,
+            @RequestParam(value = "rows", defaultValue = "100") int rows,
+            @RequestParam(value = "cols", defaultValue = "50") int cols,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        logger.info("Received request to preview window of Excel file: {}, sheet: {}, row: {}, col: {}",
+                   file.getOriginalFilename(), sheet != null ? sheet : sheetIndex, startRow, startCol);
+
+        try {
+            // 验证文件
+            if (file.isEmpty()) {
+                logger.error("File is empty");
+                Map<String, Object> response = Map.of(
+                    "success", false,
+                    "error", "File is empty"
+                );
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            Map<String, Object> window = excelPreviewService.getPreviewWindow(
+                file, sheet, sheetIndex, startRow, startCol, rows, cols, cursor);
+            if (!Boolean.TRUE.equals(window.get("success"))) {
+                logger.error("Invalid preview window request: {}", window.get("error"));
+                return ResponseEntity.badRequest().body(window);
+            }
+            return ResponseEntity.ok(window);
+        } catch (IOException e) {
+            logger.error("IO error while previewing Excel window: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error reading Excel file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.error("Error while previewing Excel window: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error processing Excel file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
     /**
      * 获取单元格格式信息
      */
@@ -119,43 +188,11 @@ public class ExcelPreviewController {
         logger.info("Received request to get bulk cell format for file: {}", file.getOriginalFilename());
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
-                Map<String, Object> response = Map.of(
-                    "success", false,
-                    "error", "File is empty"
-                );
-                return ResponseEntity.badRequest().body(response);
-            }
-
-            // 获取单元格范围信息
-            @SuppressWarnings("unchecked")
-            Map<String, Integer> range = (Map<String, Integer>) requestBody.get("range");
-            if (range == null) {
-                logger.error("Range information is null");
-                Map<String, Object> response = Map.of(
-                    "success", false,
-                    "error", "Range information is required"
-                );
-                return ResponseEntity.badRequest().body(response);
-            }
-
-            int startRow = range.getOrDefault("startRow", 0);
-            int startCol = range.getOrDefault("startCol", 0);
-            int endRow = range.getOrDefault("endRow", startRow);
-            int endCol = range.getOrDefault("endCol", startCol);
-
-            // 验证范围参数
-            if (startRow < 0 || startCol < 0 || endRow < startRow || endCol < startCol) {
-                logger.error("Invalid range parameters: startRow={}, startCol={}, endRow={}, endCol={}",
-                            startRow, startCol, endRow, endCol);
-                Map<String, Object> response = Map.of(
-                    "success", false,
-                    "error", "Invalid range parameters"
-                );
-                return ResponseEntity.badRequest().body(response);
-            }
+            int[] range = bulkRange(file, requestBody);
+            int startRow = range[0];
+            int startCol = range[1];
+            int endRow = range[2];
+            int endCol = range[3];
 
             // 调用服务获取批量格式信息
             Map<String, Object> formatData = excelPreviewService.getBulkCellFormat(
@@ -166,6 +203,11 @@ public class ExcelPreviewController {
             logger.info("Successfully returned bulk cell format data for range ({}, {}) to ({}, {})",
                        startRow, startCol, endRow, endCol);
             return ResponseEntity.ok(formatData);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
         } catch (IOException e) {
             logger.error("IO error while getting bulk cell format: {}", e.getMessage(), e);
             Map<String, Object> response = Map.of(
@@ -182,4 +224,148 @@ public class ExcelPreviewController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取多个单元格的格式信息，返回样式表加游程编码的样式序号矩阵
+     * 响应体在写出时才序列化，客户端接受gzip时直接压缩写入响应
+     */
+    @PostMapping(value = "/bulk-cell-format", params = "encoding=compact")
+    public ResponseEntity<StreamingResponseBody> getBulkCellFormatCompact(
+            @RequestParam("file") MultipartFile file,
+            @RequestBody Map<String, Object> requestBody,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        logger.info("Received request to get compact bulk cell format for file: {}", file.getOriginalFilename());
+
+        Map<String, Object> response;
+        try {
+            int[] range = bulkRange(file, requestBody);
+            Map<String, Object> formatData = excelPreviewService.getBulkCellFormatCompact(
+                file, range[0], range[1], range[2], range[3]);
+            formatData.put("success", true);
+
+            logger.info("Successfully returned compact bulk cell format data for range ({}, {}) to ({}, {}) with {} styles",
+                       range[0], range[1], range[2], range[3], ((List<?>) formatData.get("styles")).size());
+            return compactResponse(formatData, acceptEncoding);
+        } catch (IllegalArgumentException e) {
+            response = Map.of(
+                "success", false,
+                "error", e.getMessage()
+            );
+        } catch (IOException e) {
+            logger.error("IO error while getting compact bulk cell format: {}", e.getMessage(), e);
+            response = Map.of(
+                "success", false,
+                "error", "Error reading Excel file: " + e.getMessage()
+            );
+        } catch (Exception e) {
+            logger.error("Error while getting compact bulk cell format: {}", e.getMessage(), e);
+            response = Map.of(
+                "success", false,
+                "error", "Error processing request: " + e.getMessage()
+            );
+        }
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> objectMapper.writeValue(outputStream, response));
+    }
+
+    /**
+     * 校验批量格式请求，返回 {startRow, startCol, endRow, endCol}
+     * @throws IllegalArgumentException 文件为空或范围不合法，消息直接返回给客户端
+     */
+    private int[] bulkRange(MultipartFile file, Map<String, Object> requestBody) {
+        // 验证文件
+        if (file.isEmpty()) {
+            logger.error("File is empty");
+            throw new IllegalArgumentException("File is empty");
+        }
+
+        // 获取单元格范围信息
+        @SuppressWarnings("unchecked")
+        Map<String, Integer> range = (Map<String, Integer>) requestBody.get("range");
+        if (range == null) {
+            logger.error("Range information is null");
+            throw new IllegalArgumentException("Range information is required");
+        }
+
+        int startRow = range.getOrDefault("startRow", 0);
+        int startCol = range.getOrDefault("startCol", 0);
+        int endRow = range.getOrDefault("endRow", startRow);
+        int endCol = range.getOrDefault("endCol", startCol);
+
+        // 验证范围参数
+        if (startRow < 0 || startCol < 0 || endRow < startRow || endCol < startCol) {
+            logger.error("Invalid range parameters: startRow={}, startCol={}, endRow={}, endCol={}",
+                        startRow, startCol, endRow, endCol);
+            throw new IllegalArgumentException("Invalid range parameters");
+        }
+        return new int[]{startRow, startCol, endRow, endCol};
+    }
+
+    /**
+     * 紧凑格式的响应，写出时直接序列化到响应流；客户端接受gzip时边序列化边压缩，不在内存中缓冲整个响应体
+     */
+    private ResponseEntity<StreamingResponseBody> compactResponse(Map<String, Object> formatData, String acceptEncoding) {
+        if (!acceptsGzip(acceptEncoding)) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .body(outputStream -> objectMapper.writeValue(outputStream, formatData));
+        }
+        StreamingResponseBody body = outputStream -> {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE)) {
+                objectMapper.writeValue(gzip, formatData);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .body(body);
+    }
+
+    /**
+     * Accept-Encoding是否允许gzip：gzip（或x-gzip）的q值大于0，没有列出时看通配符*的q值
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+            } else if (coding.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    /**
+     * 获取已解析工作簿缓存的统计信息（命中率、占用等）
+     */
+    @GetMapping("/cache-stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> response = new HashMap<>(workbookCache.getStats());
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
+}
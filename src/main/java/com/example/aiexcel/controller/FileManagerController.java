@@ -3,13 +3,28 @@ package com.example.aiexcel.controller;
 import com.example.aiexcel.model.FileWorkspace;
 import com.example.aiexcel.model.WorkspaceFile;
 import com.example.aiexcel.service.FileManagerService;
+import com.example.aiexcel.service.WorkbookHandleService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,8 +40,17 @@ public class FileManagerController {
     @Autowired
     private FileManagerService fileManagerService;
 
+    @Autowired
+    private WorkbookHandleService workbookHandleService;
+
     private static final Logger logger = LoggerFactory.getLogger(FileManagerController.class);
 
+    // Tomcat的sendfile请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     /**
      * 创建新工作区
      */
@@ -604,4 +628,86 @@ public class FileManagerController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 下载工作区文件
+     * 内容直接从文件存储发送：容器支持sendfile时交给Tomcat零拷贝发送，否则用FileChannel.transferTo写出，
+     * 都不会把整个文件读入堆内存
+     */
+    @GetMapping("/file/{fileId}/download")
+    public void downloadFile(@PathVariable Long fileId, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        logger.info("Received request to download file ID: {}", fileId);
+
+        Optional<WorkspaceFile> fileOpt = fileManagerService.getWorkspaceFile(fileId);
+        Path path = fileOpt.map(fileManagerService::getContentPath).orElse(null);
+        if (path == null) {
+            logger.warn("File ID {} not found or has no stored content", fileId);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long size = Files.size(path);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+            .filename(fileOpt.get().getFileName(), StandardCharsets.UTF_8).build().toString());
+        response.setContentLengthLong(size);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, size);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * 把工作区文件打开为工作簿句柄，之后的请求可以用句柄代替重新上传
+     */
+    @PostMapping("/file/{fileId}/handle")
+    public ResponseEntity<Map<String, Object>> openFileAsHandle(@PathVariable Long fileId) {
+        logger.info("Received request to open file ID: {} as workbook handle", fileId);
+
+        try {
+            Optional<WorkspaceFile> fileOpt = fileManagerService.getWorkspaceFile(fileId);
+            MultipartFile file = fileOpt.isPresent() ? fileManagerService.openWorkspaceFile(fileOpt.get()) : null;
+            if (file == null) {
+                Map<String, Object> response = Map.of(
+                    "success", false,
+                    "error", "File not found or has no stored content"
+                );
+                return ResponseEntity.status(404).body(response);
+            }
+
+            Map<String, Object> response = new HashMap<>(workbookHandleService.store(file));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Error opening file ID {} as workbook handle: {}", fileId, e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error opening file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 获取文件存储的统计信息
+     */
+    @GetMapping("/storage-stats")
+    public ResponseEntity<Map<String, Object>> getStorageStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", fileManagerService.getStorageStats()
+        );
+        return ResponseEntity.ok(response);
+    }
+}
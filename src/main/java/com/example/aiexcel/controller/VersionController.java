@@ -265,9 +265,10 @@ public class VersionController {
         try {
             FileVersion version = versionService.getVersion(fileId, versionNumber);
             
-            if (version != null && version.getFileContent() != null) {
-                // 解码文件内容
-                byte[] fileContent = java.util.Base64.getDecoder().decode(version.getFileContent());
+            if (version != null && (version.getContentManifest() != null || version.getCellDelta() != null
+                    || version.getFileContent() != null)) {
+                // 还原文件内容
+                byte[] fileContent = versionService.getVersionContent(version);
                 ByteArrayResource resource = new ByteArrayResource(fileContent);
 
                 return ResponseEntity.ok()
@@ -285,6 +286,27 @@ public class VersionController {
         }
     }
 
+    /**
+     * 获取版本内容存储的统计信息
+     */
+    @GetMapping("/storage-stats")
+    public ResponseEntity<Map<String, Object>> getStorageStats() {
+        try {
+            Map<String, Object> response = Map.of(
+                "success", true,
+                "data", versionService.getStorageStats()
+            );
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Error retrieving version storage stats: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error retrieving version storage stats: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
     /**
      * 比较两个版本
      */
@@ -296,7 +318,7 @@ public class VersionController {
         logger.info("Received request to compare versions {} and {} for file: {}", version1, version2, fileId);
 
         try {
-            String comparison = versionService.compareVersions(fileId, version1, version2);
+            Map<String, Object> comparison = versionService.compareVersions(fileId, version1, version2);
 
             if (comparison != null) {
                 Map<String, Object> response = Map.of(
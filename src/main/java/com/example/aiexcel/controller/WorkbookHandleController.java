@@ -0,0 +1,87 @@
+package com.example.aiexcel.controller;
+
+import com.example.aiexcel.service.WorkbookHandleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 工作簿句柄控制器
+ * 上传一次文件获得句柄，之后的 /api/excel/*、/api/ai/*、/api/analysis/* 等接口
+ * 可以用 handle 参数（或 X-Workbook-Handle 请求头）代替 file 参数
+ */
+@RestController
+@RequestMapping("/api/workbooks")
+public class WorkbookHandleController {
+
+    @Autowired
+    private WorkbookHandleService workbookHandleService;
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookHandleController.class);
+
+    /**
+     * 上传工作簿并返回句柄
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> uploadWorkbook(@RequestParam("file") MultipartFile file) {
+        logger.info("Received request to store workbook: {}", file.getOriginalFilename());
+        try {
+            Map<String, Object> response = new HashMap<>(workbookHandleService.store(file));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Error storing workbook: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error storing workbook: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 获取句柄信息（同时刷新过期时间）
+     */
+    @GetMapping("/{handle}")
+    public ResponseEntity<Map<String, Object>> getWorkbookHandle(@PathVariable String handle) {
+        Map<String, Object> info = workbookHandleService.getHandleInfo(handle);
+        if (info == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                "success", false,
+                "error", "Workbook handle not found or expired: " + handle
+            ));
+        }
+        Map<String, Object> response = new HashMap<>(info);
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 释放句柄
+     */
+    @DeleteMapping("/{handle}")
+    public ResponseEntity<Map<String, Object>> releaseWorkbookHandle(@PathVariable String handle) {
+        boolean released = workbookHandleService.release(handle);
+        return ResponseEntity.ok(Map.of(
+            "success", released,
+            "handle", handle
+        ));
+    }
+
+    /**
+     * 句柄存储统计信息
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> response = new HashMap<>(workbookHandleService.getStats());
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
+}
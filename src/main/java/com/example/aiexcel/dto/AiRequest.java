@@ -10,6 +10,8 @@ public class AiRequest {
     private Integer maxTokens;
     private Boolean stream;
     private Map<String, Object> parameters;
+    // 同一输入的回答可以复用（如文件分析），由AI响应缓存缓存，不改变采样参数
+    private boolean cacheable;
 
     // Constructors
     public AiRequest() {}
@@ -71,6 +73,14 @@ public class AiRequest {
         this.parameters = parameters;
     }
 
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+    }
+
     // Inner Message class
     public static class Message {
         private String role;
@@ -0,0 +1,107 @@
+package com.example.aiexcel.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * 版本内容的数据块
+ * 以未压缩内容的SHA-256为主键，多个版本共享同一数据块，refCount记录引用它的版本数
+ */
+@Entity
+@Table(name = "content_chunks")
+public class ContentChunk {
+
+    @Id
+    @Column(name = "hash", length = 64)
+    private String hash;
+
+    @Lob
+    @Column(name = "data", nullable = false)
+    private byte[] data;
+
+    @Column(name = "raw_size", nullable = false)
+    private Integer rawSize;
+
+    @Column(name = "stored_size", nullable = false)
+    private Integer storedSize;
+
+    @Column(name = "compressed", nullable = false)
+    private Boolean compressed;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public ContentChunk() {}
+
+    public ContentChunk(String hash, byte[] data, Integer rawSize, Boolean compressed) {
+        this.hash = hash;
+        this.data = data;
+        this.rawSize = rawSize;
+        this.storedSize = data.length;
+        this.compressed = compressed;
+        this.refCount = 1;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public Integer getRawSize() {
+        return rawSize;
+    }
+
+    public void setRawSize(Integer rawSize) {
+        this.rawSize = rawSize;
+    }
+
+    public Integer getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(Integer storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public Boolean getCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(Boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(Integer refCount) {
+        this.refCount = refCount;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.aiexcel.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -28,9 +29,22 @@ public class FileVersion {
     @Column(name = "file_name", nullable = false)
     private String fileName;
 
-    @Column(name = "file_content", length = 100000) // 存储Base64编码的文件内容
+    @Column(name = "file_content", length = 100000) // 旧版本存储的Base64编码文件内容，新版本为空
     private String fileContent;
 
+    @Lob
+    @JsonIgnore
+    @Column(name = "content_manifest") // 内容在ChunkStore中的数据块清单
+    private String contentManifest;
+
+    @Column(name = "base_version_number") // 增量版本所基于的版本号，完整快照为空
+    private Integer baseVersionNumber;
+
+    @Lob
+    @JsonIgnore
+    @Column(name = "cell_delta") // 相对基准版本的单元格增量（CellDelta）
+    private byte[] cellDelta;
+
     @Column(name = "file_size")
     private Long fileSize;
 
@@ -103,6 +117,30 @@ public class FileVersion {
         this.fileContent = fileContent;
     }
 
+    public String getContentManifest() {
+        return contentManifest;
+    }
+
+    public void setContentManifest(String contentManifest) {
+        this.contentManifest = contentManifest;
+    }
+
+    public Integer getBaseVersionNumber() {
+        return baseVersionNumber;
+    }
+
+    public void setBaseVersionNumber(Integer baseVersionNumber) {
+        this.baseVersionNumber = baseVersionNumber;
+    }
+
+    public byte[] getCellDelta() {
+        return cellDelta;
+    }
+
+    public void setCellDelta(byte[] cellDelta) {
+        this.cellDelta = cellDelta;
+    }
+
     public Long getFileSize() {
         return fileSize;
     }
@@ -29,6 +29,9 @@ public class WorkspaceFile {
     @Column(name = "file_size")
     private Long fileSize;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "file_type")
     private String fileType;
 
@@ -122,6 +125,14 @@ public class WorkspaceFile {
         this.fileSize = fileSize;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String getFileType() {
         return fileType;
     }
@@ -0,0 +1,47 @@
+package com.example.aiexcel.repository;
+
+import com.example.aiexcel.model.ContentChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 版本内容数据块仓库
+ */
+@Repository
+public interface ContentChunkRepository extends JpaRepository<ContentChunk, String> {
+
+    /**
+     * 已存在的数据块哈希（不加载数据）
+     */
+    @Query("SELECT c.hash FROM ContentChunk c WHERE c.hash IN :hashes")
+    List<String> findExistingHashes(@Param("hashes") Collection<String> hashes);
+
+    /**
+     * 调整数据块的引用计数
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ContentChunk c SET c.refCount = c.refCount + :delta WHERE c.hash IN :hashes")
+    int addToRefCount(@Param("hashes") Collection<String> hashes, @Param("delta") int delta);
+
+    /**
+     * 删除不再被任何版本引用的数据块
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ContentChunk c WHERE c.hash IN :hashes AND c.refCount <= 0")
+    int deleteUnreferenced(@Param("hashes") Collection<String> hashes);
+
+    /**
+     * 数据块总数和压缩后的总字节数
+     */
+    @Query("SELECT COUNT(c), COALESCE(SUM(c.storedSize), 0), COALESCE(SUM(c.rawSize), 0) FROM ContentChunk c")
+    List<Object[]> summarize();
+}
@@ -2,6 +2,8 @@ package com.example.aiexcel.repository;
 
 import com.example.aiexcel.model.FileVersion;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -40,5 +42,6 @@ public interface VersionRepository extends JpaRepository<FileVersion, Long> {
     /**
      * 获取最新版本号
      */
-    Integer findMaxVersionNumberByFileId(String fileId);
+    @Query("SELECT MAX(v.versionNumber) FROM FileVersion v WHERE v.fileId = :fileId")
+    Integer findMaxVersionNumberByFileId(@Param("fileId") String fileId);
 }
\ No newline at end of file
@@ -69,4 +69,9 @@ public interface WorkspaceFileRepository extends JpaRepository<WorkspaceFile, Lo
      * 获取工作区中文件总数
      */
     int countByWorkspaceId(Long workspaceId);
-}
\ No newline at end of file
+
+    /**
+     * 引用同一内容的文件数
+     */
+    int countByContentHash(String contentHash);
+}
@@ -14,6 +14,7 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -60,7 +61,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, cleaningInstructions);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -90,7 +91,13 @@ public class AiAdvancedOperationsService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
 
             // 解析并执行AI返回的Excel操作命令
-            var commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                // 工作簿只在本次请求内使用，释放命令执行时登记的公式计算器
+                excelService.releaseFormulaEvaluator(workbook);
+            }
 
             result.put("aiResponse", aiResponseContent);
             result.put("cleaningInstructions", cleaningInstructions);
@@ -138,7 +145,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, transformationInstructions);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -168,7 +175,13 @@ public class AiAdvancedOperationsService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
 
             // 解析并执行AI返回的Excel操作命令
-            var commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                // 工作簿只在本次请求内使用，释放命令执行时登记的公式计算器
+                excelService.releaseFormulaEvaluator(workbook);
+            }
 
             result.put("aiResponse", aiResponseContent);
             result.put("transformationInstructions", transformationInstructions);
@@ -216,7 +229,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, analysisInstructions);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -246,7 +259,13 @@ public class AiAdvancedOperationsService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
 
             // 解析并执行AI返回的Excel操作命令
-            var commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                // 工作簿只在本次请求内使用，释放命令执行时登记的公式计算器
+                excelService.releaseFormulaEvaluator(workbook);
+            }
 
             result.put("aiResponse", aiResponseContent);
             result.put("analysisInstructions", analysisInstructions);
@@ -294,7 +313,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, chartInstructions);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -324,7 +343,13 @@ public class AiAdvancedOperationsService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
 
             // 解析并执行AI返回的Excel操作命令
-            var commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                // 工作簿只在本次请求内使用，释放命令执行时登记的公式计算器
+                excelService.releaseFormulaEvaluator(workbook);
+            }
 
             result.put("aiResponse", aiResponseContent);
             result.put("chartInstructions", chartInstructions);
@@ -372,7 +397,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, validationInstructions);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -402,7 +427,13 @@ public class AiAdvancedOperationsService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
 
             // 解析并执行AI返回的Excel操作命令
-            var commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                // 工作簿只在本次请求内使用，释放命令执行时登记的公式计算器
+                excelService.releaseFormulaEvaluator(workbook);
+            }
 
             result.put("aiResponse", aiResponseContent);
             result.put("validationInstructions", validationInstructions);
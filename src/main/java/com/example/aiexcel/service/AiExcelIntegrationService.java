@@ -3,21 +3,30 @@ package com.example.aiexcel.service;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
 import com.example.aiexcel.service.analysis.CustomerAnalysisService;
 import com.example.aiexcel.service.analysis.FinancialAnalysisService;
+import com.example.aiexcel.service.command.EditRecorder;
+import com.example.aiexcel.service.excel.ColumnarTable;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.TableQuery;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 @SuppressWarnings("unused")
@@ -26,6 +35,10 @@ public class AiExcelIntegrationService {
 
     private static final Logger logger = LoggerFactory.getLogger(AiExcelIntegrationService.class);
 
+    // 本地排序、筛选结果的默认和最大每页行数
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
     @Autowired
     private AiService aiService;
 
@@ -56,10 +69,14 @@ public class AiExcelIntegrationService {
     @Autowired
     private FileManagerService fileManagerService;
 
+    @Value("${excel.write.row-window:100}")
+    private int streamingRowWindow;
+
     public Map<String, Object> processExcelWithAI(MultipartFile file, String command) throws IOException {
         logger.info("Starting AI Excel processing for command: {}", command);
 
         Map<String, Object> result = new HashMap<>();
+        Workbook workbook = null;
 
         try {
             // 1. Validate inputs
@@ -80,11 +97,11 @@ public class AiExcelIntegrationService {
             logger.debug("Loading Excel file: {}", file.getOriginalFilename());
 
             // 2. 加载Excel文件
-            Workbook workbook = excelService.loadWorkbook(file);
+            workbook = excelService.loadWorkbook(file);
             logger.debug("Excel file loaded successfully");
 
             // 3. 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, command);
             logger.debug("Excel data extracted, length: {}", excelData.length());
 
             // 4. 构建AI请求
@@ -115,16 +132,16 @@ public class AiExcelIntegrationService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
             logger.debug("AI response received, length: {}", aiResponseContent.length());
 
-            // 保存操作前的工作簿副本用于历史记录
-            Workbook workbookBefore = cloneWorkbook(workbook);
-
-            // 6. 解析并执行AI返回的Excel操作命令
-            List<AiExcelCommandParser.CommandResult> commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            // 6. 解析并执行AI返回的Excel操作命令，记录被修改的单元格及其修改前的内容（用于撤销）
+            WorkbookChangeSet changes = new WorkbookChangeSet();
+            EditRecorder recorder = new EditRecorder();
+            List<AiExcelCommandParser.CommandResult> commandResults =
+                    aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent, changes, recorder);
             logger.debug("AI commands executed, {} commands processed", commandResults.size());
 
-            // 6.5. 计算工作簿中所有公式，将结果替换公式
-            excelService.evaluateAllFormulasInWorkbook(workbook);
-            logger.debug("All formulas in workbook have been evaluated and replaced with results");
+            // 6.5. 只重算被修改单元格及其依赖的公式
+            int recalculated = excelService.recalculateFormulas(workbook, changes);
+            logger.debug("Recalculated {} formulas affected by AI changes", recalculated);
 
             // 7. 保存修改后的Excel文件
             String outputFileName = "modified_" + file.getOriginalFilename();
@@ -137,7 +154,7 @@ public class AiExcelIntegrationService {
 
             // 9. 记录操作历史
             String parameters = "command=" + command + "; aiResponse=" + aiResponseContent;
-            operationHistoryService.recordOperationWithWorkbooks(fileId, "AI_PROCESSING", parameters, workbookBefore, workbook);
+            operationHistoryService.recordEdit(fileId, "AI_PROCESSING", parameters, workbook, recorder.finish(), outputFileName);
             logger.debug("Operation history recorded for file ID: {}", fileId);
 
             // 10. 创建新版本
@@ -163,6 +180,10 @@ public class AiExcelIntegrationService {
             logger.error("Error during AI Excel processing: {}", e.getMessage(), e);
             result.put("success", false);
             result.put("error", "Error occurred: " + e.getMessage());
+        } finally {
+            if (workbook != null) {
+                excelService.releaseFormulaEvaluator(workbook);
+            }
         }
 
         return result;
@@ -243,12 +264,9 @@ public class AiExcelIntegrationService {
                 return result;
             }
 
-            // 加载Excel文件
+            // 流式读取Excel数据
             logger.debug("Loading Excel file for analysis: {}", file.getOriginalFilename());
-            Workbook workbook = excelService.loadWorkbook(file);
-
-            // 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(file, analysisRequest);
             logger.debug("Excel data extracted for analysis, length: {}", excelData.length());
 
             AiRequest aiRequest = new AiRequest();
@@ -291,11 +309,8 @@ public class AiExcelIntegrationService {
     public Map<String, Object> suggestChartForData(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 流式读取Excel数据（不构建Workbook）
+        String excelData = excelService.getPromptContext(file, null);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -319,21 +334,15 @@ public class AiExcelIntegrationService {
     }
 
     public Object[][] getExcelDataAsArray(MultipartFile file) throws IOException {
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据为数组
-        return excelService.getExcelDataAsArray(workbook);
+        // 流式读取Excel数据为数组
+        return excelService.getExcelDataAsArray(file);
     }
 
     public Map<String, Object> createChartForData(MultipartFile file, String chartType, String targetColumn) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 流式读取Excel数据（不构建Workbook）
+        String excelData = excelService.getPromptContext(file, null);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -360,13 +369,142 @@ public class AiExcelIntegrationService {
     }
 
     public Map<String, Object> sortExcelData(MultipartFile file, String sortColumn, String sortOrder) throws IOException {
+        return sortExcelData(file, sortColumn, sortOrder, null, 1, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * 在服务端直接排序，返回排序后的一页数据
+     * 排序列可以是列名或列字母，多列用逗号分隔；无法识别的列（如自然语言描述）才交给AI给出排序步骤
+     * @param sheetName 工作表名称，为空时使用第一个工作表
+     * @param page 页码，从1开始
+     */
+    public Map<String, Object> sortExcelData(MultipartFile file, String sortColumn, String sortOrder,
+                                             String sheetName, int page, int pageSize) throws IOException {
+        ColumnarTable table = selectTable(file, sheetName);
+        List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, sortColumn, sortOrder);
+        if (keys == null) {
+            logger.info("Sort column '{}' not found in sheet {}, asking AI for sort instructions", sortColumn, table.getSheetName());
+            return requestSortInstructions(file, sortColumn, sortOrder);
+        }
+
+        long start = System.nanoTime();
+        int[] rows = TableQuery.sort(table, TableQuery.allRows(table), keys);
+        Map<String, Object> result = pageOf(table, rows, page, pageSize, start);
+        result.put("sortColumn", sortColumn);
+        result.put("sortOrder", sortOrder);
+        return result;
+    }
+
+    public Map<String, Object> filterExcelData(MultipartFile file, String filterColumn, String filterCondition, String filterValue) throws IOException {
+        return filterExcelData(file, filterColumn, filterCondition, filterValue, null, 1, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * 在服务端直接筛选，返回匹配行中的一页数据
+     * 条件支持 equals、contains、greater_than、between 等名称或 =、>= 等符号；列或条件无法识别时交给AI给出筛选步骤
+     * @param sheetName 工作表名称，为空时使用第一个工作表
+     * @param page 页码，从1开始
+     */
+    public Map<String, Object> filterExcelData(MultipartFile file, String filterColumn, String filterCondition, String filterValue,
+                                               String sheetName, int page, int pageSize) throws IOException {
+        ColumnarTable table = selectTable(file, sheetName);
+        int column = TableQuery.resolveColumn(table, filterColumn);
+        TableQuery.Condition condition = TableQuery.Condition.from(filterCondition);
+        if (column < 0 || condition == null) {
+            logger.info("Filter '{} {} {}' not understood for sheet {}, asking AI for filter instructions",
+                    filterColumn, filterCondition, filterValue, table.getSheetName());
+            return requestFilterInstructions(file, filterColumn, filterCondition, filterValue);
+        }
+
+        long start = System.nanoTime();
+        int[] rows = TableQuery.rows(TableQuery.filter(table, column, condition, filterValue));
+        Map<String, Object> result = pageOf(table, rows, page, pageSize, start);
+        result.put("filterColumn", filterColumn);
+        result.put("filterCondition", filterCondition);
+        result.put("filterValue", filterValue);
+        return result;
+    }
+
+    /**
+     * 先筛选再排序，得到结果行；排序和筛选参数都可以为空
+     * 列或条件无法识别时抛出IllegalArgumentException
+     */
+    public TableQuery.Selection selectSortedFiltered(MultipartFile file, String sheetName,
+                                                     String sortColumn, String sortOrder,
+                                                     String filterColumn, String filterCondition, String filterValue) throws IOException {
+        ColumnarTable table = selectTable(file, sheetName);
+        int[] rows = TableQuery.allRows(table);
+        if (filterColumn != null && !filterColumn.trim().isEmpty()) {
+            int column = TableQuery.resolveColumn(table, filterColumn);
+            if (column < 0) {
+                throw new IllegalArgumentException("Filter column not found: " + filterColumn);
+            }
+            TableQuery.Condition condition = TableQuery.Condition.from(filterCondition);
+            if (condition == null) {
+                throw new IllegalArgumentException("Unsupported filter condition: " + filterCondition);
+            }
+            rows = TableQuery.rows(TableQuery.filter(table, column, condition, filterValue));
+        }
+        if (sortColumn != null && !sortColumn.trim().isEmpty()) {
+            List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, sortColumn, sortOrder);
+            if (keys == null) {
+                throw new IllegalArgumentException("Sort column not found: " + sortColumn);
+            }
+            rows = TableQuery.sort(table, rows, keys);
+        }
+        return new TableQuery.Selection(table, rows);
+    }
+
+    /**
+     * 把结果行写成只含值的.xlsx，按SXSSF行窗口流式写出
+     */
+    public void writeSelection(TableQuery.Selection selection, OutputStream outputStream) throws IOException {
+        TableQuery.writeXlsx(selection.getTable(), selection.getRows(), outputStream, streamingRowWindow);
+    }
+
+    private ColumnarTable selectTable(MultipartFile file, String sheetName) throws IOException {
+        List<ColumnarTable> tables = excelService.getExcelDataAsTables(file);
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("Workbook contains no sheets");
+        }
+        if (sheetName == null || sheetName.trim().isEmpty()) {
+            return tables.get(0);
+        }
+        for (ColumnarTable table : tables) {
+            if (table.getSheetName().equals(sheetName)) {
+                return table;
+            }
+        }
+        throw new IllegalArgumentException("Sheet not found: " + sheetName);
+    }
+
+    private Map<String, Object> pageOf(ColumnarTable table, int[] rows, int page, int pageSize, long startNanos) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        int pageNumber = Math.max(1, page);
+        List<String> headers = new ArrayList<>(table.getColumnCount());
+        for (ColumnarTable.Column column : table.getColumns()) {
+            headers.add(column.getName());
+        }
+
         Map<String, Object> result = new HashMap<>();
+        result.put("sheetName", table.getSheetName());
+        result.put("headers", headers);
+        result.put("rows", TableQuery.toRows(table, rows, (int) Math.min(Integer.MAX_VALUE, (long) (pageNumber - 1) * size), size));
+        result.put("page", pageNumber);
+        result.put("pageSize", size);
+        result.put("totalRows", table.getRowCount());
+        result.put("matchedRows", rows.length);
+        result.put("elapsedMs", (System.nanoTime() - startNanos) / 1_000_000.0);
+        result.put("mode", "local");
+        result.put("success", true);
+        return result;
+    }
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    private Map<String, Object> requestSortInstructions(MultipartFile file, String sortColumn, String sortOrder) throws IOException {
+        Map<String, Object> result = new HashMap<>();
 
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 流式读取Excel数据（不构建Workbook）
+        String excelData = excelService.getPromptContext(file, null);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -387,19 +525,17 @@ public class AiExcelIntegrationService {
         result.put("sortInstructions", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("sortColumn", sortColumn);
         result.put("sortOrder", sortOrder);
+        result.put("mode", "ai");
         result.put("success", true);
 
         return result;
     }
 
-    public Map<String, Object> filterExcelData(MultipartFile file, String filterColumn, String filterCondition, String filterValue) throws IOException {
+    private Map<String, Object> requestFilterInstructions(MultipartFile file, String filterColumn, String filterCondition, String filterValue) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 流式读取Excel数据（不构建Workbook）
+        String excelData = excelService.getPromptContext(file, null);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -422,12 +558,34 @@ public class AiExcelIntegrationService {
         result.put("filterColumn", filterColumn);
         result.put("filterCondition", filterCondition);
         result.put("filterValue", filterValue);
+        result.put("mode", "ai");
         result.put("success", true);
 
         return result;
     }
 
     public String chatWithAI(String userMessage) {
+        AiResponse aiResponse = aiService.generateResponse(buildChatRequest(userMessage));
+        return aiResponse.getChoices()[0].getMessage().getContent();
+    }
+
+    /**
+     * 非阻塞的聊天，等待AI响应期间不占用调用线程
+     */
+    public CompletableFuture<String> chatWithAIAsync(String userMessage) {
+        return aiService.generateResponseAsync(buildChatRequest(userMessage))
+                .thenApply(aiResponse -> aiResponse.getChoices()[0].getMessage().getContent());
+    }
+
+    /**
+     * 流式聊天，AI每返回一个片段就交给监听器，future以完整回答结束
+     */
+    public CompletableFuture<String> streamChatWithAI(String userMessage, AiStreamListener listener) {
+        return aiService.streamResponse(buildChatRequest(userMessage), listener)
+                .thenApply(aiResponse -> aiResponse.getChoices()[0].getMessage().getContent());
+    }
+
+    private AiRequest buildChatRequest(String userMessage) {
         // 检查用户消息是否涉及表格操作
         String[] tableOperationKeywords = {"修改", "设置", "插入", "添加", "删除", "创建", "更新", "替换", "填充", "复制", "粘贴", "移动", "应用公式", "计算", "求和", "平均", "筛选", "排序", "格式化", "cell", "row", "column", "A1", "B2", "C3", "formula"};
 
@@ -464,8 +622,7 @@ public class AiExcelIntegrationService {
             new AiRequest.Message("user", userMessage)
         ));
 
-        AiResponse aiResponse = aiService.generateResponse(aiRequest);
-        return aiResponse.getChoices()[0].getMessage().getContent();
+        return aiRequest;
     }
 
     public Map<String, Object> performRFMAnalysis(MultipartFile file) throws IOException {
@@ -537,7 +694,7 @@ public class AiExcelIntegrationService {
             logger.debug("Excel file loaded successfully");
 
             // 3. 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(workbook, command);
             logger.debug("Excel data extracted, length: {}", excelData.length());
 
             // 4. 构建AI请求
@@ -568,13 +725,14 @@ public class AiExcelIntegrationService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
             logger.debug("AI response received, length: {}", aiResponseContent.length());
 
-            // 6. 解析并执行AI返回的Excel操作命令
-            List<AiExcelCommandParser.CommandResult> commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            // 6. 解析并执行AI返回的Excel操作命令，记录被修改的单元格
+            WorkbookChangeSet changes = new WorkbookChangeSet();
+            List<AiExcelCommandParser.CommandResult> commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent, changes);
             logger.debug("AI commands executed, {} commands processed", commandResults.size());
 
-            // 6.5. 计算工作簿中所有公式，将结果替换公式
-            excelService.evaluateAllFormulasInWorkbook(workbook);
-            logger.debug("All formulas in workbook have been evaluated and replaced with results");
+            // 6.5. 只重算被修改单元格及其依赖的公式
+            int recalculated = excelService.recalculateFormulas(workbook, changes);
+            logger.debug("Recalculated {} formulas affected by AI changes", recalculated);
 
             logger.info("Excel workbook with AI changes generated successfully for command: {}", command);
 
@@ -591,10 +749,15 @@ public class AiExcelIntegrationService {
     }
 
     /**
-     * 将工作簿转换为字节数组
+     * 将工作簿直接写出到输出流（如HTTP响应流），不经过中间字节数组
+     * 工作簿已完整加载在内存中，按原格式直接写出，超链接、批注、数据验证、条件格式和图表都会保留
      */
-    public byte[] getExcelAsBytes(Workbook workbook, String originalFilename) throws IOException {
-        return excelService.getWorkbookAsBytes(workbook);
+    public void writeExcel(Workbook workbook, OutputStream outputStream) throws IOException {
+        try {
+            excelService.writeWorkbook(workbook, outputStream);
+        } finally {
+            excelService.releaseFormulaEvaluator(workbook);
+        }
     }
 
     /**
@@ -603,20 +766,7 @@ public class AiExcelIntegrationService {
      * @return 表头数组
      */
     public String[] getExcelHeaders(MultipartFile file) throws IOException {
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 通过ExcelService获取表头
-        return excelService.getExcelHeaders(workbook);
-    }
-
-    /**
-     * 克隆工作簿
-     * @param original 原始工作簿
-     * @return 克隆的工作簿
-     */
-    private Workbook cloneWorkbook(Workbook original) throws IOException {
-        byte[] workbookBytes = excelService.getWorkbookAsBytes(original);
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(workbookBytes));
+        // 通过ExcelService流式读取表头
+        return excelService.getExcelHeaders(file);
     }
 }
\ No newline at end of file
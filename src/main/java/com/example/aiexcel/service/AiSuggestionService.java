@@ -3,6 +3,7 @@ package com.example.aiexcel.service;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.excel.ColumnarTable;
 import com.example.aiexcel.service.excel.ExcelService;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
@@ -11,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -46,8 +48,7 @@ public class AiSuggestionService {
             }
 
             // 加载Excel数据
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = excelService.getPromptContext(file, context);
 
             // 构建AI请求
             List<AiRequest.Message> messages = new ArrayList<>();
@@ -75,6 +76,7 @@ public class AiSuggestionService {
             messages.add(new AiRequest.Message("user", userMessage));
 
             AiRequest aiRequest = new AiRequest();
+            aiRequest.setCacheable(true);
             aiRequest.setMessages(messages);
 
             // 发送请求到AI服务
@@ -103,6 +105,14 @@ public class AiSuggestionService {
      * 分析数据类型并提供相应建议
      */
     public Map<String, Object> analyzeDataTypesAndSuggest(MultipartFile file) {
+        return analyzeDataTypesAndSuggest(file, null);
+    }
+
+    /**
+     * 分析数据类型并提供相应建议
+     * @param snapshot 已读取的工作簿分析结果，为null时从文件读取
+     */
+    public Map<String, Object> analyzeDataTypesAndSuggest(MultipartFile file, WorkbookSnapshot snapshot) {
         logger.info("Analyzing data types and providing suggestions for file: {}", file.getOriginalFilename());
 
         Map<String, Object> result = new HashMap<>();
@@ -115,10 +125,9 @@ public class AiSuggestionService {
                 return result;
             }
 
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-            Sheet sheet = workbook.getSheetAt(0);
-
-            Map<String, DataTypeStats> dataTypeAnalysis = analyzeSheetDataTypes(sheet);
+            Map<String, DataTypeStats> dataTypeAnalysis = snapshot != null ? snapshot.dataTypes
+                    : excelService.readWorkbookReadOnly(file,
+                            workbook -> analyzeSheetDataTypes(ColumnarTable.fromSheet(workbook.getSheetAt(0), false)));
 
             // 构建AI请求以获取针对特定数据类型的建议
             StringBuilder analysisSummary = new StringBuilder();
@@ -141,6 +150,7 @@ public class AiSuggestionService {
             messages.add(new AiRequest.Message("user", userMessage));
 
             AiRequest aiRequest = new AiRequest();
+            aiRequest.setCacheable(true);
             aiRequest.setMessages(messages);
 
             AiResponse aiResponse = aiService.generateResponse(aiRequest);
@@ -168,6 +178,14 @@ public class AiSuggestionService {
      * 提供格式化建议
      */
     public Map<String, Object> getFormattingSuggestions(MultipartFile file) {
+        return getFormattingSuggestions(file, null);
+    }
+
+    /**
+     * 提供格式化建议
+     * @param snapshot 已读取的工作簿分析结果，为null时从文件读取
+     */
+    public Map<String, Object> getFormattingSuggestions(MultipartFile file, WorkbookSnapshot snapshot) {
         logger.info("Getting formatting suggestions for file: {}", file.getOriginalFilename());
 
         Map<String, Object> result = new HashMap<>();
@@ -180,11 +198,9 @@ public class AiSuggestionService {
                 return result;
             }
 
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-            Sheet sheet = workbook.getSheetAt(0);
-
             // 分析当前格式
-            Map<String, Object> currentFormatAnalysis = analyzeCurrentFormatting(sheet);
+            Map<String, Object> currentFormatAnalysis = snapshot != null ? snapshot.formatting
+                    : excelService.readWorkbookReadOnly(file, workbook -> analyzeCurrentFormatting(workbook.getSheetAt(0)));
 
             List<AiRequest.Message> messages = new ArrayList<>();
             messages.add(new AiRequest.Message("system",
@@ -200,6 +216,7 @@ public class AiSuggestionService {
             messages.add(new AiRequest.Message("user", userMessage));
 
             AiRequest aiRequest = new AiRequest();
+            aiRequest.setCacheable(true);
             aiRequest.setMessages(messages);
 
             AiResponse aiResponse = aiService.generateResponse(aiRequest);
@@ -227,6 +244,14 @@ public class AiSuggestionService {
      * 提供性能优化建议
      */
     public Map<String, Object> getPerformanceSuggestions(MultipartFile file) {
+        return getPerformanceSuggestions(file, null);
+    }
+
+    /**
+     * 提供性能优化建议
+     * @param snapshot 已读取的工作簿分析结果，为null时从文件读取
+     */
+    public Map<String, Object> getPerformanceSuggestions(MultipartFile file, WorkbookSnapshot snapshot) {
         logger.info("Getting performance suggestions for file: {}", file.getOriginalFilename());
 
         Map<String, Object> result = new HashMap<>();
@@ -239,21 +264,12 @@ public class AiSuggestionService {
                 return result;
             }
 
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-
             // 分析工作簿结构
-            int sheetCount = workbook.getNumberOfSheets();
-            int totalRows = 0;
-            int totalCells = 0;
-
-            for (int i = 0; i < sheetCount; i++) {
-                Sheet sheet = workbook.getSheetAt(i);
-                totalRows += sheet.getLastRowNum() + 1;
-                
-                for (Row row : sheet) {
-                    totalCells += row.getLastCellNum();
-                }
-            }
+            int[] statistics = snapshot != null ? snapshot.statistics
+                    : excelService.readWorkbookReadOnly(file, this::countStatistics);
+            int sheetCount = statistics[0];
+            int totalRows = statistics[1];
+            int totalCells = statistics[2];
 
             List<AiRequest.Message> messages = new ArrayList<>();
             messages.add(new AiRequest.Message("system",
@@ -279,6 +295,7 @@ public class AiSuggestionService {
             messages.add(new AiRequest.Message("user", userMessage));
 
             AiRequest aiRequest = new AiRequest();
+            aiRequest.setCacheable(true);
             aiRequest.setMessages(messages);
 
             AiResponse aiResponse = aiService.generateResponse(aiRequest);
@@ -306,6 +323,34 @@ public class AiSuggestionService {
         return result;
     }
 
+    /**
+     * 读取一次工作簿，得到数据类型、格式和结构三类建议所需的全部分析结果
+     * 综合分析并行请求三类建议时使用，避免每个子任务各自读取（并争用）同一个工作簿
+     */
+    public WorkbookSnapshot snapshot(MultipartFile file) throws IOException {
+        return excelService.readWorkbookReadOnly(file, workbook -> {
+            Sheet sheet = workbook.getSheetAt(0);
+            return new WorkbookSnapshot(analyzeSheetDataTypes(ColumnarTable.fromSheet(sheet, false)),
+                    analyzeCurrentFormatting(sheet), countStatistics(workbook));
+        });
+    }
+
+    /**
+     * 工作簿结构统计：工作表数、总行数、估算的单元格数
+     */
+    private int[] countStatistics(Workbook workbook) {
+        int[] counts = new int[] {workbook.getNumberOfSheets(), 0, 0};
+        for (int i = 0; i < counts[0]; i++) {
+            Sheet sheet = workbook.getSheetAt(i);
+            counts[1] += sheet.getLastRowNum() + 1;
+
+            for (Row row : sheet) {
+                counts[2] += row.getLastCellNum();
+            }
+        }
+        return counts;
+    }
+
     /**
      * 解析AI建议响应
      */
@@ -340,9 +385,9 @@ public class AiSuggestionService {
     }
 
     /**
-     * 分析工作表中的数据类型
+     * 分析工作表中的数据类型，公式单元格只计入formula
      */
-    private Map<String, DataTypeStats> analyzeSheetDataTypes(Sheet sheet) {
+    private Map<String, DataTypeStats> analyzeSheetDataTypes(ColumnarTable table) {
         Map<String, DataTypeStats> typeStats = new HashMap<>();
         typeStats.put("text", new DataTypeStats());
         typeStats.put("number", new DataTypeStats());
@@ -351,37 +396,20 @@ public class AiSuggestionService {
         typeStats.put("formula", new DataTypeStats());
         typeStats.put("empty", new DataTypeStats());
 
-        for (Row row : sheet) {
-            for (Cell cell : row) {
-                switch (cell.getCellType()) {
-                    case STRING:
-                        typeStats.get("text").increment();
-                        break;
-                    case NUMERIC:
-                        if (DateUtil.isCellDateFormatted(cell)) {
-                            typeStats.get("date").increment();
-                        } else {
-                            typeStats.get("number").increment();
-                        }
-                        break;
-                    case BOOLEAN:
-                        typeStats.get("boolean").increment();
-                        break;
-                    case FORMULA:
-                        typeStats.get("formula").increment();
-                        break;
-                    case BLANK:
-                        typeStats.get("empty").increment();
-                        break;
-                    default:
-                        break;
-                }
-            }
-        }
+        typeStats.get("text").add(literalCount(table, ColumnarTable.ValueType.TEXT));
+        typeStats.get("number").add(literalCount(table, ColumnarTable.ValueType.NUMBER));
+        typeStats.get("date").add(literalCount(table, ColumnarTable.ValueType.DATE));
+        typeStats.get("boolean").add(literalCount(table, ColumnarTable.ValueType.BOOLEAN));
+        typeStats.get("formula").add(table.countFormulaCells());
+        typeStats.get("empty").add(table.countBlankCells());
 
         return typeStats;
     }
 
+    private int literalCount(ColumnarTable table, ColumnarTable.ValueType type) {
+        return table.countCells(type) - table.countFormulaResults(type);
+    }
+
     /**
      * 分析当前格式设置
      */
@@ -439,6 +467,10 @@ public class AiSuggestionService {
             count++;
         }
 
+        public void add(int amount) {
+            count += amount;
+        }
+
         public void incrementEmpty() {
             emptyCount++;
         }
@@ -456,4 +488,19 @@ public class AiSuggestionService {
             return emptyCount;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 一次读取工作簿得到的分析结果，只包含普通值，不引用POI对象，可以交给多个线程使用
+     */
+    public static class WorkbookSnapshot {
+        private final Map<String, DataTypeStats> dataTypes;
+        private final Map<String, Object> formatting;
+        private final int[] statistics;
+
+        private WorkbookSnapshot(Map<String, DataTypeStats> dataTypes, Map<String, Object> formatting, int[] statistics) {
+            this.dataTypes = dataTypes;
+            this.formatting = formatting;
+            this.statistics = statistics;
+        }
+    }
+}
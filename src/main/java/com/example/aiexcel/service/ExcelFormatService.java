@@ -1,6 +1,7 @@
 package com.example.aiexcel.service;
 
 import com.example.aiexcel.model.FormatOptions;
+import com.example.aiexcel.service.excel.CellStyleCache;
 import com.example.aiexcel.service.excel.ExcelService;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
@@ -46,8 +47,8 @@ public class ExcelFormatService {
                 cell = row.createCell(colIndex);
             }
 
-            // 创建或获取现有的单元格样式
-            CellStyle cellStyle = createCellStyle(workbook, formatOptions, cell.getCellStyle());
+            // 在单元格原有样式上叠加格式（不修改与其他单元格共享的原样式）
+            CellStyle cellStyle = createCellStyle(new CellStyleCache(workbook), workbook, formatOptions, cell.getCellStyle());
 
             // 应用样式到单元格
             cell.setCellStyle(cellStyle);
@@ -76,24 +77,7 @@ public class ExcelFormatService {
                 return false;
             }
 
-            // 创建样式
-            CellStyle cellStyle = createCellStyle(workbook, formatOptions, null);
-
-            // 应用样式到范围内的所有单元格
-            for (int rowIndex = startRow; rowIndex <= endRow; rowIndex++) {
-                Row row = sheet.getRow(rowIndex);
-                if (row == null) {
-                    row = sheet.createRow(rowIndex);
-                }
-
-                for (int colIndex = startCol; colIndex <= endCol; colIndex++) {
-                    Cell cell = row.getCell(colIndex);
-                    if (cell == null) {
-                        cell = row.createCell(colIndex);
-                    }
-                    cell.setCellStyle(cellStyle);
-                }
-            }
+            formatRange(sheet, startRow, startCol, endRow, endCol, formatOptions);
 
             logger.info("Successfully formatted cell range ({}, {}) to ({}, {}) in sheet {}", 
                        startRow, startCol, endRow, endCol, sheetName);
@@ -104,6 +88,34 @@ public class ExcelFormatService {
         }
     }
 
+    /**
+     * 在已加载的工作表上格式化单元格范围
+     * 每个单元格在原有样式上叠加格式，原样式相同的单元格共享同一个新样式
+     */
+    public void formatRange(Sheet sheet, int startRow, int startCol, int endRow, int endCol, FormatOptions formatOptions) {
+        Workbook workbook = sheet.getWorkbook();
+        CellStyleCache styleCache = new CellStyleCache(workbook);
+
+        // 应用样式到范围内的所有单元格
+        for (int rowIndex = startRow; rowIndex <= endRow; rowIndex++) {
+            Row row = sheet.getRow(rowIndex);
+            if (row == null) {
+                row = sheet.createRow(rowIndex);
+            }
+
+            for (int colIndex = startCol; colIndex <= endCol; colIndex++) {
+                Cell cell = row.getCell(colIndex);
+                if (cell == null) {
+                    cell = row.createCell(colIndex);
+                }
+                cell.setCellStyle(createCellStyle(styleCache, workbook, formatOptions, cell.getCellStyle()));
+            }
+        }
+        logger.debug("Formatted {} cells in sheet {} with {} new styles and {} new fonts",
+                (long) (endRow - startRow + 1) * (endCol - startCol + 1), sheet.getSheetName(),
+                styleCache.getCreatedStyles(), styleCache.getCreatedFonts());
+    }
+
     /**
      * 格式化整行
      */
@@ -121,8 +133,8 @@ public class ExcelFormatService {
                 row = sheet.createRow(rowIndex);
             }
 
-            // 创建样式
-            CellStyle cellStyle = createCellStyle(workbook, formatOptions, null);
+            // 每个单元格在原有样式上叠加格式，相同的原样式共享同一个新样式
+            CellStyleCache styleCache = new CellStyleCache(workbook);
 
             // 应用样式到该行的所有单元格
             for (int i = 0; i < row.getLastCellNum(); i++) {
@@ -130,7 +142,7 @@ public class ExcelFormatService {
                 if (cell == null) {
                     cell = row.createCell(i);
                 }
-                cell.setCellStyle(cellStyle);
+                cell.setCellStyle(createCellStyle(styleCache, workbook, formatOptions, cell.getCellStyle()));
             }
 
             // 如果需要设置整行高度
@@ -158,8 +170,8 @@ public class ExcelFormatService {
                 return false;
             }
 
-            // 创建样式
-            CellStyle cellStyle = createCellStyle(workbook, formatOptions, null);
+            // 每个单元格在原有样式上叠加格式，相同的原样式共享同一个新样式
+            CellStyleCache styleCache = new CellStyleCache(workbook);
 
             // 设置整列宽度（如果指定了相关信息）
             if (formatOptions.getFontSize() != null) {
@@ -171,13 +183,11 @@ public class ExcelFormatService {
                 Row row = sheet.getRow(i);
                 if (row != null) {
                     Cell cell = row.getCell(colIndex);
-                    if (cell != null) {
-                        cell.setCellStyle(cellStyle);
-                    } else {
-                        // 如果单元格不存在，可以选择创建一个再设置样式，或者跳过
-                        Cell newCell = row.createCell(colIndex);
-                        newCell.setCellStyle(cellStyle);
+                    if (cell == null) {
+                        // 如果单元格不存在，创建一个再设置样式
+                        cell = row.createCell(colIndex);
                     }
+                    cell.setCellStyle(createCellStyle(styleCache, workbook, formatOptions, cell.getCellStyle()));
                 }
             }
 
@@ -202,9 +212,6 @@ public class ExcelFormatService {
                 return false;
             }
 
-            // 创建样式
-            CellStyle cellStyle = createCellStyle(workbook, formatOptions, null);
-
             // 合并单元格
             CellRangeAddress region = new CellRangeAddress(startRow, endRow, startCol, endCol);
             sheet.addMergedRegion(region);
@@ -218,7 +225,7 @@ public class ExcelFormatService {
             if (firstCell == null) {
                 firstCell = firstRow.createCell(startCol);
             }
-            firstCell.setCellStyle(cellStyle);
+            firstCell.setCellStyle(createCellStyle(new CellStyleCache(workbook), workbook, formatOptions, firstCell.getCellStyle()));
 
             logger.info("Successfully merged and formatted cells from ({}, {}) to ({}, {}) in sheet {}", 
                        startRow, startCol, endRow, endCol, sheetName);
@@ -276,31 +283,45 @@ public class ExcelFormatService {
     }
 
     /**
-     * 创建单元格样式
+     * 返回在基础样式上叠加格式后的样式
+     * 通过styleCache驻留：同一基础样式和同一组格式只创建一次样式，相同外观的字体只创建一次
      */
-    private CellStyle createCellStyle(Workbook workbook, FormatOptions formatOptions, CellStyle baseStyle) {
-        CellStyle cellStyle = baseStyle != null ? baseStyle : workbook.createCellStyle();
-
+    private CellStyle createCellStyle(CellStyleCache styleCache, Workbook workbook, FormatOptions formatOptions, CellStyle baseStyle) {
         if (formatOptions == null) {
-            return cellStyle; // 返回基础样式
+            return baseStyle != null ? baseStyle : workbook.getCellStyleAt(0); // 返回基础样式
         }
+        return styleCache.getStyle(baseStyle, formatKey(formatOptions),
+                cellStyle -> applyFormatOptions(styleCache, workbook, formatOptions, cellStyle));
+    }
 
-        // 设置字体
-        Font font = workbook.createFont();
-        if (formatOptions.getBold() != null) {
-            font.setBold(formatOptions.getBold());
-        }
-        if (formatOptions.getItalic() != null) {
-            font.setItalic(formatOptions.getItalic());
-        }
-        if (formatOptions.getFontSize() != null) {
-            font.setFontHeightInPoints(formatOptions.getFontSize().shortValue());
+    /**
+     * 实际生效的格式设置的规范化表示，作为样式缓存的key
+     */
+    private String formatKey(FormatOptions formatOptions) {
+        return formatOptions.getBold() + "|" + formatOptions.getItalic() + "|" + formatOptions.getFontSize()
+                + "|" + lowerCase(formatOptions.getHorizontalAlignment()) + "|" + lowerCase(formatOptions.getVerticalAlignment())
+                + "|" + (formatOptions.getBorderStyle() != null ? formatOptions.getBorderStyle().toUpperCase() : null)
+                + "|" + formatOptions.getWrapText() + "|" + formatOptions.getNumberFormat();
+    }
+
+    private static String lowerCase(String value) {
+        return value != null ? value.toLowerCase() : null;
+    }
+
+    /**
+     * 把格式设置应用到新建的样式上
+     */
+    private void applyFormatOptions(CellStyleCache styleCache, Workbook workbook, FormatOptions formatOptions, CellStyle cellStyle) {
+        // 设置字体：只修改指定的属性，其余沿用基础样式的字体
+        if (formatOptions.getBold() != null || formatOptions.getItalic() != null || formatOptions.getFontSize() != null) {
+            Font baseFont = workbook.getFontAt(cellStyle.getFontIndex());
+            cellStyle.setFont(styleCache.getFont(baseFont, formatOptions.getBold(), formatOptions.getItalic(),
+                    formatOptions.getFontSize() != null ? formatOptions.getFontSize().shortValue() : null));
         }
         if (formatOptions.getFontColor() != null) {
             // 简化处理，实际中可能需要将颜色名转换为索引
             // 这里只是示例，实际实现需要更完整的颜色处理
         }
-        cellStyle.setFont(font);
 
         // 设置背景色
         if (formatOptions.getBackgroundColor() != null) {
@@ -360,7 +381,5 @@ public class ExcelFormatService {
             short formatIndex = workbook.getCreationHelper().createDataFormat().getFormat(formatOptions.getNumberFormat());
             cellStyle.setDataFormat(formatIndex);
         }
-
-        return cellStyle;
     }
 }
\ No newline at end of file
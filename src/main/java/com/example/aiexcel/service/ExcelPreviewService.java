@@ -1,6 +1,8 @@
 package com.example.aiexcel.service;
 
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.SheetRowHandler;
+import com.example.aiexcel.service.excel.WorkbookData;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -23,6 +26,10 @@ public class ExcelPreviewService {
 
     private static final Logger logger = LoggerFactory.getLogger(ExcelPreviewService.class);
 
+    // 单个预览窗口的最大行数和列数
+    private static final int MAX_WINDOW_ROWS = 500;
+    private static final int MAX_WINDOW_COLUMNS = 100;
+
     /**
      * 获取Excel文件的预览数据
      * @param file Excel文件
@@ -31,18 +38,18 @@ public class ExcelPreviewService {
     public Map<String, Object> getExcelPreviewData(MultipartFile file) throws IOException {
         logger.info("Getting Excel preview data for file: {}", file.getOriginalFilename());
 
-        // 加载工作簿
-        Workbook workbook = excelService.loadWorkbook(file);
-        Sheet sheet = workbook.getSheetAt(0); // 默认获取第一个工作表
+        // 流式读取第一个工作表，不构建Workbook
+        PreviewSheetCollector collector = new PreviewSheetCollector();
+        excelService.readWorkbook(file, collector);
 
         // 获取数据
-        Object[][] data = getSheetData(sheet);
-        String[] headers = getHeaders(sheet);
+        Object[][] data = collector.getSheetData();
+        String[] headers = collector.getHeaders();
 
         // 获取数据统计信息
         int totalRows = data.length;
         int totalColumns = headers.length;
-        String sheetName = sheet.getSheetName();
+        String sheetName = collector.sheetName;
 
         // 构建响应
         Map<String, Object> response = new HashMap<>();
@@ -60,74 +67,225 @@ public class ExcelPreviewService {
     }
 
     /**
-     * 获取工作表数据
+     * 获取工作表的一个可见窗口
+     * 数据来自按内容缓存的行索引（行号有序数组，按行号二分查找），只取窗口内的行和列，
+     * 首次请求解析文件之后，每个窗口的开销只与窗口大小有关，与表格大小无关
+     * @param file Excel文件
+     * @param sheetName 工作表名称，为null时使用sheetIndex
+     * @param sheetIndex 工作表序号，从0开始
+     * @param startRow 窗口起始行（从0开始）
+     * @param startCol 窗口起始列（从0开始）
+     * @param rowCount 窗口行数，最多MAX_WINDOW_ROWS
+     * @param columnCount 窗口列数，最多MAX_WINDOW_COLUMNS
+     * @param cursor 上一个窗口返回的nextCursor或previousCursor，不为null时代替工作表和窗口参数
+     * @return 窗口数据；工作表或游标无效时success为false
      */
-    private Object[][] getSheetData(Sheet sheet) {
+    public Map<String, Object> getPreviewWindow(MultipartFile file, String sheetName, int sheetIndex,
+                                                int startRow, int startCol, int rowCount, int columnCount,
+                                                String cursor) throws IOException {
+        Map<String, Object> response = new HashMap<>();
+        if (cursor != null && !cursor.isEmpty()) {
+            int[] window = decodeCursor(cursor);
+            if (window == null) {
+                response.put("success", false);
+                response.put("error", "Invalid cursor: " + cursor);
+                return response;
+            }
+            sheetName = null;
+            sheetIndex = window[0];
+            startRow = window[1];
+            startCol = window[2];
+            rowCount = window[3];
+            columnCount = window[4];
+        }
+        if (startRow < 0 || startCol < 0 || rowCount <= 0 || columnCount <= 0) {
+            response.put("success", false);
+            response.put("error", "Invalid window: startRow and startCol must not be negative, rowCount and columnCount must be positive");
+            return response;
+        }
+        rowCount = Math.min(rowCount, MAX_WINDOW_ROWS);
+        columnCount = Math.min(columnCount, MAX_WINDOW_COLUMNS);
+
+        WorkbookData workbookData = excelService.getWorkbookData(file);
+        WorkbookData.SheetData sheet = sheetName != null ? workbookData.getSheet(sheetName) : workbookData.getSheet(sheetIndex);
         if (sheet == null) {
-            return new Object[0][0];
+            response.put("success", false);
+            response.put("error", "Sheet not found: " + (sheetName != null ? sheetName : String.valueOf(sheetIndex)));
+            return response;
+        }
+        sheetIndex = workbookData.getSheets().indexOf(sheet);
+
+        // 可见窗口：缺失的行和单元格填充空字符串
+        int totalRows = sheet.getLastRowIndex() + 1;
+        int totalColumns = sheet.getMaxColumns();
+        int endRow = Math.min(startRow + rowCount, totalRows);
+        int endCol = Math.min(startCol + columnCount, totalColumns);
+        Object[][] data = new Object[Math.max(endRow - startRow, 0)][];
+        for (int r = startRow; r < endRow; r++) {
+            Object[] values = sheet.getRow(r);
+            Object[] visible = new Object[Math.max(endCol - startCol, 0)];
+            for (int c = startCol; c < endCol; c++) {
+                visible[c - startCol] = values != null && c < values.length ? formatValue(values[c]) : "";
+            }
+            data[r - startRow] = visible;
         }
 
-        int lastRowNum = sheet.getLastRowNum();
-        if (lastRowNum < 0) {
-            return new Object[0][0];
+        // 可见列的列字母和表头（第一个非空行）
+        Object[] headerRow = sheet.getPhysicalRowCount() > 0 ? sheet.getRow(sheet.getFirstRowIndex()) : new Object[0];
+        String[] columns = new String[Math.max(endCol - startCol, 0)];
+        String[] headers = new String[columns.length];
+        for (int c = startCol; c < endCol; c++) {
+            columns[c - startCol] = getColumnLetter(c + 1);
+            String header = c < headerRow.length ? formatValue(headerRow[c]) : "";
+            headers[c - startCol] = header.trim().isEmpty() ? columns[c - startCol] : header;
         }
 
-        // 计算最大列数
-        int maxCols = 0;
-        for (int i = 0; i <= lastRowNum; i++) {
-            Row row = sheet.getRow(i);
-            if (row != null && row.getLastCellNum() > maxCols) {
-                maxCols = row.getLastCellNum();
-            }
+        List<Map<String, Object>> sheets = new ArrayList<>();
+        for (int i = 0; i < workbookData.getSheets().size(); i++) {
+            WorkbookData.SheetData info = workbookData.getSheet(i);
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("index", i);
+            entry.put("name", info.getName());
+            entry.put("rowCount", info.getLastRowIndex() + 1);
+            entry.put("columnCount", info.getMaxColumns());
+            sheets.add(entry);
         }
 
-        // 创建数据数组
-        Object[][] data = new Object[lastRowNum + 1][maxCols];
+        response.put("success", true);
+        response.put("sheetName", sheet.getName());
+        response.put("sheetIndex", sheetIndex);
+        response.put("sheets", sheets);
+        response.put("totalRows", totalRows);
+        response.put("totalColumns", totalColumns);
+        response.put("startRow", startRow);
+        response.put("startCol", startCol);
+        response.put("rowCount", data.length);
+        response.put("columnCount", columns.length);
+        response.put("columns", columns);
+        response.put("headers", headers);
+        response.put("data", data);
+        response.put("nextCursor", startRow + rowCount < totalRows
+                ? encodeCursor(sheetIndex, startRow + rowCount, startCol, rowCount, columnCount) : null);
+        response.put("previousCursor", startRow > 0
+                ? encodeCursor(sheetIndex, Math.max(startRow - rowCount, 0), startCol, rowCount, columnCount) : null);
+        return response;
+    }
+
+    /**
+     * 游标编码窗口位置：工作表序号、起始行列和窗口大小
+     */
+    private static String encodeCursor(int sheetIndex, int startRow, int startCol, int rowCount, int columnCount) {
+        String window = sheetIndex + ":" + startRow + ":" + startCol + ":" + rowCount + ":" + columnCount;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(window.getBytes(StandardCharsets.US_ASCII));
+    }
 
-        for (int i = 0; i <= lastRowNum; i++) {
-            Row row = sheet.getRow(i);
-            if (row != null) {
-                for (int j = 0; j < maxCols; j++) {
-                    Cell cell = row.getCell(j);
-                    data[i][j] = getCellValueAsString(cell);
-                }
-            } else {
-                // 空行填充空字符串
-                for (int j = 0; j < maxCols; j++) {
-                    data[i][j] = "";
-                }
+    private static int[] decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":");
+            if (parts.length != 5) {
+                return null;
             }
+            int[] window = new int[5];
+            for (int i = 0; i < 5; i++) {
+                window[i] = Integer.parseInt(parts[i]);
+            }
+            return window;
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-
-        return data;
     }
 
     /**
-     * 获取表头
+     * 收集第一个工作表的行数据，用于生成预览
      */
-    private String[] getHeaders(Sheet sheet) {
-        if (sheet == null || sheet.getFirstRowNum() < 0) {
-            return new String[0];
+    private class PreviewSheetCollector implements SheetRowHandler {
+        private final TreeMap<Integer, Object[]> rows = new TreeMap<>();
+        private String sheetName;
+        private int maxCols;
+        private boolean firstSheetRead;
+
+        @Override
+        public boolean startSheet(int sheetIndex, String sheetName) {
+            if (sheetIndex != 0) {
+                return false;
+            }
+            this.sheetName = sheetName;
+            return true;
         }
 
-        Row firstRow = sheet.getRow(sheet.getFirstRowNum());
-        if (firstRow == null) {
-            return new String[0];
+        @Override
+        public void row(int rowIndex, Object[] values) {
+            rows.put(rowIndex, values);
+            maxCols = Math.max(maxCols, values.length);
+        }
+
+        @Override
+        public void endSheet(int sheetIndex, String sheetName) {
+            firstSheetRead = true;
+        }
+
+        @Override
+        public boolean isDone() {
+            return firstSheetRead;
+        }
+
+        /**
+         * 获取工作表数据，空行和缺失的单元格填充空字符串
+         */
+        Object[][] getSheetData() {
+            if (rows.isEmpty()) {
+                return new Object[0][0];
+            }
+
+            Object[][] data = new Object[rows.lastKey() + 1][maxCols];
+            for (Object[] row : data) {
+                Arrays.fill(row, "");
+            }
+            for (Map.Entry<Integer, Object[]> entry : rows.entrySet()) {
+                Object[] values = entry.getValue();
+                for (int j = 0; j < values.length; j++) {
+                    data[entry.getKey()][j] = formatValue(values[j]);
+                }
+            }
+            return data;
         }
 
-        int lastCellNum = firstRow.getLastCellNum();
-        String[] headers = new String[lastCellNum];
+        /**
+         * 获取表头（第一个非空行）
+         */
+        String[] getHeaders() {
+            if (rows.isEmpty()) {
+                return new String[0];
+            }
 
-        for (int i = 0; i < lastCellNum; i++) {
-            Cell cell = firstRow.getCell(i);
-            headers[i] = getCellValueAsString(cell);
-            if (headers[i] == null || headers[i].trim().isEmpty()) {
-                // 如果表头单元格为空，使用列字母作为表头
-                headers[i] = getColumnLetter(i + 1);
+            Object[] firstRow = rows.firstEntry().getValue();
+            String[] headers = new String[firstRow.length];
+            for (int i = 0; i < firstRow.length; i++) {
+                headers[i] = formatValue(firstRow[i]);
+                if (headers[i].trim().isEmpty()) {
+                    // 如果表头单元格为空，使用列字母作为表头
+                    headers[i] = getColumnLetter(i + 1);
+                }
             }
+            return headers;
         }
+    }
 
-        return headers;
+    /**
+     * 流式读取值的字符串表示，整数不带小数部分
+     */
+    private String formatValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.floor(number) && !Double.isInfinite(number)) {
+                return String.valueOf((long) number);
+            }
+            return String.valueOf(number);
+        }
+        return value.toString();
     }
 
     /**
@@ -221,7 +379,10 @@ public class ExcelPreviewService {
      * @return 格式信息
      */
     public Map<String, Object> getCellFormat(MultipartFile file, int row, int col) throws IOException {
-        Workbook workbook = excelService.loadWorkbook(file);
+        return excelService.readWorkbookReadOnly(file, workbook -> getCellFormat(workbook, row, col));
+    }
+
+    private Map<String, Object> getCellFormat(Workbook workbook, int row, int col) {
         Sheet sheet = workbook.getSheetAt(0);
         Row sheetRow = sheet.getRow(row);
         
@@ -286,7 +447,11 @@ public class ExcelPreviewService {
      * @return 格式信息
      */
     public Map<String, Object> getBulkCellFormat(MultipartFile file, int startRow, int startCol, int endRow, int endCol) throws IOException {
-        Workbook workbook = excelService.loadWorkbook(file);
+        return excelService.readWorkbookReadOnly(file,
+                workbook -> getBulkCellFormat(workbook, startRow, startCol, endRow, endCol));
+    }
+
+    private Map<String, Object> getBulkCellFormat(Workbook workbook, int startRow, int startCol, int endRow, int endCol) {
         Sheet sheet = workbook.getSheetAt(0);
 
         Map<String, Object> result = new HashMap<>();
@@ -304,21 +469,7 @@ public class ExcelPreviewService {
                 Map<String, Object> cellFormat = new HashMap<>();
 
                 if (cell != null) {
-                    CellStyle style = cell.getCellStyle();
-                    Font font = workbook.getFontAt(style.getFontIndex());
-
-                    cellFormat.put("backgroundColor", getBackgroundColor(style));
-                    cellFormat.put("foregroundColor", getForegroundColor(style));
-                    cellFormat.put("fontBold", font.getBold());
-                    cellFormat.put("fontItalic", font.getItalic());
-                    cellFormat.put("fontSize", font.getFontHeightInPoints());
-                    cellFormat.put("fontColor", getFontColor(font));
-                    cellFormat.put("horizontalAlignment", style.getAlignment().name());
-                    cellFormat.put("verticalAlignment", style.getVerticalAlignment().name());
-                    cellFormat.put("borderLeft", style.getBorderLeft().name());
-                    cellFormat.put("borderRight", style.getBorderRight().name());
-                    cellFormat.put("borderTop", style.getBorderTop().name());
-                    cellFormat.put("borderBottom", style.getBorderBottom().name());
+                    cellFormat.putAll(getStyleProperties(workbook, cell.getCellStyle()));
 
                     // 获取数据类型
                     String dataType = getCellDataType(cell);
@@ -328,18 +479,7 @@ public class ExcelPreviewService {
                     cellFormat.put("value", getCellValueAsString(cell));
                 } else {
                     // 空单元格的默认格式
-                    cellFormat.put("backgroundColor", "");
-                    cellFormat.put("foregroundColor", "");
-                    cellFormat.put("fontBold", false);
-                    cellFormat.put("fontItalic", false);
-                    cellFormat.put("fontSize", 10);
-                    cellFormat.put("fontColor", "");
-                    cellFormat.put("horizontalAlignment", "GENERAL");
-                    cellFormat.put("verticalAlignment", "BOTTOM");
-                    cellFormat.put("borderLeft", "NONE");
-                    cellFormat.put("borderRight", "NONE");
-                    cellFormat.put("borderTop", "NONE");
-                    cellFormat.put("borderBottom", "NONE");
+                    cellFormat.putAll(getBlankStyleProperties());
                     cellFormat.put("dataType", "BLANK");
                     cellFormat.put("value", "");
                 }
@@ -359,6 +499,122 @@ public class ExcelPreviewService {
         return result;
     }
 
+    /**
+     * 获取多个单元格的格式信息（紧凑编码）
+     * 外观相同的单元格共享样式表中的一项（样式属性加数据类型），每行的样式序号按游程编码：
+     * styleRuns[i] 为第 startRow+i 行的 [样式序号, 连续单元格数, ...]，从startCol开始依次覆盖；
+     * values[i] 为同一行单元格的值。与原格式一样，缺失的行为空数组，行按最后一个单元格截断
+     */
+    public Map<String, Object> getBulkCellFormatCompact(MultipartFile file, int startRow, int startCol, int endRow, int endCol) throws IOException {
+        return excelService.readWorkbookReadOnly(file,
+                workbook -> getBulkCellFormatCompact(workbook, startRow, startCol, endRow, endCol));
+    }
+
+    private Map<String, Object> getBulkCellFormatCompact(Workbook workbook, int startRow, int startCol, int endRow, int endCol) {
+        Sheet sheet = workbook.getSheetAt(0);
+
+        List<Map<String, Object>> styles = new ArrayList<>();
+        Map<Map<String, Object>, Integer> styleIds = new HashMap<>();
+        // 同一个POI样式和数据类型只读取一次属性
+        Map<String, Integer> styleIdsByIndex = new HashMap<>();
+        List<int[]> styleRuns = new ArrayList<>();
+        List<String[]> values = new ArrayList<>();
+
+        for (int rowIdx = startRow; rowIdx <= endRow && rowIdx < sheet.getLastRowNum() + 1; rowIdx++) {
+            Row row = sheet.getRow(rowIdx);
+            int lastCol = row == null ? startCol - 1 : Math.min(endCol, row.getLastCellNum() - 1);
+            int width = Math.max(lastCol - startCol + 1, 0);
+            String[] rowValues = new String[width];
+            int[] runs = new int[width * 2];
+            int runLength = 0;
+
+            for (int colIdx = startCol; colIdx <= lastCol; colIdx++) {
+                Cell cell = row.getCell(colIdx);
+                String dataType = cell != null ? getCellDataType(cell) : "BLANK";
+                String cellKey = (cell != null ? cell.getCellStyle().getIndex() : -1) + dataType;
+                Integer styleId = styleIdsByIndex.get(cellKey);
+                if (styleId == null) {
+                    // 外观相同的不同POI样式合并为同一项
+                    Map<String, Object> entry = cell != null ? getStyleProperties(workbook, cell.getCellStyle()) : getBlankStyleProperties();
+                    entry.put("dataType", dataType);
+                    styleId = styleIds.get(entry);
+                    if (styleId == null) {
+                        styleId = styles.size();
+                        styleIds.put(entry, styleId);
+                        styles.add(entry);
+                    }
+                    styleIdsByIndex.put(cellKey, styleId);
+                }
+
+                if (runLength > 0 && runs[runLength - 2] == styleId) {
+                    runs[runLength - 1]++;
+                } else {
+                    runs[runLength++] = styleId;
+                    runs[runLength++] = 1;
+                }
+                rowValues[colIdx - startCol] = cell != null ? getCellValueAsString(cell) : "";
+            }
+
+            styleRuns.add(Arrays.copyOf(runs, runLength));
+            values.add(rowValues);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("encoding", "compact");
+        result.put("styles", styles);
+        result.put("styleRuns", styleRuns);
+        result.put("values", values);
+        result.put("range", Map.of(
+            "startRow", startRow,
+            "startCol", startCol,
+            "endRow", endRow,
+            "endCol", endCol
+        ));
+
+        return result;
+    }
+
+    /**
+     * 单元格样式的显示属性
+     */
+    private Map<String, Object> getStyleProperties(Workbook workbook, CellStyle style) {
+        Font font = workbook.getFontAt(style.getFontIndex());
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("backgroundColor", getBackgroundColor(style));
+        properties.put("foregroundColor", getForegroundColor(style));
+        properties.put("fontBold", font.getBold());
+        properties.put("fontItalic", font.getItalic());
+        properties.put("fontSize", font.getFontHeightInPoints());
+        properties.put("fontColor", getFontColor(font));
+        properties.put("horizontalAlignment", style.getAlignment().name());
+        properties.put("verticalAlignment", style.getVerticalAlignment().name());
+        properties.put("borderLeft", style.getBorderLeft().name());
+        properties.put("borderRight", style.getBorderRight().name());
+        properties.put("borderTop", style.getBorderTop().name());
+        properties.put("borderBottom", style.getBorderBottom().name());
+        return properties;
+    }
+
+    /**
+     * 空单元格的默认显示属性
+     */
+    private Map<String, Object> getBlankStyleProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("backgroundColor", "");
+        properties.put("foregroundColor", "");
+        properties.put("fontBold", false);
+        properties.put("fontItalic", false);
+        properties.put("fontSize", 10);
+        properties.put("fontColor", "");
+        properties.put("horizontalAlignment", "GENERAL");
+        properties.put("verticalAlignment", "BOTTOM");
+        properties.put("borderLeft", "NONE");
+        properties.put("borderRight", "NONE");
+        properties.put("borderTop", "NONE");
+        properties.put("borderBottom", "NONE");
+        return properties;
+    }
+
     /**
      * 获取单元格键值（用于标识特定单元格）
      */
@@ -4,15 +4,24 @@ import com.example.aiexcel.model.FileWorkspace;
 import com.example.aiexcel.model.WorkspaceFile;
 import com.example.aiexcel.repository.WorkspaceFileRepository;
 import com.example.aiexcel.repository.WorkspaceRepository;
+import com.example.aiexcel.service.excel.StoredWorkbookFile;
+import com.example.aiexcel.service.storage.FileBlobStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * 文件管理服务
@@ -27,6 +36,9 @@ public class FileManagerService {
     @Autowired
     private WorkspaceFileRepository workspaceFileRepository;
 
+    @Autowired
+    private FileBlobStore fileBlobStore;
+
     private static final Logger logger = LoggerFactory.getLogger(FileManagerService.class);
 
     /**
@@ -155,9 +167,12 @@ public class FileManagerService {
                 return false;
             }
 
-            // 先删除工作区中的所有文件
+            // 先删除工作区中的所有文件，不再被引用的内容随之删除
             List<WorkspaceFile> files = workspaceFileRepository.findByWorkspaceId(id);
-            workspaceFileRepository.deleteAll(files);
+            synchronized (fileBlobStore) {
+                workspaceFileRepository.deleteAll(files);
+                releaseContent(files);
+            }
 
             // 再删除子工作区
             List<FileWorkspace> childWorkspaces = workspaceRepository.findByParentWorkspaceId(id);
@@ -197,20 +212,34 @@ public class FileManagerService {
                 return null;
             }
 
-            // 创建工作区文件记录
-            WorkspaceFile workspaceFile = new WorkspaceFile(
-                file.getOriginalFilename(),
-                "", // 可以设置为实际存储路径
-                file.getSize(),
-                getFileType(file.getOriginalFilename()),
-                workspaceId,
-                userId,
-                description
-            );
+            // 内容流式写入按哈希寻址的存储，相同内容只保存一份
+            FileBlobStore.StagedBlob staged;
+            try (InputStream in = file.getInputStream()) {
+                staged = fileBlobStore.stage(in);
+            }
 
-            workspaceFile = workspaceFileRepository.save(workspaceFile);
+            WorkspaceFile workspaceFile;
+            try {
+                synchronized (fileBlobStore) {
+                    String hash = fileBlobStore.commit(staged);
+                    workspaceFile = new WorkspaceFile(
+                        file.getOriginalFilename(),
+                        fileBlobStore.relativePath(hash),
+                        staged.getSize(),
+                        getFileType(file.getOriginalFilename()),
+                        workspaceId,
+                        userId,
+                        description
+                    );
+                    workspaceFile.setContentHash(hash);
+                    workspaceFile = workspaceFileRepository.save(workspaceFile);
+                }
+            } finally {
+                fileBlobStore.discard(staged);
+            }
 
-            logger.info("Uploaded file '{}' to workspace ID: {}", file.getOriginalFilename(), workspaceId);
+            logger.info("Uploaded file '{}' to workspace ID: {} (content {})", file.getOriginalFilename(), workspaceId,
+                workspaceFile.getContentHash());
             return workspaceFile;
         } catch (Exception e) {
             logger.error("Error uploading file to workspace ID {}: {}", workspaceId, e.getMessage(), e);
@@ -218,6 +247,52 @@ public class FileManagerService {
         }
     }
 
+    /**
+     * 获取特定文件
+     */
+    public Optional<WorkspaceFile> getWorkspaceFile(Long fileId) {
+        try {
+            return workspaceFileRepository.findById(fileId);
+        } catch (Exception e) {
+            logger.error("Error retrieving file with ID {}: {}", fileId, e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 文件内容在磁盘上的位置，内容未保存（旧记录）或已丢失时返回null
+     */
+    public Path getContentPath(WorkspaceFile workspaceFile) {
+        if (workspaceFile.getContentHash() == null) {
+            return null;
+        }
+        Path path = fileBlobStore.resolve(workspaceFile.getContentHash());
+        if (!Files.isRegularFile(path)) {
+            logger.warn("Content {} of file ID {} is missing from the file store", workspaceFile.getContentHash(), workspaceFile.getId());
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * 以MultipartFile的形式重新打开工作区文件，供需要上传文件的接口使用
+     */
+    public MultipartFile openWorkspaceFile(WorkspaceFile workspaceFile) throws IOException {
+        Path path = getContentPath(workspaceFile);
+        if (path == null) {
+            return null;
+        }
+        return new StoredWorkbookFile("file", workspaceFile.getFileName(), null,
+            Files.readAllBytes(path), workspaceFile.getContentHash());
+    }
+
+    /**
+     * 文件存储的统计信息
+     */
+    public Map<String, Object> getStorageStats() {
+        return fileBlobStore.getStats();
+    }
+
     /**
      * 获取工作区中的所有文件
      */
@@ -394,6 +469,27 @@ public class FileManagerService {
         }
     }
 
+    /**
+     * 删除不再被任何文件引用的内容，调用方需持有fileBlobStore的锁
+     */
+    private void releaseContent(List<WorkspaceFile> files) {
+        Set<String> hashes = new LinkedHashSet<>();
+        for (WorkspaceFile file : files) {
+            if (file.getContentHash() != null) {
+                hashes.add(file.getContentHash());
+            }
+        }
+        for (String hash : hashes) {
+            try {
+                if (workspaceFileRepository.countByContentHash(hash) == 0) {
+                    fileBlobStore.delete(hash);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to delete unreferenced content {}: {}", hash, e.getMessage());
+            }
+        }
+    }
+
     /**
      * 获取文件类型
      */
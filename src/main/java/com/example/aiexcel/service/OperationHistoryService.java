@@ -2,23 +2,31 @@ package com.example.aiexcel.service;
 
 import com.example.aiexcel.model.OperationHistory;
 import com.example.aiexcel.repository.OperationHistoryRepository;
+import com.example.aiexcel.service.command.RecordedEdit;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
-import java.util.Base64;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 操作历史记录服务
- * 提供操作记录、撤销、重做等功能
+ * 提供操作记录、撤销、重做等功能。
+ * 操作历史表只保存审计记录；撤销/重做依赖内存中的编辑日志（每个文件的工作簿和逆操作栈），
+ * 每个会话持有一个完整的DOM工作簿，所以按估算的内存占用和空闲时间淘汰最久未使用的文件，
+ * 被淘汰、过期或服务重启后不能再撤销
  */
 @Service
 public class OperationHistoryService {
@@ -29,41 +37,69 @@ public class OperationHistoryService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private VersionService versionService;
+
     private static final Logger logger = LoggerFactory.getLogger(OperationHistoryService.class);
 
+    private static final int MAX_SESSIONS = 16;
+
+    private static final int MAX_UNDO_DEPTH = 50;
+
     /**
-     * 记录操作历史
+     * 每个已创建单元格在XSSF DOM中的粗略内存占用，用于估算会话的大小
      */
-    public OperationHistory recordOperation(String fileId, String operationType, String parameters, 
-                                           MultipartFile fileBefore, MultipartFile fileAfter) {
-        try {
-            String contentBefore = fileBefore != null ? encodeFileContent(fileBefore) : null;
-            String contentAfter = fileAfter != null ? encodeFileContent(fileAfter) : null;
+    private static final int BYTES_PER_CELL = 500;
 
-            OperationHistory history = new OperationHistory(fileId, operationType, parameters, contentBefore, contentAfter);
-            history = operationHistoryRepository.save(history);
+    @Value("${history.session.max-bytes:268435456}")
+    private long maxSessionBytes;
 
-            logger.info("Recorded operation: {} for file: {}", operationType, fileId);
-            return history;
-        } catch (Exception e) {
-            logger.error("Error recording operation for file: {}", fileId, e);
-            return null;
-        }
-    }
+    @Value("${history.session.ttl-minutes:60}")
+    private long sessionTtlMinutes;
 
     /**
-     * 记录操作历史，传入Workbook对象
+     * 各文件的编辑日志，按最近使用排序，由sessions上的锁保护
      */
-    public OperationHistory recordOperationWithWorkbooks(String fileId, String operationType, String parameters, 
-                                                        Workbook workbookBefore, Workbook workbookAfter) {
-        try {
-            String contentBefore = workbookBefore != null ? encodeWorkbookContent(workbookBefore) : null;
-            String contentAfter = workbookAfter != null ? encodeWorkbookContent(workbookAfter) : null;
+    private final LinkedHashMap<String, EditSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long sessionBytes;
 
-            OperationHistory history = new OperationHistory(fileId, operationType, parameters, contentBefore, contentAfter);
+    /**
+     * 记录一次在内存中执行的编辑
+     * 工作簿和编辑的逆操作保存在该文件的撤销栈中，撤销/重做时直接在内存中应用，不保存工作簿副本
+     * @param workbook 编辑后的工作簿，之后由撤销/重做继续修改
+     * @param edit 执行命令时记录的修改
+     * @param outputFileName 修改后的工作簿保存的文件，撤销/重做后重新写出
+     */
+    public OperationHistory recordEdit(String fileId, String operationType, String parameters,
+                                       Workbook workbook, RecordedEdit edit, String outputFileName) {
+        try {
+            OperationHistory history = new OperationHistory(fileId, operationType, parameters, null, null);
+            history.setReversible(edit != null && !edit.isEmpty());
             history = operationHistoryRepository.save(history);
 
-            logger.info("Recorded operation: {} for file: {}", operationType, fileId);
+            if (history.isReversible()) {
+                long weight = estimateBytes(workbook);
+                EditSession session;
+                synchronized (sessions) {
+                    evictExpired();
+                    session = sessions.computeIfAbsent(fileId, id -> new EditSession());
+                    sessionBytes += weight - session.weight;
+                    session.weight = weight;
+                    session.lastAccess = System.currentTimeMillis();
+                    evictIfNecessary();
+                }
+                synchronized (session) {
+                    session.workbook = workbook;
+                    session.outputFileName = outputFileName;
+                    session.undoStack.push(new LoggedEdit(history.getId(), operationType, edit));
+                    while (session.undoStack.size() > MAX_UNDO_DEPTH) {
+                        markReversible(session.undoStack.removeLast().historyId, false);
+                    }
+                    session.redoStack.clear();
+                }
+            }
+
+            logger.info("Recorded operation: {} for file: {} ({} steps)", operationType, fileId, edit != null ? edit.size() : 0);
             return history;
         } catch (Exception e) {
             logger.error("Error recording operation for file: {}", fileId, e);
@@ -118,50 +154,17 @@ public class OperationHistoryService {
     }
 
     /**
-     * 撤销上一次操作
+     * 撤销上一次操作：在内存中应用其逆操作，重算公式并保存为新版本
      */
     public boolean undoLastOperation(String fileId) {
-        try {
-            OperationHistory lastOperation = operationHistoryRepository.findFirstByFileIdOrderByCreatedAtDesc(fileId);
-            if (lastOperation == null) {
-                logger.warn("No operation found to undo for file: {}", fileId);
-                return false;
-            }
-
-            if (!lastOperation.isReversible()) {
-                logger.warn("Last operation is not reversible for file: {}", fileId);
-                return false;
-            }
-
-            // 恢复到操作前的状态
-            // 这里需要从历史记录中恢复文件内容
-            String contentBefore = lastOperation.getFileContentBefore();
-            if (contentBefore == null || contentBefore.isEmpty()) {
-                logger.warn("No previous content to restore for operation: {} on file: {}", lastOperation.getId(), fileId);
-                return false;
-            }
-
-            // 标记此操作为已撤销，可能需要重做记录
-            lastOperation.setReversible(false);
-            operationHistoryRepository.save(lastOperation);
-
-            logger.info("Undid operation: {} for file: {}", lastOperation.getOperationType(), fileId);
-            return true;
-        } catch (Exception e) {
-            logger.error("Error undoing last operation for file: {}", fileId, e);
-            return false;
-        }
+        return replay(fileId, true);
     }
 
     /**
      * 重做上次被撤销的操作
-     * 注意：在当前实现中，重做功能需要额外的逻辑，这里简化处理
      */
     public boolean redoLastUndoneOperation(String fileId) {
-        logger.warn("Redo functionality is not fully implemented in this version");
-        // TODO: 实现重做功能
-        // 重做功能需要更复杂的实现，比如记录撤销操作的历史，然后可以重新应用
-        return false;
+        return replay(fileId, false);
     }
 
     /**
@@ -181,6 +184,7 @@ public class OperationHistoryService {
      */
     public void clearOperationHistory(String fileId) {
         try {
+            removeSession(fileId);
             List<OperationHistory> histories = operationHistoryRepository.findByFileIdOrderByCreatedAtDesc(fileId);
             operationHistoryRepository.deleteAll(histories);
             logger.info("Cleared operation history for file: {}", fileId);
@@ -190,43 +194,148 @@ public class OperationHistoryService {
     }
 
     /**
-     * 将MultipartFile编码为Base64字符串
+     * 从撤销栈（undo为true）或重做栈取出一次编辑并应用，然后移入另一个栈
      */
-    private String encodeFileContent(MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        return Base64.getEncoder().encodeToString(fileBytes);
+    private boolean replay(String fileId, boolean undo) {
+        String action = undo ? "undo" : "redo";
+        EditSession session;
+        synchronized (sessions) {
+            evictExpired();
+            session = sessions.get(fileId);
+            if (session != null) {
+                session.lastAccess = System.currentTimeMillis();
+            }
+        }
+        if (session == null) {
+            logger.warn("No in-memory edit log to {} for file: {}", action, fileId);
+            return false;
+        }
+
+        synchronized (session) {
+            Deque<LoggedEdit> from = undo ? session.undoStack : session.redoStack;
+            Deque<LoggedEdit> to = undo ? session.redoStack : session.undoStack;
+            LoggedEdit logged = from.peek();
+            if (logged == null) {
+                logger.warn("No operation found to {} for file: {}", action, fileId);
+                return false;
+            }
+
+            try {
+                Workbook workbook = session.workbook;
+                WorkbookChangeSet changes = new WorkbookChangeSet();
+                // 逆操作直接修改单元格，不经过共享计算器的缓存通知，重算前先丢弃计算器
+                excelService.releaseFormulaEvaluator(workbook);
+                try {
+                    if (undo) {
+                        logged.edit.undo(workbook, excelService, changes);
+                    } else {
+                        logged.edit.redo(workbook, excelService, changes);
+                    }
+                    excelService.recalculateFormulas(workbook, changes);
+                } finally {
+                    excelService.releaseFormulaEvaluator(workbook);
+                }
+                from.pop();
+                to.push(logged);
+
+                if (session.outputFileName != null) {
+                    excelService.saveWorkbook(workbook, session.outputFileName);
+                }
+                String description = (undo ? "Undo " : "Redo ") + logged.operationType;
+                versionService.createVersionFromWorkbook(fileId, workbook, description, "system", session.outputFileName);
+
+                markReversible(logged.historyId, !undo);
+                OperationHistory history = new OperationHistory(fileId, undo ? "UNDO" : "REDO",
+                        "operationId=" + logged.historyId, null, null);
+                history.setReversible(false);
+                operationHistoryRepository.save(history);
+            } catch (Exception e) {
+                // 逆操作中途失败时工作簿状态不确定，丢弃该文件的编辑日志
+                removeSession(fileId);
+                logger.error("Error during {} of operation {} for file: {}", action, logged.historyId, fileId, e);
+                return false;
+            }
+
+            logger.info("{} operation: {} for file: {} ({} steps)", undo ? "Undid" : "Redid",
+                    logged.operationType, fileId, logged.edit.size());
+            return true;
+        }
+    }
+
+    private void removeSession(String fileId) {
+        synchronized (sessions) {
+            EditSession removed = sessions.remove(fileId);
+            if (removed != null) {
+                sessionBytes -= removed.weight;
+            }
+        }
     }
 
     /**
-     * 将Workbook编码为Base64字符串
+     * 超出会话数或内存上限时淘汰最久未使用的会话，至少保留最近使用的一个
+     * 调用方必须持有sessions上的锁
      */
-    private String encodeWorkbookContent(Workbook workbook) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            workbook.write(baos);
-            byte[] workbookBytes = baos.toByteArray();
-            return Base64.getEncoder().encodeToString(workbookBytes);
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, EditSession>> iterator = sessions.entrySet().iterator();
+        while ((sessions.size() > MAX_SESSIONS || sessionBytes > maxSessionBytes) && sessions.size() > 1
+                && iterator.hasNext()) {
+            Map.Entry<String, EditSession> eldest = iterator.next();
+            iterator.remove();
+            sessionBytes -= eldest.getValue().weight;
+            logger.info("Evicted in-memory edit log for file: {} ({} bytes)", eldest.getKey(), eldest.getValue().weight);
         }
     }
 
     /**
-     * 将Base64字符串解码为字节数组
+     * 丢弃空闲超过过期时间的会话，调用方必须持有sessions上的锁
      */
-    private byte[] decodeContent(String encodedContent) {
-        if (encodedContent == null || encodedContent.isEmpty()) {
-            return new byte[0];
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - sessionTtlMinutes * 60_000L;
+        Iterator<Map.Entry<String, EditSession>> iterator = sessions.entrySet().iterator();
+        // 按访问顺序排列，遇到第一个未过期的会话即可停止
+        while (iterator.hasNext()) {
+            Map.Entry<String, EditSession> eldest = iterator.next();
+            if (eldest.getValue().lastAccess > cutoff) {
+                break;
+            }
+            iterator.remove();
+            sessionBytes -= eldest.getValue().weight;
+            logger.info("Expired in-memory edit log for file: {}", eldest.getKey());
         }
-        return Base64.getDecoder().decode(encodedContent);
     }
 
     /**
-     * 从编码的内容创建Workbook
+     * 按已创建的单元格数估算工作簿DOM的内存占用
      */
-    @SuppressWarnings("unused")
-    private Workbook createWorkbookFromContent(String encodedContent) throws IOException {
-        byte[] content = decodeContent(encodedContent);
-        if (content.length == 0) {
-            return null;
+    private long estimateBytes(Workbook workbook) {
+        long cells = 0;
+        for (Sheet sheet : workbook) {
+            for (Row row : sheet) {
+                cells += row.getPhysicalNumberOfCells();
+            }
         }
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(content));
+        return cells * BYTES_PER_CELL;
+    }
+
+    private void markReversible(Long historyId, boolean reversible) {
+        operationHistoryRepository.findById(historyId).ifPresent(history -> {
+            history.setReversible(reversible);
+            operationHistoryRepository.save(history);
+        });
+    }
+
+    /**
+     * 一个文件在内存中的编辑状态：当前工作簿和撤销/重做栈
+     */
+    private static class EditSession {
+        private Workbook workbook;
+        private long weight;
+        private long lastAccess;
+        private String outputFileName;
+        private final Deque<LoggedEdit> undoStack = new ArrayDeque<>();
+        private final Deque<LoggedEdit> redoStack = new ArrayDeque<>();
+    }
+
+    private record LoggedEdit(Long historyId, String operationType, RecordedEdit edit) {
     }
-}
\ No newline at end of file
+}
@@ -3,21 +3,37 @@ package com.example.aiexcel.service;
 import com.example.aiexcel.model.FileVersion;
 import com.example.aiexcel.repository.VersionRepository;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import com.example.aiexcel.service.excel.WorkbookDiff;
+import com.example.aiexcel.service.storage.CellDelta;
+import com.example.aiexcel.service.storage.ChunkStore;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 文件版本控制服务
- * 提供文件版本管理功能
+ * 提供文件版本管理功能；版本内容保存在ChunkStore中，版本记录只保存数据块清单。
+ * 通过Workbook创建的版本只保存相对上一版本的单元格增量，每隔若干个版本（或结构发生变化时）保存一次完整快照；
+ * 读取增量版本时从最近的快照开始依次回放增量
  */
 @Service
 public class VersionService {
@@ -28,8 +44,43 @@ public class VersionService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private ChunkStore chunkStore;
+
     private static final Logger logger = LoggerFactory.getLogger(VersionService.class);
 
+    private static final int MAX_CACHED_FILES = 32;
+
+    /**
+     * 比较版本时每类明细最多返回的条数
+     */
+    private static final int MAX_DIFF_DETAILS = 1000;
+
+    /**
+     * 增量链的最大长度：连续保存这么多个版本后保存一次完整快照
+     */
+    @Value("${version.snapshot-interval:20}")
+    private int snapshotInterval;
+
+    /**
+     * 最新版本单元格内容缓存的总容量（估算字节数）
+     */
+    @Value("${version.latest-cells.max-bytes:67108864}")
+    private long maxLatestCellsBytes;
+
+    /**
+     * 各文件最新版本的单元格内容，创建下一个版本时直接与之比较，不必回放增量链；
+     * 按文件数和估算内存做LRU淘汰，被淘汰的文件下次创建版本时回放增量链
+     */
+    private final LinkedHashMap<String, LatestCells> latestCells = new LinkedHashMap<>(16, 0.75f, true);
+    private long latestCellsBytes;
+
+    private record LatestCells(int versionNumber, CellDelta.Cells cells, int depth) {
+    }
+
+    private record Replayed(Workbook workbook, int depth) {
+    }
+
     /**
      * 创建新版本
      */
@@ -39,19 +90,20 @@ public class VersionService {
             Integer maxVersion = versionRepository.findMaxVersionNumberByFileId(fileId);
             Integer newVersionNumber = (maxVersion != null) ? maxVersion + 1 : 1;
 
-            // 编码文件内容
-            String encodedContent = encodeFileContent(file);
+            // 保存文件内容
+            String manifest = chunkStore.store(file.getBytes());
 
             // 创建版本记录
             FileVersion version = new FileVersion(
                 fileId, 
                 newVersionNumber, 
                 file.getOriginalFilename(), 
-                encodedContent, 
+                null, 
                 file.getSize(), 
                 changeDescription, 
                 userId
             );
+            version.setContentManifest(manifest);
 
             // 如果这是第一个版本，标记为当前版本
             if (newVersionNumber == 1) {
@@ -77,23 +129,32 @@ public class VersionService {
             Integer maxVersion = versionRepository.findMaxVersionNumberByFileId(fileId);
             Integer newVersionNumber = (maxVersion != null) ? maxVersion + 1 : 1;
 
-            // 编码工作簿内容
-            String encodedContent = encodeWorkbookContent(workbook);
-
-            // 获取文件大小（字节数组长度）
-            byte[] contentBytes = Base64.getDecoder().decode(encodedContent);
-            Long fileSize = (long) contentBytes.length;
+            // 与上一版本比较，能用增量表示时只保存变化的单元格
+            CellDelta.Cells cells = CellDelta.capture(workbook);
+            FileVersion previous = (maxVersion != null) ? versionRepository.findByFileIdAndVersionNumber(fileId, maxVersion) : null;
+            LatestCells base = (previous != null) ? baseCells(previous) : null;
+            byte[] delta = (base != null && base.depth() + 1 < snapshotInterval) ? CellDelta.diff(base.cells(), cells) : null;
 
-            // 创建版本记录
+            // 创建版本记录（增量版本不写出工作簿，文件大小留空）
             FileVersion version = new FileVersion(
                 fileId, 
                 newVersionNumber, 
                 fileName, 
-                encodedContent, 
-                fileSize, 
+                null, 
+                null, 
                 changeDescription, 
                 userId
             );
+            int depth = 0;
+            if (delta != null) {
+                version.setBaseVersionNumber(previous.getVersionNumber());
+                version.setCellDelta(delta);
+                depth = base.depth() + 1;
+            } else {
+                byte[] contentBytes = writeWorkbook(workbook);
+                version.setContentManifest(chunkStore.store(contentBytes));
+                version.setFileSize((long) contentBytes.length);
+            }
 
             // 如果这是第一个版本，标记为当前版本
             if (newVersionNumber == 1) {
@@ -101,8 +162,10 @@ public class VersionService {
             }
 
             version = versionRepository.save(version);
+            rememberLatestCells(fileId, new LatestCells(newVersionNumber, cells, depth));
 
-            logger.info("Created version {} for file: {} from workbook", newVersionNumber, fileId);
+            logger.info("Created version {} for file: {} from workbook ({})", newVersionNumber, fileId,
+                    delta != null ? "delta of " + delta.length + " bytes" : "snapshot");
             return version;
         } catch (Exception e) {
             logger.error("Error creating version from workbook for file: {}", fileId, e);
@@ -189,7 +252,18 @@ public class VersionService {
                 userId
             );
             restoreVersion.setIsCurrent(true);
+            if (targetVersion.getContentManifest() != null) {
+                // 与目标版本共用数据块
+                chunkStore.retain(targetVersion.getContentManifest());
+                restoreVersion.setContentManifest(targetVersion.getContentManifest());
+            }
+            if (targetVersion.getCellDelta() != null) {
+                // 与目标版本基于同一个版本
+                restoreVersion.setBaseVersionNumber(targetVersion.getBaseVersionNumber());
+                restoreVersion.setCellDelta(targetVersion.getCellDelta());
+            }
             versionRepository.save(restoreVersion);
+            forgetLatestCells(fileId);
 
             logger.info("Restored file {} to version {}, new version created as {}", fileId, versionNumber, newVersionNumber);
             return true;
@@ -214,9 +288,11 @@ public class VersionService {
     }
 
     /**
-     * 比较两个版本
+     * 比较两个版本，返回新增、删除、修改的工作表、行和单元格
+     * 增量版本先回放成完整工作簿再写出后流式比较：增量只记录单元格内容，不包含依赖它们的公式的新结果，
+     * 直接在流式读取的快照上叠加增量会得到过期的公式值。回放的代价受快照间隔（version.snapshot-interval）限制
      */
-    public String compareVersions(String fileId, Integer version1, Integer version2) {
+    public Map<String, Object> compareVersions(String fileId, Integer version1, Integer version2) {
         try {
             FileVersion v1 = versionRepository.findByFileIdAndVersionNumber(fileId, version1);
             FileVersion v2 = versionRepository.findByFileIdAndVersionNumber(fileId, version2);
@@ -226,10 +302,14 @@ public class VersionService {
                 return null;
             }
 
-            // 这里可以实现详细的比较逻辑
-            // 为了简化，我们返回版本信息
-            return String.format("Comparing version %d and version %d of file %s", 
-                                version1, version2, fileId);
+            byte[] content1 = getVersionContent(v1);
+            byte[] content2 = getVersionContent(v2);
+            Map<String, Object> diff = WorkbookDiff.compare(
+                    handler -> excelService.readWorkbook(new ByteArrayInputStream(content1), handler),
+                    handler -> excelService.readWorkbook(new ByteArrayInputStream(content2), handler),
+                    MAX_DIFF_DETAILS);
+            logger.debug("Compared versions {} and {} of file {}: {}", version1, version2, fileId, diff.get("summary"));
+            return diff;
         } catch (Exception e) {
             logger.error("Error comparing versions for file: {} (v{} and v{})", fileId, version1, version2, e);
             return null;
@@ -248,12 +328,34 @@ public class VersionService {
                 return 0;
             }
 
-            // 保留最新的几个版本，删除其余的
-            int deletedCount = 0;
+            // 保留最新的几个版本，删除其余的（不删除当前版本）
+            Set<Integer> deleting = new HashSet<>();
             for (int i = keepLatestCount; i < allVersions.size(); i++) {
+                if (!allVersions.get(i).getIsCurrent()) {
+                    deleting.add(allVersions.get(i).getVersionNumber());
+                }
+            }
+
+            // 增量链经过被删除版本的保留版本先转成完整快照（从旧到新，后面的版本可以基于已转换的版本）
+            Map<Integer, FileVersion> byNumber = new HashMap<>();
+            for (FileVersion version : allVersions) {
+                byNumber.put(version.getVersionNumber(), version);
+            }
+            for (int i = allVersions.size() - 1; i >= 0; i--) {
                 FileVersion version = allVersions.get(i);
-                if (!version.getIsCurrent()) { // 不删除当前版本
+                if (!deleting.contains(version.getVersionNumber()) && dependsOnAny(version, deleting, byNumber)) {
+                    materialize(version);
+                }
+            }
+            forgetLatestCells(fileId);
+
+            int deletedCount = 0;
+            for (FileVersion version : allVersions) {
+                if (deleting.contains(version.getVersionNumber())) {
                     versionRepository.delete(version);
+                    if (version.getContentManifest() != null) {
+                        chunkStore.release(version.getContentManifest());
+                    }
                     deletedCount++;
                 }
             }
@@ -267,21 +369,37 @@ public class VersionService {
     }
 
     /**
-     * 将MultipartFile编码为Base64字符串
+     * 获取版本的文件内容（兼容旧版本的Base64内容）
+     */
+    public byte[] getVersionContent(FileVersion version) throws IOException {
+        if (version.getCellDelta() != null) {
+            Workbook workbook = replay(version).workbook();
+            try {
+                return writeWorkbook(workbook);
+            } finally {
+                workbook.close();
+            }
+        }
+        if (version.getContentManifest() != null) {
+            return chunkStore.load(version.getContentManifest());
+        }
+        return decodeContent(version.getFileContent());
+    }
+
+    /**
+     * 获取版本内容存储的统计信息
      */
-    private String encodeFileContent(MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        return Base64.getEncoder().encodeToString(fileBytes);
+    public Map<String, Object> getStorageStats() {
+        return chunkStore.getStats();
     }
 
     /**
-     * 将Workbook编码为Base64字符串
+     * 将Workbook写出为字节数组
      */
-    private String encodeWorkbookContent(Workbook workbook) throws IOException {
+    private byte[] writeWorkbook(Workbook workbook) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
             workbook.write(baos);
-            byte[] workbookBytes = baos.toByteArray();
-            return Base64.getEncoder().encodeToString(workbookBytes);
+            return baos.toByteArray();
         }
     }
 
@@ -296,13 +414,132 @@ public class VersionService {
     }
 
     /**
-     * 从编码的内容创建Workbook
+     * 从版本内容创建Workbook
      */
-    public Workbook createWorkbookFromVersionContent(String encodedContent) throws IOException {
-        byte[] content = decodeContent(encodedContent);
+    public Workbook createWorkbookFromVersion(FileVersion version) throws IOException {
+        if (version.getCellDelta() != null) {
+            return replay(version).workbook();
+        }
+        byte[] content = getVersionContent(version);
         if (content.length == 0) {
             return null;
         }
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(content));
+        return excelService.loadWorkbook(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * 从最近的完整快照开始依次回放增量，得到版本的工作簿
+     */
+    private Replayed replay(FileVersion version) throws IOException {
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        FileVersion snapshot = version;
+        while (snapshot.getCellDelta() != null) {
+            deltas.push(snapshot.getCellDelta());
+            FileVersion base = versionRepository.findByFileIdAndVersionNumber(snapshot.getFileId(), snapshot.getBaseVersionNumber());
+            if (base == null) {
+                throw new IOException("Base version " + snapshot.getBaseVersionNumber() + " of version "
+                        + snapshot.getVersionNumber() + " is missing for file: " + snapshot.getFileId());
+            }
+            snapshot = base;
+        }
+        byte[] content = snapshot.getContentManifest() != null
+                ? chunkStore.load(snapshot.getContentManifest()) : decodeContent(snapshot.getFileContent());
+        Workbook workbook = excelService.loadWorkbook(new ByteArrayInputStream(content));
+        int depth = deltas.size();
+        if (depth > 0) {
+            WorkbookChangeSet changes = new WorkbookChangeSet();
+            while (!deltas.isEmpty()) {
+                CellDelta.apply(deltas.pop(), workbook, changes);
+            }
+            try {
+                excelService.recalculateFormulas(workbook, changes);
+            } catch (RuntimeException e) {
+                // 无法计算的公式交给Excel打开时重算
+                logger.debug("Could not recalculate replayed version {} of file {}: {}", version.getVersionNumber(),
+                        version.getFileId(), e.getMessage());
+                workbook.setForceFormulaRecalculation(true);
+            } finally {
+                excelService.releaseFormulaEvaluator(workbook);
+            }
+        }
+        return new Replayed(workbook, depth);
+    }
+
+    /**
+     * 取得版本的单元格内容及其在增量链中的深度；无法读取时返回null（下一个版本保存完整快照）
+     */
+    private LatestCells baseCells(FileVersion version) {
+        synchronized (latestCells) {
+            LatestCells cached = latestCells.get(version.getFileId());
+            if (cached != null && cached.versionNumber() == version.getVersionNumber()) {
+                return cached;
+            }
+        }
+        try {
+            Replayed replayed = replay(version);
+            try (Workbook workbook = replayed.workbook()) {
+                return new LatestCells(version.getVersionNumber(), CellDelta.capture(workbook), replayed.depth());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not read version {} of file {} as a delta base: {}", version.getVersionNumber(),
+                    version.getFileId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void rememberLatestCells(String fileId, LatestCells entry) {
+        synchronized (latestCells) {
+            LatestCells previous = latestCells.put(fileId, entry);
+            if (previous != null) {
+                latestCellsBytes -= previous.cells().estimatedBytes();
+            }
+            latestCellsBytes += entry.cells().estimatedBytes();
+            // 至少保留刚放入的一项
+            Iterator<Map.Entry<String, LatestCells>> iterator = latestCells.entrySet().iterator();
+            while ((latestCells.size() > MAX_CACHED_FILES || latestCellsBytes > maxLatestCellsBytes)
+                    && latestCells.size() > 1 && iterator.hasNext()) {
+                Map.Entry<String, LatestCells> eldest = iterator.next();
+                iterator.remove();
+                latestCellsBytes -= eldest.getValue().cells().estimatedBytes();
+                logger.debug("Evicted cached cells of file: {} ({} bytes)", eldest.getKey(),
+                        eldest.getValue().cells().estimatedBytes());
+            }
+        }
+    }
+
+    private void forgetLatestCells(String fileId) {
+        synchronized (latestCells) {
+            LatestCells removed = latestCells.remove(fileId);
+            if (removed != null) {
+                latestCellsBytes -= removed.cells().estimatedBytes();
+            }
+        }
+    }
+
+    /**
+     * 增量链是否经过给定的版本
+     */
+    private boolean dependsOnAny(FileVersion version, Set<Integer> versionNumbers, Map<Integer, FileVersion> byNumber) {
+        FileVersion current = version;
+        while (current != null && current.getCellDelta() != null) {
+            if (versionNumbers.contains(current.getBaseVersionNumber())) {
+                return true;
+            }
+            current = byNumber.get(current.getBaseVersionNumber());
+        }
+        return false;
+    }
+
+    /**
+     * 将增量版本转成完整快照
+     */
+    private void materialize(FileVersion version) throws IOException {
+        byte[] content = getVersionContent(version);
+        version.setContentManifest(chunkStore.store(content));
+        version.setFileSize((long) content.length);
+        version.setBaseVersionNumber(null);
+        version.setCellDelta(null);
+        versionRepository.save(version);
+        logger.debug("Converted version {} of file {} to a snapshot", version.getVersionNumber(), version.getFileId());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,326 @@
+package com.example.aiexcel.service;
+
+import com.example.aiexcel.service.excel.StoredWorkbookFile;
+import com.example.aiexcel.service.excel.WorkbookCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 工作簿句柄服务
+ * 客户端上传一次文件后获得句柄，后续请求只需携带句柄即可复用服务端保存的内容。
+ * 内容保存在进程内（带过期时间和总内存上限），可选地同步写入Redis，
+ * 进程内被淘汰或在其他实例上创建的句柄可以从Redis中恢复
+ */
+@Service
+public class WorkbookHandleService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookHandleService.class);
+
+    private static final String REDIS_KEY_PREFIX = "aiexcel:workbook:";
+
+    @Value("${workbook.handle.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Value("${workbook.handle.max-bytes:536870912}")
+    private long maxBytes;
+
+    @Value("${workbook.handle.max-file-bytes:52428800}")
+    private long maxFileBytes;
+
+    @Value("${workbook.handle.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Autowired
+    private ObjectProvider<RedisConnectionFactory> redisConnectionFactory;
+
+    private final Map<String, StoredWorkbook> workbooks = new ConcurrentHashMap<>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicLong redisRestores = new AtomicLong();
+    private volatile long lastSweep = System.currentTimeMillis();
+    private RedisTemplate<String, byte[]> redisTemplate;
+
+    @PostConstruct
+    public void init() {
+        if (redisEnabled) {
+            RedisConnectionFactory connectionFactory = redisConnectionFactory.getIfAvailable();
+            if (connectionFactory == null) {
+                logger.warn("Redis tier for workbook handles is enabled but no RedisConnectionFactory is available");
+                return;
+            }
+            RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+            template.setConnectionFactory(connectionFactory);
+            template.setKeySerializer(RedisSerializer.string());
+            template.setValueSerializer(RedisSerializer.byteArray());
+            template.afterPropertiesSet();
+            this.redisTemplate = template;
+            logger.info("Workbook handles will be mirrored to Redis");
+        }
+    }
+
+    /**
+     * 保存上传的文件并返回句柄信息
+     * @param file 上传的文件
+     * @return 句柄信息
+     */
+    public Map<String, Object> store(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            throw new IOException("File is required and cannot be empty");
+        }
+        if (file.getSize() > maxFileBytes) {
+            throw new IOException("File is too large for a workbook handle: " + file.getSize() + " bytes (limit " + maxFileBytes + ")");
+        }
+
+        byte[] content = file.getBytes();
+        String handle = UUID.randomUUID().toString().replace("-", "");
+        StoredWorkbook stored = new StoredWorkbook(handle, file.getOriginalFilename(), file.getContentType(),
+                content, WorkbookCache.sha256(content));
+
+        sweepExpired();
+        workbooks.put(handle, stored);
+        currentBytes.addAndGet(content.length);
+        evictIfNecessary();
+        writeToRedis(stored);
+
+        logger.info("Stored workbook {} as handle {} ({} bytes)", file.getOriginalFilename(), handle, content.length);
+        return describe(stored);
+    }
+
+    /**
+     * 根据句柄获取文件，句柄不存在或已过期时返回null
+     */
+    public MultipartFile resolve(String handle) {
+        return resolve(handle, "file");
+    }
+
+    /**
+     * 根据句柄获取文件，并以指定的参数名返回
+     */
+    public MultipartFile resolve(String handle, String parameterName) {
+        StoredWorkbook stored = lookup(handle);
+        if (stored == null) {
+            return null;
+        }
+        return new StoredWorkbookFile(parameterName, stored.fileName, stored.contentType, stored.content, stored.contentHash);
+    }
+
+    /**
+     * 获取句柄信息
+     */
+    public Map<String, Object> getHandleInfo(String handle) {
+        StoredWorkbook stored = lookup(handle);
+        return stored == null ? null : describe(stored);
+    }
+
+    /**
+     * 释放句柄
+     */
+    public boolean release(String handle) {
+        StoredWorkbook removed = workbooks.remove(handle);
+        if (removed != null) {
+            currentBytes.addAndGet(-removed.content.length);
+        }
+        boolean removedFromRedis = false;
+        if (redisTemplate != null) {
+            try {
+                removedFromRedis = Boolean.TRUE.equals(redisTemplate.delete(REDIS_KEY_PREFIX + handle))
+                        | Boolean.TRUE.equals(redisTemplate.delete(REDIS_KEY_PREFIX + handle + ":meta"));
+            } catch (Exception e) {
+                logger.warn("Failed to delete workbook handle {} from Redis: {}", handle, e.getMessage());
+            }
+        }
+        return removed != null || removedFromRedis;
+    }
+
+    /**
+     * 句柄存储的统计信息
+     */
+    public Map<String, Object> getStats() {
+        sweepExpired();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("handles", workbooks.size());
+        stats.put("bytes", currentBytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("ttlMinutes", ttlMinutes);
+        stats.put("redisEnabled", redisTemplate != null);
+        stats.put("redisRestores", redisRestores.get());
+        return stats;
+    }
+
+    private StoredWorkbook lookup(String handle) {
+        if (handle == null || handle.isBlank()) {
+            return null;
+        }
+        sweepExpired();
+        long now = System.currentTimeMillis();
+        StoredWorkbook stored = workbooks.get(handle);
+        if (stored != null && stored.isExpired(now, ttlMillis())) {
+            // 只丢弃本地副本；Redis中的共享副本可能被其他实例续期，由它自己的TTL过期
+            if (workbooks.remove(handle, stored)) {
+                currentBytes.addAndGet(-stored.content.length);
+            }
+            stored = null;
+        }
+        if (stored == null) {
+            stored = readFromRedis(handle);
+            if (stored == null) {
+                return null;
+            }
+            if (workbooks.putIfAbsent(handle, stored) == null) {
+                currentBytes.addAndGet(stored.content.length);
+                redisRestores.incrementAndGet();
+                evictIfNecessary();
+            }
+        }
+        stored.lastAccess = now;
+        touchRedis(handle);
+        return stored;
+    }
+
+    private Map<String, Object> describe(StoredWorkbook stored) {
+        Map<String, Object> info = new HashMap<>();
+        info.put("handle", stored.handle);
+        info.put("fileName", stored.fileName);
+        info.put("size", stored.content.length);
+        info.put("contentHash", stored.contentHash);
+        info.put("expiresAt", stored.lastAccess + ttlMillis());
+        return info;
+    }
+
+    private long ttlMillis() {
+        return Duration.ofMinutes(ttlMinutes).toMillis();
+    }
+
+    /**
+     * 清理过期句柄，最多每分钟执行一次
+     */
+    private void sweepExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < 60_000) {
+            return;
+        }
+        lastSweep = now;
+        long ttl = ttlMillis();
+        for (StoredWorkbook stored : new ArrayList<>(workbooks.values())) {
+            if (stored.isExpired(now, ttl) && workbooks.remove(stored.handle, stored)) {
+                currentBytes.addAndGet(-stored.content.length);
+                logger.debug("Workbook handle {} expired", stored.handle);
+            }
+        }
+    }
+
+    /**
+     * 超过内存上限时按最近访问时间淘汰，已写入Redis的内容之后仍可恢复
+     */
+    private void evictIfNecessary() {
+        if (currentBytes.get() <= maxBytes) {
+            return;
+        }
+        List<StoredWorkbook> candidates = new ArrayList<>(workbooks.values());
+        candidates.sort(Comparator.comparingLong(stored -> stored.lastAccess));
+        for (StoredWorkbook stored : candidates) {
+            if (currentBytes.get() <= maxBytes || workbooks.size() <= 1) {
+                break;
+            }
+            if (workbooks.remove(stored.handle, stored)) {
+                currentBytes.addAndGet(-stored.content.length);
+                logger.info("Evicted workbook handle {} from memory ({} bytes)", stored.handle, stored.content.length);
+            }
+        }
+    }
+
+    private void writeToRedis(StoredWorkbook stored) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            Duration ttl = Duration.ofMinutes(ttlMinutes);
+            String meta = nullToEmpty(stored.fileName) + "\n" + nullToEmpty(stored.contentType) + "\n" + stored.contentHash;
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + stored.handle, stored.content, ttl);
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + stored.handle + ":meta", meta.getBytes(StandardCharsets.UTF_8), ttl);
+        } catch (Exception e) {
+            logger.warn("Failed to write workbook handle {} to Redis: {}", stored.handle, e.getMessage());
+        }
+    }
+
+    private StoredWorkbook readFromRedis(String handle) {
+        if (redisTemplate == null) {
+            return null;
+        }
+        try {
+            byte[] meta = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + handle + ":meta");
+            byte[] content = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + handle);
+            if (meta == null || content == null) {
+                return null;
+            }
+            String[] parts = new String(meta, StandardCharsets.UTF_8).split("\n", -1);
+            String contentHash = parts.length > 2 && !parts[2].isEmpty() ? parts[2] : WorkbookCache.sha256(content);
+            return new StoredWorkbook(handle, emptyToNull(parts[0]), parts.length > 1 ? emptyToNull(parts[1]) : null,
+                    content, contentHash);
+        } catch (Exception e) {
+            logger.warn("Failed to read workbook handle {} from Redis: {}", handle, e.getMessage());
+            return null;
+        }
+    }
+
+    private void touchRedis(String handle) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            Duration ttl = Duration.ofMinutes(ttlMinutes);
+            redisTemplate.expire(REDIS_KEY_PREFIX + handle, ttl);
+            redisTemplate.expire(REDIS_KEY_PREFIX + handle + ":meta", ttl);
+        } catch (Exception e) {
+            logger.debug("Failed to refresh TTL of workbook handle {} in Redis: {}", handle, e.getMessage());
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * 进程内保存的工作簿
+     */
+    private static class StoredWorkbook {
+        private final String handle;
+        private final String fileName;
+        private final String contentType;
+        private final byte[] content;
+        private final String contentHash;
+        private volatile long lastAccess;
+
+        StoredWorkbook(String handle, String fileName, String contentType, byte[] content, String contentHash) {
+            this.handle = handle;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.content = content;
+            this.contentHash = contentHash;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            return now - lastAccess > ttlMillis;
+        }
+    }
+}
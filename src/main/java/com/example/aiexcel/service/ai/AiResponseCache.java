@@ -0,0 +1,311 @@
+package com.example.aiexcel.service.ai;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI响应缓存
+ * 以模型、消息和采样参数规范化后的SHA-256为键，只缓存调用方标记为可缓存的请求和温度不高于阈值的（即输出可复现的）请求。
+ * 进程内按估算内存做LRU淘汰并带过期时间，可选地同步写入Redis，供其他实例或本地淘汰后复用
+ */
+public class AiResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiResponseCache.class);
+
+    private static final String REDIS_KEY_PREFIX = "aiexcel:ai-response:";
+
+    /**
+     * 每个缓存项除文本外的固定开销估算（键、对象头等）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final double maxTemperature;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private RedisTemplate<String, byte[]> redisTemplate;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong redisHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong savedMillis = new AtomicLong();
+
+    /**
+     * @param maxBytes 进程内缓存总容量（估算字节数）
+     * @param ttlMinutes 缓存项的有效期
+     * @param maxTemperature 未标记为可缓存的请求按温度判断时的最高温度，未指定温度的请求不缓存
+     */
+    public AiResponseCache(long maxBytes, long ttlMinutes, double maxTemperature) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = Duration.ofMinutes(ttlMinutes).toMillis();
+        this.maxTemperature = maxTemperature;
+    }
+
+    /**
+     * 启用Redis二级缓存
+     */
+    public void setRedisTemplate(RedisTemplate<String, byte[]> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 请求是否可缓存：调用方明确标记为可缓存，或温度明确指定且不高于阈值
+     */
+    public boolean isCacheable(AiRequest request) {
+        if (request.getMessages() == null || request.getMessages().isEmpty()) {
+            return false;
+        }
+        Double temperature = request.getTemperature();
+        return request.isCacheable() || (temperature != null && temperature <= maxTemperature);
+    }
+
+    /**
+     * 计算请求的缓存键，不可缓存的请求返回null（并计入bypassed）
+     */
+    public String keyOf(AiRequest request) {
+        if (!isCacheable(request)) {
+            bypassed.incrementAndGet();
+            return null;
+        }
+        return fingerprint(request);
+    }
+
+    /**
+     * 请求指纹：模型、温度、最大token数以及每条消息的角色和内容
+     * 消息内容统一换行符并去掉首尾空白，字段之间带长度前缀以避免拼接歧义
+     */
+    public static String fingerprint(AiRequest request) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        updateField(digest, request.getModel());
+        updateField(digest, String.valueOf(request.getTemperature()));
+        updateField(digest, String.valueOf(request.getMaxTokens()));
+        List<AiRequest.Message> messages = request.getMessages();
+        updateField(digest, String.valueOf(messages.size()));
+        for (AiRequest.Message message : messages) {
+            updateField(digest, message.getRole());
+            updateField(digest, normalize(message.getContent()));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void updateField(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String normalize(String content) {
+        return content == null ? null : content.replace("\r\n", "\n").strip();
+    }
+
+    /**
+     * 查找缓存的响应，每次返回新的对象，调用方可以自由修改
+     */
+    public AiResponse get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            savedMillis.addAndGet(entry.computeMillis);
+            return entry.toResponse();
+        }
+
+        entry = readFromRedis(key, now);
+        if (entry != null) {
+            redisHits.incrementAndGet();
+            savedMillis.addAndGet(entry.computeMillis);
+            store(entry);
+            return entry.toResponse();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 保存AI响应
+     * @param computeMillis 生成该响应实际耗费的时间，用于统计缓存节省的时间
+     */
+    public void put(String key, AiResponse response, long computeMillis) {
+        if (response == null || response.getChoices() == null || response.getChoices().length == 0
+                || response.getChoices()[0].getMessage() == null) {
+            return;
+        }
+        String content = response.getChoices()[0].getMessage().getContent();
+        if (content == null) {
+            return;
+        }
+        Entry entry = new Entry(key, response.getModel(), content, computeMillis,
+                System.currentTimeMillis() + ttlMillis);
+        if (entry.weight > maxBytes) {
+            return;
+        }
+        store(entry);
+        writeToRedis(entry);
+    }
+
+    private synchronized void store(Entry entry) {
+        Entry previous = entries.put(entry.key, entry);
+        if (previous != null) {
+            currentBytes -= previous.weight;
+        }
+        currentBytes += entry.weight;
+        evictIfNecessary();
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.weight;
+        }
+    }
+
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            currentBytes -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * 缓存命中率等统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hitCount = hits.get() + redisHits.get();
+        long missCount = misses.get();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("estimatedBytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("ttlMinutes", Duration.ofMillis(ttlMillis).toMinutes());
+        stats.put("maxTemperature", maxTemperature);
+        stats.put("hits", hitCount);
+        stats.put("redisHits", redisHits.get());
+        stats.put("misses", missCount);
+        stats.put("bypassed", bypassed.get());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("savedTimeMs", savedMillis.get());
+        stats.put("redisEnabled", redisTemplate != null);
+        return stats;
+    }
+
+    public long getHits() {
+        return hits.get() + redisHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void writeToRedis(Entry entry) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            String value = nullToEmpty(entry.model) + "\n" + entry.computeMillis + "\n" + entry.content;
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + entry.key, value.getBytes(StandardCharsets.UTF_8),
+                    Duration.ofMillis(ttlMillis));
+        } catch (Exception e) {
+            logger.warn("Failed to write AI response {} to Redis: {}", entry.key, e.getMessage());
+        }
+    }
+
+    private Entry readFromRedis(String key, long now) {
+        if (redisTemplate == null) {
+            return null;
+        }
+        try {
+            byte[] value = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + key);
+            if (value == null) {
+                return null;
+            }
+            String[] parts = new String(value, StandardCharsets.UTF_8).split("\n", 3);
+            if (parts.length < 3) {
+                return null;
+            }
+            return new Entry(key, parts[0].isEmpty() ? null : parts[0], parts[2], Long.parseLong(parts[1]),
+                    now + ttlMillis);
+        } catch (Exception e) {
+            logger.warn("Failed to read AI response {} from Redis: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * 缓存项，只保留响应中调用方实际使用的字段
+     */
+    private static class Entry {
+        private final String key;
+        private final String model;
+        private final String content;
+        private final long computeMillis;
+        private final long expiresAt;
+        private final long weight;
+
+        Entry(String key, String model, String content, long computeMillis, long expiresAt) {
+            this.key = key;
+            this.model = model;
+            this.content = content;
+            this.computeMillis = computeMillis;
+            this.expiresAt = expiresAt;
+            this.weight = ENTRY_OVERHEAD_BYTES + 2L * content.length();
+        }
+
+        AiResponse toResponse() {
+            AiResponse response = new AiResponse(content);
+            response.setModel(model);
+            response.getChoices()[0].setFinish_reason("stop");
+            return response;
+        }
+    }
+}
@@ -3,9 +3,21 @@ package com.example.aiexcel.service.ai;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface AiService {
     AiResponse generateResponse(AiRequest request);
+    /**
+     * Non-blocking variant of {@link #generateResponse(AiRequest)}: the calling thread is released while the
+     * request is in flight. The future completes on an HTTP I/O thread, so continuations should stay lightweight.
+     */
+    CompletableFuture<AiResponse> generateResponseAsync(AiRequest request);
     AiResponse generateStreamingResponse(AiRequest request);
+    /**
+     * Streams the answer chunk by chunk to the listener. The upstream read runs on a bounded executor; the future
+     * completes with the full answer, or fails with a RejectedExecutionException when all stream slots are busy.
+     */
+    CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener);
     /**
      * Test connection to AI provider.
      * @return HTTP status code returned by a lightweight test request (e.g. 200, 401), or null if no request was made or an error occurred.
@@ -0,0 +1,15 @@
+package com.example.aiexcel.service.ai;
+
+import java.io.IOException;
+
+/**
+ * Receives the incremental text of a streamed AI answer.
+ */
+@FunctionalInterface
+public interface AiStreamListener {
+    /**
+     * Called once per upstream chunk, in order, on the stream's worker thread. Blocking here slows the upstream
+     * read; throwing (e.g. because the client disconnected) aborts the stream.
+     */
+    void onToken(String token) throws IOException;
+}
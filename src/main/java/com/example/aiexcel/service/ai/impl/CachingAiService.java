@@ -0,0 +1,102 @@
+package com.example.aiexcel.service.ai.impl;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiResponseCache;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 带响应缓存的AiService装饰器
+ * 可缓存的请求（见{@link AiResponseCache#isCacheable}）先查缓存，未命中时交给被装饰的服务并缓存结果
+ */
+public class CachingAiService implements AiService {
+
+    private final AiService delegate;
+    private final AiResponseCache cache;
+
+    public CachingAiService(AiService delegate, AiResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public AiResponse generateResponse(AiRequest request) {
+        String key = cache.keyOf(request);
+        if (key == null) {
+            return delegate.generateResponse(request);
+        }
+        AiResponse cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        AiResponse response = delegate.generateResponse(request);
+        cache.put(key, response, (System.nanoTime() - start) / 1_000_000);
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+        String key = cache.keyOf(request);
+        if (key == null) {
+            return delegate.generateResponseAsync(request);
+        }
+        AiResponse cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long start = System.nanoTime();
+        return delegate.generateResponseAsync(request).thenApply(response -> {
+            cache.put(key, response, (System.nanoTime() - start) / 1_000_000);
+            return response;
+        });
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request) {
+        String key = cache.keyOf(request);
+        if (key == null) {
+            return delegate.generateStreamingResponse(request);
+        }
+        AiResponse cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        AiResponse response = delegate.generateStreamingResponse(request);
+        cache.put(key, response, (System.nanoTime() - start) / 1_000_000);
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener) {
+        String key = cache.keyOf(request);
+        if (key == null) {
+            return delegate.streamResponse(request, listener);
+        }
+        AiResponse cached = cache.get(key);
+        if (cached != null) {
+            // 命中时整段回答作为一个片段交给监听器
+            try {
+                listener.onToken(cached.getChoices()[0].getMessage().getContent());
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
+        long start = System.nanoTime();
+        return delegate.streamResponse(request, listener).thenApply(response -> {
+            cache.put(key, response, (System.nanoTime() - start) / 1_000_000);
+            return response;
+        });
+    }
+
+    @Override
+    public Integer testConnection() {
+        return delegate.testConnection();
+    }
+}
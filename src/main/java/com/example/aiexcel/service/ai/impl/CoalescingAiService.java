@@ -0,0 +1,194 @@
+package com.example.aiexcel.service.ai.impl;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiResponseCache;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并并发相同请求的AiService装饰器（single-flight）
+ * 同一指纹的请求在上游返回之前只发出一次，后到的调用方共享同一个结果；请求完成后立即移出，不做缓存。
+ * 流式请求需要逐个片段回调各自的监听器，不参与合并
+ */
+public class CoalescingAiService implements AiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingAiService.class);
+
+    /**
+     * 合并请求使用的键
+     */
+    public enum KeyStrategy {
+        /** 模型、采样参数和全部消息都相同才合并 */
+        FULL,
+        /** 模型和消息相同即合并，忽略温度和最大token数 */
+        MESSAGES;
+
+        public static KeyStrategy from(String value) {
+            return value == null || value.isBlank() ? FULL : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final AiService delegate;
+    private final KeyStrategy keyStrategy;
+    private final Map<String, CompletableFuture<AiResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public CoalescingAiService(AiService delegate, KeyStrategy keyStrategy) {
+        this.delegate = delegate;
+        this.keyStrategy = keyStrategy;
+    }
+
+    @Override
+    public AiResponse generateResponse(AiRequest request) {
+        String key = keyOf(request);
+        if (key == null) {
+            return delegate.generateResponse(request);
+        }
+        CompletableFuture<AiResponse> leader = new CompletableFuture<>();
+        CompletableFuture<AiResponse> existing = inFlight.putIfAbsent(key, leader);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            logger.debug("Coalesced AI request {} with an in-flight call", key);
+            try {
+                return copyOf(existing.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        upstreamCalls.incrementAndGet();
+        try {
+            AiResponse response = delegate.generateResponse(request);
+            inFlight.remove(key, leader);
+            leader.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, leader);
+            leader.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+        String key = keyOf(request);
+        if (key == null) {
+            return delegate.generateResponseAsync(request);
+        }
+        CompletableFuture<AiResponse> leader = new CompletableFuture<>();
+        CompletableFuture<AiResponse> existing = inFlight.putIfAbsent(key, leader);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            logger.debug("Coalesced AI request {} with an in-flight call", key);
+            return existing.thenApply(CoalescingAiService::copyOf);
+        }
+
+        upstreamCalls.incrementAndGet();
+        CompletableFuture<AiResponse> upstream;
+        try {
+            upstream = delegate.generateResponseAsync(request);
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        upstream.whenComplete((response, error) -> {
+            inFlight.remove(key, leader);
+            if (error == null) {
+                leader.complete(response);
+            } else {
+                leader.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        });
+        return leader;
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request) {
+        return delegate.generateStreamingResponse(request);
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener) {
+        return delegate.streamResponse(request, listener);
+    }
+
+    @Override
+    public Integer testConnection() {
+        return delegate.testConnection();
+    }
+
+    private String keyOf(AiRequest request) {
+        if (request.getMessages() == null || request.getMessages().isEmpty()) {
+            return null;
+        }
+        if (keyStrategy == KeyStrategy.MESSAGES) {
+            AiRequest messagesOnly = new AiRequest();
+            messagesOnly.setModel(request.getModel());
+            messagesOnly.setMessages(request.getMessages());
+            return AiResponseCache.fingerprint(messagesOnly);
+        }
+        return AiResponseCache.fingerprint(request);
+    }
+
+    /**
+     * 共享的结果给每个后到的调用方一份副本，避免互相修改
+     */
+    private static AiResponse copyOf(AiResponse response) {
+        AiResponse copy = new AiResponse();
+        copy.setId(response.getId());
+        copy.setObject(response.getObject());
+        copy.setCreated(response.getCreated());
+        copy.setModel(response.getModel());
+        copy.setUsage(response.getUsage());
+        if (response.getChoices() != null) {
+            AiResponse.Choice[] choices = new AiResponse.Choice[response.getChoices().length];
+            for (int i = 0; i < choices.length; i++) {
+                AiResponse.Choice source = response.getChoices()[i];
+                AiResponse.Choice choice = new AiResponse.Choice();
+                choice.setIndex(source.getIndex());
+                choice.setFinish_reason(source.getFinish_reason());
+                if (source.getMessage() != null) {
+                    choice.setMessage(new AiResponse.Message(source.getMessage().getRole(), source.getMessage().getContent()));
+                }
+                choices[i] = choice;
+            }
+            copy.setChoices(choices);
+        }
+        return copy;
+    }
+
+    /**
+     * 请求合并的统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long upstream = upstreamCalls.get();
+        long shared = coalesced.get();
+        stats.put("keyStrategy", keyStrategy.name());
+        stats.put("inFlight", inFlight.size());
+        stats.put("upstreamCalls", upstream);
+        stats.put("coalesced", shared);
+        stats.put("coalescedRate", upstream + shared == 0 ? 0.0 : (double) shared / (upstream + shared));
+        return stats;
+    }
+
+    public long getUpstreamCalls() {
+        return upstreamCalls.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
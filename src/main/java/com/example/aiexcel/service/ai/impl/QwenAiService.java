@@ -3,22 +3,56 @@ package com.example.aiexcel.service.ai.impl;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
+import com.example.aiexcel.service.concurrent.VirtualThreads;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import com.example.aiexcel.config.EnvFile;
 
@@ -32,7 +66,13 @@ public class QwenAiService implements AiService {
     private final String apiKey;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final CloseableHttpClient httpClient = HttpClients.createDefault();
+    // 异步客户端：连接池复用连接，等待响应期间不占用调用线程
+    private final CloseableHttpAsyncClient httpClient;
+    // 流式响应逐行阻塞读取，在有界线程池上执行，以便写出端变慢时对上游形成背压
+    private final CloseableHttpClient streamingClient;
+    private final Executor streamExecutor;
+    // 流式读取使用的线程：平台线程池，或虚拟线程模式下每个流一个虚拟线程
+    private final ExecutorService streamThreads;
 
     private String maskKey(String key) {
         if (key == null) return "<null>";
@@ -47,9 +87,24 @@ public class QwenAiService implements AiService {
         logger.severe(context + ": " + e.getMessage() + "\n" + sw.toString());
     }
 
+    public QwenAiService(String apiKeyFromConfig, String baseUrl, String model,
+                         int maxConnections, int maxConnectionsPerRoute, long connectTimeoutMs, long responseTimeoutMs,
+                         int maxConcurrentStreams, int streamQueueCapacity) {
+        this(apiKeyFromConfig, baseUrl, model, maxConnections, maxConnectionsPerRoute, connectTimeoutMs, responseTimeoutMs,
+                maxConcurrentStreams, streamQueueCapacity, false);
+    }
+
+    @Autowired
     public QwenAiService(@Value("${qwen.api.api-key:}") String apiKeyFromConfig,
                          @Value("${qwen.api.base-url:https://dashscope.aliyuncs.com/compatible-mode/v1}") String baseUrl,
-                         @Value("${qwen.api.default-model:qwen-max}") String model) {
+                         @Value("${qwen.api.default-model:qwen-max}") String model,
+                         @Value("${qwen.api.max-connections:100}") int maxConnections,
+                         @Value("${qwen.api.max-connections-per-route:50}") int maxConnectionsPerRoute,
+                         @Value("${qwen.api.connect-timeout-ms:10000}") long connectTimeoutMs,
+                         @Value("${qwen.api.response-timeout-ms:120000}") long responseTimeoutMs,
+                         @Value("${qwen.api.stream.max-concurrent:32}") int maxConcurrentStreams,
+                         @Value("${qwen.api.stream.queue-capacity:64}") int streamQueueCapacity,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
         // 统一从 EnvFile 读取配置，EnvFile 会优先读取环境变量/系统属性
         String resolvedKey = EnvFile.getApiKey();
         if (resolvedKey != null && !resolvedKey.isEmpty()) {
@@ -84,10 +139,175 @@ public class QwenAiService implements AiService {
 
         logger.info("qwen.api.base-url resolved to: " + this.apiBaseUrl);
         this.defaultModel = EnvFile.getDefaultModel();
+        this.httpClient = createHttpClient(maxConnections, maxConnectionsPerRoute, connectTimeoutMs, responseTimeoutMs);
+        this.streamingClient = createStreamingClient(maxConnections, maxConnectionsPerRoute, connectTimeoutMs, responseTimeoutMs);
+        if (virtualThreads && VirtualThreads.isSupported()) {
+            this.streamThreads = VirtualThreads.newThreadPerTaskExecutor("ai-stream-");
+            this.streamExecutor = createLimitedExecutor(streamThreads, maxConcurrentStreams, streamQueueCapacity);
+            logger.info("AI streams run on virtual threads, maxConcurrent=" + maxConcurrentStreams);
+        } else {
+            if (virtualThreads) {
+                logger.warning("Virtual threads requested but not supported on Java " + Runtime.version() + ", using platform threads for AI streams");
+            }
+            ThreadPoolExecutor pool = createStreamExecutor(maxConcurrentStreams, streamQueueCapacity);
+            this.streamThreads = pool;
+            this.streamExecutor = pool;
+        }
+    }
+
+    /**
+     * 创建带连接池的异步客户端
+     * connectTimeout同时用作从连接池获取连接的等待上限，responseTimeout是等待响应数据的上限
+     */
+    private static CloseableHttpAsyncClient createHttpClient(int maxConnections, int maxConnectionsPerRoute,
+                                                             long connectTimeoutMs, long responseTimeoutMs) {
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .build();
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+        client.start();
+        logger.info("Qwen HTTP client pool: maxConnections=" + maxConnections + ", maxConnectionsPerRoute=" + maxConnectionsPerRoute
+                + ", connectTimeoutMs=" + connectTimeoutMs + ", responseTimeoutMs=" + responseTimeoutMs);
+        return client;
+    }
+
+    /**
+     * 流式请求使用的同步客户端，连接池配置与异步客户端相同，socket超时即两个片段之间的最大间隔
+     */
+    private static CloseableHttpClient createStreamingClient(int maxConnections, int maxConnectionsPerRoute,
+                                                             long connectTimeoutMs, long responseTimeoutMs) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * 流式读取线程池：线程数即同时进行的流数上限，排队已满时拒绝新的流
+     */
+    private static ThreadPoolExecutor createStreamExecutor(int maxConcurrentStreams, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentStreams, maxConcurrentStreams,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)), runnable -> {
+                    Thread thread = new Thread(runnable, "ai-stream-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 虚拟线程模式下的流式读取执行器：线程不再是稀缺资源，但同时读取的流数仍限制为maxConcurrentStreams，
+     * 等待中的流超过queueCapacity时同样拒绝，行为与平台线程池一致
+     */
+    private static Executor createLimitedExecutor(ExecutorService threads, int maxConcurrentStreams, int queueCapacity) {
+        Semaphore admitted = new Semaphore(maxConcurrentStreams + Math.max(queueCapacity, 1));
+        Semaphore running = new Semaphore(maxConcurrentStreams);
+        return task -> {
+            if (!admitted.tryAcquire()) {
+                throw new RejectedExecutionException("All AI stream slots are busy");
+            }
+            try {
+                threads.execute(() -> {
+                    try {
+                        running.acquire();
+                        try {
+                            task.run();
+                        } finally {
+                            running.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        admitted.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admitted.release();
+                throw e;
+            }
+        };
+    }
+
+    @PreDestroy
+    public void close() {
+        streamThreads.shutdownNow();
+        httpClient.close(CloseMode.GRACEFUL);
+        streamingClient.close(CloseMode.GRACEFUL);
     }
 
     @Override
     public AiResponse generateResponse(AiRequest request) {
+        return join(generateResponseAsync(request));
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+        String requestBody;
+        try {
+            // 整体返回的响应不使用流式格式
+            requestBody = prepareRequestBody(request, false);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String model = request.getModel();
+
+        CompletableFuture<AiResponse> future = new CompletableFuture<>();
+        // 回调在I/O线程上执行，这里只做状态检查和JSON解析
+        httpClient.execute(createPost(requestBody), new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse httpResponse) {
+                try {
+                    future.complete(parseResponse(httpResponse, model));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                logger.severe("Error calling Qwen API: " + e.getMessage());
+                future.completeExceptionally(new RuntimeException("Error calling Qwen API", e));
+            }
+
+            @Override
+            public void cancelled() {
+                future.completeExceptionally(new RuntimeException("Qwen API request was cancelled"));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 补全默认模型、检查API密钥并生成请求体
+     * @throws RuntimeException 未配置API密钥或序列化失败
+     */
+    private String prepareRequestBody(AiRequest request, boolean stream) {
         // 如果没有设置模型，使用默认模型
         if (request.getModel() == null || request.getModel().isEmpty()) {
             request.setModel(defaultModel);
@@ -99,96 +319,199 @@ public class QwenAiService implements AiService {
             throw new RuntimeException("API Key is not configured. Please set QWEN_API_KEY in .env file.");
         }
 
+        // 创建请求体 - 移除不被Qwen API支持的字段
+        QwenRequest qwenRequest = new QwenRequest();
+        qwenRequest.setModel(request.getModel());
+        qwenRequest.setMessages(request.getMessages());
+        qwenRequest.setTemperature(request.getTemperature());
+        qwenRequest.setMax_tokens(request.getMaxTokens());
+        qwenRequest.setStream(stream);
+        String requestBody;
         try {
-            // 创建请求体 - 移除不被Qwen API支持的字段
-            QwenRequest qwenRequest = new QwenRequest();
-            qwenRequest.setModel(request.getModel());
-            qwenRequest.setMessages(request.getMessages());
-            qwenRequest.setTemperature(request.getTemperature());
-            qwenRequest.setMax_tokens(request.getMaxTokens());
-            qwenRequest.setStream(request.getStream());
+            requestBody = objectMapper.writeValueAsString(qwenRequest);
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new RuntimeException("Error serializing AI request", e);
+        }
 
-            String requestBody = objectMapper.writeValueAsString(qwenRequest);
+        // 日志：记录请求目标和模型（不记录完整 API Key）
+        try {
+            logger.info("Qwen request -> url=" + apiBaseUrl + "/chat/completions" + ", model=" + qwenRequest.getModel() + ", stream=" + stream + ", apiKeyPresent=" + (apiKey != null && !apiKey.isEmpty()));
+            logger.info("Qwen API key (masked): " + maskKey(apiKey));
+            logger.fine("Qwen request body: " + requestBody);
+        } catch (Exception ignore) {
+            // 日志尽力而为，不能让日志抛出异常影响主流程
+        }
+        return requestBody;
+    }
+
+    /**
+     * 阻塞等待结果，并还原异步过程中抛出的RuntimeException
+     */
+    private AiResponse join(CompletableFuture<AiResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Error calling Qwen API", cause);
+        }
+    }
 
-            // 日志：记录请求目标和模型（不记录完整 API Key）
+    private SimpleHttpRequest createPost(String requestBody) {
+        return SimpleRequestBuilder.post(apiBaseUrl + "/chat/completions")
+                .setHeader("Authorization", "Bearer " + apiKey)
+                .setBody(requestBody, ContentType.APPLICATION_JSON)
+                .build();
+    }
+
+    private AiResponse parseResponse(SimpleHttpResponse httpResponse, String model) {
+        byte[] bytes = httpResponse.getBodyBytes();
+        String body = bytes != null ? new String(bytes, StandardCharsets.UTF_8) : "";
+
+        int status = httpResponse.getCode();
+        if (status != 200) {
+            throw requestFailed(status, body, model);
+        }
+
+        // 解析响应
+        try {
+            return objectMapper.readValue(body, AiResponse.class);
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            logger.severe("Error parsing AI response: " + e.getMessage());
+            logger.severe("Response content: " + body);
+            logExceptionWithTrace(e, "Error parsing AI response");
+            throw new RuntimeException("Error parsing AI response", e);
+        }
+    }
+
+    private RuntimeException requestFailed(int status, String body, String model) {
+        // 更丰富的错误日志
+        logger.severe("API request failed -> url="+ apiBaseUrl + "/chat/completions" + ", status=" + status + ", model=" + model);
+        logger.severe("Response body: " + body);
+        logger.severe("API key (masked): " + maskKey(apiKey));
+
+        // 针对 401 提供可操作提示（参考 DashScope 文档）
+        if (status == 401) {
             try {
-                logger.info("Qwen request -> url=" + apiBaseUrl + "/chat/completions" + ", model=" + qwenRequest.getModel() + ", apiKeyPresent=" + (apiKey != null && !apiKey.isEmpty()));
-                logger.info("Qwen API key (masked): " + maskKey(apiKey));
-                logger.fine("Qwen request body: " + requestBody);
+                if (body.contains("invalid_api_key")) {
+                    logger.warning("Invalid API key provided (invalid_api_key). Suggestions:");
+                    logger.warning(" - Ensure you're providing the correct API key (starts with 'sk-') and not a literal code snippet.");
+                    logger.warning(" - If you set the key via environment variables, prefer 'DASHSCOPE_API_KEY' or 'QWEN_API_KEY'.");
+                    logger.warning(" - Confirm the Base URL matches the key's region: use 'dashscope.aliyuncs.com' for China (Beijing) or 'dashscope-intl.aliyuncs.com' for Intl (Singapore).");
+                    logger.warning(" - If unsure, re-create or retrieve a fresh API key from DashScope console.");
+                }
             } catch (Exception ignore) {
-                // 日志尽力而为，不能让日志抛出异常影响主流程
             }
+        }
 
-            // 创建HTTP请求
-            HttpPost httpPost = new HttpPost(apiBaseUrl + "/chat/completions");
-            httpPost.setHeader("Authorization", "Bearer " + apiKey);
-            httpPost.setHeader("Content-Type", "application/json");
+        return new RuntimeException("API request failed with status: " + status + ", response: " + body);
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request) {
+        // 以流式方式请求并在本地拼接完整回答
+        return join(streamResponse(request, token -> { }));
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener) {
+        String requestBody;
+        try {
+            requestBody = prepareRequestBody(request, true);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String model = request.getModel();
 
-            StringEntity entity = new StringEntity(requestBody, ContentType.APPLICATION_JSON);
-            httpPost.setEntity(entity);
+        CompletableFuture<AiResponse> future = new CompletableFuture<>();
+        try {
+            streamExecutor.execute(() -> {
+                try {
+                    future.complete(readStream(requestBody, model, listener));
+                } catch (IOException e) {
+                    logger.warning("AI stream ended with error: " + e.getMessage());
+                    future.completeExceptionally(new RuntimeException("Error streaming from Qwen API: " + e.getMessage(), e));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning("AI stream rejected, all stream slots are busy");
+            future.completeExceptionally(new RejectedExecutionException("Too many concurrent AI streams, please retry later", e));
+        }
+        return future;
+    }
 
-            // 发送请求，使用 ResponseHandler
-            String responseString = httpClient.execute(httpPost, httpResponse -> {
-                HttpEntity responseEntity = httpResponse.getEntity();
+    /**
+     * 逐行读取上游的SSE响应，把每个增量片段交给监听器
+     * 监听器写出变慢时这里也随之停止读取，上游由TCP流量控制自然放慢；监听器抛出异常时关闭连接、不再读取
+     */
+    private AiResponse readStream(String requestBody, String model, AiStreamListener listener) throws IOException {
+        HttpPost httpPost = new HttpPost(apiBaseUrl + "/chat/completions");
+        httpPost.setHeader("Authorization", "Bearer " + apiKey);
+        httpPost.setHeader("Accept", "text/event-stream");
+        httpPost.setEntity(new StringEntity(requestBody, ContentType.APPLICATION_JSON));
+
+        try (ClassicHttpResponse httpResponse = streamingClient.executeOpen(null, httpPost, null)) {
+            HttpEntity entity = httpResponse.getEntity();
+            int status = httpResponse.getCode();
+            if (status != 200) {
                 String body;
                 try {
-                    body = responseEntity != null ? EntityUtils.toString(responseEntity) : "";
+                    body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
                 } catch (org.apache.hc.core5.http.ParseException e) {
-                    logExceptionWithTrace(e, "Error parsing HTTP response");
-                    throw new RuntimeException("Error parsing HTTP response", e);
+                    body = "";
                 }
+                throw requestFailed(status, body, model);
+            }
+            if (entity == null) {
+                throw new RuntimeException("Empty streaming response from Qwen API");
+            }
 
-                int status = httpResponse.getCode();
-                if (status != 200) {
-                    // 更丰富的错误日志
-                    logger.severe("API request failed -> url="+ apiBaseUrl + "/chat/completions" + ", status=" + status + ", model=" + qwenRequest.getModel());
-                    logger.severe("Response body: " + body);
-                    logger.severe("API key (masked): " + maskKey(apiKey));
-
-                    // 针对 401 提供可操作提示（参考 DashScope 文档）
-                    if (status == 401) {
-                        try {
-                            if (body != null && body.contains("invalid_api_key")) {
-                                logger.warning("Invalid API key provided (invalid_api_key). Suggestions:");
-                                logger.warning(" - Ensure you're providing the correct API key (starts with 'sk-') and not a literal code snippet.");
-                                logger.warning(" - If you set the key via environment variables, prefer 'DASHSCOPE_API_KEY' or 'QWEN_API_KEY'.");
-                                logger.warning(" - Confirm the Base URL matches the key's region: use 'dashscope.aliyuncs.com' for China (Beijing) or 'dashscope-intl.aliyuncs.com' for Intl (Singapore).");
-                                logger.warning(" - If unsure, re-create or retrieve a fresh API key from DashScope console.");
-                            }
-                        } catch (Exception ignore) {
-                        }
-                    }
-
-                    throw new RuntimeException("API request failed with status: " + status + ", response: " + body);
+            StringBuilder content = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // 只处理data字段，空行、注释和event字段直接跳过
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+                String token = data.isEmpty() ? null : extractDelta(data);
+                if (token == null || token.isEmpty()) {
+                    continue;
+                }
+                content.append(token);
+                try {
+                    listener.onToken(token);
+                } catch (IOException e) {
+                    logger.info("AI stream stopped by receiver: " + e.getMessage());
+                    throw e;
                 }
-
-                return body;
-            });
-
-            // 解析响应
-            AiResponse aiResponse;
-            try {
-                aiResponse = objectMapper.readValue(responseString, AiResponse.class);
-            } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
-                logger.severe("Error parsing AI response: " + e.getMessage());
-                logger.severe("Response content: " + responseString);
-                logExceptionWithTrace(e, "Error parsing AI response");
-                throw new RuntimeException("Error parsing AI response", e);
             }
 
+            AiResponse aiResponse = new AiResponse(content.toString());
+            aiResponse.setModel(model);
             return aiResponse;
-        } catch (IOException e) {
-            logger.severe("Error calling Qwen API: " + e.getMessage());
-            throw new RuntimeException("Error calling Qwen API", e);
         }
     }
 
-    @Override
-    public AiResponse generateStreamingResponse(AiRequest request) {
-        // 对于流式响应，我们暂时返回非流式的响应
-        // 在实际实现中，这里应该使用 SSE 或 WebSocket 实现真正的流式响应
-        request.setStream(true);
-        return generateResponse(request);
+    /**
+     * 取出一个流式片段中的增量文本（choices[0].delta.content）
+     */
+    private String extractDelta(String data) {
+        try {
+            JsonNode content = objectMapper.readTree(data).path("choices").path(0).path("delta").path("content");
+            return content.isTextual() ? content.asText() : null;
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            logger.severe("Error parsing AI stream chunk: " + data);
+            throw new RuntimeException("Error parsing AI stream chunk", e);
+        }
     }
 
     @Override
@@ -209,12 +532,10 @@ public class QwenAiService implements AiService {
             qwenRequest.setStream(false);
 
             String requestBody = objectMapper.writeValueAsString(qwenRequest);
-            HttpPost httpPost = new HttpPost(apiBaseUrl + "/chat/completions");
-            httpPost.setHeader("Authorization", "Bearer " + apiKey);
-            httpPost.setHeader("Content-Type", "application/json");
-            httpPost.setEntity(new StringEntity(requestBody, ContentType.APPLICATION_JSON));
-
-            return httpClient.execute(httpPost, httpResponse -> httpResponse.getCode());
+            return httpClient.execute(createPost(requestBody), null).get().getCode();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception e) {
             logger.warning("Connection test failed: " + e.getMessage());
             return null;
@@ -2,10 +2,13 @@ package com.example.aiexcel.service.analysis.impl;
 
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.excel.ColumnarTable;
 import com.example.aiexcel.service.excel.ExcelService;
 import com.example.aiexcel.service.analysis.CustomerAnalysisService;
-import org.apache.poi.ss.usermodel.Workbook;
+import com.example.aiexcel.service.analysis.rfm.RfmEngine;
+import com.example.aiexcel.service.analysis.rfm.RfmResult;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -21,48 +24,62 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private RfmEngine rfmEngine;
+
+    // 结果中返回的客户明细上限（按RFM总分排序），完整得分只在本地计算
+    @Value("${analysis.rfm.max-customer-scores:1000}")
+    private int maxCustomerScores;
+
     @Override
     public Map<String, Object> performRFMAnalysis(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
-
-        // 3. 构建AI请求进行RFM分析
+        // 1. 流式读取为列式表格，在本地完成RFM打分和分群
+        List<ColumnarTable> tables = excelService.getExcelDataAsTables(file);
+        if (tables.isEmpty()) {
+            result.put("success", false);
+            result.put("error", "No data found in file");
+            return result;
+        }
+        RfmResult rfm;
+        try {
+            rfm = rfmEngine.analyze(tables.get(0));
+        } catch (IllegalArgumentException e) {
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            return result;
+        }
+
+        // 2. 只把分群摘要发给AI，由AI撰写解读和建议
         String prompt = String.format(
-            "This is customer transaction data:\n\n%s\n\n" +
-            "Perform RFM (Recency, Frequency, Monetary) analysis on this data. " +
-            "Segment customers based on RFM scores (1-5 scale for each factor). " +
-            "Identify high-value customers, at-risk customers, and sleeping beauties. " +
-            "Provide a detailed analysis of customer segments and recommendations for each segment.",
-            excelData
+            "These RFM (Recency, Frequency, Monetary) results were computed from customer transaction data. " +
+            "Scores are quintiles on a 1-5 scale, higher is better:\n\n%s\n" +
+            "Describe each customer segment, identify high-value customers, at-risk customers, and sleeping beauties, " +
+            "and provide recommendations for each segment.",
+            rfm.toSummaryText()
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in customer analytics and RFM analysis. " +
                 "RFM stands for Recency (how recently a customer has purchased), " +
                 "Frequency (how often a customer purchases), and " +
                 "Monetary (how much a customer spends). " +
-                "Use the data provided to calculate RFM scores and segment customers. " +
-                "Typically, higher scores indicate better customers. " +
-                "For Recency: higher score for more recent purchases. " +
-                "For Frequency: higher score for more frequent purchases. " +
-                "For Monetary: higher score for higher spending. " +
+                "The scores and segments have already been calculated; do not recalculate them. " +
                 "Provide actionable insights for each segment."),
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("rfmAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
-        result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
+        result.put("rfmSummary", toSummaryMap(rfm));
+        result.put("customerScores", toScoreList(rfm.getTopCustomers(maxCustomerScores)));
         result.put("analysisType", "RFM Analysis");
         result.put("success", true);
 
@@ -73,13 +90,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     public Map<String, Object> calculateCustomerLifetimeValue(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行CLV计算
+        // 2. 构建AI请求进行CLV计算
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Calculate Customer Lifetime Value (CLV) for the customers. " +
@@ -90,6 +104,7 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in customer analytics and financial modeling. " +
@@ -102,10 +117,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("clvAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Customer Lifetime Value");
@@ -118,13 +133,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     public Map<String, Object> segmentCustomers(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
-
-        // 3. 构建AI请求进行客户细分
+        // 2. 构建AI请求进行客户细分
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Perform customer segmentation analysis. " +
@@ -135,6 +147,7 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in customer segmentation and behavioral analytics. " +
@@ -151,10 +164,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("customerSegmentation", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Customer Segmentation");
@@ -167,13 +180,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     public Map<String, Object> predictChurnRisk(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行流失风险预测
+        // 2. 构建AI请求进行流失风险预测
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Analyze customer churn risk. " +
@@ -185,6 +195,7 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in customer retention and churn prediction. " +
@@ -201,10 +212,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("churnAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Churn Risk Prediction");
@@ -217,13 +228,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     public Map<String, Object> calculateCACvsCLV(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
-
-        // 3. 构建AI请求进行CAC与CLV分析
+        // 2. 构建AI请求进行CAC与CLV分析
         String prompt = String.format(
             "This is customer acquisition and transaction data:\n\n%s\n\n" +
             "Calculate and analyze Customer Acquisition Cost (CAC) versus Customer Lifetime Value (CLV). " +
@@ -234,6 +242,7 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in growth metrics and customer acquisition analytics. " +
@@ -247,10 +256,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("cacClvAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "CAC vs CLV Analysis");
@@ -263,13 +272,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     public Map<String, Object> analyzeCustomerCohorts(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行队列分析
+        // 2. 构建AI请求进行队列分析
         String prompt = String.format(
             "This is customer transaction data with dates:\n\n%s\n\n" +
             "Perform customer cohort analysis. " +
@@ -281,6 +287,7 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in cohort analysis and retention metrics. " +
@@ -296,10 +303,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("cohortAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Cohort Analysis");
@@ -307,4 +314,49 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
         return result;
     }
-}
\ No newline at end of file
+
+    private Map<String, Object> toSummaryMap(RfmResult rfm) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("customerColumn", rfm.getCustomerColumn());
+        summary.put("dateColumn", rfm.getDateColumn());
+        summary.put("amountColumn", rfm.getAmountColumn());
+        summary.put("referenceDate", rfm.getReferenceDate().toString());
+        summary.put("transactionCount", rfm.getTransactionCount());
+        summary.put("skippedRows", rfm.getSkippedRows());
+        summary.put("customerCount", rfm.getCustomerCount());
+        summary.put("recencyQuintiles", rfm.getQuintileBoundaries()[0]);
+        summary.put("frequencyQuintiles", rfm.getQuintileBoundaries()[1]);
+        summary.put("monetaryQuintiles", rfm.getQuintileBoundaries()[2]);
+        List<Map<String, Object>> segments = new ArrayList<>();
+        for (RfmResult.SegmentSummary segment : rfm.getSegmentSummaries()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("segment", segment.getSegment().getDisplayName());
+            item.put("description", segment.getSegment().getDescription());
+            item.put("customerCount", segment.getCustomerCount());
+            item.put("share", segment.getShare());
+            item.put("averageRecencyDays", segment.getAverageRecencyDays());
+            item.put("averageFrequency", segment.getAverageFrequency());
+            item.put("averageMonetary", segment.getAverageMonetary());
+            item.put("totalMonetary", segment.getTotalMonetary());
+            segments.add(item);
+        }
+        summary.put("segments", segments);
+        summary.put("computeMillis", rfm.getComputeMillis());
+        return summary;
+    }
+
+    private List<Map<String, Object>> toScoreList(List<RfmResult.CustomerScore> scores) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (RfmResult.CustomerScore score : scores) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("customerId", score.getCustomerId());
+            item.put("recencyDays", score.getRecencyDays());
+            item.put("frequency", score.getFrequency());
+            item.put("monetary", score.getMonetary());
+            item.put("rfmScore", score.getRfmCode());
+            item.put("segment", score.getSegment().getDisplayName());
+            list.add(item);
+        }
+        return list;
+    }
+}
@@ -4,7 +4,6 @@ import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.service.ai.AiService;
 import com.example.aiexcel.service.excel.ExcelService;
 import com.example.aiexcel.service.analysis.FinancialAnalysisService;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -25,13 +24,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     public Map<String, Object> analyzeFinancialStatements(MultipartFile file, String analysisType) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
-
-        // 3. 构建AI请求进行财务报表分析
+        // 2. 构建AI请求进行财务报表分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform %s financial statement analysis. " +
@@ -41,6 +37,7 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert financial analyst. Analyze financial statements including " +
@@ -53,10 +50,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("financialAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", analysisType);
@@ -69,13 +66,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     public Map<String, Object> calculateFinancialRatios(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行财务比率计算
+        // 2. 构建AI请求进行财务比率计算
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Calculate key financial ratios including: " +
@@ -89,6 +83,7 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in financial ratio analysis. Calculate and interpret key ratios:\n" +
@@ -111,10 +106,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("financialRatios", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Financial Ratios");
@@ -127,13 +122,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     public Map<String, Object> analyzeProfitability(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行盈利能力分析
+        // 2. 构建AI请求进行盈利能力分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform comprehensive profitability analysis. " +
@@ -144,6 +136,7 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in profitability analysis. Focus on:\n" +
@@ -161,10 +154,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("profitabilityAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Profitability Analysis");
@@ -177,13 +170,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     public Map<String, Object> analyzeCashFlow(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
-
-        // 3. 构建AI请求进行现金流分析
+        // 2. 构建AI请求进行现金流分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform comprehensive cash flow analysis. " +
@@ -194,6 +184,7 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in cash flow analysis. Focus on:\n" +
@@ -210,10 +201,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("cashFlowAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Cash Flow Analysis");
@@ -226,13 +217,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     public Map<String, Object> compareBudgetVsActual(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 1. 生成受token预算限制的上下文：表头、列统计和行样本
+        String excelData = excelService.getPromptContext(file, null);
 
-        // 3. 构建AI请求进行预算与实际对比分析
+        // 2. 构建AI请求进行预算与实际对比分析
         String prompt = String.format(
             "This is budget vs actual financial data:\n\n%s\n\n" +
             "Perform budget vs actual variance analysis. " +
@@ -243,6 +231,7 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
         );
 
         AiRequest aiRequest = new AiRequest();
+        aiRequest.setCacheable(true);
         aiRequest.setMessages(Arrays.asList(
             new AiRequest.Message("system",
                 "You are an expert in variance analysis and budget planning. For each line item, calculate:\n" +
@@ -261,10 +250,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 3. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 4. 构建结果
         result.put("budgetActualAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Budget vs Actual");
@@ -0,0 +1,357 @@
+package com.example.aiexcel.service.analysis.rfm;
+
+import com.example.aiexcel.service.excel.ColumnarTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 本地RFM计算
+ * 每行视为一笔交易，按客户汇总最近购买日期、交易次数和金额，再按五分位给出1-5分并划分客户群。
+ * 行数较多时把交易行切成连续的块并行汇总，每块使用自己的累加数组（每行只读一次，各线程不写同一数组），
+ * 最后逐块合并；块数不超过公共线程池的并行度，所以额外内存为并行度乘以客户数
+ */
+@Component
+public class RfmEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RfmEngine.class);
+
+    private static final String[] CUSTOMER_KEYWORDS = {"customer", "client", "member", "buyer", "user", "客户", "会员", "用户", "顾客"};
+    private static final String[] DATE_KEYWORDS = {"date", "time", "day", "日期", "时间"};
+    private static final String[] AMOUNT_KEYWORDS = {"amount", "monetary", "revenue", "sales", "total", "price", "spend",
+            "value", "金额", "销售额", "消费", "收入", "总价"};
+    private static final DateTimeFormatter[] TEXT_DATE_FORMATS = {
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy/M/d"),
+            DateTimeFormatter.ofPattern("yyyy-M-d"),
+            DateTimeFormatter.ofPattern("M/d/yyyy")
+    };
+    // 1899-12-30到1970-01-01的天数，用于转换Excel日期序列号
+    private static final int EXCEL_EPOCH_OFFSET = 25569;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final int MISSING = Integer.MIN_VALUE;
+    // 每个并行块至少的行数，行数较少时顺序汇总
+    private static final int MIN_CHUNK_ROWS = 65_536;
+
+    /**
+     * 对一张交易表计算RFM，表的第一行应为列名
+     * 客户、日期和金额列按列名关键字识别，找不到时分别取第一个文本、日期和数值列
+     * @throws IllegalArgumentException 缺少所需的列或没有有效交易
+     */
+    public RfmResult analyze(ColumnarTable table) {
+        long start = System.nanoTime();
+        ColumnarTable.Column customer = findColumn(table, CUSTOMER_KEYWORDS, ColumnarTable.ValueType.TEXT);
+        ColumnarTable.Column date = findColumn(table, DATE_KEYWORDS, ColumnarTable.ValueType.DATE, customer);
+        ColumnarTable.Column amount = findColumn(table, AMOUNT_KEYWORDS, ColumnarTable.ValueType.NUMBER, customer, date);
+        if (customer == null || date == null || amount == null) {
+            throw new IllegalArgumentException("RFM analysis requires customer, date and amount columns, found: "
+                    + columnNames(table));
+        }
+
+        int rows = table.getRowCount();
+        int[] days = new int[rows];
+        int[] customerIds = new int[rows];
+        List<String> keys = new ArrayList<>();
+        encodeRows(customer, date, days, customerIds, keys);
+
+        // 按连续的行块并行汇总，每块写自己的累加数组，最后合并
+        int customerSlots = keys.size();
+        int chunks = Math.max(1, Math.min(ForkJoinPool.commonPool().getParallelism(), rows / MIN_CHUNK_ROWS));
+        Totals sums = chunks == 1
+                ? new Totals(customerSlots).add(customerIds, days, amount, 0, rows)
+                : IntStream.range(0, chunks).parallel().collect(() -> new Totals(customerSlots),
+                        (partial, chunk) -> partial.add(customerIds, days, amount,
+                                (int) ((long) rows * chunk / chunks), (int) ((long) rows * (chunk + 1) / chunks)),
+                        Totals::merge);
+        int[] frequency = sums.frequency;
+        double[] monetary = sums.monetary;
+        int[] lastDay = sums.lastDay;
+
+        // 只保留有有效交易的客户
+        int referenceDay = MISSING;
+        int customerCount = 0;
+        int transactions = 0;
+        for (int id = 0; id < customerSlots; id++) {
+            if (frequency[id] > 0) {
+                customerCount++;
+                transactions += frequency[id];
+                referenceDay = Math.max(referenceDay, lastDay[id]);
+            }
+        }
+        if (customerCount == 0) {
+            throw new IllegalArgumentException("No transactions with customer and date values found");
+        }
+        referenceDay++;
+
+        String[] ids = new String[customerCount];
+        int[] recency = new int[customerCount];
+        int[] counts = new int[customerCount];
+        double[] totals = new double[customerCount];
+        for (int id = 0, i = 0; id < customerSlots; id++) {
+            if (frequency[id] > 0) {
+                ids[i] = keys.get(id);
+                recency[i] = referenceDay - lastDay[id];
+                counts[i] = frequency[id];
+                totals[i] = monetary[id];
+                i++;
+            }
+        }
+
+        double[] negatedRecency = new double[customerCount];
+        double[] frequencyValues = new double[customerCount];
+        for (int i = 0; i < customerCount; i++) {
+            negatedRecency[i] = -recency[i];
+            frequencyValues[i] = counts[i];
+        }
+        double[] sortedRecency = sorted(negatedRecency);
+        double[] sortedFrequency = sorted(frequencyValues);
+        double[] sortedMonetary = sorted(totals);
+
+        byte[] recencyScores = new byte[customerCount];
+        byte[] frequencyScores = new byte[customerCount];
+        byte[] monetaryScores = new byte[customerCount];
+        RfmSegment[] segments = new RfmSegment[customerCount];
+        IntStream.range(0, customerCount).parallel().forEach(i -> {
+            recencyScores[i] = quintile(sortedRecency, negatedRecency[i]);
+            frequencyScores[i] = quintile(sortedFrequency, frequencyValues[i]);
+            monetaryScores[i] = quintile(sortedMonetary, totals[i]);
+            segments[i] = RfmSegment.of(recencyScores[i], frequencyScores[i], monetaryScores[i]);
+        });
+
+        double[][] boundaries = {
+                boundaries(sortedRecency, true),
+                boundaries(sortedFrequency, false),
+                boundaries(sortedMonetary, false)
+        };
+        List<RfmResult.SegmentSummary> summaries = summarize(segments, recency, counts, totals);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("RFM computed for {} customers from {} transactions in {} ms", customerCount, transactions, millis);
+
+        return new RfmResult(customer.getName(), date.getName(), amount.getName(),
+                LocalDate.ofEpochDay(referenceDay), transactions, rows - transactions, ids, recency, counts, totals,
+                recencyScores, frequencyScores, monetaryScores, segments, boundaries, summaries, millis);
+    }
+
+    /**
+     * 把每行的日期换算成纪元日，客户换算成从0开始的序号
+     * 文本客户直接使用列的字典编码；其他类型的客户值（如数字编号）再按文本去重编号
+     */
+    private void encodeRows(ColumnarTable.Column customer, ColumnarTable.Column date,
+                            int[] days, int[] customerIds, List<String> keys) {
+        int dictionarySize = customer.getDistinctCount();
+        for (int code = 0; code < dictionarySize; code++) {
+            keys.add(customer.getDictionaryValue(code));
+        }
+        int[] textDays = new int[date.getDistinctCount()];
+        for (int code = 0; code < textDays.length; code++) {
+            textDays[code] = parseTextDate(date.getDictionaryValue(code));
+        }
+        TimeZone timeZone = TimeZone.getDefault();
+
+        IntStream.range(0, days.length).parallel().forEach(r -> {
+            customerIds[r] = customer.getCode(r);
+            days[r] = toEpochDay(date, r, textDays, timeZone);
+        });
+
+        Map<String, Integer> otherKeys = new HashMap<>();
+        for (int r = 0; r < customerIds.length; r++) {
+            if (customerIds[r] >= 0 || customer.isNull(r)) {
+                continue;
+            }
+            String key = formatKey(customer.getValue(r));
+            Integer id = otherKeys.get(key);
+            if (id == null) {
+                id = keys.size();
+                otherKeys.put(key, id);
+                keys.add(key);
+            }
+            customerIds[r] = id;
+        }
+    }
+
+    private int toEpochDay(ColumnarTable.Column date, int row, int[] textDays, TimeZone timeZone) {
+        ColumnarTable.ValueType type = date.getValueType(row);
+        if (type == null || type == ColumnarTable.ValueType.BOOLEAN) {
+            return MISSING;
+        }
+        if (type == ColumnarTable.ValueType.TEXT) {
+            return textDays[date.getCode(row)];
+        }
+        double value = date.getDouble(row);
+        if (type == ColumnarTable.ValueType.NUMBER) {
+            return (int) Math.floor(value) - EXCEL_EPOCH_OFFSET;
+        }
+        long millis = (long) value;
+        return (int) Math.floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    private int parseTextDate(String text) {
+        String value = text.trim();
+        if (value.length() > 10 && (value.charAt(10) == 'T' || value.charAt(10) == ' ')) {
+            value = value.substring(0, 10);
+        }
+        for (DateTimeFormatter format : TEXT_DATE_FORMATS) {
+            try {
+                return (int) LocalDate.parse(value, format).toEpochDay();
+            } catch (DateTimeParseException e) {
+                // 尝试下一种格式
+            }
+        }
+        return MISSING;
+    }
+
+    private String formatKey(Object value) {
+        if (value instanceof Double && (Double) value == Math.rint((Double) value)) {
+            return String.valueOf(((Double) value).longValue());
+        }
+        return value.toString();
+    }
+
+    private ColumnarTable.Column findColumn(ColumnarTable table, String[] keywords, ColumnarTable.ValueType fallbackType,
+                                            ColumnarTable.Column... exclude) {
+        for (ColumnarTable.Column column : table.getColumns()) {
+            String name = column.getName().toLowerCase(Locale.ROOT);
+            if (isExcluded(column, exclude) || column.getNonNullCount() == 0) {
+                continue;
+            }
+            for (String keyword : keywords) {
+                if (name.contains(keyword)) {
+                    return column;
+                }
+            }
+        }
+        for (ColumnarTable.Column column : table.getColumns()) {
+            if (!isExcluded(column, exclude) && column.getNonNullCount() > 0 && column.getType() == fallbackType) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    private boolean isExcluded(ColumnarTable.Column column, ColumnarTable.Column[] exclude) {
+        for (ColumnarTable.Column excluded : exclude) {
+            if (excluded == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> columnNames(ColumnarTable table) {
+        List<String> names = new ArrayList<>();
+        for (ColumnarTable.Column column : table.getColumns()) {
+            names.add(column.getName());
+        }
+        return names;
+    }
+
+    private double[] sorted(double[] values) {
+        double[] copy = values.clone();
+        Arrays.parallelSort(copy);
+        return copy;
+    }
+
+    /**
+     * 按值在全体客户中的排名给出1-5分，相同的值得分相同
+     */
+    private byte quintile(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (byte) (1 + (int) ((long) low * 5 / sorted.length));
+    }
+
+    /**
+     * 20%、40%、60%、80%处的值；negated为true时数组是取反后的值，按原值升序返回
+     */
+    private double[] boundaries(double[] sorted, boolean negated) {
+        double[] bounds = new double[4];
+        for (int k = 1; k <= 4; k++) {
+            int index = Math.min(sorted.length - 1, sorted.length * k / 5);
+            bounds[k - 1] = negated ? -sorted[sorted.length - 1 - index] : sorted[index];
+        }
+        return bounds;
+    }
+
+    private List<RfmResult.SegmentSummary> summarize(RfmSegment[] segments, int[] recency, int[] counts, double[] totals) {
+        Map<RfmSegment, double[]> sums = new EnumMap<>(RfmSegment.class);
+        for (int i = 0; i < segments.length; i++) {
+            double[] sum = sums.computeIfAbsent(segments[i], segment -> new double[4]);
+            sum[0]++;
+            sum[1] += recency[i];
+            sum[2] += counts[i];
+            sum[3] += totals[i];
+        }
+        List<RfmResult.SegmentSummary> summaries = new ArrayList<>();
+        for (Map.Entry<RfmSegment, double[]> entry : sums.entrySet()) {
+            double[] sum = entry.getValue();
+            summaries.add(new RfmResult.SegmentSummary(entry.getKey(), (int) sum[0], sum[0] / segments.length,
+                    sum[1] / sum[0], sum[2] / sum[0], sum[3] / sum[0], sum[3]));
+        }
+        return summaries;
+    }
+
+    /**
+     * 一段交易行按客户序号汇总的次数、金额和最近日期
+     */
+    private static final class Totals {
+
+        private final int[] frequency;
+        private final double[] monetary;
+        private final int[] lastDay;
+
+        Totals(int customerSlots) {
+            frequency = new int[customerSlots];
+            monetary = new double[customerSlots];
+            lastDay = new int[customerSlots];
+            Arrays.fill(lastDay, MISSING);
+        }
+
+        Totals add(int[] customerIds, int[] days, ColumnarTable.Column amount, int from, int to) {
+            for (int r = from; r < to; r++) {
+                int id = customerIds[r];
+                if (id < 0 || days[r] == MISSING) {
+                    continue;
+                }
+                frequency[id]++;
+                double value = amount.getDouble(r);
+                if (!Double.isNaN(value)) {
+                    monetary[id] += value;
+                }
+                if (days[r] > lastDay[id]) {
+                    lastDay[id] = days[r];
+                }
+            }
+            return this;
+        }
+
+        void merge(Totals other) {
+            for (int id = 0; id < frequency.length; id++) {
+                frequency[id] += other.frequency[id];
+                monetary[id] += other.monetary[id];
+                lastDay[id] = Math.max(lastDay[id], other.lastDay[id]);
+            }
+        }
+    }
+}
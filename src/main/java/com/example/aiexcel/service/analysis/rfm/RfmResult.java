@@ -0,0 +1,273 @@
+package com.example.aiexcel.service.analysis.rfm;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 本地计算的RFM结果
+ * 每个客户的指标和得分按列保存在数组中，下标即客户序号
+ */
+public class RfmResult {
+
+    private final String customerColumn;
+    private final String dateColumn;
+    private final String amountColumn;
+    private final LocalDate referenceDate;
+    private final int transactionCount;
+    private final int skippedRows;
+    private final String[] customerIds;
+    private final int[] recencyDays;
+    private final int[] frequency;
+    private final double[] monetary;
+    private final byte[] recencyScores;
+    private final byte[] frequencyScores;
+    private final byte[] monetaryScores;
+    private final RfmSegment[] segments;
+    private final double[][] quintileBoundaries;
+    private final List<SegmentSummary> segmentSummaries;
+    private final long computeMillis;
+
+    RfmResult(String customerColumn, String dateColumn, String amountColumn, LocalDate referenceDate,
+              int transactionCount, int skippedRows, String[] customerIds, int[] recencyDays, int[] frequency,
+              double[] monetary, byte[] recencyScores, byte[] frequencyScores, byte[] monetaryScores,
+              RfmSegment[] segments, double[][] quintileBoundaries, List<SegmentSummary> segmentSummaries,
+              long computeMillis) {
+        this.customerColumn = customerColumn;
+        this.dateColumn = dateColumn;
+        this.amountColumn = amountColumn;
+        this.referenceDate = referenceDate;
+        this.transactionCount = transactionCount;
+        this.skippedRows = skippedRows;
+        this.customerIds = customerIds;
+        this.recencyDays = recencyDays;
+        this.frequency = frequency;
+        this.monetary = monetary;
+        this.recencyScores = recencyScores;
+        this.frequencyScores = frequencyScores;
+        this.monetaryScores = monetaryScores;
+        this.segments = segments;
+        this.quintileBoundaries = quintileBoundaries;
+        this.segmentSummaries = segmentSummaries;
+        this.computeMillis = computeMillis;
+    }
+
+    public String getCustomerColumn() {
+        return customerColumn;
+    }
+
+    public String getDateColumn() {
+        return dateColumn;
+    }
+
+    public String getAmountColumn() {
+        return amountColumn;
+    }
+
+    /**
+     * 计算最近一次购买间隔的基准日：数据中最晚交易日的次日
+     */
+    public LocalDate getReferenceDate() {
+        return referenceDate;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * 缺少客户或日期而被忽略的行数
+     */
+    public int getSkippedRows() {
+        return skippedRows;
+    }
+
+    public int getCustomerCount() {
+        return customerIds.length;
+    }
+
+    public CustomerScore getCustomer(int index) {
+        return new CustomerScore(customerIds[index], recencyDays[index], frequency[index], monetary[index],
+                recencyScores[index], frequencyScores[index], monetaryScores[index], segments[index]);
+    }
+
+    /**
+     * 得分最高的客户：按R+F+M总分降序，总分相同时按消费金额降序
+     */
+    public List<CustomerScore> getTopCustomers(int limit) {
+        Comparator<Integer> order = Comparator
+                .comparingInt((Integer i) -> recencyScores[i] + frequencyScores[i] + monetaryScores[i])
+                .thenComparingDouble(i -> monetary[i])
+                .reversed();
+        List<CustomerScore> top = new ArrayList<>();
+        IntStream.range(0, customerIds.length).boxed()
+                .sorted(order)
+                .limit(Math.max(limit, 0))
+                .forEach(i -> top.add(getCustomer(i)));
+        return top;
+    }
+
+    /**
+     * 三个指标的五分位分界点，每个指标4个值，依次为recency（天）、frequency、monetary
+     */
+    public double[][] getQuintileBoundaries() {
+        return quintileBoundaries;
+    }
+
+    /**
+     * 各分群的汇总，按{@link RfmSegment}声明顺序，只包含有客户的分群
+     */
+    public List<SegmentSummary> getSegmentSummaries() {
+        return segmentSummaries;
+    }
+
+    public long getComputeMillis() {
+        return computeMillis;
+    }
+
+    /**
+     * 发送给AI的精简摘要，不包含任何客户明细
+     */
+    public String toSummaryText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Transactions: %d, customers: %d, reference date: %s%n",
+                transactionCount, customerIds.length, referenceDate));
+        String[] metrics = {"Recency (days)", "Frequency", "Monetary"};
+        for (int i = 0; i < metrics.length; i++) {
+            double[] bounds = quintileBoundaries[i];
+            sb.append(String.format("%s quintile boundaries: %.2f / %.2f / %.2f / %.2f%n",
+                    metrics[i], bounds[0], bounds[1], bounds[2], bounds[3]));
+        }
+        sb.append("Segments:\n");
+        for (SegmentSummary summary : segmentSummaries) {
+            sb.append(String.format("- %s: %d customers (%.1f%%), avg recency %.1f days, avg frequency %.2f, "
+                            + "avg monetary %.2f, total monetary %.2f%n",
+                    summary.getSegment().getDisplayName(), summary.getCustomerCount(), summary.getShare() * 100,
+                    summary.getAverageRecencyDays(), summary.getAverageFrequency(),
+                    summary.getAverageMonetary(), summary.getTotalMonetary()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 单个客户的指标和得分
+     */
+    public static class CustomerScore {
+        private final String customerId;
+        private final int recencyDays;
+        private final int frequency;
+        private final double monetary;
+        private final int recencyScore;
+        private final int frequencyScore;
+        private final int monetaryScore;
+        private final RfmSegment segment;
+
+        CustomerScore(String customerId, int recencyDays, int frequency, double monetary,
+                      int recencyScore, int frequencyScore, int monetaryScore, RfmSegment segment) {
+            this.customerId = customerId;
+            this.recencyDays = recencyDays;
+            this.frequency = frequency;
+            this.monetary = monetary;
+            this.recencyScore = recencyScore;
+            this.frequencyScore = frequencyScore;
+            this.monetaryScore = monetaryScore;
+            this.segment = segment;
+        }
+
+        public String getCustomerId() {
+            return customerId;
+        }
+
+        public int getRecencyDays() {
+            return recencyDays;
+        }
+
+        public int getFrequency() {
+            return frequency;
+        }
+
+        public double getMonetary() {
+            return monetary;
+        }
+
+        public int getRecencyScore() {
+            return recencyScore;
+        }
+
+        public int getFrequencyScore() {
+            return frequencyScore;
+        }
+
+        public int getMonetaryScore() {
+            return monetaryScore;
+        }
+
+        /**
+         * 三位数形式的得分，如"545"
+         */
+        public String getRfmCode() {
+            return "" + recencyScore + frequencyScore + monetaryScore;
+        }
+
+        public RfmSegment getSegment() {
+            return segment;
+        }
+    }
+
+    /**
+     * 一个分群的汇总
+     */
+    public static class SegmentSummary {
+        private final RfmSegment segment;
+        private final int customerCount;
+        private final double share;
+        private final double averageRecencyDays;
+        private final double averageFrequency;
+        private final double averageMonetary;
+        private final double totalMonetary;
+
+        SegmentSummary(RfmSegment segment, int customerCount, double share, double averageRecencyDays,
+                       double averageFrequency, double averageMonetary, double totalMonetary) {
+            this.segment = segment;
+            this.customerCount = customerCount;
+            this.share = share;
+            this.averageRecencyDays = averageRecencyDays;
+            this.averageFrequency = averageFrequency;
+            this.averageMonetary = averageMonetary;
+            this.totalMonetary = totalMonetary;
+        }
+
+        public RfmSegment getSegment() {
+            return segment;
+        }
+
+        public int getCustomerCount() {
+            return customerCount;
+        }
+
+        /**
+         * 占全部客户的比例（0-1）
+         */
+        public double getShare() {
+            return share;
+        }
+
+        public double getAverageRecencyDays() {
+            return averageRecencyDays;
+        }
+
+        public double getAverageFrequency() {
+            return averageFrequency;
+        }
+
+        public double getAverageMonetary() {
+            return averageMonetary;
+        }
+
+        public double getTotalMonetary() {
+            return totalMonetary;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.aiexcel.service.analysis.rfm;
+
+/**
+ * RFM客户分群
+ * 按R、F、M三个1-5分的得分划分，规则按声明顺序匹配
+ */
+public enum RfmSegment {
+    CHAMPIONS("Champions", "Bought recently, buy often and spend the most"),
+    CANNOT_LOSE("Can't Lose Them", "Used to buy often and spend a lot, but have not returned for a long time"),
+    AT_RISK("At Risk", "Above-average frequency or spend, but no recent purchase"),
+    HIBERNATING("Hibernating", "Low recency, low frequency and low spend"),
+    LOYAL("Loyal Customers", "Buy regularly and respond to promotions"),
+    NEW_CUSTOMERS("New Customers", "Bought recently for the first time"),
+    POTENTIAL_LOYALISTS("Potential Loyalists", "Recent customers with average frequency"),
+    NEED_ATTENTION("Need Attention", "Average recency, frequency and spend");
+
+    private final String displayName;
+    private final String description;
+
+    RfmSegment(String displayName, String description) {
+        this.displayName = displayName;
+        this.description = description;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * 根据得分确定分群
+     */
+    public static RfmSegment of(int r, int f, int m) {
+        if (r >= 4 && f >= 4 && m >= 4) {
+            return CHAMPIONS;
+        }
+        if (r == 1 && f >= 4 && m >= 4) {
+            return CANNOT_LOSE;
+        }
+        if (r <= 2 && (f >= 3 || m >= 3)) {
+            return AT_RISK;
+        }
+        if (r <= 2) {
+            return HIBERNATING;
+        }
+        if (f >= 4) {
+            return LOYAL;
+        }
+        if (r >= 4 && f <= 1) {
+            return NEW_CUSTOMERS;
+        }
+        if (r >= 4) {
+            return POTENTIAL_LOYALISTS;
+        }
+        return NEED_ATTENTION;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.aiexcel.service.command;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * 单个单元格的内容：值或公式，以及样式
+ * 撤销/重做时用它把单元格写回编辑前或编辑后的状态，null表示单元格不存在
+ */
+final class CellState {
+
+    private final Object value;
+    private final String formula;
+    private final short style;
+
+    private CellState(Object value, String formula, short style) {
+        this.value = value;
+        this.formula = formula;
+        this.style = style;
+    }
+
+    /**
+     * 读取单元格当前的状态，单元格不存在时返回null
+     */
+    static CellState of(Sheet sheet, int rowIndex, int colIndex) {
+        Row row = sheet.getRow(rowIndex);
+        Cell cell = row == null ? null : row.getCell(colIndex);
+        return cell == null ? null : of(cell);
+    }
+
+    static CellState of(Cell cell) {
+        short style = cell.getCellStyle().getIndex();
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                return new CellState(cell.getNumericCellValue(), null, style);
+            case STRING:
+                return new CellState(cell.getStringCellValue(), null, style);
+            case BOOLEAN:
+                return new CellState(cell.getBooleanCellValue(), null, style);
+            case FORMULA:
+                return new CellState(null, cell.getCellFormula(), style);
+            case ERROR:
+                return new CellState(cell.getErrorCellValue(), null, style);
+            default:
+                return new CellState(null, null, style);
+        }
+    }
+
+    /**
+     * 把单元格写回为state，state为null时删除单元格
+     */
+    static void restore(Workbook workbook, Sheet sheet, int rowIndex, int colIndex, CellState state) {
+        Row row = sheet.getRow(rowIndex);
+        if (state == null) {
+            if (row != null && row.getCell(colIndex) != null) {
+                row.removeCell(row.getCell(colIndex));
+            }
+            return;
+        }
+        if (row == null) {
+            row = sheet.createRow(rowIndex);
+        }
+        Cell cell = row.getCell(colIndex);
+        if (cell == null) {
+            cell = row.createCell(colIndex);
+        }
+        cell.setCellStyle(workbook.getCellStyleAt(state.style));
+        if (state.formula != null) {
+            cell.setCellFormula(state.formula);
+        } else if (state.value instanceof Double) {
+            cell.setCellValue((Double) state.value);
+        } else if (state.value instanceof String) {
+            cell.setCellValue((String) state.value);
+        } else if (state.value instanceof Boolean) {
+            cell.setCellValue((Boolean) state.value);
+        } else if (state.value instanceof Byte) {
+            cell.setCellErrorValue((Byte) state.value);
+        } else {
+            cell.setBlank();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.aiexcel.service.command;
+
+import com.example.aiexcel.service.excel.StructuralEditPlan;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 在命令执行过程中记录每一步修改，生成可撤销/重做的{@link RecordedEdit}
+ * 单元格命令在修改前后各调用一次，只读取目标单元格；
+ * 结构性修改在应用前读取将被删除的行列中的单元格
+ */
+public class EditRecorder {
+
+    private final List<RecordedEdit.Step> steps = new ArrayList<>();
+    private CellState pendingCell;
+    private List<RecordedEdit.CellPatch> pendingDeletedCells;
+
+    /**
+     * 修改单元格之前调用
+     */
+    public void beforeCellEdit(Sheet sheet, int rowIndex, int colIndex) {
+        pendingCell = CellState.of(sheet, rowIndex, colIndex);
+    }
+
+    /**
+     * 单元格修改成功后调用
+     */
+    public void afterCellEdit(Sheet sheet, int rowIndex, int colIndex) {
+        steps.add(new RecordedEdit.CellPatch(sheet.getSheetName(), rowIndex, colIndex,
+                pendingCell, CellState.of(sheet, rowIndex, colIndex)));
+        pendingCell = null;
+    }
+
+    /**
+     * 应用插入/删除计划之前调用，保存将被删除的行列中的单元格
+     */
+    public void beforeStructuralEdit(Sheet sheet, StructuralEditPlan plan) {
+        List<RecordedEdit.CellPatch> deleted = new ArrayList<>();
+        String sheetName = sheet.getSheetName();
+        int[] deletedRows = plan.getRowMapping().getDeletedIndexes();
+        for (int rowIndex : deletedRows) {
+            Row row = sheet.getRow(rowIndex);
+            if (row != null) {
+                for (Cell cell : row) {
+                    deleted.add(new RecordedEdit.CellPatch(sheetName, rowIndex, cell.getColumnIndex(), null, CellState.of(cell)));
+                }
+            }
+        }
+        int[] deletedColumns = plan.getColumnMapping().getDeletedIndexes();
+        if (deletedColumns.length > 0) {
+            for (Row row : sheet) {
+                if (Arrays.binarySearch(deletedRows, row.getRowNum()) >= 0) {
+                    continue;
+                }
+                for (int colIndex : deletedColumns) {
+                    Cell cell = row.getCell(colIndex);
+                    if (cell != null) {
+                        deleted.add(new RecordedEdit.CellPatch(sheetName, row.getRowNum(), colIndex, null, CellState.of(cell)));
+                    }
+                }
+            }
+        }
+        pendingDeletedCells = deleted;
+    }
+
+    /**
+     * 插入/删除计划应用成功后调用
+     */
+    public void afterStructuralEdit(Sheet sheet, StructuralEditPlan plan) {
+        steps.add(new RecordedEdit.StructuralStep(sheet.getSheetName(), plan,
+                pendingDeletedCells != null ? pendingDeletedCells : List.of()));
+        pendingDeletedCells = null;
+    }
+
+    /**
+     * 已记录的修改
+     */
+    public RecordedEdit finish() {
+        return new RecordedEdit(new ArrayList<>(steps));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.aiexcel.service.command;
+
+/**
+ * 从AI响应中解析出的一条命令
+ */
+public class ExcelCommand {
+
+    private final ExcelCommandType type;
+    private final String sheetName;
+    private final String target;
+    private final String argument;
+    private final int position;
+
+    public ExcelCommand(ExcelCommandType type, String sheetName, String target, String argument, int position) {
+        this.type = type;
+        this.sheetName = sheetName;
+        this.target = target;
+        this.argument = argument;
+        this.position = position;
+    }
+
+    public ExcelCommandType getType() {
+        return type;
+    }
+
+    /**
+     * 目标工作表，命令未指定时为null（使用第一个工作表）
+     */
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * 单元格引用（如A1）或行号/列号文本
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * 值、逗号分隔的值列表或公式，删除命令为null
+     */
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * 命令在响应文本中的起始位置
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * 用于执行结果的参数描述，如 A1=value、3:a,b,c、5
+     */
+    public String getParams() {
+        String qualifiedTarget = sheetName != null ? sheetName + "!" + target : target;
+        if (argument == null) {
+            return qualifiedTarget;
+        }
+        return qualifiedTarget + (type.isCellTarget() ? "=" : ":") + argument;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + type + ":" + getParams() + "]";
+    }
+}
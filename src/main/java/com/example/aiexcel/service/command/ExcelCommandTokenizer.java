@@ -0,0 +1,182 @@
+package com.example.aiexcel.service.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AI响应命令的单遍词法分析器
+ * 只扫描一次响应文本，按出现顺序输出命令；不使用正则表达式，只为命令的目标和参数分配字符串。
+ * 语法与原先的正则保持一致：
+ * [SET_CELL:A1:值]、[APPLY_FORMULA:A1:公式] 的单元格引用为大写字母加数字，可带工作表前缀（Sheet2!A1）；
+ * [INSERT_ROW:3:a,b]、[INSERT_COLUMN:2:a,b]、[DELETE_ROW:5]、[DELETE_COLUMN:1] 的目标为非负整数；
+ * 参数至少一个字符，到第一个']'结束且不能跨行
+ */
+public final class ExcelCommandTokenizer {
+
+    private static final ExcelCommandType[] TYPES = ExcelCommandType.values();
+
+    private ExcelCommandTokenizer() {
+    }
+
+    /**
+     * 解析响应中的全部命令
+     * @param text AI响应文本
+     * @return 按出现顺序排列的命令
+     */
+    public static List<ExcelCommand> tokenize(String text) {
+        List<ExcelCommand> commands = new ArrayList<>();
+        if (text == null) {
+            return commands;
+        }
+        int length = text.length();
+        int pos = text.indexOf('[');
+        while (pos >= 0 && pos < length) {
+            int end = readCommand(text, pos, commands);
+            pos = text.indexOf('[', end > pos ? end : pos + 1);
+        }
+        return commands;
+    }
+
+    /**
+     * 从'['处读取一条命令
+     * @return 成功时返回命令结束后的位置，否则返回start
+     */
+    private static int readCommand(String text, int start, List<ExcelCommand> commands) {
+        int pos = start + 1;
+        ExcelCommandType type = matchKeyword(text, pos);
+        if (type == null) {
+            return start;
+        }
+        pos += type.name().length();
+        if (pos >= text.length() || text.charAt(pos) != ':') {
+            return start;
+        }
+        pos++;
+
+        String sheetName = null;
+        int targetStart;
+        int targetEnd;
+        if (type.isCellTarget()) {
+            int bang = readSheetPrefix(text, pos);
+            if (bang > pos) {
+                sheetName = unquote(text, pos, bang);
+                pos = bang + 1;
+            }
+            targetStart = pos;
+            pos = skipUppercase(text, pos);
+            if (pos == targetStart) {
+                return start;
+            }
+            int digitsStart = pos;
+            pos = skipDigits(text, pos);
+            if (pos == digitsStart) {
+                return start;
+            }
+        } else {
+            targetStart = pos;
+            pos = skipDigits(text, pos);
+            if (pos == targetStart) {
+                return start;
+            }
+        }
+        targetEnd = pos;
+
+        String argument = null;
+        if (type.hasArgument()) {
+            if (pos >= text.length() || text.charAt(pos) != ':') {
+                return start;
+            }
+            int argumentStart = pos + 1;
+            // 参数至少包含一个字符，因此从第二个字符开始查找结束符
+            int close = findClose(text, argumentStart + 1, argumentStart);
+            if (close < 0) {
+                return start;
+            }
+            argument = text.substring(argumentStart, close);
+            pos = close;
+        } else if (pos >= text.length() || text.charAt(pos) != ']') {
+            return start;
+        }
+
+        commands.add(new ExcelCommand(type, sheetName, text.substring(targetStart, targetEnd), argument, start));
+        return pos + 1;
+    }
+
+    private static ExcelCommandType matchKeyword(String text, int pos) {
+        if (pos >= text.length()) {
+            return null;
+        }
+        char first = text.charAt(pos);
+        for (ExcelCommandType type : TYPES) {
+            String keyword = type.name();
+            if (keyword.charAt(0) == first && text.startsWith(keyword, pos)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找工作表前缀的'!'位置，没有前缀时返回from
+     */
+    private static int readSheetPrefix(String text, int from) {
+        int pos = from;
+        if (pos < text.length() && text.charAt(pos) == '\'') {
+            int quote = text.indexOf('\'', pos + 1);
+            return quote > pos + 1 && quote + 1 < text.length() && text.charAt(quote + 1) == '!' ? quote + 1 : from;
+        }
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '!') {
+                return pos > from ? pos : from;
+            }
+            if (c == ':' || c == '[' || c == ']' || isLineTerminator(c)) {
+                return from;
+            }
+            pos++;
+        }
+        return from;
+    }
+
+    private static String unquote(String text, int start, int end) {
+        if (text.charAt(start) == '\'' && text.charAt(end - 1) == '\'') {
+            return text.substring(start + 1, end - 1);
+        }
+        return text.substring(start, end);
+    }
+
+    private static int findClose(String text, int from, int argumentStart) {
+        if (argumentStart >= text.length() || isLineTerminator(text.charAt(argumentStart))) {
+            return -1;
+        }
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ']') {
+                return i;
+            }
+            if (isLineTerminator(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipUppercase(String text, int pos) {
+        while (pos < text.length() && text.charAt(pos) >= 'A' && text.charAt(pos) <= 'Z') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipDigits(String text, int pos) {
+        while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+
+    // 与正则的'.'一致，不匹配行结束符
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.aiexcel.service.command;
+
+/**
+ * AI响应中可嵌入的Excel操作命令类型
+ */
+public enum ExcelCommandType {
+    // [SET_CELL:A1:New Value] - 设置单元格A1为'New Value'
+    SET_CELL(true, true),
+    // [INSERT_ROW:3:value1,value2,value3] - 在第3行插入值
+    INSERT_ROW(false, true),
+    // [INSERT_COLUMN:2:value1,value2,value3] - 在第2列插入值
+    INSERT_COLUMN(false, true),
+    // [DELETE_ROW:5] - 删除第5行
+    DELETE_ROW(false, false),
+    // [DELETE_COLUMN:1] - 删除第1列
+    DELETE_COLUMN(false, false),
+    // [APPLY_FORMULA:A1:B1+C1] - 在A1应用公式B1+C1
+    APPLY_FORMULA(true, true);
+
+    private final boolean cellTarget;
+    private final boolean hasArgument;
+
+    ExcelCommandType(boolean cellTarget, boolean hasArgument) {
+        this.cellTarget = cellTarget;
+        this.hasArgument = hasArgument;
+    }
+
+    /**
+     * 目标是单元格引用（可带工作表前缀），否则是行号或列号
+     */
+    public boolean isCellTarget() {
+        return cellTarget;
+    }
+
+    /**
+     * 目标之后是否还有参数（值、值列表或公式）
+     */
+    public boolean hasArgument() {
+        return hasArgument;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.aiexcel.service.command;
+
+import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.StructuralEditPlan;
+import com.example.aiexcel.service.excel.StructuralEditPlan.IndexMapping;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次AI处理中执行的全部命令，按执行顺序保存每一步及其逆操作
+ * 撤销时倒序应用逆操作，重做时顺序重新应用，开销与修改量成正比，不需要保存工作簿副本。
+ * 结构性修改的逆操作是反向的插入/删除计划，再写回被删除行列中的单元格；
+ * 引用了被删除单元格的公式已变为#REF!，被删除行的行高、合并区域等不会恢复
+ */
+public final class RecordedEdit {
+
+    private final List<Step> steps;
+
+    RecordedEdit(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * 记录的步骤数
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * 倒序应用每一步的逆操作，被修改的单元格记入changes
+     */
+    public void undo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            steps.get(i).undo(workbook, excelService, changes);
+        }
+    }
+
+    /**
+     * 顺序重新应用每一步，被修改的单元格记入changes
+     */
+    public void redo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+        for (Step step : steps) {
+            step.redo(workbook, excelService, changes);
+        }
+    }
+
+    interface Step {
+        void undo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes);
+
+        void redo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes);
+    }
+
+    /**
+     * 单个单元格从before变为after
+     */
+    static final class CellPatch implements Step {
+        private final String sheetName;
+        private final int rowIndex;
+        private final int colIndex;
+        private final CellState before;
+        private final CellState after;
+
+        CellPatch(String sheetName, int rowIndex, int colIndex, CellState before, CellState after) {
+            this.sheetName = sheetName;
+            this.rowIndex = rowIndex;
+            this.colIndex = colIndex;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void undo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+            write(workbook, before, changes);
+        }
+
+        @Override
+        public void redo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+            write(workbook, after, changes);
+        }
+
+        private void write(Workbook workbook, CellState state, WorkbookChangeSet changes) {
+            Sheet sheet = sheet(workbook, sheetName);
+            CellState.restore(workbook, sheet, rowIndex, colIndex, state);
+            changes.markCell(sheetName, rowIndex, colIndex);
+        }
+    }
+
+    /**
+     * 一个工作表上一次性应用的插入/删除计划，以及被删除行列中原有的单元格
+     */
+    static final class StructuralStep implements Step {
+        private final String sheetName;
+        private final StructuralEditPlan plan;
+        private final StructuralEditPlan inverseColumns;
+        private final StructuralEditPlan inverseRows;
+        private final List<CellPatch> deletedCells;
+
+        StructuralStep(String sheetName, StructuralEditPlan plan, List<CellPatch> deletedCells) {
+            this.sheetName = sheetName;
+            this.plan = plan;
+            this.deletedCells = deletedCells;
+            // 计划先应用行再应用列，逆操作先恢复列再恢复行
+            this.inverseColumns = new StructuralEditPlan();
+            this.inverseRows = new StructuralEditPlan();
+            IndexMapping columns = plan.getColumnMapping();
+            for (int i = columns.getInsertedCount() - 1; i >= 0; i--) {
+                inverseColumns.deleteColumn(columns.getInsertedIndex(i));
+            }
+            for (int index : columns.getDeletedIndexes()) {
+                inverseColumns.insertColumn(index, null);
+            }
+            IndexMapping rows = plan.getRowMapping();
+            for (int i = rows.getInsertedCount() - 1; i >= 0; i--) {
+                inverseRows.deleteRow(rows.getInsertedIndex(i));
+            }
+            for (int index : rows.getDeletedIndexes()) {
+                inverseRows.insertRow(index, null);
+            }
+        }
+
+        @Override
+        public void undo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+            sheet(workbook, sheetName);
+            excelService.applyStructuralEdits(workbook, sheetName, inverseColumns);
+            excelService.applyStructuralEdits(workbook, sheetName, inverseRows);
+            for (CellPatch cell : deletedCells) {
+                cell.redo(workbook, excelService, changes);
+            }
+            changes.markStructural();
+        }
+
+        @Override
+        public void redo(Workbook workbook, ExcelService excelService, WorkbookChangeSet changes) {
+            sheet(workbook, sheetName);
+            excelService.applyStructuralEdits(workbook, sheetName, plan);
+            changes.markStructural();
+        }
+    }
+
+    private static Sheet sheet(Workbook workbook, String sheetName) {
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet == null) {
+            throw new IllegalStateException("Sheet not found: " + sheetName);
+        }
+        return sheet;
+    }
+}
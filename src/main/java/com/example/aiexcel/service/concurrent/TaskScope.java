@@ -0,0 +1,69 @@
+package com.example.aiexcel.service.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * 结构化的并发分支：在一个作用域内派生子任务，join时等待全部完成
+ * 任一子任务失败时取消（中断）其余子任务并抛出该异常；作用域关闭时仍未完成的子任务一并取消，
+ * 子任务不会比发起它的请求活得更久。语义与Java 21的StructuredTaskScope.ShutdownOnFailure相同，
+ * 项目按Java 17编译，所以基于执行器实现；执行器使用虚拟线程时每个子任务的开销很小。
+ * 只应在创建它的线程中使用
+ */
+public class TaskScope implements AutoCloseable {
+
+    private final CompletionService<Object> completionService;
+    private final List<Future<Object>> forks = new ArrayList<>();
+    private boolean joined;
+
+    public TaskScope(Executor executor) {
+        this.completionService = new ExecutorCompletionService<>(executor);
+    }
+
+    /**
+     * 派生一个子任务，join成功后通过返回的Future获取结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> fork(Callable<? extends T> task) {
+        if (joined) {
+            throw new IllegalStateException("Cannot fork after join");
+        }
+        Future<Object> future = completionService.submit((Callable<Object>) task);
+        forks.add(future);
+        return (Future<T>) future;
+    }
+
+    /**
+     * 等待全部子任务完成
+     * @throws ExecutionException 第一个失败的子任务抛出的异常，其余子任务已被取消
+     * @throws InterruptedException 等待期间被中断，所有子任务已被取消
+     */
+    public void join() throws ExecutionException, InterruptedException {
+        joined = true;
+        try {
+            for (int i = 0; i < forks.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            cancelAll();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    private void cancelAll() {
+        for (Future<Object> fork : forks) {
+            fork.cancel(true);
+        }
+    }
+}
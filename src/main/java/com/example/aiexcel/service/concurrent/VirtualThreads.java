@@ -0,0 +1,73 @@
+package com.example.aiexcel.service.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程的反射入口
+ * 项目按Java 17编译，运行在Java 21及以上时通过反射创建虚拟线程，低版本上isSupported()返回false。
+ * 是否启用与Tomcat一致，由spring.threads.virtual.enabled控制
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行时是否提供正式的虚拟线程API（Java 21起）
+     */
+    public static boolean isSupported() {
+        if (Runtime.version().feature() < 21) {
+            return false;
+        }
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建虚拟线程的线程工厂，线程名为namePrefix加递增序号
+     * @throws UnsupportedOperationException 运行时不支持虚拟线程
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        requireSupported();
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e.getCause());
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，没有线程数上限
+     * @throws UnsupportedOperationException 运行时不支持虚拟线程
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = factory(namePrefix);
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e.getCause());
+        }
+    }
+
+    private static void requireSupported() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on " + Runtime.version());
+        }
+    }
+}
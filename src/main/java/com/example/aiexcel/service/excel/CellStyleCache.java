@@ -0,0 +1,94 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 单个工作簿的样式与字体驻留缓存
+ * 同一个基础样式叠加同一组格式设置只创建一次样式，相同外观的字体只创建一次，
+ * 大范围格式化时样式数与不同外观的数量成正比，而不是与单元格数成正比
+ * （xlsx最多约64000个样式，每个单元格一个样式时保存的文件也会明显变大）。
+ * 不是线程安全的，与工作簿本身一样只应在一个线程中使用
+ */
+public class CellStyleCache {
+
+    private final Workbook workbook;
+    private final Map<String, CellStyle> styles = new HashMap<>();
+    private final Map<String, Font> fonts = new HashMap<>();
+    private int createdStyles;
+    private int createdFonts;
+
+    public CellStyleCache(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * 返回在baseStyle上叠加格式后的样式
+     * @param baseStyle 单元格原有样式，为null时从默认样式开始
+     * @param formatKey 格式设置的规范化表示，相同外观必须得到相同的key
+     * @param customizer 在新样式（已复制基础样式）上应用格式，只在首次遇到该组合时调用
+     */
+    public CellStyle getStyle(CellStyle baseStyle, String formatKey, Consumer<CellStyle> customizer) {
+        int baseIndex = baseStyle != null ? baseStyle.getIndex() : 0;
+        String key = baseIndex + "|" + formatKey;
+        CellStyle style = styles.get(key);
+        if (style == null) {
+            style = workbook.createCellStyle();
+            style.cloneStyleFrom(baseStyle != null ? baseStyle : workbook.getCellStyleAt(0));
+            customizer.accept(style);
+            styles.put(key, style);
+            createdStyles++;
+        }
+        return style;
+    }
+
+    /**
+     * 返回在baseFont上修改粗体、斜体、字号后的字体，参数为null表示保持不变
+     * 工作簿中已有相同外观的字体时直接复用
+     */
+    public Font getFont(Font baseFont, Boolean bold, Boolean italic, Short fontHeightInPoints) {
+        String key = baseFont.getIndex() + "|" + bold + "|" + italic + "|" + fontHeightInPoints;
+        Font font = fonts.get(key);
+        if (font != null) {
+            return font;
+        }
+        boolean targetBold = bold != null ? bold : baseFont.getBold();
+        boolean targetItalic = italic != null ? italic : baseFont.getItalic();
+        short targetHeight = fontHeightInPoints != null ? (short) (fontHeightInPoints * 20) : baseFont.getFontHeight();
+        font = workbook.findFont(targetBold, baseFont.getColor(), targetHeight, baseFont.getFontName(),
+                targetItalic, baseFont.getStrikeout(), baseFont.getTypeOffset(), baseFont.getUnderline());
+        if (font == null) {
+            font = workbook.createFont();
+            font.setBold(targetBold);
+            font.setItalic(targetItalic);
+            font.setFontHeight(targetHeight);
+            font.setFontName(baseFont.getFontName());
+            font.setColor(baseFont.getColor());
+            font.setStrikeout(baseFont.getStrikeout());
+            font.setTypeOffset(baseFont.getTypeOffset());
+            font.setUnderline(baseFont.getUnderline());
+            createdFonts++;
+        }
+        fonts.put(key, font);
+        return font;
+    }
+
+    /**
+     * 本缓存创建的样式数
+     */
+    public int getCreatedStyles() {
+        return createdStyles;
+    }
+
+    /**
+     * 本缓存创建的字体数
+     */
+    public int getCreatedFonts() {
+        return createdFonts;
+    }
+}
@@ -0,0 +1,710 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列存储的只读表格，供分析类功能使用
+ * 数值、日期（毫秒时间戳）和布尔值保存在double[]中，文本按列做字典编码（int[]编码 + 去重后的字符串），
+ * 缺失值用位图表示，不为每个单元格创建装箱对象。行只包含实际存在的行，空行被跳过
+ */
+public class ColumnarTable {
+
+    /**
+     * 单元格的值类型
+     */
+    public enum ValueType {
+        TEXT, NUMBER, DATE, BOOLEAN
+    }
+
+    private final String sheetName;
+    private final int rowCount;
+    private final List<Column> columns;
+
+    private ColumnarTable(String sheetName, int rowCount, List<Column> columns) {
+        this.sheetName = sheetName;
+        this.rowCount = rowCount;
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * 由缓存的工作簿数据构建，每个工作表一个表格
+     * @param firstRowIsHeader 第一行是否作为列名（不计入数据行）
+     */
+    public static List<ColumnarTable> fromWorkbookData(WorkbookData data, boolean firstRowIsHeader) {
+        Collector collector = new Collector(firstRowIsHeader);
+        data.replay(collector);
+        return collector.getTables();
+    }
+
+    /**
+     * 由POI工作表构建，公式单元格保存缓存的计算结果并另行计数，空白单元格计入空白数
+     * @param firstRowIsHeader 第一行是否作为列名（不计入数据行）
+     */
+    public static ColumnarTable fromSheet(Sheet sheet, boolean firstRowIsHeader) {
+        Builder builder = new Builder(sheet.getSheetName(), firstRowIsHeader);
+        for (Row row : sheet) {
+            builder.startRow();
+            for (Cell cell : row) {
+                int column = cell.getColumnIndex();
+                switch (cell.getCellType()) {
+                    case FORMULA:
+                        builder.setFormulaResult(column, cellValue(cell, cell.getCachedFormulaResultType()));
+                        break;
+                    case BLANK:
+                        builder.countBlank(column);
+                        break;
+                    default:
+                        builder.set(column, cellValue(cell, cell.getCellType()));
+                        break;
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    private static Object cellValue(Cell cell, CellType type) {
+        switch (type) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                return DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue() : cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            default:
+                return null;
+        }
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * 数据行数（不含表头）
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public Column getColumn(int index) {
+        return columns.get(index);
+    }
+
+    /**
+     * 按列名查找（忽略大小写和首尾空白），不存在时返回null
+     */
+    public Column getColumn(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim();
+        for (Column column : columns) {
+            if (column.getName().trim().equalsIgnoreCase(key)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 整张表中某种类型的单元格数
+     */
+    public int countCells(ValueType type) {
+        int count = 0;
+        for (Column column : columns) {
+            count += column.count(type);
+        }
+        return count;
+    }
+
+    public int countFormulaCells() {
+        int count = 0;
+        for (Column column : columns) {
+            count += column.getFormulaCount();
+        }
+        return count;
+    }
+
+    /**
+     * 整张表中计算结果为某种类型的公式单元格数（已包含在{@link #countCells(ValueType)}中）
+     */
+    public int countFormulaResults(ValueType type) {
+        int count = 0;
+        for (Column column : columns) {
+            count += column.countFormulaResults(type);
+        }
+        return count;
+    }
+
+    public int countBlankCells() {
+        int count = 0;
+        for (Column column : columns) {
+            count += column.getBlankCount();
+        }
+        return count;
+    }
+
+    /**
+     * 估算的内存占用（字节）
+     */
+    public long getEstimatedBytes() {
+        long bytes = 32;
+        for (Column column : columns) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 每列的类型和统计摘要，每列一行，供提示词使用
+     */
+    public String describeColumns() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Sheet ").append(sheetName).append(" (").append(rowCount).append(" rows)\n");
+        for (Column column : columns) {
+            sb.append("- ").append(column.getName()).append(": ").append(column.getType().name().toLowerCase())
+                    .append(", ").append(column.getNonNullCount()).append(" values");
+            if (column.getType() == ValueType.NUMBER) {
+                NumericSummary summary = column.summarize();
+                sb.append(String.format(", sum=%.2f, min=%.2f, max=%.2f, mean=%.2f",
+                        summary.getSum(), summary.getMin(), summary.getMax(), summary.getMean()));
+            } else if (column.getType() == ValueType.TEXT) {
+                sb.append(", ").append(column.getDistinctCount()).append(" distinct");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按制表符分隔输出（表头在前），格式与ExcelService.getExcelDataAsString一致
+     */
+    public void appendText(StringBuilder sb, boolean includeHeader) {
+        sb.append("Sheet: ").append(sheetName).append("\n");
+        if (includeHeader) {
+            for (Column column : columns) {
+                sb.append(column.getName()).append("\t");
+            }
+            sb.append("\n");
+        }
+        for (int r = 0; r < rowCount; r++) {
+            for (Column column : columns) {
+                column.appendValue(sb, r);
+                sb.append("\t");
+            }
+            sb.append("\n");
+        }
+        sb.append("\n");
+    }
+
+    /**
+     * 提示词用的文本：先是本地计算的列摘要，再是按制表符分隔的数据
+     */
+    public static String toPromptText(List<ColumnarTable> tables) {
+        StringBuilder sb = new StringBuilder("Column summary:\n");
+        for (ColumnarTable table : tables) {
+            sb.append(table.describeColumns());
+        }
+        sb.append("\nData:\n");
+        for (ColumnarTable table : tables) {
+            table.appendText(sb, true);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一列数据
+     */
+    public static class Column {
+        private final String name;
+        private int size;
+        private double[] numbers;
+        private int[] codes;
+        private long[] present = new long[1];
+        private long[] dates;
+        private long[] booleans;
+        private String[] dictionary = new String[0];
+        private Map<String, Integer> dictionaryIndex = new HashMap<>();
+        private final int[] typeCounts = new int[ValueType.values().length];
+        private final int[] formulaTypeCounts = new int[ValueType.values().length];
+        private int formulaCount;
+        private int blankCount;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 列的主要类型：出现最多的值类型，全部为空时为TEXT
+         */
+        public ValueType getType() {
+            ValueType type = ValueType.TEXT;
+            int max = 0;
+            for (ValueType candidate : ValueType.values()) {
+                if (typeCounts[candidate.ordinal()] > max) {
+                    max = typeCounts[candidate.ordinal()];
+                    type = candidate;
+                }
+            }
+            return type;
+        }
+
+        public int count(ValueType type) {
+            return typeCounts[type.ordinal()];
+        }
+
+        public int getNonNullCount() {
+            int count = 0;
+            for (int t : typeCounts) {
+                count += t;
+            }
+            return count;
+        }
+
+        public int countFormulaResults(ValueType type) {
+            return formulaTypeCounts[type.ordinal()];
+        }
+
+        public int getFormulaCount() {
+            return formulaCount;
+        }
+
+        public int getBlankCount() {
+            return blankCount;
+        }
+
+        public boolean isNull(int row) {
+            return !isSet(present, row);
+        }
+
+        public ValueType getValueType(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            if (codes != null && codes[row] >= 0) {
+                return ValueType.TEXT;
+            }
+            if (isSet(dates, row)) {
+                return ValueType.DATE;
+            }
+            return isSet(booleans, row) ? ValueType.BOOLEAN : ValueType.NUMBER;
+        }
+
+        /**
+         * 数值（日期为毫秒时间戳，布尔值为1/0），空值或文本返回NaN
+         */
+        public double getDouble(int row) {
+            if (isNull(row) || numbers == null || (codes != null && codes[row] >= 0)) {
+                return Double.NaN;
+            }
+            return numbers[row];
+        }
+
+        /**
+         * 文本的字典编码，非文本返回-1
+         */
+        public int getCode(int row) {
+            return codes != null && !isNull(row) ? codes[row] : -1;
+        }
+
+        /**
+         * 去重后的文本值，下标即编码
+         */
+        public String getDictionaryValue(int code) {
+            return dictionary[code];
+        }
+
+        public int getDistinctCount() {
+            return dictionary.length;
+        }
+
+        /**
+         * 按原始类型返回值：String、Double、Date或Boolean，空值返回null
+         */
+        public Object getValue(int row) {
+            ValueType type = getValueType(row);
+            if (type == null) {
+                return null;
+            }
+            switch (type) {
+                case TEXT:
+                    return dictionary[codes[row]];
+                case DATE:
+                    return new Date((long) numbers[row]);
+                case BOOLEAN:
+                    return numbers[row] != 0;
+                default:
+                    return numbers[row];
+            }
+        }
+
+        /**
+         * 文本形式的值，空值返回null
+         */
+        public String getString(int row) {
+            Object value = getValue(row);
+            return value != null ? value.toString() : null;
+        }
+
+        /**
+         * 数值单元格（不含日期和布尔值）的汇总
+         */
+        public NumericSummary summarize() {
+            if (numbers == null) {
+                return new NumericSummary(0, 0, Double.NaN, Double.NaN);
+            }
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            // 按位图逐字扫描，跳过空值、日期、布尔值和文本；整字都是数值时直接顺序累加
+            for (int word = 0; word < present.length; word++) {
+                long bits = present[word] & ~wordAt(dates, word) & ~wordAt(booleans, word);
+                int base = word << 6;
+                if (bits == -1L && codes == null) {
+                    for (int r = base; r < base + 64; r++) {
+                        double value = numbers[r];
+                        sum += value;
+                        min = value < min ? value : min;
+                        max = value > max ? value : max;
+                    }
+                    count += 64;
+                    continue;
+                }
+                while (bits != 0) {
+                    int r = base + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (codes == null || codes[r] < 0) {
+                        double value = numbers[r];
+                        sum += value;
+                        min = value < min ? value : min;
+                        max = value > max ? value : max;
+                        count++;
+                    }
+                }
+            }
+            return count == 0 ? new NumericSummary(0, 0, Double.NaN, Double.NaN) : new NumericSummary(count, sum, min, max);
+        }
+
+        /**
+         * 写入一个值，返回其类型，null值返回null
+         */
+        ValueType set(int row, Object value) {
+            ValueType type;
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof String) {
+                if (codes == null) {
+                    codes = new int[Math.max(row + 1, 16)];
+                    Arrays.fill(codes, -1);
+                }
+                codes = ensureCapacity(codes, row);
+                codes[row] = encode((String) value);
+                type = ValueType.TEXT;
+            } else if (value instanceof Date || value instanceof Boolean || value instanceof Number) {
+                if (numbers == null) {
+                    numbers = new double[Math.max(row + 1, 16)];
+                }
+                numbers = ensureCapacity(numbers, row);
+                if (value instanceof Date) {
+                    numbers[row] = ((Date) value).getTime();
+                    dates = setBit(dates, row);
+                    type = ValueType.DATE;
+                } else if (value instanceof Boolean) {
+                    numbers[row] = (Boolean) value ? 1 : 0;
+                    booleans = setBit(booleans, row);
+                    type = ValueType.BOOLEAN;
+                } else {
+                    numbers[row] = ((Number) value).doubleValue();
+                    type = ValueType.NUMBER;
+                }
+            } else {
+                return set(row, value.toString());
+            }
+            typeCounts[type.ordinal()]++;
+            present = setBit(present, row);
+            return type;
+        }
+
+        void setSize(int size) {
+            this.size = size;
+        }
+
+        void trim() {
+            if (numbers != null && numbers.length > size) {
+                numbers = Arrays.copyOf(numbers, size);
+            }
+            if (codes != null && codes.length != size) {
+                int length = codes.length;
+                codes = Arrays.copyOf(codes, size);
+                if (size > length) {
+                    Arrays.fill(codes, length, size, -1);
+                }
+            }
+            if (dictionaryIndex != null) {
+                dictionary = new String[dictionaryIndex.size()];
+                for (Map.Entry<String, Integer> entry : dictionaryIndex.entrySet()) {
+                    dictionary[entry.getValue()] = entry.getKey();
+                }
+                // 构建完成后只保留按编码访问的数组
+                dictionaryIndex = null;
+            }
+        }
+
+        void appendValue(StringBuilder sb, int row) {
+            Object value = getValue(row);
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+
+        long estimateBytes() {
+            long bytes = 64 + 8L * present.length;
+            bytes += numbers != null ? 16 + 8L * numbers.length : 0;
+            bytes += codes != null ? 16 + 4L * codes.length : 0;
+            bytes += dates != null ? 8L * dates.length : 0;
+            bytes += booleans != null ? 8L * booleans.length : 0;
+            for (String value : dictionary) {
+                bytes += 40 + value.length();
+            }
+            return bytes;
+        }
+
+        private int encode(String value) {
+            Integer code = dictionaryIndex.get(value);
+            if (code == null) {
+                code = dictionaryIndex.size();
+                dictionaryIndex.put(value, code);
+            }
+            return code;
+        }
+
+        private static boolean isSet(long[] bits, int index) {
+            return bits != null && (index >>> 6) < bits.length && (bits[index >>> 6] & (1L << index)) != 0;
+        }
+
+        private static long wordAt(long[] bits, int word) {
+            return bits != null && word < bits.length ? bits[word] : 0L;
+        }
+
+        private static long[] setBit(long[] bits, int index) {
+            int word = index >>> 6;
+            if (bits == null) {
+                bits = new long[word + 1];
+            } else if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+            }
+            bits[word] |= 1L << index;
+            return bits;
+        }
+
+        private static double[] ensureCapacity(double[] array, int index) {
+            return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length + (array.length >> 1)));
+        }
+
+        private static int[] ensureCapacity(int[] array, int index) {
+            if (index < array.length) {
+                return array;
+            }
+            int[] grown = Arrays.copyOf(array, Math.max(index + 1, array.length + (array.length >> 1)));
+            Arrays.fill(grown, array.length, grown.length, -1);
+            return grown;
+        }
+    }
+
+    /**
+     * 数值列的汇总
+     */
+    public static class NumericSummary {
+        private final long count;
+        private final double sum;
+        private final double min;
+        private final double max;
+
+        NumericSummary(long count, double sum, double min, double max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+    }
+
+    /**
+     * 逐行构建表格，values的类型为String、Number、Boolean或Date，缺失为null
+     */
+    public static class Builder {
+        private final String sheetName;
+        private boolean expectHeader;
+        private final List<String> headers = new ArrayList<>();
+        private final List<Column> columns = new ArrayList<>();
+        private int rowCount;
+        private boolean inHeaderRow;
+
+        public Builder(String sheetName, boolean firstRowIsHeader) {
+            this.sheetName = sheetName;
+            this.expectHeader = firstRowIsHeader;
+        }
+
+        public void addRow(Object[] values) {
+            startRow();
+            for (int c = 0; c < values.length; c++) {
+                set(c, values[c]);
+            }
+            endRow();
+        }
+
+        void startRow() {
+            inHeaderRow = expectHeader;
+            expectHeader = false;
+        }
+
+        void set(int column, Object value) {
+            if (inHeaderRow) {
+                while (headers.size() <= column) {
+                    headers.add(null);
+                }
+                headers.set(column, value != null ? value.toString() : null);
+                return;
+            }
+            column(column).set(rowCount, value);
+        }
+
+        void setFormulaResult(int column, Object value) {
+            if (inHeaderRow) {
+                set(column, value);
+                return;
+            }
+            Column target = column(column);
+            target.formulaCount++;
+            ValueType type = target.set(rowCount, value);
+            if (type != null) {
+                target.formulaTypeCounts[type.ordinal()]++;
+            }
+        }
+
+        void countBlank(int column) {
+            if (!inHeaderRow) {
+                column(column).blankCount++;
+            }
+        }
+
+        void endRow() {
+            if (inHeaderRow) {
+                inHeaderRow = false;
+                return;
+            }
+            rowCount++;
+        }
+
+        public ColumnarTable build() {
+            while (columns.size() < headers.size()) {
+                column(columns.size());
+            }
+            for (Column column : columns) {
+                column.setSize(rowCount);
+                column.trim();
+            }
+            return new ColumnarTable(sheetName, rowCount, new ArrayList<>(columns));
+        }
+
+        private Column column(int index) {
+            while (columns.size() <= index) {
+                int position = columns.size();
+                String header = position < headers.size() ? headers.get(position) : null;
+                columns.add(new Column(header != null && !header.trim().isEmpty() ? header : columnLetter(position)));
+            }
+            return columns.get(index);
+        }
+
+        private static String columnLetter(int index) {
+            StringBuilder letters = new StringBuilder();
+            int n = index + 1;
+            while (n > 0) {
+                int remainder = (n - 1) % 26;
+                letters.insert(0, (char) ('A' + remainder));
+                n = (n - 1) / 26;
+            }
+            return letters.toString();
+        }
+    }
+
+    /**
+     * 流式读取时为每个工作表构建一个表格
+     */
+    public static class Collector implements SheetRowHandler {
+        private final boolean firstRowIsHeader;
+        private final List<ColumnarTable> tables = new ArrayList<>();
+        private Builder builder;
+
+        public Collector(boolean firstRowIsHeader) {
+            this.firstRowIsHeader = firstRowIsHeader;
+        }
+
+        @Override
+        public boolean startSheet(int sheetIndex, String sheetName) {
+            builder = new Builder(sheetName, firstRowIsHeader);
+            return true;
+        }
+
+        @Override
+        public void row(int rowIndex, Object[] values) {
+            builder.addRow(values);
+        }
+
+        @Override
+        public void endSheet(int sheetIndex, String sheetName) {
+            tables.add(builder.build());
+            builder = null;
+        }
+
+        public List<ColumnarTable> getTables() {
+            return tables;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package com.example.aiexcel.service.excel;
 
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 
 public interface ExcelService {
     Workbook loadWorkbook(MultipartFile file) throws IOException;
     Workbook loadWorkbook(InputStream inputStream) throws IOException;
+    // Runs a read-only callback against the cached workbook; calls for the same content are serialized,
+    // so the shared DOM is never touched by two threads at once
+    <T> T readWorkbookReadOnly(MultipartFile file, WorkbookCallback<T> callback) throws IOException;
     void saveWorkbook(Workbook workbook, String filePath) throws IOException;
     byte[] getWorkbookAsBytes(Workbook workbook) throws IOException;
+    void writeWorkbook(Workbook workbook, OutputStream outputStream) throws IOException;
     String getExcelDataAsString(Workbook workbook);
     Object[][] getExcelDataAsArray(Workbook workbook);
     void updateCell(Workbook workbook, String sheetName, int rowIndex, int colIndex, Object value);
@@ -24,10 +31,36 @@ public interface ExcelService {
     void insertColumn(Workbook workbook, String sheetName, int colIndex, Object[] values);
     void deleteRow(Workbook workbook, String sheetName, int rowIndex);
     void deleteColumn(Workbook workbook, String sheetName, int colIndex);
+    // Applies a batch of row/column inserts and deletes in one pass over the sheet instead of one shift per edit
+    void applyStructuralEdits(Workbook workbook, String sheetName, StructuralEditPlan plan);
     void applyFormula(Workbook workbook, String sheetName, int rowIndex, int colIndex, String formula);
     String getCellValue(Workbook workbook, String sheetName, int rowIndex, int colIndex);
     int getRowCount(Workbook workbook, String sheetName);
     int getColumnCount(Workbook workbook, String sheetName, int rowIndex);
     String[] getExcelHeaders(Workbook workbook);
     void evaluateAllFormulasInWorkbook(Workbook workbook);
-}
\ No newline at end of file
+
+    // Dependency-aware recalculation: only changed cells and their dependents are re-evaluated, formulas are kept
+    int recalculateFormulas(Workbook workbook, WorkbookChangeSet changes);
+    // Evaluator shared per workbook and held until releaseFormulaEvaluator is called; cell edits made outside
+    // ExcelService must go through recalculateFormulas
+    FormulaEvaluator getFormulaEvaluator(Workbook workbook);
+    // Drops the shared evaluator and dependency graph, e.g. after structural edits or when the workbook is done
+    void releaseFormulaEvaluator(Workbook workbook);
+
+    // Streaming read API: rows are delivered to the handler without building a Workbook
+    void readWorkbook(MultipartFile file, SheetRowHandler handler) throws IOException;
+    void readWorkbook(InputStream inputStream, SheetRowHandler handler) throws IOException;
+    String getExcelDataAsString(MultipartFile file) throws IOException;
+    Object[][] getExcelDataAsArray(MultipartFile file) throws IOException;
+    String[] getExcelHeaders(MultipartFile file) throws IOException;
+    // Columnar snapshot per sheet for local analytics and sort/filter; the first row is used as column names.
+    // Tables of cached uploads are shared, callers must treat them as read-only
+    List<ColumnarTable> getExcelDataAsTables(MultipartFile file) throws IOException;
+    // Read-only row-indexed values of every sheet; shared for cached uploads, built by streaming otherwise
+    WorkbookData getWorkbookData(MultipartFile file) throws IOException;
+    // Prompt context bounded by the configured token budget: headers, column types and statistics,
+    // an evenly spaced row sample and the rows referenced by the command (may be null), built in one pass
+    String getPromptContext(MultipartFile file, String command) throws IOException;
+    String getPromptContext(Workbook workbook, String command);
+}
@@ -0,0 +1,570 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按token预算生成发送给AI的工作表上下文
+ * 一次流式读取中收集每个工作表的表头、各列推断类型和统计、分层抽样的行样本以及命令中引用到的行，
+ * 最后按预算拼接：表头和列统计优先，引用的行其次，剩余预算用于行样本。所有部分都计入预算，
+ * 列、引用的行或工作表放不下时注明省略的数量。数据量在预算以内时输出全部行
+ */
+public class SheetContextBuilder implements SheetRowHandler {
+
+    // A1、$B$2、A1:C10形式的单元格引用；Java的\b把中文也当作单词字符，这里用ASCII边界代替
+    private static final Pattern CELL_REFERENCE = Pattern.compile(
+            "(?<![A-Za-z0-9_])\\$?([A-Z]{1,3})\\$?(\\d{1,7})(?::\\$?[A-Z]{1,3}\\$?(\\d{1,7}))?(?![A-Za-z0-9_])");
+    // row 5、rows 3-10、第5行
+    private static final Pattern ROW_REFERENCE =
+            Pattern.compile("(?i)(?<![A-Za-z])rows?\\s+(\\d{1,7})(?:\\s*(?:-|to)\\s*(\\d{1,7}))?|第\\s*(\\d{1,7})\\s*行");
+
+    private static final int MAX_REFERENCED_ROWS = 50;
+    private static final int MAX_DESCRIBED_COLUMNS = 60;
+    private static final int MAX_CELL_CHARS = 80;
+    private static final int DISTINCT_LIMIT = 1000;
+    private static final int EXAMPLE_VALUES = 3;
+    // 估算每个样本行至少占用的token数，用于确定读取过程中保留的样本行数
+    private static final int MIN_ROW_TOKENS = 8;
+    // 为"省略了多少列/行/工作表"一类的说明行预留的token数
+    private static final int NOTE_TOKENS = 16;
+
+    private final int tokenBudget;
+    private final int sampleCapacity;
+    private final Set<Integer> referencedRows;
+    private final List<SheetContext> sheets = new ArrayList<>();
+    private SheetContext current;
+
+    /**
+     * @param tokenBudget 上下文的token预算
+     * @param command 用户的命令或请求，其中引用到的行会完整保留，可以为null
+     */
+    public SheetContextBuilder(int tokenBudget, String command) {
+        this.tokenBudget = tokenBudget;
+        this.sampleCapacity = Math.max(16, Math.min(4096, tokenBudget / MIN_ROW_TOKENS));
+        this.referencedRows = parseReferencedRows(command);
+    }
+
+    /**
+     * 解析命令中引用的行（从0开始的行索引），最多保留{@value #MAX_REFERENCED_ROWS}行
+     */
+    static Set<Integer> parseReferencedRows(String command) {
+        Set<Integer> rows = new TreeSet<>();
+        if (command == null || command.isEmpty()) {
+            return rows;
+        }
+        Matcher cells = CELL_REFERENCE.matcher(command);
+        while (cells.find()) {
+            addRows(rows, cells.group(2), cells.group(3));
+        }
+        Matcher rowMatcher = ROW_REFERENCE.matcher(command);
+        while (rowMatcher.find()) {
+            if (rowMatcher.group(1) != null) {
+                addRows(rows, rowMatcher.group(1), rowMatcher.group(2));
+            } else {
+                addRows(rows, rowMatcher.group(3), null);
+            }
+        }
+        return rows;
+    }
+
+    private static void addRows(Set<Integer> rows, String first, String last) {
+        int start = Integer.parseInt(first);
+        int end = last == null ? start : Integer.parseInt(last);
+        for (int row = Math.min(start, end); row <= Math.max(start, end) && rows.size() < MAX_REFERENCED_ROWS; row++) {
+            if (row >= 1) {
+                rows.add(row - 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean startSheet(int sheetIndex, String sheetName) {
+        current = new SheetContext(sheetName);
+        sheets.add(current);
+        return true;
+    }
+
+    @Override
+    public void row(int rowIndex, Object[] values) {
+        SheetContext sheet = current;
+        if (sheet.header == null) {
+            sheet.header = values;
+            sheet.headerRowIndex = rowIndex;
+            sheet.maxColumns = Math.max(sheet.maxColumns, values.length);
+            return;
+        }
+        sheet.maxColumns = Math.max(sheet.maxColumns, values.length);
+        int columns = Math.min(values.length, MAX_DESCRIBED_COLUMNS);
+        sheet.ensureColumns(columns);
+        for (int c = 0; c < columns; c++) {
+            if (values[c] != null) {
+                sheet.columns.get(c).add(values[c]);
+            }
+        }
+
+        if (referencedRows.contains(rowIndex)) {
+            sheet.referenced.put(rowIndex, values);
+        }
+
+        // 分层抽样：每stride行为一层，层内用蓄水池抽样等概率选出一行；样本超出容量时相邻两层合并、步长加倍
+        sheet.dataRows++;
+        sheet.candidateSeen++;
+        if (sheet.random.nextLong(sheet.candidateSeen) == 0) {
+            sheet.candidate = new SampledRow(rowIndex, values);
+        }
+        if (sheet.candidateSeen == sheet.stride) {
+            sheet.sample.add(sheet.candidate);
+            sheet.candidate = null;
+            sheet.candidateSeen = 0;
+            if (sheet.sample.size() > sampleCapacity) {
+                sheet.mergeStrata();
+            }
+        }
+        sheet.lastRowIndex = rowIndex;
+        sheet.lastRowValues = values;
+    }
+
+    @Override
+    public void endSheet(int sheetIndex, String sheetName) {
+        SheetContext sheet = current;
+        if (sheet.candidate != null) {
+            sheet.sample.add(sheet.candidate);
+            sheet.candidate = null;
+        }
+        // 最后一行常是合计行，总是作为样本的一部分
+        if (sheet.lastRowValues != null && (sheet.sample.isEmpty()
+                || sheet.sample.get(sheet.sample.size() - 1).rowIndex != sheet.lastRowIndex)) {
+            sheet.sample.add(new SampledRow(sheet.lastRowIndex, sheet.lastRowValues));
+        }
+        sheet.lastRowValues = null;
+        current = null;
+    }
+
+    /**
+     * 按预算生成上下文文本
+     */
+    public String build() {
+        int sheetCount = sheets.size();
+        List<String> fixedParts = new ArrayList<>();
+        // 预留工作表省略说明的份额；每个工作表之后的空行按1个token计
+        int remaining = tokenBudget - NOTE_TOKENS;
+        for (int i = 0; i < sheetCount; i++) {
+            // 剩余预算在尚未描述的工作表之间平分，前面用不完的留给后面
+            String fixedPart = sheets.get(i).describe(remaining / (sheetCount - i) - 1);
+            if (fixedPart == null) {
+                break;
+            }
+            fixedParts.add(fixedPart);
+            remaining -= estimateTokens(fixedPart) + 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int described = fixedParts.size();
+        for (int i = 0; i < described; i++) {
+            SheetContext sheet = sheets.get(i);
+            int share = Math.max(remaining, 0) / (described - i);
+            String samplePart = sheet.renderSample(share);
+            remaining -= estimateTokens(samplePart);
+            sb.append(fixedParts.get(i)).append(samplePart).append("\n");
+        }
+        if (described < sheetCount) {
+            sb.append("... ").append(sheetCount - described).append(" more sheets not shown\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 粗略估算token数：ASCII字符约4个一个token，其他字符（如中文）约一个字符一个token
+     */
+    public static int estimateTokens(CharSequence text) {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    private static String formatValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                return Long.toString((long) number);
+            }
+            return value.toString();
+        }
+        if (value instanceof Date) {
+            return formatDate(((Date) value).getTime());
+        }
+        String text = value.toString().replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        return text.length() > MAX_CELL_CHARS ? text.substring(0, MAX_CELL_CHARS) + "…" : text;
+    }
+
+    private static String formatDate(long epochMillis) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(new Date(epochMillis).toInstant(), ZoneId.systemDefault());
+        return dateTime.toLocalTime().toSecondOfDay() == 0
+                ? dateTime.toLocalDate().toString()
+                : dateTime.withNano(0).toString();
+    }
+
+    /**
+     * 统计值保留6位有效数字
+     */
+    private static String formatStatistic(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return new BigDecimal(value).round(new MathContext(6)).stripTrailingZeros().toPlainString();
+    }
+
+    private static String renderRow(int rowIndex, Object[] values) {
+        StringBuilder sb = new StringBuilder("Row ").append(rowIndex + 1).append(':');
+        int columns = Math.min(values.length, MAX_DESCRIBED_COLUMNS);
+        for (int c = 0; c < columns; c++) {
+            sb.append('\t').append(formatValue(values[c]));
+        }
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * 一个工作表在读取过程中收集到的信息
+     */
+    private static class SheetContext {
+        private final String name;
+        private Object[] header;
+        private int headerRowIndex = -1;
+        private int maxColumns;
+        private long dataRows;
+        private final List<ColumnStats> columns = new ArrayList<>();
+        private final List<SampledRow> sample = new ArrayList<>();
+        private long stride = 1;
+        private SampledRow candidate;
+        private long candidateSeen;
+        // 固定种子，同一文件每次生成相同的样本，便于命中AI响应缓存
+        private final SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        private int lastRowIndex;
+        private Object[] lastRowValues;
+        private final Map<Integer, Object[]> referenced = new TreeMap<>();
+
+        SheetContext(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 相邻两层各以1/2的概率保留一行，合并后每行仍等概率代表新的一层；
+         * 落单的最后一层作为新一层的候选继续参与蓄水池抽样
+         */
+        void mergeStrata() {
+            int size = sample.size();
+            if (size % 2 == 1) {
+                candidate = sample.remove(size - 1);
+                candidateSeen = stride;
+                size--;
+            }
+            int kept = 0;
+            for (int i = 0; i < size; i += 2) {
+                sample.set(kept++, sample.get(random.nextBoolean() ? i : i + 1));
+            }
+            sample.subList(kept, size).clear();
+            stride *= 2;
+        }
+
+        void ensureColumns(int count) {
+            while (columns.size() < count) {
+                columns.add(new ColumnStats());
+            }
+        }
+
+        /**
+         * 在给定的token份额内输出表头、列统计和引用的行，放不下的列和行只注明数量
+         * @return 连标题行都放不下时返回null
+         */
+        String describe(int tokenShare) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Sheet: ").append(name).append(" (").append(dataRows).append(" data rows x ")
+                    .append(maxColumns).append(" columns");
+            if (header != null) {
+                sb.append(", header in row ").append(headerRowIndex + 1);
+            }
+            sb.append(")\n");
+            int used = estimateTokens(sb);
+            if (used > tokenShare) {
+                return null;
+            }
+            if (header == null) {
+                return sb.toString();
+            }
+
+            // 说明行的份额始终留出，列和引用的行逐行计入，超出时停止
+            int limit = tokenShare - NOTE_TOKENS;
+            String columnsHeading = "Columns:\n";
+            int shown = 0;
+            if (used + estimateTokens(columnsHeading) <= limit) {
+                sb.append(columnsHeading);
+                used += estimateTokens(columnsHeading);
+                int describable = Math.min(maxColumns, MAX_DESCRIBED_COLUMNS);
+                for (; shown < describable; shown++) {
+                    String line = describeColumn(shown);
+                    int cost = estimateTokens(line);
+                    if (used + cost > limit) {
+                        break;
+                    }
+                    sb.append(line);
+                    used += cost;
+                }
+            }
+            if (maxColumns > shown) {
+                String note = "- ... " + (maxColumns - shown) + " more columns not shown\n";
+                sb.append(note);
+                used += estimateTokens(note);
+            }
+
+            if (!referenced.isEmpty()) {
+                // 列说明已经用掉了留给说明行的份额，引用的行另外留出一份
+                limit = tokenShare - NOTE_TOKENS;
+                String rowsHeading = "Rows referenced by the request:\n";
+                int rendered = 0;
+                for (Map.Entry<Integer, Object[]> entry : referenced.entrySet()) {
+                    String row = renderRow(entry.getKey(), entry.getValue());
+                    if (rendered == 0) {
+                        row = rowsHeading + row;
+                    }
+                    int cost = estimateTokens(row);
+                    if (used + cost > limit) {
+                        break;
+                    }
+                    sb.append(row);
+                    used += cost;
+                    rendered++;
+                }
+                if (rendered < referenced.size() && used + NOTE_TOKENS <= tokenShare) {
+                    sb.append("(").append(referenced.size() - rendered)
+                            .append(" referenced rows omitted to stay within the context budget)\n");
+                }
+            }
+            return sb.toString();
+        }
+
+        private String describeColumn(int c) {
+            StringBuilder sb = new StringBuilder();
+            String columnName = c < header.length ? formatValue(header[c]) : "";
+            sb.append("- ").append(CellReference.convertNumToColString(c))
+                    .append(" \"").append(columnName).append("\": ");
+            ColumnStats stats = c < columns.size() ? columns.get(c) : null;
+            if (stats == null || stats.count() == 0) {
+                sb.append("empty\n");
+            } else {
+                stats.describe(sb, dataRows);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 在给定的token份额内输出尽可能多的样本行，行数需要裁剪时均匀地挑选
+         */
+        String renderSample(int tokenShare) {
+            List<String> rendered = new ArrayList<>();
+            List<Integer> tokens = new ArrayList<>();
+            long total = 0;
+            for (SampledRow row : sample) {
+                if (referenced.containsKey(row.rowIndex)) {
+                    continue;
+                }
+                String text = renderRow(row.rowIndex, row.values);
+                int cost = estimateTokens(text);
+                rendered.add(text);
+                tokens.add(cost);
+                total += cost;
+            }
+            int n = rendered.size();
+            if (n == 0) {
+                return "";
+            }
+
+            // 标题行按最长的形式（全部样本行）计算
+            int headerTokens = estimateTokens(sampleHeading(n));
+            int available = tokenShare - headerTokens;
+            int[] selected = selectEvenly(n, n);
+            if (total > available) {
+                int k = (int) Math.max(0, Math.min(n, (long) n * Math.max(available, 0) / total));
+                selected = selectEvenly(n, k);
+                while (k > 0 && cost(selected, tokens) > available) {
+                    k = k * 9 / 10;
+                    selected = selectEvenly(n, k);
+                }
+            }
+            if (selected.length == 0) {
+                String note = "(" + dataRows + " rows omitted to stay within the context budget)\n";
+                return estimateTokens(note) <= tokenShare ? note : "";
+            }
+
+            StringBuilder sb = new StringBuilder();
+            int excluded = referenced.size();
+            if (stride == 1 && selected.length == n && dataRows - excluded == n) {
+                sb.append("Rows:\n");
+            } else {
+                sb.append(sampleHeading(selected.length));
+            }
+            for (int index : selected) {
+                sb.append(rendered.get(index));
+            }
+            return sb.toString();
+        }
+
+        private String sampleHeading(int selected) {
+            return "Sample rows (" + selected + " of " + dataRows + ", one per " + stride + "-row stratum):\n";
+        }
+
+        private static int[] selectEvenly(int n, int k) {
+            if (k <= 0) {
+                return new int[0];
+            }
+            if (k == 1) {
+                return new int[]{0};
+            }
+            int[] indexes = new int[k];
+            for (int i = 0; i < k; i++) {
+                indexes[i] = (int) ((long) i * (n - 1) / (k - 1));
+            }
+            return indexes;
+        }
+
+        private static long cost(int[] selected, List<Integer> tokens) {
+            long sum = 0;
+            for (int index : selected) {
+                sum += tokens.get(index);
+            }
+            return sum;
+        }
+    }
+
+    private static class SampledRow {
+        private final int rowIndex;
+        private final Object[] values;
+
+        SampledRow(int rowIndex, Object[] values) {
+            this.rowIndex = rowIndex;
+            this.values = values;
+        }
+    }
+
+    /**
+     * 单列的统计信息，读取过程中增量更新，占用内存与行数无关
+     */
+    private static class ColumnStats {
+        private int numbers;
+        private int texts;
+        private int dates;
+        private int booleans;
+        private int trueCount;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private long minDate = Long.MAX_VALUE;
+        private long maxDate = Long.MIN_VALUE;
+        private final Set<String> distinct = new HashSet<>();
+        private boolean distinctOverflow;
+        private final Set<String> examples = new LinkedHashSet<>();
+
+        void add(Object value) {
+            if (value instanceof Double) {
+                double number = (Double) value;
+                numbers++;
+                sum += number;
+                min = Math.min(min, number);
+                max = Math.max(max, number);
+            } else if (value instanceof Date) {
+                long time = ((Date) value).getTime();
+                dates++;
+                minDate = Math.min(minDate, time);
+                maxDate = Math.max(maxDate, time);
+            } else if (value instanceof Boolean) {
+                booleans++;
+                if ((Boolean) value) {
+                    trueCount++;
+                }
+            } else {
+                String text = value.toString();
+                if (text.isEmpty()) {
+                    return;
+                }
+                texts++;
+                if (!distinctOverflow) {
+                    distinct.add(text);
+                    if (distinct.size() > DISTINCT_LIMIT) {
+                        distinctOverflow = true;
+                        distinct.clear();
+                    }
+                }
+                if (examples.size() < EXAMPLE_VALUES) {
+                    examples.add(formatValue(text));
+                }
+            }
+        }
+
+        int count() {
+            return numbers + texts + dates + booleans;
+        }
+
+        void describe(StringBuilder sb, long rows) {
+            int count = count();
+            int dominant = Math.max(Math.max(numbers, texts), Math.max(dates, booleans));
+            String type = dominant == numbers ? "number" : dominant == dates ? "date" : dominant == texts ? "text" : "boolean";
+            sb.append(type);
+            List<String> others = new ArrayList<>();
+            if (numbers > 0 && !"number".equals(type)) others.add(numbers + " number");
+            if (texts > 0 && !"text".equals(type)) others.add(texts + " text");
+            if (dates > 0 && !"date".equals(type)) others.add(dates + " date");
+            if (booleans > 0 && !"boolean".equals(type)) others.add(booleans + " boolean");
+            if (!others.isEmpty()) {
+                sb.append(" (also ").append(String.join(", ", others)).append(')');
+            }
+            sb.append(", ").append(count).append(" values, ").append(Math.max(rows - count, 0)).append(" blank");
+            if (numbers > 0) {
+                sb.append(", min ").append(formatStatistic(min))
+                        .append(", max ").append(formatStatistic(max))
+                        .append(", mean ").append(formatStatistic(sum / numbers))
+                        .append(", sum ").append(formatStatistic(sum));
+            }
+            if (dates > 0) {
+                sb.append(", from ").append(formatDate(minDate)).append(" to ").append(formatDate(maxDate));
+            }
+            if (booleans > 0) {
+                sb.append(", ").append(trueCount).append(" true");
+            }
+            if (texts > 0) {
+                sb.append(", ").append(distinctOverflow ? "over " + DISTINCT_LIMIT : String.valueOf(distinct.size()))
+                        .append(" distinct, e.g. ");
+                boolean first = true;
+                for (String example : examples) {
+                    sb.append(first ? "" : ", ").append('"').append(example).append('"');
+                    first = false;
+                }
+            }
+            sb.append('\n');
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.aiexcel.service.excel;
+
+/**
+ * 流式读取工作簿时的行回调
+ * 读取过程中不会构建Workbook对象，每读到一行就回调一次，适合大文件的只读场景
+ */
+public interface SheetRowHandler {
+
+    /**
+     * 开始读取一个工作表
+     * @param sheetIndex 工作表索引
+     * @param sheetName 工作表名称
+     * @return 返回false则跳过该工作表，不再解析其内容
+     */
+    default boolean startSheet(int sheetIndex, String sheetName) {
+        return true;
+    }
+
+    /**
+     * 读取到一行数据
+     * @param rowIndex 行索引（从0开始，空行可能被跳过）
+     * @param values 按列索引排列的单元格值，类型为String、Double、Boolean或Date，缺失的单元格为null
+     */
+    void row(int rowIndex, Object[] values);
+
+    /**
+     * 工作表读取结束
+     * @param sheetIndex 工作表索引
+     * @param sheetName 工作表名称
+     */
+    default void endSheet(int sheetIndex, String sheetName) {
+    }
+
+    /**
+     * 是否区分空单元格与缺失的单元格
+     * 返回true时，文件中存在但没有值的单元格（如只设置了样式的空白单元格）以空字符串回调，
+     * 与DOM方式遍历到的单元格一一对应
+     */
+    default boolean includeBlankCells() {
+        return false;
+    }
+
+    /**
+     * 是否已经读取到足够的数据，返回true时读取器会尽快停止解析
+     */
+    default boolean isDone() {
+        return false;
+    }
+}
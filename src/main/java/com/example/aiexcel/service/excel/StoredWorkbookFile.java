@@ -0,0 +1,78 @@
+package com.example.aiexcel.service.excel;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * 服务端已保存的工作簿内容，以MultipartFile的形式交给现有的处理逻辑
+ * 内容哈希在上传时已经计算，解析缓存可直接使用
+ */
+public class StoredWorkbookFile implements MultipartFile {
+
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final byte[] content;
+    private final String contentHash;
+
+    public StoredWorkbookFile(String name, String originalFilename, String contentType,
+                              byte[] content, String contentHash) {
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.content = content;
+        this.contentHash = contentHash;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return content.length == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return content.length;
+    }
+
+    /**
+     * 返回共享的内容数组，调用方不得修改
+     */
+    @Override
+    public byte[] getBytes() {
+        return content;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.write(dest.toPath(), content);
+    }
+}
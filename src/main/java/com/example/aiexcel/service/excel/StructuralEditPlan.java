@@ -0,0 +1,324 @@
+package com.example.aiexcel.service.excel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个工作表上按顺序收集的插入/删除行列操作
+ * 每个操作的位置以执行到该操作时的表格为准（与逐个执行的语义一致），
+ * 规划时只维护分段列表，最终得到原始行列到新位置的映射，由ExcelService一次性应用。
+ * 行操作先于列操作应用，因此列操作之后不能再规划行操作（见{@link #acceptsRowEdits()}）
+ */
+public class StructuralEditPlan {
+
+    private final AxisPlan rows = new AxisPlan();
+    private final AxisPlan columns = new AxisPlan();
+
+    /**
+     * 在rowIndex处插入一行，原有行下移
+     * @param values 新行从第一列开始的值，可为null
+     */
+    public void insertRow(int rowIndex, Object[] values) {
+        checkRowEdit();
+        rows.insert(rowIndex, values);
+    }
+
+    /**
+     * 删除rowIndex处的行，后续行上移
+     */
+    public void deleteRow(int rowIndex) {
+        checkRowEdit();
+        rows.delete(rowIndex);
+    }
+
+    /**
+     * 在colIndex处插入一列，原有列右移
+     * @param values 新列从第一行开始的值（行号为行操作应用后的位置），可为null
+     */
+    public void insertColumn(int colIndex, Object[] values) {
+        columns.insert(colIndex, values);
+    }
+
+    /**
+     * 删除colIndex处的列，后续列左移
+     */
+    public void deleteColumn(int colIndex) {
+        columns.delete(colIndex);
+    }
+
+    /**
+     * 已有列操作时行操作的行号无法与列插入的值对应，需要先应用当前计划
+     */
+    public boolean acceptsRowEdits() {
+        return columns.operations == 0;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 已规划的操作数
+     */
+    public int size() {
+        return rows.operations + columns.operations;
+    }
+
+    public IndexMapping getRowMapping() {
+        return rows.toMapping();
+    }
+
+    public IndexMapping getColumnMapping() {
+        return columns.toMapping();
+    }
+
+    private void checkRowEdit() {
+        if (!acceptsRowEdits()) {
+            throw new IllegalStateException("Row edits must be planned before column edits");
+        }
+    }
+
+    /**
+     * 单个方向上的分段列表：每段是一段连续的原始索引，或一个新插入的行/列
+     */
+    private static class AxisPlan {
+        private final List<Segment> segments = new ArrayList<>();
+        private int operations;
+
+        AxisPlan() {
+            segments.add(Segment.original(0, Integer.MAX_VALUE));
+        }
+
+        void insert(int index, Object[] values) {
+            checkIndex(index);
+            long position = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                if (index == position) {
+                    segments.add(i, Segment.inserted(values));
+                    operations++;
+                    return;
+                }
+                if (index < position + segment.length()) {
+                    int split = segment.start + (int) (index - position);
+                    segments.set(i, Segment.original(segment.start, split));
+                    segments.add(i + 1, Segment.inserted(values));
+                    segments.add(i + 2, Segment.original(split, segment.end));
+                    operations++;
+                    return;
+                }
+                position += segment.length();
+            }
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+
+        void delete(int index) {
+            checkIndex(index);
+            long position = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                if (index < position + segment.length()) {
+                    segments.remove(i);
+                    if (!segment.isInserted()) {
+                        int removed = segment.start + (int) (index - position);
+                        if (removed + 1 < segment.end) {
+                            segments.add(i, Segment.original(removed + 1, segment.end));
+                        }
+                        if (segment.start < removed) {
+                            segments.add(i, Segment.original(segment.start, removed));
+                        }
+                    }
+                    operations++;
+                    return;
+                }
+                position += segment.length();
+            }
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+
+        IndexMapping toMapping() {
+            List<int[]> originals = new ArrayList<>();
+            List<Integer> insertedIndexes = new ArrayList<>();
+            List<Object[]> insertedValues = new ArrayList<>();
+            long position = 0;
+            for (Segment segment : segments) {
+                if (segment.isInserted()) {
+                    insertedIndexes.add((int) Math.min(position, Integer.MAX_VALUE));
+                    insertedValues.add(segment.values);
+                } else {
+                    int[] last = originals.isEmpty() ? null : originals.get(originals.size() - 1);
+                    // 插入后又删除的位置会留下相邻的原始段，合并后映射更短
+                    if (last != null && last[1] == segment.start && (long) last[2] + (last[1] - last[0]) == position) {
+                        last[1] = segment.end;
+                    } else {
+                        originals.add(new int[]{segment.start, segment.end, (int) Math.min(position, Integer.MAX_VALUE)});
+                    }
+                }
+                position += segment.length();
+            }
+            return new IndexMapping(originals, insertedIndexes, insertedValues);
+        }
+
+        private static void checkIndex(int index) {
+            if (index < 0) {
+                throw new IllegalArgumentException("Index must not be negative: " + index);
+            }
+        }
+    }
+
+    private static class Segment {
+        final int start;
+        final int end;
+        final Object[] values;
+        final boolean inserted;
+
+        private Segment(int start, int end, Object[] values, boolean inserted) {
+            this.start = start;
+            this.end = end;
+            this.values = values;
+            this.inserted = inserted;
+        }
+
+        static Segment original(int start, int end) {
+            return new Segment(start, end, null, false);
+        }
+
+        static Segment inserted(Object[] values) {
+            return new Segment(0, 1, values, true);
+        }
+
+        boolean isInserted() {
+            return inserted;
+        }
+
+        long length() {
+            return (long) end - start;
+        }
+    }
+
+    /**
+     * 原始索引到新索引的映射，以及新插入的行/列所在位置
+     * 原始索引按连续段保存，查询为二分查找
+     */
+    public static class IndexMapping {
+        private final int[] originalStarts;
+        private final int[] originalEnds;
+        private final int[] mappedStarts;
+        private final int[] insertedIndexes;
+        private final Object[][] insertedValues;
+
+        private IndexMapping(List<int[]> originals, List<Integer> insertedIndexes, List<Object[]> insertedValues) {
+            int count = originals.size();
+            this.originalStarts = new int[count];
+            this.originalEnds = new int[count];
+            this.mappedStarts = new int[count];
+            for (int i = 0; i < count; i++) {
+                int[] segment = originals.get(i);
+                originalStarts[i] = segment[0];
+                originalEnds[i] = segment[1];
+                mappedStarts[i] = segment[2];
+            }
+            this.insertedIndexes = insertedIndexes.stream().mapToInt(Integer::intValue).toArray();
+            this.insertedValues = insertedValues.toArray(new Object[0][]);
+        }
+
+        /**
+         * 没有任何插入或删除
+         */
+        public boolean isIdentity() {
+            return firstChangedIndex() == Integer.MAX_VALUE;
+        }
+
+        /**
+         * 该索引之前的行/列位置不变
+         */
+        public int firstChangedIndex() {
+            int unchanged = originalStarts.length > 0 && originalStarts[0] == 0 && mappedStarts[0] == 0
+                    ? originalEnds[0] : 0;
+            return insertedIndexes.length > 0 ? Math.min(unchanged, insertedIndexes[0]) : unchanged;
+        }
+
+        /**
+         * 原始索引的新位置，被删除时返回-1
+         */
+        public int map(int index) {
+            int segment = findSegment(index);
+            if (segment < 0 || index >= originalEnds[segment]) {
+                return -1;
+            }
+            return offset(segment, index);
+        }
+
+        /**
+         * 区域起点的新位置：该索引被删除时取其后第一个保留的索引，没有则返回-1
+         */
+        public int mapFirst(int index) {
+            int segment = findSegment(index);
+            if (segment >= 0 && index < originalEnds[segment]) {
+                return offset(segment, index);
+            }
+            return segment + 1 < originalStarts.length ? mappedStarts[segment + 1] : -1;
+        }
+
+        /**
+         * 区域终点的新位置：该索引被删除时取其前最后一个保留的索引，没有则返回-1
+         */
+        public int mapLast(int index) {
+            int segment = findSegment(index);
+            if (segment < 0) {
+                return -1;
+            }
+            return offset(segment, Math.min(index, originalEnds[segment] - 1));
+        }
+
+        public int getInsertedCount() {
+            return insertedIndexes.length;
+        }
+
+        /**
+         * 第i个新插入的行/列的位置（按位置升序）
+         */
+        public int getInsertedIndex(int i) {
+            return insertedIndexes[i];
+        }
+
+        public Object[] getInsertedValues(int i) {
+            return insertedValues[i];
+        }
+
+        /**
+         * 被删除的原始索引（升序）
+         */
+        public int[] getDeletedIndexes() {
+            List<Integer> deleted = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < originalStarts.length; i++) {
+                for (int index = next; index < originalStarts[i]; index++) {
+                    deleted.add(index);
+                }
+                next = originalEnds[i];
+            }
+            return deleted.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private int findSegment(int index) {
+            int low = 0;
+            int high = originalStarts.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (originalStarts[mid] <= index) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        private int offset(int segment, int index) {
+            return (int) Math.min((long) mappedStarts[segment] + (index - originalStarts[segment]), Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,864 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 直接在列式表格上执行的排序和筛选
+ * 排序：每个排序列先编码成稠密的整数名次（数字和日期在前，其次是文本、布尔值，空值最后），文本的名次由去重后的字典排序得到，
+ * 降序直接体现在名次中。多列名次的组合数不超过行数时用计数排序；能合成一个long时连同行的位置打包成long[]，
+ * 用Arrays.parallelSort（并行归并）排序；否则对行号数组做稳定的归并排序，行数较多时用ForkJoin并行。
+ * 筛选：文本条件只在去重后的字典上求值一次，再按编码逐行查表，结果按64行一个字写入位图
+ */
+public final class TableQuery {
+
+    /**
+     * 区间小于该行数时不再拆分并行任务
+     */
+    private static final int PARALLEL_SORT_THRESHOLD = 8192;
+
+    /**
+     * 区间小于该行数时改用插入排序
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private static final Map<String, Condition> CONDITION_ALIASES = new HashMap<>();
+
+    static {
+        alias(Condition.EQUALS, "equals", "equal", "eq", "is", "=", "==", "等于");
+        alias(Condition.NOT_EQUALS, "not_equals", "not_equal", "ne", "is_not", "!=", "<>", "不等于");
+        alias(Condition.CONTAINS, "contains", "contain", "like", "包含");
+        alias(Condition.NOT_CONTAINS, "not_contains", "not_contain", "not_like", "不包含");
+        alias(Condition.STARTS_WITH, "starts_with", "start_with", "begins_with", "开头是");
+        alias(Condition.ENDS_WITH, "ends_with", "end_with", "结尾是");
+        alias(Condition.GREATER_THAN, "greater_than", "gt", ">", "大于");
+        alias(Condition.GREATER_OR_EQUAL, "greater_or_equal", "greater_than_or_equal", "gte", "ge", ">=", "大于等于");
+        alias(Condition.LESS_THAN, "less_than", "lt", "<", "小于");
+        alias(Condition.LESS_OR_EQUAL, "less_or_equal", "less_than_or_equal", "lte", "le", "<=", "小于等于");
+        alias(Condition.BETWEEN, "between", "range", "介于");
+        alias(Condition.IS_EMPTY, "is_empty", "empty", "is_blank", "blank", "为空");
+        alias(Condition.NOT_EMPTY, "not_empty", "is_not_empty", "not_blank", "不为空");
+    }
+
+    private TableQuery() {
+    }
+
+    /**
+     * 筛选条件，文本比较不区分大小写
+     */
+    public enum Condition {
+        EQUALS, NOT_EQUALS, CONTAINS, NOT_CONTAINS, STARTS_WITH, ENDS_WITH,
+        GREATER_THAN, GREATER_OR_EQUAL, LESS_THAN, LESS_OR_EQUAL, BETWEEN, IS_EMPTY, NOT_EMPTY;
+
+        /**
+         * 解析条件名称或符号（如 greater_than、>=、大于），无法识别时返回null
+         */
+        public static Condition from(String value) {
+            if (value == null) {
+                return null;
+            }
+            String normalized = value.trim().toLowerCase(Locale.ROOT).replace(' ', '_').replace('-', '_');
+            return CONDITION_ALIASES.get(normalized);
+        }
+    }
+
+    private static void alias(Condition condition, String... names) {
+        for (String name : names) {
+            CONDITION_ALIASES.put(name, condition);
+        }
+    }
+
+    /**
+     * 排序列
+     */
+    public static class SortKey {
+        private final int column;
+        private final boolean ascending;
+
+        public SortKey(int column, boolean ascending) {
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+    }
+
+    /**
+     * 排序、筛选得到的结果：表格以及按结果顺序排列的行号
+     */
+    public static class Selection {
+        private final ColumnarTable table;
+        private final int[] rows;
+
+        public Selection(ColumnarTable table, int[] rows) {
+            this.table = table;
+            this.rows = rows;
+        }
+
+        public ColumnarTable getTable() {
+            return table;
+        }
+
+        public int[] getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * 按列名（不区分大小写）或列字母（A、B、AA）查找列，找不到返回-1
+     */
+    public static int resolveColumn(ColumnarTable table, String reference) {
+        if (reference == null || reference.trim().isEmpty()) {
+            return -1;
+        }
+        String name = reference.trim();
+        for (int c = 0; c < table.getColumnCount(); c++) {
+            if (table.getColumn(c).getName().trim().equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        if (name.matches("[A-Za-z]{1,3}")) {
+            int index = 0;
+            for (char ch : name.toUpperCase(Locale.ROOT).toCharArray()) {
+                index = index * 26 + (ch - 'A' + 1);
+            }
+            return index - 1 < table.getColumnCount() ? index - 1 : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * 解析排序列和排序方向
+     * 多个排序列用逗号分隔，方向与之一一对应，方向不足时沿用最后一个；列名后也可以直接跟 asc/desc
+     * @return 排序列，有任何一列无法识别时返回null
+     */
+    public static List<SortKey> parseSortKeys(ColumnarTable table, String sortColumns, String sortOrders) {
+        if (sortColumns == null || sortColumns.trim().isEmpty()) {
+            return null;
+        }
+        String[] columns = sortColumns.split(",");
+        String[] orders = sortOrders == null || sortOrders.trim().isEmpty() ? new String[]{"asc"} : sortOrders.split(",");
+        List<SortKey> keys = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            String reference = columns[i].trim();
+            String order = orders[Math.min(i, orders.length - 1)];
+            int column = resolveColumn(table, reference);
+            if (column < 0) {
+                // 列名本身可能包含空格，找不到时再尝试拆出结尾的方向
+                int space = reference.lastIndexOf(' ');
+                if (space > 0 && isOrder(reference.substring(space + 1))) {
+                    order = reference.substring(space + 1);
+                    column = resolveColumn(table, reference.substring(0, space));
+                }
+            }
+            if (column < 0) {
+                return null;
+            }
+            keys.add(new SortKey(column, !isDescending(order)));
+        }
+        return keys;
+    }
+
+    private static boolean isOrder(String value) {
+        String order = value.trim().toLowerCase(Locale.ROOT);
+        return order.equals("asc") || order.equals("desc");
+    }
+
+    private static boolean isDescending(String order) {
+        String value = order.trim().toLowerCase(Locale.ROOT);
+        return value.startsWith("desc") || value.equals("z-a") || value.equals("降序");
+    }
+
+    /**
+     * 包含全部行的行号数组
+     */
+    public static int[] allRows(ColumnarTable table) {
+        int[] rows = new int[table.getRowCount()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    /**
+     * 按多个排序列对给定的行排序，返回新的行号数组，原数组不变
+     * 排序是稳定的，排序列都相同的行保持原来的相对顺序；数字和日期排在文本之前，布尔值最后，空值无论升降序都排在末尾
+     */
+    public static int[] sort(ColumnarTable table, int[] rows, List<SortKey> keys) {
+        int[] result = rows.clone();
+        if (keys.isEmpty() || result.length < 2) {
+            return result;
+        }
+        EncodedKey[] encoded = new EncodedKey[keys.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            SortKey key = keys.get(i);
+            encoded[i] = new EncodedKey(table.getColumn(key.getColumn()), table.getRowCount(), key.isAscending());
+        }
+        if (sortPacked(result, encoded)) {
+            return result;
+        }
+        int[] buffer = new int[result.length];
+        if (result.length >= PARALLEL_SORT_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ForkJoinPool.commonPool().invoke(new MergeSortTask(result, buffer, 0, result.length, encoded));
+        } else {
+            mergeSort(result, buffer, 0, result.length, encoded);
+        }
+        return result;
+    }
+
+    /**
+     * 按筛选条件计算匹配行的位图，第row位为1表示该行匹配
+     * @param value 条件的值；BETWEEN用逗号或~分隔上下限，IS_EMPTY/NOT_EMPTY忽略该值
+     */
+    public static long[] filter(ColumnarTable table, int column, Condition condition, String value) {
+        Matcher matcher = new Matcher(table.getColumn(column), condition, value);
+        int rowCount = table.getRowCount();
+        long[] bitmap = new long[(rowCount + 63) >>> 6];
+        for (int word = 0; word < bitmap.length; word++) {
+            int base = word << 6;
+            int end = Math.min(base + 64, rowCount);
+            long bits = 0L;
+            for (int row = base; row < end; row++) {
+                if (matcher.matches(row)) {
+                    bits |= 1L << row;
+                }
+            }
+            bitmap[word] = bits;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 位图中匹配的行数
+     */
+    public static int count(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * 位图中匹配的行号，按升序排列
+     */
+    public static int[] rows(long[] bitmap) {
+        int[] rows = new int[count(bitmap)];
+        int n = 0;
+        for (int word = 0; word < bitmap.length; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                rows[n++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 取出rows中[offset, offset + limit)范围内的行，日期转为ISO格式的字符串，空值为null
+     */
+    public static List<List<Object>> toRows(ColumnarTable table, int[] rows, int offset, int limit) {
+        int end = (int) Math.min(rows.length, (long) offset + limit);
+        List<List<Object>> result = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = Math.max(0, offset); i < end; i++) {
+            List<Object> values = new ArrayList<>(table.getColumnCount());
+            for (ColumnarTable.Column column : table.getColumns()) {
+                Object value = column.getValue(rows[i]);
+                values.add(value instanceof Date ? formatDate(((Date) value).getTime()) : value);
+            }
+            result.add(values);
+        }
+        return result;
+    }
+
+    /**
+     * 把给定的行按顺序写成只含值的.xlsx，第一行为列名
+     * @param rowWindow SXSSF在内存中保留的行数
+     */
+    public static void writeXlsx(ColumnarTable table, int[] rows, OutputStream outputStream, int rowWindow) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+        try {
+            Sheet sheet = workbook.createSheet(table.getSheetName());
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < table.getColumnCount(); c++) {
+                header.createCell(c).setCellValue(table.getColumn(c).getName());
+            }
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i + 1);
+                for (int c = 0; c < table.getColumnCount(); c++) {
+                    Object value = table.getColumn(c).getValue(rows[i]);
+                    if (value == null) {
+                        continue;
+                    }
+                    Cell cell = row.createCell(c);
+                    if (value instanceof Double) {
+                        cell.setCellValue((Double) value);
+                    } else if (value instanceof Boolean) {
+                        cell.setCellValue((Boolean) value);
+                    } else if (value instanceof Date) {
+                        cell.setCellValue((Date) value);
+                        cell.setCellStyle(dateStyle);
+                    } else {
+                        cell.setCellValue(value.toString());
+                    }
+                }
+            }
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    /**
+     * 把各列名次合成一个键排序：组合数较少时做计数排序，否则键乘以行数再加上行的位置，放进一个long后直接对long[]排序，
+     * 位置部分同时保证了稳定性
+     * @return 合成的键会溢出时返回false，rows不变
+     */
+    private static boolean sortPacked(int[] rows, EncodedKey[] keys) {
+        long n = rows.length;
+        long limit = Long.MAX_VALUE / n;
+        long combinations = 1;
+        for (EncodedKey key : keys) {
+            if (combinations > limit / key.cardinality) {
+                return false;
+            }
+            combinations *= key.cardinality;
+        }
+        if (combinations <= Math.max(n, 1 << 16)) {
+            countingSort(rows, keys, (int) combinations);
+            return true;
+        }
+        long[] packed = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            long composite = 0;
+            for (EncodedKey key : keys) {
+                composite = composite * key.cardinality + key.ranks[rows[i]];
+            }
+            packed[i] = composite * n + i;
+        }
+        Arrays.parallelSort(packed);
+        int[] original = rows.clone();
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = original[(int) (packed[i] % n)];
+        }
+        return true;
+    }
+
+    private static void countingSort(int[] rows, EncodedKey[] keys, int combinations) {
+        int[] composites = new int[rows.length];
+        int[] offsets = new int[combinations + 1];
+        for (int i = 0; i < rows.length; i++) {
+            int composite = 0;
+            for (EncodedKey key : keys) {
+                composite = composite * key.cardinality + key.ranks[rows[i]];
+            }
+            composites[i] = composite;
+            offsets[composite + 1]++;
+        }
+        for (int k = 0; k < combinations; k++) {
+            offsets[k + 1] += offsets[k];
+        }
+        int[] original = rows.clone();
+        for (int i = 0; i < original.length; i++) {
+            rows[offsets[composites[i]]++] = original[i];
+        }
+    }
+
+    private static int compare(int a, int b, EncodedKey[] keys) {
+        for (EncodedKey key : keys) {
+            int c = Integer.compare(key.ranks[a], key.ranks[b]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, EncodedKey[] keys) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(rows, from, to, keys);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, mid, keys);
+        mergeSort(rows, buffer, mid, to, keys);
+        merge(rows, buffer, from, mid, to, keys);
+    }
+
+    private static void insertionSort(int[] rows, int from, int to, EncodedKey[] keys) {
+        for (int i = from + 1; i < to; i++) {
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= from && compare(rows[j], row, keys) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    private static void merge(int[] rows, int[] buffer, int from, int mid, int to, EncodedKey[] keys) {
+        if (compare(rows[mid - 1], rows[mid], keys) <= 0) {
+            // 两半已经有序（例如数据本来就按该列排好），无需合并
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compare(buffer[left], buffer[right], keys) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * 并行归并排序：两半分别排序后在当前线程合并
+     */
+    private static class MergeSortTask extends RecursiveAction {
+        private final int[] rows;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final EncodedKey[] keys;
+
+        MergeSortTask(int[] rows, int[] buffer, int from, int to, EncodedKey[] keys) {
+            this.rows = rows;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.keys = keys;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_SORT_THRESHOLD) {
+                mergeSort(rows, buffer, from, to, keys);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MergeSortTask(rows, buffer, from, mid, keys),
+                    new MergeSortTask(rows, buffer, mid, to, keys));
+            merge(rows, buffer, from, mid, to, keys);
+        }
+    }
+
+    /**
+     * 一个排序列的编码：每行一个稠密名次，相等的值名次相同；降序时把非空值的名次反过来，比较时统一按升序处理
+     */
+    private static class EncodedKey {
+        private final int[] ranks;
+        private final int cardinality;
+
+        EncodedKey(ColumnarTable.Column column, int rowCount, boolean ascending) {
+            NumberRanks numbers = new NumberRanks(column, rowCount);
+            int[] textRanks = new int[column.getDistinctCount()];
+            int textCount = textRanks(column, textRanks);
+            int textOffset = numbers.size();
+            int booleanOffset = textOffset + textCount;
+            int blank = booleanOffset + 2;
+
+            ranks = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                ColumnarTable.ValueType type = column.getValueType(row);
+                int rank;
+                if (type == null) {
+                    ranks[row] = blank;
+                    continue;
+                } else if (type == ColumnarTable.ValueType.TEXT) {
+                    rank = textOffset + textRanks[column.getCode(row)];
+                } else if (type == ColumnarTable.ValueType.BOOLEAN) {
+                    rank = booleanOffset + (int) column.getDouble(row);
+                } else {
+                    rank = numbers.rankOf(column.getDouble(row));
+                }
+                ranks[row] = ascending ? rank : blank - 1 - rank;
+            }
+            cardinality = blank + 1;
+        }
+
+        /**
+         * 字典值按不区分大小写的顺序排名，只差大小写的值名次相同
+         * @return 不同名次的个数
+         */
+        private static int textRanks(ColumnarTable.Column column, int[] ranks) {
+            int distinct = ranks.length;
+            Integer[] order = new Integer[distinct];
+            for (int i = 0; i < distinct; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(
+                    column.getDictionaryValue(a), column.getDictionaryValue(b)));
+            int rank = -1;
+            for (int i = 0; i < distinct; i++) {
+                if (i == 0 || String.CASE_INSENSITIVE_ORDER.compare(
+                        column.getDictionaryValue(order[i - 1]), column.getDictionaryValue(order[i])) != 0) {
+                    rank++;
+                }
+                ranks[order[i]] = rank;
+            }
+            return rank + 1;
+        }
+    }
+
+    /**
+     * 数值和日期的稠密名次：先用开放寻址的散列表去重，只对不同的值排序，-0.0按0处理
+     */
+    private static class NumberRanks {
+        private long[] slots = new long[64];
+        private int[] ranks = new int[64];
+        private boolean[] used = new boolean[64];
+        private int size;
+
+        NumberRanks(ColumnarTable.Column column, int rowCount) {
+            for (int row = 0; row < rowCount; row++) {
+                ColumnarTable.ValueType type = column.getValueType(row);
+                if (type == ColumnarTable.ValueType.NUMBER || type == ColumnarTable.ValueType.DATE) {
+                    add(Double.doubleToLongBits(column.getDouble(row) + 0.0));
+                }
+            }
+            double[] distinct = new double[size];
+            int n = 0;
+            for (int i = 0; i < slots.length; i++) {
+                if (used[i]) {
+                    distinct[n++] = Double.longBitsToDouble(slots[i]);
+                }
+            }
+            Arrays.sort(distinct);
+            for (int rank = 0; rank < distinct.length; rank++) {
+                ranks[indexOf(Double.doubleToLongBits(distinct[rank]))] = rank;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int rankOf(double value) {
+            return ranks[indexOf(Double.doubleToLongBits(value + 0.0))];
+        }
+
+        private void add(long bits) {
+            int index = indexOf(bits);
+            if (used[index]) {
+                return;
+            }
+            used[index] = true;
+            slots[index] = bits;
+            if (++size * 2 > slots.length) {
+                grow();
+            }
+        }
+
+        private int indexOf(long bits) {
+            int mask = slots.length - 1;
+            // 整数值的double低位全为0，取乘积的高位作为下标
+            int index = (int) ((bits * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(slots.length)));
+            while (used[index] && slots[index] != bits) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void grow() {
+            long[] oldSlots = slots;
+            boolean[] oldUsed = used;
+            slots = new long[oldSlots.length * 2];
+            used = new boolean[oldSlots.length * 2];
+            ranks = new int[oldSlots.length * 2];
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldUsed[i]) {
+                    int index = indexOf(oldSlots[i]);
+                    used[index] = true;
+                    slots[index] = oldSlots[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * 单列上的筛选条件求值
+     */
+    private static class Matcher {
+        private final ColumnarTable.Column column;
+        private final Condition condition;
+        private final Operand operand;
+        private final Operand upper;
+        private final boolean[] textMatches;
+        private final boolean blankMatches;
+
+        Matcher(ColumnarTable.Column column, Condition condition, String value) {
+            this.column = column;
+            this.condition = condition;
+            if (condition == Condition.BETWEEN) {
+                String[] bounds = value == null ? new String[0] : value.split("[,~]");
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException("between requires two values separated by a comma, got: " + value);
+                }
+                this.operand = new Operand(bounds[0]);
+                this.upper = new Operand(bounds[1]);
+            } else {
+                this.operand = new Operand(value);
+                this.upper = null;
+            }
+            switch (condition) {
+                case NOT_EQUALS:
+                    blankMatches = !operand.text.isEmpty();
+                    break;
+                case EQUALS:
+                    blankMatches = operand.text.isEmpty();
+                    break;
+                case NOT_CONTAINS:
+                case IS_EMPTY:
+                    blankMatches = true;
+                    break;
+                default:
+                    blankMatches = false;
+            }
+            textMatches = new boolean[column.getDistinctCount()];
+            for (int code = 0; code < textMatches.length; code++) {
+                textMatches[code] = matchesText(column.getDictionaryValue(code));
+            }
+        }
+
+        boolean matches(int row) {
+            int code = column.getCode(row);
+            if (code >= 0) {
+                return textMatches[code];
+            }
+            ColumnarTable.ValueType type = column.getValueType(row);
+            if (type == null) {
+                return blankMatches;
+            }
+            switch (type) {
+                case DATE:
+                    return matchesDate((long) column.getDouble(row));
+                case BOOLEAN:
+                    return matchesBoolean(column.getDouble(row) != 0);
+                default:
+                    return matchesNumber(column.getDouble(row));
+            }
+        }
+
+        private boolean matchesText(String value) {
+            String text = value.toLowerCase(Locale.ROOT);
+            switch (condition) {
+                case GREATER_THAN:
+                case GREATER_OR_EQUAL:
+                case LESS_THAN:
+                case LESS_OR_EQUAL:
+                    // 数值条件不匹配文本单元格，与Excel筛选一致
+                    return operand.number == null && compared(text.compareTo(operand.text));
+                case BETWEEN:
+                    return operand.number == null && upper.number == null
+                            && text.compareTo(operand.text) >= 0 && text.compareTo(upper.text) <= 0;
+                case IS_EMPTY:
+                    return text.isEmpty();
+                case NOT_EMPTY:
+                    return !text.isEmpty();
+                default:
+                    return matchesString(text);
+            }
+        }
+
+        private boolean matchesNumber(double value) {
+            switch (condition) {
+                case EQUALS:
+                    return operand.number != null && value == operand.number;
+                case NOT_EQUALS:
+                    return operand.number == null || value != operand.number;
+                case GREATER_THAN:
+                case GREATER_OR_EQUAL:
+                case LESS_THAN:
+                case LESS_OR_EQUAL:
+                    return operand.number != null && compared(Double.compare(value, operand.number));
+                case BETWEEN:
+                    return operand.number != null && upper.number != null
+                            && value >= operand.number && value <= upper.number;
+                case IS_EMPTY:
+                    return false;
+                case NOT_EMPTY:
+                    return true;
+                default:
+                    return matchesString(formatNumber(value));
+            }
+        }
+
+        /**
+         * 只有日期部分的条件值表示一整天，如 等于 2024-01-05 匹配当天的任意时刻
+         */
+        private boolean matchesDate(long millis) {
+            switch (condition) {
+                case EQUALS:
+                    return operand.dateStart != null && millis >= operand.dateStart && millis < operand.dateEnd;
+                case NOT_EQUALS:
+                    return operand.dateStart == null || millis < operand.dateStart || millis >= operand.dateEnd;
+                case GREATER_THAN:
+                    return operand.dateStart != null && millis >= operand.dateEnd;
+                case GREATER_OR_EQUAL:
+                    return operand.dateStart != null && millis >= operand.dateStart;
+                case LESS_THAN:
+                    return operand.dateStart != null && millis < operand.dateStart;
+                case LESS_OR_EQUAL:
+                    return operand.dateStart != null && millis < operand.dateEnd;
+                case BETWEEN:
+                    return operand.dateStart != null && upper.dateStart != null
+                            && millis >= operand.dateStart && millis < upper.dateEnd;
+                case IS_EMPTY:
+                    return false;
+                case NOT_EMPTY:
+                    return true;
+                default:
+                    return matchesString(formatDate(millis));
+            }
+        }
+
+        private boolean matchesBoolean(boolean value) {
+            switch (condition) {
+                case EQUALS:
+                    return operand.bool != null && value == operand.bool;
+                case NOT_EQUALS:
+                    return operand.bool == null || value != operand.bool;
+                case IS_EMPTY:
+                    return false;
+                case NOT_EMPTY:
+                    return true;
+                case CONTAINS:
+                case NOT_CONTAINS:
+                case STARTS_WITH:
+                case ENDS_WITH:
+                    return matchesString(Boolean.toString(value));
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * 字符串条件，text已转为小写
+         */
+        private boolean matchesString(String text) {
+            switch (condition) {
+                case EQUALS:
+                    return text.equals(operand.text);
+                case NOT_EQUALS:
+                    return !text.equals(operand.text);
+                case CONTAINS:
+                    return text.contains(operand.text);
+                case NOT_CONTAINS:
+                    return !text.contains(operand.text);
+                case STARTS_WITH:
+                    return text.startsWith(operand.text);
+                case ENDS_WITH:
+                    return text.endsWith(operand.text);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean compared(int comparison) {
+            switch (condition) {
+                case GREATER_THAN:
+                    return comparison > 0;
+                case GREATER_OR_EQUAL:
+                    return comparison >= 0;
+                case LESS_THAN:
+                    return comparison < 0;
+                default:
+                    return comparison <= 0;
+            }
+        }
+    }
+
+    /**
+     * 条件值的各种解释：小写文本、数值、日期范围和布尔值，不适用的为null
+     */
+    private static class Operand {
+        private final String text;
+        private final Double number;
+        private final Long dateStart;
+        private final Long dateEnd;
+        private final Boolean bool;
+
+        Operand(String value) {
+            String trimmed = value == null ? "" : value.trim();
+            text = trimmed.toLowerCase(Locale.ROOT);
+            number = parseNumber(trimmed);
+            bool = text.equals("true") ? Boolean.TRUE : text.equals("false") ? Boolean.FALSE : null;
+            Long start = null;
+            Long end = null;
+            try {
+                if (trimmed.length() == 10) {
+                    start = LocalDate.parse(trimmed).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    end = start + MILLIS_PER_DAY;
+                } else if (trimmed.length() > 10) {
+                    start = LocalDateTime.parse(trimmed.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    end = start + 1;
+                }
+            } catch (DateTimeParseException e) {
+                start = null;
+                end = null;
+            }
+            dateStart = start;
+            dateEnd = end;
+        }
+
+        private static Double parseNumber(String value) {
+            if (value.isEmpty()) {
+                return null;
+            }
+            try {
+                return Double.parseDouble(value.replace(",", ""));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static String formatNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    static String formatDate(long epochMillis) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(new Date(epochMillis).toInstant(), ZoneId.systemDefault());
+        return dateTime.toLocalTime().toSecondOfDay() == 0
+                ? dateTime.toLocalDate().toString()
+                : dateTime.withNano(0).toString();
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按内容寻址的已解析工作簿缓存
+ * 以上传内容的SHA-256为键，缓存原始字节、只读数据模型、列式表格以及只读的DOM工作簿，
+ * 按估算的内存占用做LRU淘汰。缓存中的对象是共享的，DOM工作簿只能在持有缓存项锁的回调中访问，
+ * 需要修改工作簿的调用方必须另行获取副本
+ */
+public class WorkbookCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookCache.class);
+
+    /**
+     * XSSF DOM相对压缩文件大小的粗略膨胀倍数，用于估算共享工作簿的内存占用
+     */
+    private static final int DOM_SIZE_FACTOR = 20;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, CachedWorkbook> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+
+    /**
+     * @param maxBytes 缓存总容量（估算字节数）
+     * @param maxEntryBytes 单个上传文件可被缓存的最大大小，超过的文件不进入缓存
+     */
+    public WorkbookCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * 内容大小是否允许进入缓存
+     */
+    public boolean isCacheable(long contentSize) {
+        return contentSize > 0 && contentSize <= maxEntryBytes;
+    }
+
+    /**
+     * 获取内容对应的缓存项，不存在时创建（此时尚未解析）
+     * @param content 上传文件的原始字节
+     * @param fileName 原始文件名，用于判断CSV等格式
+     */
+    public CachedWorkbook getOrCreate(byte[] content, String fileName) {
+        return getOrCreate(sha256(content), content, fileName);
+    }
+
+    /**
+     * 使用已知的内容哈希获取缓存项，避免重复计算哈希
+     */
+    public CachedWorkbook getOrCreate(String contentHash, byte[] content, String fileName) {
+        synchronized (this) {
+            CachedWorkbook entry = entries.get(contentHash);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            misses.incrementAndGet();
+            entry = new CachedWorkbook(contentHash, content, fileName);
+            entries.put(contentHash, entry);
+            currentBytes += entry.weight;
+            evictIfNecessary();
+            return entry;
+        }
+    }
+
+    /**
+     * 缓存项解析出新数据后更新其占用并按需淘汰
+     */
+    private synchronized void updateWeight(CachedWorkbook entry, long newWeight) {
+        if (entries.get(entry.contentHash) == entry) {
+            currentBytes += newWeight - entry.weight;
+        }
+        entry.weight = newWeight;
+        evictIfNecessary();
+    }
+
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, CachedWorkbook>> iterator = entries.entrySet().iterator();
+        // 至少保留最近使用的一项，避免刚放入的内容立刻被淘汰
+        while (currentBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            CachedWorkbook eldest = iterator.next().getValue();
+            iterator.remove();
+            currentBytes -= eldest.weight;
+            evictions.incrementAndGet();
+            logger.debug("Evicted cached workbook {} ({} bytes)", eldest.contentHash, eldest.weight);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * 缓存命中率等统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("estimatedBytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("parseTimeMs", parseNanos.get() / 1_000_000);
+        return stats;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public static String sha256(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 解析函数
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load(byte[] content, String fileName) throws IOException;
+    }
+
+    /**
+     * 缓存项：原始内容以及按需解析出的只读数据
+     * 同一内容的并发请求在缓存项上串行化，只会解析一次
+     */
+    public class CachedWorkbook {
+        private final String contentHash;
+        private final byte[] content;
+        private final String fileName;
+        private volatile WorkbookData data;
+        private volatile Workbook sharedWorkbook;
+        private volatile List<ColumnarTable> tables;
+        private final Object workbookLock = new Object();
+        private long weight;
+
+        private CachedWorkbook(String contentHash, byte[] content, String fileName) {
+            this.contentHash = contentHash;
+            this.content = content;
+            this.fileName = fileName;
+            this.weight = content.length;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * 原始内容，调用方不得修改
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * 获取只读数据模型，首次访问时解析
+         */
+        public WorkbookData getData(Loader<WorkbookData> loader) throws IOException {
+            WorkbookData result = data;
+            if (result == null) {
+                synchronized (this) {
+                    result = data;
+                    if (result == null) {
+                        long start = System.nanoTime();
+                        result = loader.load(content, fileName);
+                        parseNanos.addAndGet(System.nanoTime() - start);
+                        data = result;
+                        updateWeight(this, weight + result.getEstimatedBytes());
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 获取按列存储的只读表格（第一行为列名），首次访问时由数据模型构建
+         */
+        public List<ColumnarTable> getTables(Loader<WorkbookData> loader) throws IOException {
+            List<ColumnarTable> result = tables;
+            if (result == null) {
+                WorkbookData workbookData = getData(loader);
+                synchronized (this) {
+                    result = tables;
+                    if (result == null) {
+                        result = ColumnarTable.fromWorkbookData(workbookData, true);
+                        long bytes = 0;
+                        for (ColumnarTable table : result) {
+                            bytes += table.getEstimatedBytes();
+                        }
+                        tables = result;
+                        updateWeight(this, weight + bytes);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 在共享的只读工作簿上执行回调，首次访问时解析
+         * XSSF的DOM即使只读也不是线程安全的（样式、字符串等对象按需创建），同一缓存项上的回调串行执行，
+         * 不同内容的请求之间互不阻塞；回调不得修改、关闭工作簿或在返回后保留其中的对象
+         */
+        public <T> T withSharedWorkbook(Loader<Workbook> loader, WorkbookCallback<T> callback) throws IOException {
+            Workbook workbook = getSharedWorkbook(loader);
+            synchronized (workbookLock) {
+                return callback.apply(workbook);
+            }
+        }
+
+        private Workbook getSharedWorkbook(Loader<Workbook> loader) throws IOException {
+            Workbook result = sharedWorkbook;
+            if (result == null) {
+                synchronized (this) {
+                    result = sharedWorkbook;
+                    if (result == null) {
+                        long start = System.nanoTime();
+                        result = loader.load(content, fileName);
+                        parseNanos.addAndGet(System.nanoTime() - start);
+                        sharedWorkbook = result;
+                        updateWeight(this, weight + (long) content.length * DOM_SIZE_FACTOR);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
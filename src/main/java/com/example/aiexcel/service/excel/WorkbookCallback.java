@@ -0,0 +1,19 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.io.IOException;
+
+/**
+ * 只读访问工作簿的回调
+ * 传入的工作簿可能是缓存中共享的对象，只在回调期间有效：不得修改、关闭，也不得在回调之外保留引用
+ * （包括Sheet、Row、Cell、CellStyle等从工作簿取得的对象）
+ */
+@FunctionalInterface
+public interface WorkbookCallback<T> {
+
+    /**
+     * 读取工作簿并返回结果，返回值中不应包含POI对象
+     */
+    T apply(Workbook workbook) throws IOException;
+}
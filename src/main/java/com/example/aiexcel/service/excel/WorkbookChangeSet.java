@@ -0,0 +1,89 @@
+package com.example.aiexcel.service.excel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 一次编辑中被修改的单元格集合
+ * 用于增量重算公式：只重新计算被修改的单元格及其依赖的公式。
+ * 插入/删除行列等结构性修改会移动单元格位置，此时需要全量重算
+ */
+public class WorkbookChangeSet {
+
+    private final Set<ChangedCell> cells = new LinkedHashSet<>();
+    private boolean structural;
+
+    /**
+     * 记录被修改的单元格（行列从0开始）
+     */
+    public void markCell(String sheetName, int rowIndex, int colIndex) {
+        cells.add(new ChangedCell(sheetName, rowIndex, colIndex));
+    }
+
+    /**
+     * 记录结构性修改（插入/删除行列、排序等）
+     */
+    public void markStructural() {
+        structural = true;
+    }
+
+    public boolean isStructural() {
+        return structural;
+    }
+
+    public boolean isEmpty() {
+        return !structural && cells.isEmpty();
+    }
+
+    public List<ChangedCell> getCells() {
+        return Collections.unmodifiableList(new ArrayList<>(cells));
+    }
+
+    /**
+     * 被修改的单元格
+     */
+    public static class ChangedCell {
+        private final String sheetName;
+        private final int rowIndex;
+        private final int colIndex;
+
+        public ChangedCell(String sheetName, int rowIndex, int colIndex) {
+            this.sheetName = sheetName;
+            this.rowIndex = rowIndex;
+            this.colIndex = colIndex;
+        }
+
+        public String getSheetName() {
+            return sheetName;
+        }
+
+        public int getRowIndex() {
+            return rowIndex;
+        }
+
+        public int getColIndex() {
+            return colIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChangedCell)) {
+                return false;
+            }
+            ChangedCell that = (ChangedCell) o;
+            return rowIndex == that.rowIndex && colIndex == that.colIndex && Objects.equals(sheetName, that.sheetName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sheetName, rowIndex, colIndex);
+        }
+    }
+}
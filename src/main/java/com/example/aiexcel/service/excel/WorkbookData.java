@@ -0,0 +1,238 @@
+package com.example.aiexcel.service.excel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 只读的工作簿数据模型
+ * 由流式读取结果构建，只保存单元格的值（不含样式），可在多个请求之间安全共享
+ */
+public class WorkbookData {
+
+    private final List<SheetData> sheets;
+    private final long estimatedBytes;
+
+    private WorkbookData(List<SheetData> sheets) {
+        this.sheets = Collections.unmodifiableList(sheets);
+        long bytes = 0;
+        for (SheetData sheet : sheets) {
+            bytes += sheet.estimatedBytes;
+        }
+        this.estimatedBytes = bytes;
+    }
+
+    public List<SheetData> getSheets() {
+        return sheets;
+    }
+
+    public SheetData getSheet(int index) {
+        return index >= 0 && index < sheets.size() ? sheets.get(index) : null;
+    }
+
+    public SheetData getSheet(String name) {
+        for (SheetData sheet : sheets) {
+            if (sheet.getName().equals(name)) {
+                return sheet;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 估算的内存占用（字节），用于缓存容量控制
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * 按流式读取的语义回放数据，回调方不得修改传入的values数组
+     */
+    public void replay(SheetRowHandler handler) {
+        for (int i = 0; i < sheets.size() && !handler.isDone(); i++) {
+            SheetData sheet = sheets.get(i);
+            if (!handler.startSheet(i, sheet.getName())) {
+                continue;
+            }
+            boolean blanks = handler.includeBlankCells();
+            for (int r = 0; r < sheet.rowIndexes.length; r++) {
+                Object[] values = sheet.rows[r];
+                if (blanks && sheet.blankColumns[r] != null) {
+                    values = values.clone();
+                    for (int col : sheet.blankColumns[r]) {
+                        values[col] = "";
+                    }
+                }
+                handler.row(sheet.rowIndexes[r], values);
+                if (handler.isDone()) {
+                    break;
+                }
+            }
+            handler.endSheet(i, sheet.getName());
+        }
+    }
+
+    /**
+     * 工作表数据，行按行号升序存放，缺失的行不占空间
+     * 空白单元格（存在但没有值）的值为null，其列号另行记录，只在回调方要求时回放为空字符串
+     */
+    public static class SheetData {
+        private final String name;
+        private final int[] rowIndexes;
+        private final Object[][] rows;
+        private final int[][] blankColumns;
+        private final int maxColumns;
+        private final long estimatedBytes;
+
+        SheetData(String name, int[] rowIndexes, Object[][] rows, int[][] blankColumns, int maxColumns,
+                  long estimatedBytes) {
+            this.name = name;
+            this.rowIndexes = rowIndexes;
+            this.rows = rows;
+            this.blankColumns = blankColumns;
+            this.maxColumns = maxColumns;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 实际存在的行数
+         */
+        public int getPhysicalRowCount() {
+            return rowIndexes.length;
+        }
+
+        /**
+         * 最后一行的行号，空表返回-1
+         */
+        public int getLastRowIndex() {
+            return rowIndexes.length == 0 ? -1 : rowIndexes[rowIndexes.length - 1];
+        }
+
+        /**
+         * 第一行的行号，空表返回-1
+         */
+        public int getFirstRowIndex() {
+            return rowIndexes.length == 0 ? -1 : rowIndexes[0];
+        }
+
+        public int getMaxColumns() {
+            return maxColumns;
+        }
+
+        /**
+         * 按行号获取一行（二分查找），行不存在时返回null
+         */
+        public Object[] getRow(int rowIndex) {
+            int position = Arrays.binarySearch(rowIndexes, rowIndex);
+            return position >= 0 ? rows[position] : null;
+        }
+
+        /**
+         * 获取单元格的值，不存在时返回null
+         */
+        public Object getValue(int rowIndex, int colIndex) {
+            Object[] row = getRow(rowIndex);
+            return row != null && colIndex >= 0 && colIndex < row.length ? row[colIndex] : null;
+        }
+    }
+
+    /**
+     * 以流式回调的方式构建WorkbookData
+     */
+    public static class Builder implements SheetRowHandler {
+        private final List<SheetData> sheets = new ArrayList<>();
+        private String sheetName;
+        private final List<Object[]> rows = new ArrayList<>();
+        private final List<int[]> blankColumns = new ArrayList<>();
+        private int[] rowIndexes = new int[16];
+        private int maxColumns;
+        private long sheetBytes;
+
+        @Override
+        public boolean startSheet(int sheetIndex, String sheetName) {
+            this.sheetName = sheetName;
+            rows.clear();
+            blankColumns.clear();
+            maxColumns = 0;
+            sheetBytes = 0;
+            return true;
+        }
+
+        @Override
+        public boolean includeBlankCells() {
+            return true;
+        }
+
+        @Override
+        public void row(int rowIndex, Object[] values) {
+            int[] blanks = takeBlankColumns(values);
+            blankColumns.add(blanks);
+            if (blanks != null) {
+                sheetBytes += 16 + 4L * blanks.length;
+            }
+            if (rows.size() == rowIndexes.length) {
+                rowIndexes = Arrays.copyOf(rowIndexes, rowIndexes.length * 2);
+            }
+            rowIndexes[rows.size()] = rowIndex;
+            rows.add(values);
+            maxColumns = Math.max(maxColumns, values.length);
+            sheetBytes += estimateRowBytes(values);
+        }
+
+        @Override
+        public void endSheet(int sheetIndex, String sheetName) {
+            sheets.add(new SheetData(this.sheetName, Arrays.copyOf(rowIndexes, rows.size()),
+                    rows.toArray(new Object[0][]), blankColumns.toArray(new int[0][]), maxColumns, sheetBytes));
+            rows.clear();
+            blankColumns.clear();
+        }
+
+        public WorkbookData build() {
+            return new WorkbookData(new ArrayList<>(sheets));
+        }
+
+        /**
+         * 把空白单元格置为null并返回它们的列号，没有空白单元格时返回null
+         */
+        private static int[] takeBlankColumns(Object[] values) {
+            int count = 0;
+            for (Object value : values) {
+                if ("".equals(value)) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return null;
+            }
+            int[] columns = new int[count];
+            for (int col = 0, i = 0; col < values.length; col++) {
+                if ("".equals(values[col])) {
+                    values[col] = null;
+                    columns[i++] = col;
+                }
+            }
+            return columns;
+        }
+
+        /**
+         * 粗略估算一行的内存占用：数组头和引用、装箱对象以及字符串内容
+         */
+        private static long estimateRowBytes(Object[] values) {
+            long bytes = 16 + 4L * values.length + 4;
+            for (Object value : values) {
+                if (value instanceof String) {
+                    bytes += 40 + ((String) value).length();
+                } else if (value != null) {
+                    bytes += 24;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 两个工作簿之间的单元格级比较
+ * 先流式读取旧工作簿，为每个工作表建立行哈希索引（行号、64位内容哈希），再流式读取新工作簿：
+ * 同一行号哈希相同的行直接跳过；哈希能在旧工作表其他位置找到的行视为移动（插入/删除行后整体平移的行）；
+ * 其余的行才保留内容，最后再读一遍旧工作簿，只对这些行逐个单元格比较。
+ * 内存占用为每行十几个字节的索引加上变化行的内容，不随未变化的内容增长
+ */
+public final class WorkbookDiff {
+
+    /**
+     * 可以多次流式读取的工作簿
+     */
+    @FunctionalInterface
+    public interface Source {
+        void read(SheetRowHandler handler) throws IOException;
+    }
+
+    private WorkbookDiff() {
+    }
+
+    /**
+     * 比较两个工作簿
+     * @param maxDetails 每类明细（行、单元格）最多返回的条数，超出部分只计数
+     * @return identical、summary、sheets、truncated
+     */
+    public static Map<String, Object> compare(Source before, Source after, int maxDetails) throws IOException {
+        // 第一遍：旧工作簿的行哈希索引
+        Map<String, SheetIndex> oldSheets = new LinkedHashMap<>();
+        before.read(new SheetRowHandler() {
+            private SheetIndex current;
+
+            @Override
+            public boolean startSheet(int sheetIndex, String sheetName) {
+                current = new SheetIndex();
+                oldSheets.put(sheetName, current);
+                return true;
+            }
+
+            @Override
+            public void row(int rowIndex, Object[] values) {
+                long hash = hash(values);
+                if (hash != EMPTY_ROW) {
+                    current.add(rowIndex, hash);
+                }
+            }
+
+            @Override
+            public void endSheet(int sheetIndex, String sheetName) {
+                current.buildLookup();
+            }
+        });
+
+        // 第二遍：新工作簿逐行查索引，只保留找不到的行
+        Map<String, SheetChanges> changes = new LinkedHashMap<>();
+        int[] retainedRows = new int[1];
+        boolean[] rowsDropped = new boolean[1];
+        after.read(new SheetRowHandler() {
+            private SheetIndex index;
+            private SheetChanges current;
+
+            @Override
+            public boolean startSheet(int sheetIndex, String sheetName) {
+                index = oldSheets.get(sheetName);
+                current = new SheetChanges(sheetName, index == null ? "added" : "changed");
+                changes.put(sheetName, current);
+                return true;
+            }
+
+            @Override
+            public void row(int rowIndex, Object[] values) {
+                long hash = hash(values);
+                if (hash == EMPTY_ROW) {
+                    return;
+                }
+                current.rowCount++;
+                if (index == null) {
+                    return;
+                }
+                int position = index.positionOf(rowIndex);
+                if (position >= 0 && index.hashes[position] == hash && !index.consumed.get(position)) {
+                    index.consumed.set(position);
+                    return;
+                }
+                int moved = index.takeByHash(hash);
+                if (moved >= 0) {
+                    current.moved++;
+                    if (current.movedRows.size() < maxDetails) {
+                        current.movedRows.add(Map.of("from", index.rows[moved] + 1, "to", rowIndex + 1));
+                    }
+                    return;
+                }
+                // 变化或新增的行：明细条数以内保留内容，超出后只记录行号
+                current.pendingRows.add(rowIndex);
+                if (retainedRows[0] < maxDetails) {
+                    current.pendingValues.put(rowIndex, values.clone());
+                    retainedRows[0]++;
+                } else {
+                    rowsDropped[0] = true;
+                }
+            }
+        });
+
+        // 配对：同一行号上旧行未被匹配、新行有变化的视为修改，其余为新增或删除
+        for (Map.Entry<String, SheetIndex> entry : oldSheets.entrySet()) {
+            SheetIndex index = entry.getValue();
+            SheetChanges sheet = changes.get(entry.getKey());
+            if (sheet == null) {
+                sheet = new SheetChanges(entry.getKey(), "removed");
+                sheet.rowCount = index.count;
+                changes.put(entry.getKey(), sheet);
+                continue;
+            }
+            for (int i = 0; i < sheet.pendingRows.size(); i++) {
+                int rowIndex = sheet.pendingRows.get(i);
+                int position = index.positionOf(rowIndex);
+                if (position >= 0 && !index.consumed.get(position)) {
+                    index.consumed.set(position);
+                    sheet.changedRows.add(rowIndex);
+                } else {
+                    sheet.addedRows.add(rowIndex);
+                    sheet.pendingValues.remove(rowIndex);
+                }
+            }
+            for (int position = index.consumed.nextClearBit(0); position < index.count;
+                 position = index.consumed.nextClearBit(position + 1)) {
+                sheet.removedRows.add(index.rows[position]);
+            }
+        }
+
+        // 第三遍：只读取被修改的行，逐个单元格比较
+        int[] remaining = new int[1];
+        for (SheetChanges sheet : changes.values()) {
+            remaining[0] += sheet.pendingValues.size();
+        }
+        if (remaining[0] > 0) {
+            before.read(new SheetRowHandler() {
+                private SheetChanges current;
+
+                @Override
+                public boolean startSheet(int sheetIndex, String sheetName) {
+                    current = changes.get(sheetName);
+                    return current != null && !current.pendingValues.isEmpty();
+                }
+
+                @Override
+                public void row(int rowIndex, Object[] values) {
+                    Object[] newValues = current.pendingValues.get(rowIndex);
+                    if (newValues != null) {
+                        compareCells(current, rowIndex, values, newValues, maxDetails);
+                        remaining[0]--;
+                    }
+                }
+
+                @Override
+                public boolean isDone() {
+                    // 修改的行都比较完后不再解析剩余内容
+                    return remaining[0] == 0;
+                }
+            });
+        }
+
+        return buildResult(changes, maxDetails, rowsDropped[0]);
+    }
+
+    private static void compareCells(SheetChanges sheet, int rowIndex, Object[] oldValues, Object[] newValues, int maxDetails) {
+        int width = Math.max(oldValues.length, newValues.length);
+        for (int col = 0; col < width; col++) {
+            Object oldValue = normalize(col < oldValues.length ? oldValues[col] : null);
+            Object newValue = normalize(col < newValues.length ? newValues[col] : null);
+            if (oldValue == null ? newValue == null : oldValue.equals(newValue)) {
+                continue;
+            }
+            String change = oldValue == null ? "added" : newValue == null ? "removed" : "changed";
+            sheet.cellCounts.merge(change, 1, Integer::sum);
+            if (sheet.cells.size() < maxDetails) {
+                Map<String, Object> cell = new LinkedHashMap<>();
+                cell.put("address", CellReference.convertNumToColString(col) + (rowIndex + 1));
+                cell.put("change", change);
+                cell.put("oldValue", display(oldValue));
+                cell.put("newValue", display(newValue));
+                sheet.cells.add(cell);
+            }
+        }
+    }
+
+    private static Map<String, Object> buildResult(Map<String, SheetChanges> changes, int maxDetails, boolean rowsDropped) {
+        Map<String, Integer> summary = new LinkedHashMap<>();
+        for (String key : new String[]{"addedSheets", "removedSheets", "changedSheets", "addedRows", "removedRows",
+                "movedRows", "changedRows", "addedCells", "removedCells", "changedCells"}) {
+            summary.put(key, 0);
+        }
+        // 超出明细条数的修改行没有保留内容，单元格计数只包含保留了内容的行
+        boolean truncated = rowsDropped;
+        List<Map<String, Object>> sheets = new ArrayList<>();
+        for (SheetChanges sheet : changes.values()) {
+            boolean unchanged = "changed".equals(sheet.status) && sheet.addedRows.isEmpty() && sheet.removedRows.isEmpty()
+                    && sheet.changedRows.isEmpty() && sheet.moved == 0;
+            if (unchanged) {
+                continue;
+            }
+            summary.merge(sheet.status + "Sheets", 1, Integer::sum);
+            summary.merge("addedRows", sheet.addedRows.size(), Integer::sum);
+            summary.merge("removedRows", sheet.removedRows.size(), Integer::sum);
+            summary.merge("movedRows", sheet.moved, Integer::sum);
+            summary.merge("changedRows", sheet.changedRows.size(), Integer::sum);
+            for (Map.Entry<String, Integer> count : sheet.cellCounts.entrySet()) {
+                summary.merge(count.getKey() + "Cells", count.getValue(), Integer::sum);
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("name", sheet.name);
+            result.put("status", sheet.status);
+            result.put("rowCount", sheet.rowCount);
+            if ("changed".equals(sheet.status)) {
+                result.put("addedRows", rowNumbers(sheet.addedRows, maxDetails));
+                result.put("removedRows", rowNumbers(sheet.removedRows, maxDetails));
+                result.put("changedRows", rowNumbers(sheet.changedRows, maxDetails));
+                result.put("movedRows", sheet.movedRows);
+                result.put("cells", sheet.cells);
+                int changedCells = sheet.cellCounts.values().stream().mapToInt(Integer::intValue).sum();
+                truncated |= sheet.addedRows.size() > maxDetails || sheet.removedRows.size() > maxDetails
+                        || sheet.changedRows.size() > maxDetails || sheet.moved > sheet.movedRows.size()
+                        || changedCells > sheet.cells.size();
+            }
+            sheets.add(result);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("identical", sheets.isEmpty());
+        result.put("summary", summary);
+        result.put("sheets", sheets);
+        result.put("truncated", truncated);
+        return result;
+    }
+
+    private static List<Integer> rowNumbers(List<Integer> rows, int maxDetails) {
+        List<Integer> numbers = new ArrayList<>(Math.min(rows.size(), maxDetails));
+        for (int i = 0; i < rows.size() && i < maxDetails; i++) {
+            numbers.add(rows.get(i) + 1);
+        }
+        return numbers;
+    }
+
+    private static Object display(Object value) {
+        return value instanceof Date ? TableQuery.formatDate(((Date) value).getTime()) : value;
+    }
+
+    /**
+     * 空字符串与空单元格视为相同
+     */
+    private static Object normalize(Object value) {
+        return value instanceof String && ((String) value).isEmpty() ? null : value;
+    }
+
+    private static final long EMPTY_ROW = 0L;
+
+    /**
+     * 行内容的64位哈希，只计入非空单元格及其列号；全空的行返回EMPTY_ROW
+     */
+    static long hash(Object[] values) {
+        long hash = EMPTY_ROW;
+        boolean any = false;
+        for (int col = 0; col < values.length; col++) {
+            Object value = normalize(values[col]);
+            if (value == null) {
+                continue;
+            }
+            any = true;
+            long cell;
+            if (value instanceof String) {
+                String text = (String) value;
+                cell = 0xcbf29ce484222325L;
+                for (int i = 0; i < text.length(); i++) {
+                    cell = (cell ^ text.charAt(i)) * 0x100000001b3L;
+                }
+            } else if (value instanceof Double) {
+                cell = Double.doubleToLongBits((Double) value) ^ 0x1L;
+            } else if (value instanceof Boolean) {
+                cell = (Boolean) value ? 0x2L : 0x3L;
+            } else if (value instanceof Date) {
+                cell = ((Date) value).getTime() ^ 0x4L;
+            } else {
+                cell = value.hashCode();
+            }
+            hash = mix(hash ^ mix(cell + col * 0x9E3779B97F4A7C15L));
+        }
+        return !any ? EMPTY_ROW : hash == EMPTY_ROW ? 1L : hash;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * 一个工作表的行哈希索引：按行号递增排列的行号、哈希，以及按哈希查找位置的开放寻址表
+     */
+    private static final class SheetIndex {
+        int count;
+        int[] rows = new int[64];
+        long[] hashes = new long[64];
+        final BitSet consumed = new BitSet();
+        private int[] table;
+        private int[] next;
+
+        void add(int rowIndex, long hash) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            rows[count] = rowIndex;
+            hashes[count] = hash;
+            count++;
+        }
+
+        void buildLookup() {
+            int size = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+            table = new int[size];
+            Arrays.fill(table, -1);
+            next = new int[count];
+            // 倒序插入，使同一哈希的链表按行号递增
+            for (int i = count - 1; i >= 0; i--) {
+                int slot = slot(hashes[i]);
+                next[i] = table[slot];
+                table[slot] = i;
+            }
+        }
+
+        int positionOf(int rowIndex) {
+            int position = Arrays.binarySearch(rows, 0, count, rowIndex);
+            return position >= 0 ? position : -1;
+        }
+
+        /**
+         * 取出一个哈希相同且尚未匹配的行的位置，没有时返回-1
+         */
+        int takeByHash(long hash) {
+            int slot = slot(hash);
+            int previous = -1;
+            for (int i = table[slot]; i >= 0; i = next[i]) {
+                if (consumed.get(i)) {
+                    // 已匹配的行从链表中摘除，使重复查找保持O(1)
+                    if (previous < 0) {
+                        table[slot] = next[i];
+                    } else {
+                        next[previous] = next[i];
+                    }
+                    continue;
+                }
+                if (hashes[i] == hash) {
+                    consumed.set(i);
+                    return i;
+                }
+                previous = i;
+            }
+            return -1;
+        }
+
+        private int slot(long hash) {
+            return (int) (hash >>> (64 - Integer.numberOfTrailingZeros(table.length)));
+        }
+    }
+
+    /**
+     * 一个工作表的比较结果
+     */
+    private static final class SheetChanges {
+        final String name;
+        final String status;
+        int rowCount;
+        int moved;
+        final List<Integer> pendingRows = new ArrayList<>();
+        final Map<Integer, Object[]> pendingValues = new HashMap<>();
+        final List<Integer> addedRows = new ArrayList<>();
+        final List<Integer> removedRows = new ArrayList<>();
+        final List<Integer> changedRows = new ArrayList<>();
+        final List<Map<String, Object>> movedRows = new ArrayList<>();
+        final List<Map<String, Object>> cells = new ArrayList<>();
+        final Map<String, Integer> cellCounts = new LinkedHashMap<>();
+
+        SheetChanges(String name, String status) {
+            this.name = name;
+            this.status = status;
+        }
+    }
+}
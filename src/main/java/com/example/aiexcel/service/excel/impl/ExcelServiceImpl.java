@@ -1,6 +1,16 @@
 package com.example.aiexcel.service.excel.impl;
 
+import com.example.aiexcel.service.excel.ColumnarTable;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.SheetContextBuilder;
+import com.example.aiexcel.service.excel.SheetRowHandler;
+import com.example.aiexcel.service.excel.StoredWorkbookFile;
+import com.example.aiexcel.service.excel.StructuralEditPlan;
+import com.example.aiexcel.service.excel.WorkbookCache;
+import com.example.aiexcel.service.excel.WorkbookCallback;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import com.example.aiexcel.service.excel.WorkbookData;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.slf4j.Logger;
@@ -8,16 +18,34 @@ import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class ExcelServiceImpl implements ExcelService {
     private static final Logger logger = LoggerFactory.getLogger(ExcelServiceImpl.class);
 
+    private final StreamingWorkbookReader streamingReader = new StreamingWorkbookReader();
+
+    private int promptTokenBudget = 6000;
+
+    private WorkbookCache workbookCache;
+
+    // 每个工作簿共享一个公式计算器和依赖图，按工作簿对象的identity登记并强引用，依赖图只构建一次；
+    // 使用工作簿的调用方在finally中调用releaseFormulaEvaluator移除条目
+    private final Map<Workbook, FormulaRecalculator> recalculators = new IdentityHashMap<>();
+
     @Override
     public Workbook loadWorkbook(MultipartFile file) throws IOException {
+        // 缓存中的工作簿是共享的，需要修改的调用方总是拿到一份新解析的副本；
+        // 命中缓存也要重新解析，所以这里不查缓存，省去读取全部内容和计算哈希
         String fileName = file.getOriginalFilename();
-        if (fileName != null && fileName.toLowerCase().endsWith(".csv")) {
+        if (isCsv(fileName)) {
             return convertCsvToWorkbook(file.getInputStream());
         }
         // 使用内部方法避免递归调用
@@ -28,6 +56,62 @@ public class ExcelServiceImpl implements ExcelService {
         }
     }
 
+    @Override
+    public <T> T readWorkbookReadOnly(MultipartFile file, WorkbookCallback<T> callback) throws IOException {
+        WorkbookCache.CachedWorkbook cached = lookupCache(file);
+        if (cached != null) {
+            return cached.withSharedWorkbook(this::createWorkbook, callback);
+        }
+        // 不进入缓存的文件解析一份私有副本，用完即关闭
+        try (Workbook workbook = loadWorkbook(file)) {
+            return callback.apply(workbook);
+        }
+    }
+
+    /**
+     * 设置已解析工作簿缓存，为null时不使用缓存
+     */
+    public void setWorkbookCache(WorkbookCache workbookCache) {
+        this.workbookCache = workbookCache;
+    }
+
+    /**
+     * 查找（或登记）上传内容对应的缓存项，文件过大或未启用缓存时返回null
+     * 需要计算内容哈希，只在会使用缓存中解析结果的路径上调用
+     */
+    private WorkbookCache.CachedWorkbook lookupCache(MultipartFile file) throws IOException {
+        if (workbookCache == null || !workbookCache.isCacheable(file.getSize())) {
+            return null;
+        }
+        if (file instanceof StoredWorkbookFile) {
+            // 句柄中保存的文件已经计算过内容哈希
+            StoredWorkbookFile storedFile = (StoredWorkbookFile) file;
+            return workbookCache.getOrCreate(storedFile.getContentHash(), storedFile.getBytes(), storedFile.getOriginalFilename());
+        }
+        return workbookCache.getOrCreate(file.getBytes(), file.getOriginalFilename());
+    }
+
+    private Workbook createWorkbook(byte[] content, String fileName) throws IOException {
+        if (isCsv(fileName)) {
+            return convertCsvToWorkbook(new ByteArrayInputStream(content));
+        }
+        return loadWorkbook(new ByteArrayInputStream(content));
+    }
+
+    private WorkbookData parseWorkbookData(byte[] content, String fileName) throws IOException {
+        WorkbookData.Builder builder = new WorkbookData.Builder();
+        if (isCsv(fileName)) {
+            readCsv(new ByteArrayInputStream(content), builder);
+        } else {
+            readWorkbook(new ByteArrayInputStream(content), builder);
+        }
+        return builder.build();
+    }
+
+    private boolean isCsv(String fileName) {
+        return fileName != null && fileName.toLowerCase().endsWith(".csv");
+    }
+
     @Override
     public Workbook loadWorkbook(InputStream inputStream) throws IOException {
         try {
@@ -111,11 +195,24 @@ public class ExcelServiceImpl implements ExcelService {
 
     @Override
     public void saveWorkbook(Workbook workbook, String filePath) throws IOException {
-        try (FileOutputStream fileOut = new FileOutputStream(filePath)) {
-            workbook.write(fileOut);
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(filePath))) {
+            writeWorkbook(workbook, fileOut);
         }
     }
 
+    @Override
+    public void writeWorkbook(Workbook workbook, OutputStream outputStream) throws IOException {
+        workbook.write(outputStream);
+        outputStream.flush();
+    }
+
+    /**
+     * 设置发送给AI的工作表上下文的token预算
+     */
+    public void setPromptTokenBudget(int promptTokenBudget) {
+        this.promptTokenBudget = promptTokenBudget;
+    }
+
     @Override
     public byte[] getWorkbookAsBytes(Workbook workbook) throws IOException {
         try (java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream()) {
@@ -126,6 +223,7 @@ public class ExcelServiceImpl implements ExcelService {
 
     @Override
     public String getExcelDataAsString(Workbook workbook) {
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
             Sheet sheet = workbook.getSheetAt(i);
@@ -149,7 +247,6 @@ public class ExcelServiceImpl implements ExcelService {
                             break;
                         case FORMULA:
                             // 对于公式单元格，添加计算结果而不是公式本身
-                            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
                             CellValue cellValue = evaluator.evaluate(cell);
                             switch (cellValue.getCellType()) {
                                 case STRING:
@@ -189,6 +286,7 @@ public class ExcelServiceImpl implements ExcelService {
         int lastRowNum = sheet.getLastRowNum();
         Row firstRow = sheet.getRow(0);
         int lastCellNum = (firstRow != null) ? firstRow.getLastCellNum() : 0;
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
 
         Object[][] data = new Object[lastRowNum + 1][lastCellNum];
 
@@ -214,7 +312,6 @@ public class ExcelServiceImpl implements ExcelService {
                                 break;
                             case FORMULA:
                                 // 对于公式单元格，返回计算结果而不是公式本身
-                                FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
                                 CellValue cellValue = evaluator.evaluate(cell);
                                 switch (cellValue.getCellType()) {
                                     case STRING:
@@ -277,6 +374,7 @@ public class ExcelServiceImpl implements ExcelService {
         } else {
             cell.setCellValue(value != null ? value.toString() : "");
         }
+        notifyCellChanged(workbook, cell);
     }
 
     @Override
@@ -313,6 +411,7 @@ public class ExcelServiceImpl implements ExcelService {
                 } else {
                     cell.setCellValue(value != null ? value.toString() : "");
                 }
+                notifyCellChanged(workbook, cell);
 
                 valueCol++;
             }
@@ -375,6 +474,7 @@ public class ExcelServiceImpl implements ExcelService {
 
         // Shift existing rows down starting from the insertion point
         sheet.shiftRows(rowIndex, sheet.getLastRowNum(), 1);
+        releaseFormulaEvaluator(workbook);
 
         // Create the new row
         Row newRow = sheet.createRow(rowIndex);
@@ -411,6 +511,8 @@ public class ExcelServiceImpl implements ExcelService {
             sheet = workbook.createSheet(sheetName);
         }
 
+        releaseFormulaEvaluator(workbook);
+
         // For each row, insert the new column cell at the specified index
         for (int i = 0; i < sheet.getLastRowNum() + 1; i++) {
             Row row = sheet.getRow(i);
@@ -474,6 +576,7 @@ public class ExcelServiceImpl implements ExcelService {
         }
         // Shift rows up starting from the row after the deleted row
         sheet.shiftRows(rowIndex + 1, sheet.getLastRowNum(), -1);
+        releaseFormulaEvaluator(workbook);
     }
 
     @Override
@@ -483,6 +586,8 @@ public class ExcelServiceImpl implements ExcelService {
             sheet = workbook.createSheet(sheetName);
         }
 
+        releaseFormulaEvaluator(workbook);
+
         // For each row, delete the cell at the specified index
         for (int i = 0; i <= sheet.getLastRowNum(); i++) {
             Row row = sheet.getRow(i);
@@ -509,6 +614,20 @@ public class ExcelServiceImpl implements ExcelService {
         }
     }
 
+    @Override
+    public void applyStructuralEdits(Workbook workbook, String sheetName, StructuralEditPlan plan) {
+        if (plan == null || plan.isEmpty()) {
+            return;
+        }
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet == null) {
+            sheet = workbook.createSheet(sheetName);
+        }
+
+        releaseFormulaEvaluator(workbook);
+        new StructuralEditApplier(workbook).apply(sheet, plan);
+    }
+
     @Override
     public void applyFormula(Workbook workbook, String sheetName, int rowIndex, int colIndex, String formula) {
         // 不执行任何操作，因为我们现在在AiExcelCommandParser中处理公式计算
@@ -543,7 +662,7 @@ public class ExcelServiceImpl implements ExcelService {
                             return String.valueOf(cell.getBooleanCellValue());
                         case FORMULA:
                             // 对于公式单元格，返回计算结果而不是公式本身
-                            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+                            FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
                             CellValue cellValue = evaluator.evaluate(cell);
                             switch (cellValue.getCellType()) {
                                 case STRING:
@@ -614,10 +733,11 @@ public class ExcelServiceImpl implements ExcelService {
 
         int lastCellNum = firstRow.getLastCellNum();
         String[] headers = new String[lastCellNum];
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
 
         for (int i = 0; i < lastCellNum; i++) {
             Cell cell = firstRow.getCell(i);
-            headers[i] = getCellValueAsString(cell);
+            headers[i] = getCellValueAsString(cell, evaluator);
             if (headers[i] == null || headers[i].trim().isEmpty()) {
                 // 如果表头单元格为空，使用列字母作为表头
                 headers[i] = getColumnLetter(i + 1);
@@ -630,7 +750,7 @@ public class ExcelServiceImpl implements ExcelService {
     /**
      * 获取单元格值的字符串表示
      */
-    private String getCellValueAsString(Cell cell) {
+    private String getCellValueAsString(Cell cell, FormulaEvaluator evaluator) {
         if (cell == null) {
             return "";
         }
@@ -654,9 +774,6 @@ public class ExcelServiceImpl implements ExcelService {
                     return String.valueOf(cell.getBooleanCellValue());
                 case FORMULA:
                     // 对于公式单元格，返回计算结果而不是公式本身
-                    // 需要获取所在工作簿以创建公式计算器
-                    Workbook workbook = cell.getSheet().getWorkbook();
-                    FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
                     CellValue cellValue = evaluator.evaluate(cell);
                     switch (cellValue.getCellType()) {
                         case STRING:
@@ -805,8 +922,8 @@ public class ExcelServiceImpl implements ExcelService {
             return;
         }
 
-        // 创建公式计算器
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        // 获取公式计算器
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
 
         // 计算公式并更新单元格值
         evaluator.evaluateInCell(cell);
@@ -823,13 +940,13 @@ public class ExcelServiceImpl implements ExcelService {
             return;
         }
 
-        // 创建公式计算器
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        // 获取公式计算器
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
 
         // 计算公式获取结果
         CellValue cellValue = evaluator.evaluate(cell);
 
-        // 根据结果类型设置单元格值（替换原来的公式）
+        // 根据结果类型写入公式单元格的缓存结果，公式本身保留
         switch (cellValue.getCellType()) {
             case STRING:
                 cell.setCellValue(cellValue.getStringValue());
@@ -854,7 +971,7 @@ public class ExcelServiceImpl implements ExcelService {
      * @param workbook 工作簿
      */
     public void evaluateAllFormulasInWorkbook(Workbook workbook) {
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        FormulaEvaluator evaluator = formulaEvaluatorFor(workbook);
 
         // 遍历所有工作表
         for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
@@ -868,7 +985,7 @@ public class ExcelServiceImpl implements ExcelService {
                         // 计算公式并获取结果
                         CellValue cellValue = evaluator.evaluate(cell);
 
-                        // 根据结果类型设置单元格值（替换原来的公式）
+                        // 根据结果类型写入公式单元格的缓存结果，公式本身保留
                         switch (cellValue.getCellType()) {
                             case STRING:
                                 cell.setCellValue(cellValue.getStringValue());
@@ -890,5 +1007,365 @@ public class ExcelServiceImpl implements ExcelService {
                 }
             }
         }
+        // 公式保留，但缓存值已由一次性的计算器改写，丢弃共享计算器中可能过期的计算缓存
+        releaseFormulaEvaluator(workbook);
+    }
+
+    /**
+     * 重算公式并把结果写回公式单元格的缓存值，公式本身保留
+     * 依赖图每个工作簿只构建一次；changes只包含单元格修改时只计算这些单元格及其传递依赖的公式，
+     * changes为null或包含结构性修改时全量重算
+     * @param workbook 工作簿
+     * @param changes 本次修改的单元格
+     * @return 重新计算的公式数
+     */
+    @Override
+    public int recalculateFormulas(Workbook workbook, WorkbookChangeSet changes) {
+        FormulaRecalculator recalculator = getRecalculator(workbook);
+        if (changes == null || changes.isStructural() || !recalculator.supportsIncremental()) {
+            return recalculator.recalculateAll();
+        }
+        return recalculator.recalculate(changes);
+    }
+
+    @Override
+    public FormulaEvaluator getFormulaEvaluator(Workbook workbook) {
+        return getRecalculator(workbook).getEvaluator();
+    }
+
+    @Override
+    public void releaseFormulaEvaluator(Workbook workbook) {
+        synchronized (recalculators) {
+            recalculators.remove(workbook);
+        }
+    }
+
+    private FormulaRecalculator getRecalculator(Workbook workbook) {
+        synchronized (recalculators) {
+            FormulaRecalculator recalculator = findRecalculator(workbook);
+            if (recalculator == null) {
+                recalculator = new FormulaRecalculator(workbook);
+                recalculators.put(workbook, recalculator);
+            }
+            return recalculator;
+        }
+    }
+
+    /**
+     * 已登记的计算器，没有时返回null
+     */
+    private FormulaRecalculator findRecalculator(Workbook workbook) {
+        synchronized (recalculators) {
+            return recalculators.get(workbook);
+        }
+    }
+
+    /**
+     * 只读场景使用的计算器：已有共享计算器时复用，否则为本次调用创建一个
+     */
+    private FormulaEvaluator formulaEvaluatorFor(Workbook workbook) {
+        FormulaRecalculator recalculator = findRecalculator(workbook);
+        return recalculator != null ? recalculator.getEvaluator() : workbook.getCreationHelper().createFormulaEvaluator();
+    }
+
+    /**
+     * 单元格被修改后通知共享计算器，避免读到旧的计算缓存
+     */
+    private void notifyCellChanged(Workbook workbook, Cell cell) {
+        FormulaRecalculator recalculator = findRecalculator(workbook);
+        if (recalculator != null) {
+            recalculator.cellChanged(cell);
+        }
+    }
+
+    @Override
+    public void readWorkbook(MultipartFile file, SheetRowHandler handler) throws IOException {
+        WorkbookCache.CachedWorkbook cached = lookupCache(file);
+        if (cached != null) {
+            cached.getData(this::parseWorkbookData).replay(handler);
+            return;
+        }
+
+        String fileName = file.getOriginalFilename();
+        try (InputStream inputStream = file.getInputStream()) {
+            if (isCsv(fileName)) {
+                readCsv(inputStream, handler);
+            } else {
+                readWorkbook(inputStream, handler);
+            }
+        }
+    }
+
+    @Override
+    public void readWorkbook(InputStream inputStream, SheetRowHandler handler) throws IOException {
+        // OPCPackage从文件打开时按需解压各部件，避免把整个压缩包展开到内存
+        Path tempFile = Files.createTempFile("excel-stream-", ".tmp");
+        try {
+            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            File file = tempFile.toFile();
+            if (FileMagic.valueOf(file) == FileMagic.OOXML) {
+                streamingReader.read(file, handler);
+            } else {
+                // .xls等非OOXML格式没有SAX读取方式，退回到DOM方式逐行回调
+                try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+                    emitRows(workbook, handler);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public String getExcelDataAsString(MultipartFile file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        readWorkbook(file, new SheetRowHandler() {
+            @Override
+            public boolean startSheet(int sheetIndex, String sheetName) {
+                sb.append("Sheet: ").append(sheetName).append("\n");
+                return true;
+            }
+
+            @Override
+            public boolean includeBlankCells() {
+                return true;
+            }
+
+            @Override
+            public void row(int rowIndex, Object[] values) {
+                // 与DOM方式一致，每个存在的单元格（包括空白单元格）后追加制表符，缺失的单元格不占位
+                for (Object value : values) {
+                    if (value != null) {
+                        sb.append(value).append("\t");
+                    }
+                }
+                sb.append("\n");
+            }
+
+            @Override
+            public void endSheet(int sheetIndex, String sheetName) {
+                sb.append("\n");
+            }
+        });
+        return sb.toString();
+    }
+
+    @Override
+    public List<ColumnarTable> getExcelDataAsTables(MultipartFile file) throws IOException {
+        WorkbookCache.CachedWorkbook cached = lookupCache(file);
+        if (cached != null) {
+            // 表格只读，同一内容的请求共享同一份
+            return cached.getTables(this::parseWorkbookData);
+        }
+        ColumnarTable.Collector collector = new ColumnarTable.Collector(true);
+        readWorkbook(file, collector);
+        return collector.getTables();
+    }
+
+    @Override
+    public WorkbookData getWorkbookData(MultipartFile file) throws IOException {
+        WorkbookCache.CachedWorkbook cached = lookupCache(file);
+        if (cached != null) {
+            return cached.getData(this::parseWorkbookData);
+        }
+        WorkbookData.Builder builder = new WorkbookData.Builder();
+        readWorkbook(file, builder);
+        return builder.build();
+    }
+
+    @Override
+    public String getPromptContext(MultipartFile file, String command) throws IOException {
+        SheetContextBuilder builder = new SheetContextBuilder(promptTokenBudget, command);
+        readWorkbook(file, builder);
+        return builder.build();
+    }
+
+    @Override
+    public String getPromptContext(Workbook workbook, String command) {
+        SheetContextBuilder builder = new SheetContextBuilder(promptTokenBudget, command);
+        emitRows(workbook, builder, formulaEvaluatorFor(workbook));
+        return builder.build();
+    }
+
+    @Override
+    public Object[][] getExcelDataAsArray(MultipartFile file) throws IOException {
+        // 与getExcelDataAsArray(Workbook)一致：只读取第一个工作表，列数以第一行为准
+        TreeMap<Integer, Object[]> rows = new TreeMap<>();
+        readWorkbook(file, new FirstSheetHandler() {
+            @Override
+            public void row(int rowIndex, Object[] values) {
+                rows.put(rowIndex, values);
+            }
+        });
+
+        int lastRowNum = rows.isEmpty() ? -1 : rows.lastKey();
+        Object[] firstRow = rows.get(0);
+        int lastCellNum = firstRow != null ? firstRow.length : 0;
+
+        Object[][] data = new Object[lastRowNum + 1][lastCellNum];
+        for (Map.Entry<Integer, Object[]> entry : rows.entrySet()) {
+            Object[] values = entry.getValue();
+            System.arraycopy(values, 0, data[entry.getKey()], 0, Math.min(values.length, lastCellNum));
+        }
+        return data;
+    }
+
+    @Override
+    public String[] getExcelHeaders(MultipartFile file) throws IOException {
+        List<Object[]> firstRow = new ArrayList<>(1);
+        readWorkbook(file, new FirstSheetHandler() {
+            @Override
+            public void row(int rowIndex, Object[] values) {
+                firstRow.add(values);
+            }
+
+            @Override
+            public boolean isDone() {
+                return !firstRow.isEmpty() || super.isDone();
+            }
+        });
+
+        if (firstRow.isEmpty()) {
+            return new String[0];
+        }
+
+        Object[] values = firstRow.get(0);
+        String[] headers = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            headers[i] = formatValue(values[i]);
+            if (headers[i].trim().isEmpty()) {
+                // 如果表头单元格为空，使用列字母作为表头
+                headers[i] = getColumnLetter(i + 1);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * 只读取第一个工作表的回调基类
+     */
+    private abstract static class FirstSheetHandler implements SheetRowHandler {
+        private boolean firstSheetRead;
+
+        @Override
+        public boolean startSheet(int sheetIndex, String sheetName) {
+            return sheetIndex == 0;
+        }
+
+        @Override
+        public void endSheet(int sheetIndex, String sheetName) {
+            firstSheetRead = true;
+        }
+
+        @Override
+        public boolean isDone() {
+            return firstSheetRead;
+        }
+    }
+
+    /**
+     * 流式读取CSV，数字列转换为Double，空值为null
+     */
+    private void readCsv(InputStream inputStream, SheetRowHandler handler) throws IOException {
+        if (!handler.startSheet(0, "Sheet1")) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        String line;
+        int rowNum = 0;
+        while ((line = reader.readLine()) != null && !handler.isDone()) {
+            String[] values = parseCsvLine(line);
+            Object[] rowValues = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i];
+                if (value != null && !value.isEmpty()) {
+                    try {
+                        rowValues[i] = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        rowValues[i] = value;
+                    }
+                }
+            }
+            handler.row(rowNum++, rowValues);
+        }
+        handler.endSheet(0, "Sheet1");
+    }
+
+    /**
+     * 将DOM工作簿按流式读取的语义逐行回调
+     */
+    private void emitRows(Workbook workbook, SheetRowHandler handler) {
+        emitRows(workbook, handler, workbook.getCreationHelper().createFormulaEvaluator());
+    }
+
+    private void emitRows(Workbook workbook, SheetRowHandler handler, FormulaEvaluator evaluator) {
+        for (int i = 0; i < workbook.getNumberOfSheets() && !handler.isDone(); i++) {
+            Sheet sheet = workbook.getSheetAt(i);
+            if (!handler.startSheet(i, sheet.getSheetName())) {
+                continue;
+            }
+            for (Row row : sheet) {
+                Object[] values = new Object[Math.max(row.getLastCellNum(), 0)];
+                for (Cell cell : row) {
+                    Object value = getCellValueAsObject(cell, evaluator);
+                    values[cell.getColumnIndex()] = value == null && handler.includeBlankCells() ? "" : value;
+                }
+                handler.row(row.getRowNum(), values);
+                if (handler.isDone()) {
+                    break;
+                }
+            }
+            handler.endSheet(i, sheet.getSheetName());
+        }
+    }
+
+    private Object getCellValueAsObject(Cell cell, FormulaEvaluator evaluator) {
+        CellType cellType = cell.getCellType();
+        if (cellType == CellType.FORMULA) {
+            CellValue cellValue = evaluator.evaluate(cell);
+            switch (cellValue.getCellType()) {
+                case STRING:
+                    return cellValue.getStringValue();
+                case NUMERIC:
+                    return DateUtil.isCellDateFormatted(cell)
+                            ? DateUtil.getJavaDate(cellValue.getNumberValue())
+                            : cellValue.getNumberValue();
+                case BOOLEAN:
+                    return cellValue.getBooleanValue();
+                case ERROR:
+                    return "#ERROR!";
+                default:
+                    return null;
+            }
+        }
+        switch (cellType) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                return DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue() : cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case ERROR:
+                return "#ERROR!";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 流式读取值的字符串表示，整数不带小数部分
+     */
+    private String formatValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.floor(number) && !Double.isInfinite(number)) {
+                return String.valueOf((long) number);
+            }
+            return String.valueOf(number);
+        }
+        return value.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,489 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.*;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * 公式依赖图与增量重算
+ * 每个工作簿只构建一次依赖图（被引用的单元格 -> 引用它的公式），并复用同一个FormulaEvaluator。
+ * 单元格修改后只重新计算这些单元格及其传递依赖的公式，结果写回公式单元格的缓存值，公式本身保留
+ */
+public class FormulaRecalculator {
+
+    private static final Logger logger = LoggerFactory.getLogger(FormulaRecalculator.class);
+
+    // 不超过该单元格数的区域引用展开为逐个单元格登记
+    private static final int EXPAND_AREA_LIMIT = 64;
+    // 不超过该列数的大区域按列登记，更宽的区域单独检查
+    private static final int COLUMN_INDEX_LIMIT = 64;
+    // 结果不由引用关系决定的函数，每次重算都需要重新计算
+    private static final Set<String> VOLATILE_FUNCTIONS = Set.of(
+            "INDIRECT", "OFFSET", "NOW", "TODAY", "RAND", "RANDBETWEEN", "CELL", "INFO");
+
+    private final Workbook workbook;
+    private final FormulaEvaluator evaluator;
+    private final FormulaParsingWorkbook parsingWorkbook;
+
+    private final Map<Long, FormulaNode> formulas = new HashMap<>();
+    private final Map<Long, List<FormulaNode>> cellDependents = new HashMap<>();
+    private final Map<Long, List<AreaDependency>> columnDependents = new HashMap<>();
+    private final List<AreaDependency> wideAreaDependents = new ArrayList<>();
+    private final Set<FormulaNode> volatileFormulas = new LinkedHashSet<>();
+    private final Set<Long> pendingCells = new LinkedHashSet<>();
+    private boolean graphBuilt;
+
+    public FormulaRecalculator(Workbook workbook) {
+        this.workbook = workbook;
+        this.evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        if (workbook instanceof XSSFWorkbook) {
+            this.parsingWorkbook = XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+        } else if (workbook instanceof HSSFWorkbook) {
+            this.parsingWorkbook = HSSFEvaluationWorkbook.create((HSSFWorkbook) workbook);
+        } else {
+            // 如SXSSF等无法随机访问单元格的实现，只支持全量计算
+            this.parsingWorkbook = null;
+        }
+    }
+
+    /**
+     * 该工作簿共享的公式计算器
+     */
+    public FormulaEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public boolean supportsIncremental() {
+        return parsingWorkbook != null;
+    }
+
+    /**
+     * 通知单元格已被修改，下次增量重算时会包含该单元格的依赖
+     */
+    public synchronized void cellChanged(Cell cell) {
+        evaluator.notifyUpdateCell(cell);
+        pendingCells.add(key(workbook.getSheetIndex(cell.getSheet()), cell.getRowIndex(), cell.getColumnIndex()));
+    }
+
+    /**
+     * 全量重算所有公式，并丢弃依赖图（结构性修改后单元格位置已变化）
+     * @return 重新计算的公式数
+     */
+    public synchronized int recalculateAll() {
+        evaluator.clearAllCachedResultValues();
+        clearGraph();
+        pendingCells.clear();
+
+        int evaluated = 0;
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            for (Row row : workbook.getSheetAt(i)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == CellType.FORMULA && evaluate(cell)) {
+                        evaluated++;
+                    }
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * 增量重算：只计算被修改的单元格及其传递依赖的公式
+     * @return 重新计算的公式数
+     */
+    public synchronized int recalculate(WorkbookChangeSet changes) {
+        if (!supportsIncremental() || changes.isStructural()) {
+            return recalculateAll();
+        }
+        ensureGraph();
+
+        Set<Long> dirty = new LinkedHashSet<>(pendingCells);
+        pendingCells.clear();
+        for (WorkbookChangeSet.ChangedCell changed : changes.getCells()) {
+            int sheetIndex = workbook.getSheetIndex(changed.getSheetName());
+            if (sheetIndex >= 0) {
+                dirty.add(key(sheetIndex, changed.getRowIndex(), changed.getColIndex()));
+            }
+        }
+
+        boolean cellRemoved = false;
+        for (Long dirtyKey : dirty) {
+            Cell cell = getCell(dirtyKey);
+            if (cell != null) {
+                evaluator.notifyUpdateCell(cell);
+            } else {
+                cellRemoved = true;
+            }
+            refreshNode(dirtyKey, cell);
+        }
+        if (cellRemoved) {
+            // 被删除的单元格无法单独通知，清除计算缓存避免读到旧值
+            evaluator.clearAllCachedResultValues();
+        }
+
+        List<FormulaNode> order = collectAffected(dirty);
+        int evaluated = 0;
+        for (FormulaNode node : order) {
+            Cell cell = getCell(node.key);
+            if (cell != null && cell.getCellType() == CellType.FORMULA && evaluate(cell)) {
+                evaluated++;
+            }
+        }
+        logger.debug("Incremental recalculation: {} dirty cells, {} formulas evaluated of {}",
+                dirty.size(), evaluated, formulas.size());
+        return evaluated;
+    }
+
+    /**
+     * 从被修改的单元格出发收集受影响的公式，并按依赖关系排序（被依赖的公式在前）
+     */
+    private List<FormulaNode> collectAffected(Set<Long> dirty) {
+        Set<FormulaNode> affected = new LinkedHashSet<>();
+        Map<FormulaNode, Set<FormulaNode>> edges = new HashMap<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        Set<Long> visited = new HashSet<>();
+
+        for (Long dirtyKey : dirty) {
+            FormulaNode node = formulas.get(dirtyKey);
+            if (node != null) {
+                affected.add(node);
+            }
+            if (visited.add(dirtyKey)) {
+                queue.add(dirtyKey);
+            }
+        }
+        for (FormulaNode node : volatileFormulas) {
+            affected.add(node);
+            if (visited.add(node.key)) {
+                queue.add(node.key);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long current = queue.poll();
+            FormulaNode source = formulas.get(current);
+            for (FormulaNode dependent : dependentsOf(current)) {
+                if (source != null && source != dependent) {
+                    edges.computeIfAbsent(source, k -> new LinkedHashSet<>()).add(dependent);
+                }
+                affected.add(dependent);
+                if (visited.add(dependent.key)) {
+                    queue.add(dependent.key);
+                }
+            }
+        }
+
+        // 拓扑排序，循环引用中的公式放在最后
+        Map<FormulaNode, Integer> inDegree = new HashMap<>();
+        for (Set<FormulaNode> targets : edges.values()) {
+            for (FormulaNode target : targets) {
+                inDegree.merge(target, 1, Integer::sum);
+            }
+        }
+        List<FormulaNode> order = new ArrayList<>(affected.size());
+        Deque<FormulaNode> ready = new ArrayDeque<>();
+        for (FormulaNode node : affected) {
+            if (!inDegree.containsKey(node)) {
+                ready.add(node);
+            }
+        }
+        Set<FormulaNode> ordered = new HashSet<>();
+        while (!ready.isEmpty()) {
+            FormulaNode node = ready.poll();
+            order.add(node);
+            ordered.add(node);
+            for (FormulaNode target : edges.getOrDefault(node, Collections.emptySet())) {
+                if (inDegree.merge(target, -1, Integer::sum) == 0) {
+                    ready.add(target);
+                }
+            }
+        }
+        if (order.size() < affected.size()) {
+            for (FormulaNode node : affected) {
+                if (!ordered.contains(node)) {
+                    order.add(node);
+                }
+            }
+        }
+        return order;
+    }
+
+    private List<FormulaNode> dependentsOf(long cellKey) {
+        int sheetIndex = sheetOf(cellKey);
+        int rowIndex = rowOf(cellKey);
+        int colIndex = colOf(cellKey);
+
+        List<FormulaNode> result = new ArrayList<>(cellDependents.getOrDefault(cellKey, Collections.emptyList()));
+        for (AreaDependency area : columnDependents.getOrDefault(key(sheetIndex, 0, colIndex), Collections.emptyList())) {
+            if (area.contains(sheetIndex, rowIndex, colIndex)) {
+                result.add(area.node);
+            }
+        }
+        for (AreaDependency area : wideAreaDependents) {
+            if (area.contains(sheetIndex, rowIndex, colIndex)) {
+                result.add(area.node);
+            }
+        }
+        return result;
+    }
+
+    private void ensureGraph() {
+        if (graphBuilt) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            for (Row row : workbook.getSheetAt(i)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == CellType.FORMULA) {
+                        register(parse(i, cell));
+                    }
+                }
+            }
+        }
+        graphBuilt = true;
+        logger.debug("Built formula dependency graph: {} formulas in {} ms",
+                formulas.size(), System.currentTimeMillis() - start);
+    }
+
+    private void clearGraph() {
+        formulas.clear();
+        cellDependents.clear();
+        columnDependents.clear();
+        wideAreaDependents.clear();
+        volatileFormulas.clear();
+        graphBuilt = false;
+    }
+
+    /**
+     * 被修改的单元格可能新增、修改或删除了公式，重新登记它的引用
+     */
+    private void refreshNode(long cellKey, Cell cell) {
+        FormulaNode existing = formulas.get(cellKey);
+        if (existing != null) {
+            unregister(existing);
+        }
+        if (cell != null && cell.getCellType() == CellType.FORMULA) {
+            register(parse(sheetOf(cellKey), cell));
+        }
+    }
+
+    private FormulaNode parse(int sheetIndex, Cell cell) {
+        FormulaNode node = new FormulaNode(key(sheetIndex, cell.getRowIndex(), cell.getColumnIndex()));
+        Ptg[] ptgs;
+        try {
+            ptgs = FormulaParser.parse(cell.getCellFormula(), parsingWorkbook, FormulaType.CELL,
+                    sheetIndex, cell.getRowIndex());
+        } catch (RuntimeException e) {
+            logger.debug("Cannot parse formula at {}!{}: {}", cell.getSheet().getSheetName(),
+                    cell.getAddress(), e.getMessage());
+            node.volatileFormula = true;
+            return node;
+        }
+
+        for (Ptg ptg : ptgs) {
+            if (ptg instanceof Ref3DPxg) {
+                Ref3DPxg ref = (Ref3DPxg) ptg;
+                if (ref.getExternalWorkbookNumber() <= 0) {
+                    addCell(node, workbook.getSheetIndex(ref.getSheetName()), ref.getRow(), ref.getColumn());
+                }
+            } else if (ptg instanceof Ref3DPtg) {
+                Ref3DPtg ref = (Ref3DPtg) ptg;
+                addCell(node, externSheetIndex(ref.getExternSheetIndex()), ref.getRow(), ref.getColumn());
+            } else if (ptg instanceof RefPtgBase) {
+                RefPtgBase ref = (RefPtgBase) ptg;
+                addCell(node, sheetIndex, ref.getRow(), ref.getColumn());
+            } else if (ptg instanceof Area3DPxg) {
+                Area3DPxg area = (Area3DPxg) ptg;
+                if (area.getExternalWorkbookNumber() > 0) {
+                    continue;
+                }
+                int first = workbook.getSheetIndex(area.getSheetName());
+                int last = area.getLastSheetName() != null ? workbook.getSheetIndex(area.getLastSheetName()) : first;
+                for (int s = Math.min(first, last); s <= Math.max(first, last); s++) {
+                    addArea(node, s, area);
+                }
+            } else if (ptg instanceof Area3DPtg) {
+                Area3DPtg area = (Area3DPtg) ptg;
+                addArea(node, externSheetIndex(area.getExternSheetIndex()), area);
+            } else if (ptg instanceof AreaPtgBase) {
+                addArea(node, sheetIndex, (AreaPtgBase) ptg);
+            } else if (ptg instanceof NamePtg || ptg instanceof NameXPtg || ptg instanceof NameXPxg) {
+                // 名称引用的范围可能随名称定义变化，按易变公式处理
+                node.volatileFormula = true;
+            } else if (ptg instanceof AbstractFunctionPtg
+                    && VOLATILE_FUNCTIONS.contains(((AbstractFunctionPtg) ptg).getName())) {
+                node.volatileFormula = true;
+            }
+        }
+        return node;
+    }
+
+    private int externSheetIndex(int externSheetIndex) {
+        return parsingWorkbook instanceof HSSFEvaluationWorkbook
+                ? ((HSSFEvaluationWorkbook) parsingWorkbook).convertFromExternSheetIndex(externSheetIndex)
+                : -1;
+    }
+
+    private void addCell(FormulaNode node, int sheetIndex, int rowIndex, int colIndex) {
+        if (sheetIndex < 0) {
+            node.volatileFormula = true;
+            return;
+        }
+        node.cells.add(key(sheetIndex, rowIndex, colIndex));
+    }
+
+    private void addArea(FormulaNode node, int sheetIndex, AreaPtgBase area) {
+        if (sheetIndex < 0) {
+            node.volatileFormula = true;
+            return;
+        }
+        node.areas.add(new AreaDependency(node, sheetIndex, area.getFirstRow(), area.getLastRow(),
+                area.getFirstColumn(), area.getLastColumn()));
+    }
+
+    private void register(FormulaNode node) {
+        formulas.put(node.key, node);
+        if (node.volatileFormula) {
+            volatileFormulas.add(node);
+        }
+        for (long cellKey : node.cells) {
+            cellDependents.computeIfAbsent(cellKey, k -> new ArrayList<>()).add(node);
+        }
+        for (AreaDependency area : node.areas) {
+            long cellCount = (long) (area.lastRow - area.firstRow + 1) * (area.lastCol - area.firstCol + 1);
+            if (cellCount <= EXPAND_AREA_LIMIT) {
+                for (int r = area.firstRow; r <= area.lastRow; r++) {
+                    for (int c = area.firstCol; c <= area.lastCol; c++) {
+                        cellDependents.computeIfAbsent(key(area.sheetIndex, r, c), k -> new ArrayList<>()).add(node);
+                    }
+                }
+            } else if (area.lastCol - area.firstCol < COLUMN_INDEX_LIMIT) {
+                for (int c = area.firstCol; c <= area.lastCol; c++) {
+                    columnDependents.computeIfAbsent(key(area.sheetIndex, 0, c), k -> new ArrayList<>()).add(area);
+                }
+            } else {
+                wideAreaDependents.add(area);
+            }
+        }
+    }
+
+    private void unregister(FormulaNode node) {
+        formulas.remove(node.key);
+        volatileFormulas.remove(node);
+        for (long cellKey : node.cells) {
+            removeFrom(cellDependents, cellKey, node);
+        }
+        for (AreaDependency area : node.areas) {
+            long cellCount = (long) (area.lastRow - area.firstRow + 1) * (area.lastCol - area.firstCol + 1);
+            if (cellCount <= EXPAND_AREA_LIMIT) {
+                for (int r = area.firstRow; r <= area.lastRow; r++) {
+                    for (int c = area.firstCol; c <= area.lastCol; c++) {
+                        removeFrom(cellDependents, key(area.sheetIndex, r, c), node);
+                    }
+                }
+            } else if (area.lastCol - area.firstCol < COLUMN_INDEX_LIMIT) {
+                for (int c = area.firstCol; c <= area.lastCol; c++) {
+                    removeFrom(columnDependents, key(area.sheetIndex, 0, c), area);
+                }
+            } else {
+                wideAreaDependents.remove(area);
+            }
+        }
+    }
+
+    private static <T> void removeFrom(Map<Long, List<T>> index, long cellKey, T value) {
+        List<T> values = index.get(cellKey);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                index.remove(cellKey);
+            }
+        }
+    }
+
+    private boolean evaluate(Cell cell) {
+        try {
+            evaluator.evaluateFormulaCell(cell);
+            return true;
+        } catch (RuntimeException e) {
+            // 不支持的函数等情况保留原有缓存值
+            logger.warn("Failed to evaluate formula at {}!{}: {}", cell.getSheet().getSheetName(),
+                    cell.getAddress(), e.getMessage());
+            return false;
+        }
+    }
+
+    private Cell getCell(long cellKey) {
+        Sheet sheet = workbook.getSheetAt(sheetOf(cellKey));
+        Row row = sheet.getRow(rowOf(cellKey));
+        return row != null ? row.getCell(colOf(cellKey)) : null;
+    }
+
+    // 单元格键：工作表索引 | 行号(20位) | 列号(14位)
+    private static long key(int sheetIndex, int rowIndex, int colIndex) {
+        return ((long) sheetIndex << 34) | ((long) rowIndex << 14) | colIndex;
+    }
+
+    private static int sheetOf(long cellKey) {
+        return (int) (cellKey >>> 34);
+    }
+
+    private static int rowOf(long cellKey) {
+        return (int) ((cellKey >>> 14) & 0xFFFFF);
+    }
+
+    private static int colOf(long cellKey) {
+        return (int) (cellKey & 0x3FFF);
+    }
+
+    /**
+     * 公式单元格及其引用
+     */
+    private static class FormulaNode {
+        private final long key;
+        private final List<Long> cells = new ArrayList<>();
+        private final List<AreaDependency> areas = new ArrayList<>();
+        private boolean volatileFormula;
+
+        FormulaNode(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 公式引用的区域
+     */
+    private static class AreaDependency {
+        private final FormulaNode node;
+        private final int sheetIndex;
+        private final int firstRow;
+        private final int lastRow;
+        private final int firstCol;
+        private final int lastCol;
+
+        AreaDependency(FormulaNode node, int sheetIndex, int firstRow, int lastRow, int firstCol, int lastCol) {
+            this.node = node;
+            this.sheetIndex = sheetIndex;
+            this.firstRow = Math.min(firstRow, lastRow);
+            this.lastRow = Math.max(firstRow, lastRow);
+            this.firstCol = Math.min(firstCol, lastCol);
+            this.lastCol = Math.max(firstCol, lastCol);
+        }
+
+        boolean contains(int sheet, int row, int col) {
+            return sheet == sheetIndex && row >= firstRow && row <= lastRow && col >= firstCol && col <= lastCol;
+        }
+    }
+}
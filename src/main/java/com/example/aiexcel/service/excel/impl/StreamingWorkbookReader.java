@@ -0,0 +1,256 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.SheetRowHandler;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于XSSF事件模型（SAX）的流式工作簿读取器
+ * 只保留共享字符串表和样式表在内存中，工作表内容逐行解析并回调，不构建XSSF DOM
+ */
+public class StreamingWorkbookReader {
+
+    /**
+     * 读取.xlsx文件并逐行回调
+     * @param file .xlsx文件
+     * @param handler 行回调
+     */
+    public void read(File file, SheetRowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            StylesTable styles = reader.getStylesTable();
+            boolean date1904;
+            try (InputStream workbookData = reader.getWorkbookData()) {
+                date1904 = isDate1904(workbookData);
+            }
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int sheetIndex = 0;
+            while (sheets.hasNext() && !handler.isDone()) {
+                try (InputStream sheetData = sheets.next()) {
+                    String sheetName = sheets.getSheetName();
+                    if (handler.startSheet(sheetIndex, sheetName)) {
+                        parseSheet(sheetData, new SheetContentHandler(handler, sharedStrings, styles, date1904));
+                        handler.endSheet(sheetIndex, sheetName);
+                    }
+                }
+                sheetIndex++;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error reading workbook in streaming mode", e);
+        }
+    }
+
+    private void parseSheet(InputStream sheetData, SheetContentHandler contentHandler) throws Exception {
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(contentHandler);
+        try {
+            parser.parse(new InputSource(sheetData));
+        } catch (StopParsingException e) {
+            // 回调方已读取到足够的数据
+        }
+    }
+
+    private boolean isDate1904(InputStream workbookData) throws Exception {
+        boolean[] date1904 = new boolean[1];
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                if ("workbookPr".equals(localName)) {
+                    String value = attributes.getValue("date1904");
+                    date1904[0] = "1".equals(value) || "true".equalsIgnoreCase(value);
+                    throw new StopParsingException();
+                }
+                if ("sheets".equals(localName)) {
+                    throw new StopParsingException();
+                }
+            }
+        });
+        try {
+            parser.parse(new InputSource(workbookData));
+        } catch (StopParsingException e) {
+            // workbookPr位于sheets之前，读到即可停止
+        }
+        return date1904[0];
+    }
+
+    /**
+     * 用于提前结束SAX解析
+     */
+    private static class StopParsingException extends SAXException {
+        StopParsingException() {
+            super("stop parsing");
+        }
+    }
+
+    /**
+     * 工作表XML的SAX处理器，将sheetData中的row/c元素转换为行回调
+     */
+    private static class SheetContentHandler extends DefaultHandler {
+        private final SheetRowHandler handler;
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final boolean date1904;
+        private final Map<Integer, Boolean> dateStyleCache = new HashMap<>();
+
+        private final List<Object> rowValues = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private int currentRow = -1;
+        private int nextRow = 0;
+        private int currentCol = -1;
+        private int nextCol = 0;
+        private String cellType;
+        private int styleIndex;
+        private boolean readingValue;
+        private boolean hasValue;
+        private boolean inPhonetic;
+
+        SheetContentHandler(SheetRowHandler handler, ReadOnlySharedStringsTable sharedStrings,
+                            StylesTable styles, boolean date1904) {
+            this.handler = handler;
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.date1904 = date1904;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String r = attributes.getValue("r");
+                    currentRow = r != null ? Integer.parseInt(r) - 1 : nextRow;
+                    nextRow = currentRow + 1;
+                    nextCol = 0;
+                    rowValues.clear();
+                    break;
+                case "c":
+                    String ref = attributes.getValue("r");
+                    currentCol = ref != null ? new CellReference(ref).getCol() : nextCol;
+                    nextCol = currentCol + 1;
+                    cellType = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    styleIndex = s != null ? Integer.parseInt(s) : 0;
+                    hasValue = false;
+                    text.setLength(0);
+                    break;
+                case "v":
+                case "t":
+                    // t元素出现在内联字符串(is)中，注音(rPh)中的t不属于单元格文本
+                    readingValue = !inPhonetic;
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (readingValue) {
+                text.append(ch, start, length);
+                hasValue = true;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    readingValue = false;
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "c":
+                    if (hasValue) {
+                        setValue(currentCol, convertValue(text.toString()));
+                    } else if (handler.includeBlankCells()) {
+                        setValue(currentCol, "");
+                    }
+                    break;
+                case "row":
+                    handler.row(currentRow, rowValues.toArray());
+                    if (handler.isDone()) {
+                        throw new StopParsingException();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void setValue(int col, Object value) {
+            while (rowValues.size() <= col) {
+                rowValues.add(null);
+            }
+            rowValues.set(col, value);
+        }
+
+        /**
+         * 按单元格类型转换值，公式单元格使用文件中缓存的计算结果
+         */
+        private Object convertValue(String raw) {
+            if (cellType == null || "n".equals(cellType)) {
+                if (raw.isEmpty()) {
+                    return null;
+                }
+                double number = Double.parseDouble(raw);
+                if (isDateStyle(styleIndex) && DateUtil.isValidExcelDate(number)) {
+                    return DateUtil.getJavaDate(number, date1904);
+                }
+                return number;
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getItemAt(Integer.parseInt(raw.trim())).getString();
+                case "b":
+                    return "1".equals(raw) || "true".equalsIgnoreCase(raw);
+                case "e":
+                    return "#ERROR!";
+                case "str":
+                case "inlineStr":
+                default:
+                    return raw;
+            }
+        }
+
+        private boolean isDateStyle(int index) {
+            if (styles == null || index < 0 || index >= styles.getNumCellStyles()) {
+                return false;
+            }
+            return dateStyleCache.computeIfAbsent(index, i -> {
+                XSSFCellStyle style = styles.getStyleAt(i);
+                String formatString = style.getDataFormatString();
+                return formatString != null && DateUtil.isADateFormat(style.getDataFormat(), formatString);
+            });
+        }
+    }
+
+}
@@ -0,0 +1,830 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.StructuralEditPlan;
+import com.example.aiexcel.service.excel.StructuralEditPlan.IndexMapping;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.*;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFHyperlink;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCfRule;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTConditionalFormatting;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDataValidation;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDataValidations;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 一次性应用一个工作表上的结构性修改计划
+ * 不逐个调用shiftRows（XSSF中每次移动的开销随行数超线性增长），而是：
+ * 先按最终映射改写所有引用该工作表的公式、名称、合并区域、超链接、批注、条件格式和数据验证，
+ * 再把受影响的行（列操作时为每行受影响的单元格）读入内存，按新位置一次写回。
+ * .xls工作表上条件格式的规则公式和数据验证没有可修改的API，不随之移动
+ */
+public class StructuralEditApplier {
+
+    private static final Logger logger = LoggerFactory.getLogger(StructuralEditApplier.class);
+
+    private final Workbook workbook;
+    private final FormulaParsingWorkbook parsingWorkbook;
+    private final int lastRowIndex;
+    private final int lastColumnIndex;
+
+    public StructuralEditApplier(Workbook workbook) {
+        this.workbook = workbook;
+        if (workbook instanceof XSSFWorkbook) {
+            this.parsingWorkbook = XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+        } else if (workbook instanceof HSSFWorkbook) {
+            this.parsingWorkbook = HSSFEvaluationWorkbook.create((HSSFWorkbook) workbook);
+        } else {
+            // 无法解析公式的实现只移动单元格内容
+            this.parsingWorkbook = null;
+        }
+        SpreadsheetVersion version = workbook.getSpreadsheetVersion();
+        this.lastRowIndex = version.getLastRowIndex();
+        this.lastColumnIndex = version.getLastColumnIndex();
+    }
+
+    /**
+     * 应用修改计划
+     * @throws IllegalArgumentException 修改后的行列超出工作表范围，此时工作表未被修改
+     */
+    public void apply(Sheet sheet, StructuralEditPlan plan) {
+        IndexMapping rows = plan.getRowMapping();
+        IndexMapping columns = plan.getColumnMapping();
+        if (rows.isIdentity() && columns.isIdentity()) {
+            return;
+        }
+        checkBounds(sheet, rows, columns);
+
+        if (parsingWorkbook != null) {
+            remapFormulas(sheet, rows, columns);
+            remapNames(sheet, rows, columns);
+        }
+        remapMergedRegions(sheet, rows, columns);
+        remapHyperlinks(sheet, rows, columns);
+        remapConditionalFormatting(sheet, rows, columns);
+        if (sheet instanceof XSSFSheet) {
+            remapDataValidations((XSSFSheet) sheet, rows, columns);
+        }
+        Set<Integer> commentRows = remapComments(sheet, rows, columns);
+        if (!rows.isIdentity()) {
+            rewriteRows(sheet, rows, commentRows);
+        }
+        if (!columns.isIdentity()) {
+            rewriteColumns(sheet, columns);
+        }
+    }
+
+    private void checkBounds(Sheet sheet, IndexMapping rows, IndexMapping columns) {
+        int lastRow = sheet.getLastRowNum();
+        int lastMappedRow = lastRow >= 0 ? rows.mapLast(lastRow) : -1;
+        if (rows.getInsertedCount() > 0) {
+            lastMappedRow = Math.max(lastMappedRow, rows.getInsertedIndex(rows.getInsertedCount() - 1));
+        }
+        if (lastMappedRow > lastRowIndex) {
+            throw new IllegalArgumentException("Row index out of range: " + lastMappedRow);
+        }
+
+        if (columns.isIdentity()) {
+            return;
+        }
+        int lastColumn = -1;
+        for (Row row : sheet) {
+            lastColumn = Math.max(lastColumn, row.getLastCellNum() - 1);
+        }
+        int lastMappedColumn = lastColumn >= 0 ? columns.mapLast(lastColumn) : -1;
+        if (columns.getInsertedCount() > 0) {
+            lastMappedColumn = Math.max(lastMappedColumn, columns.getInsertedIndex(columns.getInsertedCount() - 1));
+        }
+        if (lastMappedColumn > lastColumnIndex) {
+            throw new IllegalArgumentException("Column index out of range: " + lastMappedColumn);
+        }
+    }
+
+    // ---------------------------------------------------------------- 公式与名称
+
+    private void remapFormulas(Sheet editedSheet, IndexMapping rows, IndexMapping columns) {
+        int editedSheetIndex = workbook.getSheetIndex(editedSheet);
+        String sheetName = editedSheet.getSheetName().toUpperCase(Locale.ROOT);
+        for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+            boolean sameSheet = sheetIndex == editedSheetIndex;
+            // 先计算全部新公式再写回，共享公式的从属单元格读取到的仍是修改前的公式
+            Map<Cell, String> updates = new IdentityHashMap<>();
+            for (Row row : workbook.getSheetAt(sheetIndex)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != CellType.FORMULA || cell.isPartOfArrayFormulaGroup()) {
+                        continue;
+                    }
+                    String formula = cell.getCellFormula();
+                    if (!sameSheet && !formula.toUpperCase(Locale.ROOT).contains(sheetName)) {
+                        continue;
+                    }
+                    String remapped = remapFormula(formula, FormulaType.CELL, sheetIndex, row.getRowNum(),
+                            editedSheetIndex, rows, columns);
+                    if (remapped != null) {
+                        updates.put(cell, remapped);
+                    } else if (sameSheet && isSharedFormula(cell)) {
+                        // 行被重写后共享公式的主单元格可能改变，统一转为普通公式
+                        updates.put(cell, formula);
+                    }
+                }
+            }
+            for (Map.Entry<Cell, String> update : updates.entrySet()) {
+                update.getKey().setCellFormula(update.getValue());
+            }
+        }
+    }
+
+    private void remapNames(Sheet editedSheet, IndexMapping rows, IndexMapping columns) {
+        int editedSheetIndex = workbook.getSheetIndex(editedSheet);
+        String sheetName = editedSheet.getSheetName().toUpperCase(Locale.ROOT);
+        for (Name name : workbook.getAllNames()) {
+            String formula = name.getRefersToFormula();
+            if (formula == null || name.isFunctionName()
+                    || !formula.toUpperCase(Locale.ROOT).contains(sheetName)) {
+                continue;
+            }
+            String remapped = remapFormula(formula, FormulaType.NAMEDRANGE, name.getSheetIndex(), 0,
+                    editedSheetIndex, rows, columns);
+            if (remapped != null) {
+                name.setRefersToFormula(remapped);
+            }
+        }
+    }
+
+    /**
+     * @return 改写后的公式，没有引用被移动时返回null
+     */
+    private String remapFormula(String formula, FormulaType type, int formulaSheetIndex, int rowIndex,
+                                int editedSheetIndex, IndexMapping rows, IndexMapping columns) {
+        Ptg[] ptgs;
+        try {
+            ptgs = FormulaParser.parse(formula, parsingWorkbook, type, formulaSheetIndex, rowIndex);
+        } catch (RuntimeException e) {
+            logger.debug("Cannot parse formula '{}' while applying structural edits: {}", formula, e.getMessage());
+            return null;
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < ptgs.length; i++) {
+            Ptg ptg = ptgs[i];
+            if (ptg instanceof Ref3DPxg) {
+                Ref3DPxg ref = (Ref3DPxg) ptg;
+                if (ref.getExternalWorkbookNumber() <= 0 && ref.getLastSheetName() == null
+                        && workbook.getSheetIndex(ref.getSheetName()) == editedSheetIndex) {
+                    Ptg replaced = remapRef(ref, rows, columns, new Deleted3DPxg(ref.getExternalWorkbookNumber(), ref.getSheetName()));
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            } else if (ptg instanceof Ref3DPtg) {
+                Ref3DPtg ref = (Ref3DPtg) ptg;
+                if (externSheetIndex(ref.getExternSheetIndex()) == editedSheetIndex) {
+                    Ptg replaced = remapRef(ref, rows, columns, new DeletedRef3DPtg(ref.getExternSheetIndex()));
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            } else if (ptg instanceof RefPtgBase) {
+                if (formulaSheetIndex == editedSheetIndex) {
+                    Ptg replaced = remapRef((RefPtgBase) ptg, rows, columns, new RefErrorPtg());
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            } else if (ptg instanceof Area3DPxg) {
+                Area3DPxg area = (Area3DPxg) ptg;
+                if (area.getExternalWorkbookNumber() <= 0 && area.getLastSheetName() == null
+                        && workbook.getSheetIndex(area.getSheetName()) == editedSheetIndex) {
+                    Ptg replaced = remapArea(area, rows, columns, new Deleted3DPxg(area.getExternalWorkbookNumber(), area.getSheetName()));
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            } else if (ptg instanceof Area3DPtg) {
+                Area3DPtg area = (Area3DPtg) ptg;
+                if (externSheetIndex(area.getExternSheetIndex()) == editedSheetIndex) {
+                    Ptg replaced = remapArea(area, rows, columns, new DeletedArea3DPtg(area.getExternSheetIndex()));
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            } else if (ptg instanceof AreaPtgBase) {
+                if (formulaSheetIndex == editedSheetIndex) {
+                    Ptg replaced = remapArea((AreaPtgBase) ptg, rows, columns, new AreaErrPtg());
+                    changed |= replaced != null;
+                    ptgs[i] = replaced != null ? replaced : ptg;
+                }
+            }
+        }
+        return changed ? FormulaRenderer.toFormulaString((FormulaRenderingWorkbook) parsingWorkbook, ptgs) : null;
+    }
+
+    /**
+     * @return 移动后的引用（原对象）或被删除时的错误引用，未移动时返回null
+     */
+    private Ptg remapRef(RefPtgBase ref, IndexMapping rows, IndexMapping columns, Ptg deleted) {
+        int row = rows.map(ref.getRow());
+        int column = columns.map(ref.getColumn());
+        if (row < 0 || column < 0 || row > lastRowIndex || column > lastColumnIndex) {
+            return deleted;
+        }
+        if (row == ref.getRow() && column == ref.getColumn()) {
+            return null;
+        }
+        ref.setRow(row);
+        ref.setColumn(column);
+        return ref;
+    }
+
+    private Ptg remapArea(AreaPtgBase area, IndexMapping rows, IndexMapping columns, Ptg deleted) {
+        int firstRow = area.getFirstRow();
+        int lastRow = area.getLastRow();
+        // 整列/整行引用（如A:A）的另一维不随之移动
+        if (!(firstRow == 0 && lastRow == lastRowIndex)) {
+            firstRow = rows.mapFirst(area.getFirstRow());
+            lastRow = Math.min(rows.mapLast(area.getLastRow()), lastRowIndex);
+        }
+        int firstColumn = area.getFirstColumn();
+        int lastColumn = area.getLastColumn();
+        if (!(firstColumn == 0 && lastColumn == lastColumnIndex)) {
+            firstColumn = columns.mapFirst(area.getFirstColumn());
+            lastColumn = Math.min(columns.mapLast(area.getLastColumn()), lastColumnIndex);
+        }
+        if (firstRow < 0 || lastRow < firstRow || firstColumn < 0 || lastColumn < firstColumn) {
+            return deleted;
+        }
+        if (firstRow == area.getFirstRow() && lastRow == area.getLastRow()
+                && firstColumn == area.getFirstColumn() && lastColumn == area.getLastColumn()) {
+            return null;
+        }
+        area.setFirstRow(firstRow);
+        area.setLastRow(lastRow);
+        area.setFirstColumn(firstColumn);
+        area.setLastColumn(lastColumn);
+        return area;
+    }
+
+    private int externSheetIndex(int externSheetIndex) {
+        return parsingWorkbook instanceof HSSFEvaluationWorkbook
+                ? ((HSSFEvaluationWorkbook) parsingWorkbook).convertFromExternSheetIndex(externSheetIndex)
+                : -1;
+    }
+
+    private static boolean isSharedFormula(Cell cell) {
+        return cell instanceof XSSFCell && ((XSSFCell) cell).getCTCell().isSetF()
+                && ((XSSFCell) cell).getCTCell().getF().getT() == STCellFormulaType.SHARED;
+    }
+
+    // ---------------------------------------------------------------- 区域
+
+    /**
+     * 区域的新位置，与公式中的区域引用规则相同：被删除的边界收缩到最近的保留行列，
+     * 整行/整列方向不移动
+     * @return 新区域，整体被删除时返回null
+     */
+    private CellRangeAddress remapRange(CellRangeAddress range, IndexMapping rows, IndexMapping columns) {
+        int firstRow = range.getFirstRow();
+        int lastRow = range.getLastRow();
+        if (!isWholeAxis(firstRow, lastRow, lastRowIndex)) {
+            firstRow = rows.mapFirst(firstRow);
+            lastRow = Math.min(rows.mapLast(lastRow), lastRowIndex);
+        }
+        int firstColumn = range.getFirstColumn();
+        int lastColumn = range.getLastColumn();
+        if (!isWholeAxis(firstColumn, lastColumn, lastColumnIndex)) {
+            firstColumn = columns.mapFirst(firstColumn);
+            lastColumn = Math.min(columns.mapLast(lastColumn), lastColumnIndex);
+        }
+        if (firstRow < 0 || firstColumn < 0 || lastRow < firstRow || lastColumn < firstColumn) {
+            return null;
+        }
+        return new CellRangeAddress(firstRow, lastRow, firstColumn, lastColumn);
+    }
+
+    private static boolean isWholeAxis(int first, int last, int lastIndex) {
+        return first < 0 || last < 0 || (first == 0 && last == lastIndex);
+    }
+
+    private void remapMergedRegions(Sheet sheet, IndexMapping rows, IndexMapping columns) {
+        List<CellRangeAddress> regions = sheet.getMergedRegions();
+        if (regions.isEmpty()) {
+            return;
+        }
+        List<CellRangeAddress> remapped = new ArrayList<>(regions.size());
+        boolean changed = false;
+        for (CellRangeAddress region : regions) {
+            CellRangeAddress mapped = remapRange(region, rows, columns);
+            // 合并区域被整体删除或只剩一个单元格时不再保留
+            if (mapped == null) {
+                changed = true;
+                continue;
+            }
+            changed |= !mapped.equals(region);
+            if (mapped.getNumberOfCells() > 1) {
+                remapped.add(mapped);
+            } else {
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        List<Integer> indexes = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            indexes.add(i);
+        }
+        sheet.removeMergedRegions(indexes);
+        for (CellRangeAddress region : remapped) {
+            sheet.addMergedRegionUnsafe(region);
+        }
+    }
+
+    private void remapHyperlinks(Sheet sheet, IndexMapping rows, IndexMapping columns) {
+        List<Hyperlink> removed = new ArrayList<>();
+        for (Hyperlink link : sheet.getHyperlinkList()) {
+            CellRangeAddress range = new CellRangeAddress(link.getFirstRow(), link.getLastRow(),
+                    link.getFirstColumn(), link.getLastColumn());
+            CellRangeAddress mapped = remapRange(range, rows, columns);
+            if (mapped == null) {
+                removed.add(link);
+            } else if (!mapped.equals(range)) {
+                if (link instanceof XSSFHyperlink) {
+                    // 逐个设置边界时中间状态可能是无效区域，直接替换引用
+                    ((XSSFHyperlink) link).setCellReference(mapped.formatAsString());
+                } else {
+                    link.setFirstRow(mapped.getFirstRow());
+                    link.setLastRow(mapped.getLastRow());
+                    link.setFirstColumn(mapped.getFirstColumn());
+                    link.setLastColumn(mapped.getLastColumn());
+                }
+            }
+        }
+        for (Hyperlink link : removed) {
+            if (sheet instanceof XSSFSheet) {
+                ((XSSFSheet) sheet).removeHyperlink((XSSFHyperlink) link);
+            } else {
+                withCell(sheet, link.getFirstRow(), link.getFirstColumn(), Cell::removeHyperlink);
+            }
+        }
+    }
+
+    private void remapConditionalFormatting(Sheet sheet, IndexMapping rows, IndexMapping columns) {
+        SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+        List<Integer> removed = new ArrayList<>();
+        for (int i = 0; i < formatting.getNumConditionalFormattings(); i++) {
+            ConditionalFormatting conditional = formatting.getConditionalFormattingAt(i);
+            CellRangeAddress[] ranges = conditional.getFormattingRanges();
+            List<CellRangeAddress> remapped = new ArrayList<>(ranges.length);
+            boolean changed = false;
+            for (CellRangeAddress range : ranges) {
+                CellRangeAddress mapped = remapRange(range, rows, columns);
+                changed |= mapped == null || !mapped.equals(range);
+                if (mapped != null) {
+                    remapped.add(mapped);
+                }
+            }
+            if (remapped.isEmpty()) {
+                removed.add(i);
+            } else if (changed) {
+                conditional.setFormattingRanges(remapped.toArray(new CellRangeAddress[0]));
+            }
+        }
+        for (int i = removed.size() - 1; i >= 0; i--) {
+            formatting.removeConditionalFormatting(removed.get(i));
+        }
+
+        // 规则公式中的引用与单元格公式一样改写（相对引用以区域左上角为基准，随区域一起移动）
+        if (sheet instanceof XSSFSheet && parsingWorkbook != null) {
+            int sheetIndex = workbook.getSheetIndex(sheet);
+            for (CTConditionalFormatting conditional : ((XSSFSheet) sheet).getCTWorksheet().getConditionalFormattingArray()) {
+                for (CTCfRule rule : conditional.getCfRuleArray()) {
+                    for (int i = 0; i < rule.sizeOfFormulaArray(); i++) {
+                        String remapped = remapFormula(rule.getFormulaArray(i), FormulaType.CELL, sheetIndex, 0,
+                                sheetIndex, rows, columns);
+                        if (remapped != null) {
+                            rule.setFormulaArray(i, remapped);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void remapDataValidations(XSSFSheet sheet, IndexMapping rows, IndexMapping columns) {
+        CTWorksheet worksheet = sheet.getCTWorksheet();
+        if (!worksheet.isSetDataValidations()) {
+            return;
+        }
+        int sheetIndex = workbook.getSheetIndex(sheet);
+        CTDataValidations validations = worksheet.getDataValidations();
+        for (int i = validations.sizeOfDataValidationArray() - 1; i >= 0; i--) {
+            CTDataValidation validation = validations.getDataValidationArray(i);
+            List<String> remapped = new ArrayList<>();
+            boolean changed = false;
+            for (Object ref : validation.getSqref()) {
+                CellRangeAddress range = CellRangeAddress.valueOf(ref.toString());
+                CellRangeAddress mapped = remapRange(range, rows, columns);
+                changed |= mapped == null || !mapped.equals(range);
+                if (mapped != null) {
+                    remapped.add(mapped.formatAsString());
+                }
+            }
+            if (remapped.isEmpty()) {
+                validations.removeDataValidation(i);
+                continue;
+            }
+            if (changed) {
+                validation.setSqref(remapped);
+            }
+            if (parsingWorkbook != null && validation.isSetFormula1()) {
+                String formula = remapFormula(validation.getFormula1(), FormulaType.DATAVALIDATION_LIST, sheetIndex, 0,
+                        sheetIndex, rows, columns);
+                if (formula != null) {
+                    validation.setFormula1(formula);
+                }
+            }
+            if (parsingWorkbook != null && validation.isSetFormula2()) {
+                String formula = remapFormula(validation.getFormula2(), FormulaType.DATAVALIDATION_LIST, sheetIndex, 0,
+                        sheetIndex, rows, columns);
+                if (formula != null) {
+                    validation.setFormula2(formula);
+                }
+            }
+        }
+        if (validations.sizeOfDataValidationArray() == 0) {
+            worksheet.unsetDataValidations();
+        } else {
+            validations.setCount(validations.sizeOfDataValidationArray());
+        }
+    }
+
+    /**
+     * 移动批注，所在行或列被删除的批注一并删除
+     * @return 移动后带批注的行号，这些行即使没有内容也要保留（删除行会删除其中的批注）
+     */
+    private Set<Integer> remapComments(Sheet sheet, IndexMapping rows, IndexMapping columns) {
+        Map<CellAddress, ? extends Comment> comments = sheet.getCellComments();
+        Set<Integer> commentRows = new HashSet<>();
+        if (comments.isEmpty()) {
+            return commentRows;
+        }
+        List<Comment> moved = new ArrayList<>();
+        for (Comment comment : comments.values()) {
+            int row = rows.map(comment.getRow());
+            int column = columns.map(comment.getColumn());
+            if (row < 0 || column < 0) {
+                withCell(sheet, comment.getRow(), comment.getColumn(), Cell::removeCellComment);
+                continue;
+            }
+            if (row != comment.getRow() || column != comment.getColumn()) {
+                moved.add(comment);
+            }
+            commentRows.add(row);
+        }
+
+        // 批注按地址登记，目标位置不能还有未移动的批注。映射在每个方向上都是单调的：
+        // 先移动行（下移的从下往上、上移的从上往下），再按同样的顺序移动列，目标位置总是已经空出
+        moved.sort(Comparator.comparingInt((Comment comment) -> comment.getRow() < rows.map(comment.getRow())
+                ? -comment.getRow() : comment.getRow()));
+        for (Comment comment : moved) {
+            comment.setAddress(rows.map(comment.getRow()), comment.getColumn());
+        }
+        moved.sort(Comparator.comparingInt((Comment comment) -> comment.getColumn() < columns.map(comment.getColumn())
+                ? -comment.getColumn() : comment.getColumn()));
+        for (Comment comment : moved) {
+            comment.setAddress(comment.getRow(), columns.map(comment.getColumn()));
+        }
+        return commentRows;
+    }
+
+    /**
+     * 对指定位置的单元格执行操作，单元格或行不存在时临时创建，完成后再移除
+     */
+    private static void withCell(Sheet sheet, int rowIndex, int columnIndex, Consumer<Cell> action) {
+        Row row = sheet.getRow(rowIndex);
+        boolean createdRow = row == null;
+        if (createdRow) {
+            row = sheet.createRow(rowIndex);
+        }
+        Cell cell = row.getCell(columnIndex);
+        boolean createdCell = cell == null;
+        if (createdCell) {
+            cell = row.createCell(columnIndex);
+        }
+        action.accept(cell);
+        if (createdCell) {
+            row.removeCell(cell);
+        }
+        if (createdRow) {
+            sheet.removeRow(row);
+        }
+    }
+
+    // ---------------------------------------------------------------- 行列内容
+
+    private void rewriteRows(Sheet sheet, IndexMapping rows, Set<Integer> commentRows) {
+        int first = rows.firstChangedIndex();
+        int lastRow = sheet.getLastRowNum();
+        int lastMapped = Math.max(lastRow >= first ? rows.mapLast(lastRow) : -1,
+                rows.getInsertedCount() > 0 ? rows.getInsertedIndex(rows.getInsertedCount() - 1) : -1);
+        int end = Math.max(lastRow, lastMapped);
+        if (end < first) {
+            return;
+        }
+
+        // 读出受影响范围内每个新位置的内容（原位未动的行不需要改写）
+        RowContent[] targets = new RowContent[end - first + 1];
+        boolean[] unchanged = new boolean[targets.length];
+        for (int r = first; r <= lastRow; r++) {
+            Row row = sheet.getRow(r);
+            int mapped = row != null ? rows.map(r) : -1;
+            if (mapped == r) {
+                unchanged[r - first] = true;
+            } else if (mapped >= 0) {
+                targets[mapped - first] = RowContent.of(sheet, row);
+            }
+        }
+        for (int i = 0; i < rows.getInsertedCount(); i++) {
+            targets[rows.getInsertedIndex(i) - first] = RowContent.ofValues(rows.getInsertedValues(i));
+        }
+
+        for (int r = first; r <= end; r++) {
+            if (unchanged[r - first]) {
+                continue;
+            }
+            Row row = sheet.getRow(r);
+            RowContent content = targets[r - first];
+            if (content == null) {
+                if (row != null && commentRows.contains(r)) {
+                    // 保留空行，removeRow会删除已经移到这一行的批注
+                    RowContent.ofValues(null).writeTo(sheet, row);
+                } else if (row != null) {
+                    sheet.removeRow(row);
+                }
+                continue;
+            }
+            content.writeTo(sheet, row != null ? row : sheet.createRow(r));
+        }
+    }
+
+    private void rewriteColumns(Sheet sheet, IndexMapping columns) {
+        int first = columns.firstChangedIndex();
+        int lastRow = sheet.getLastRowNum();
+        int maxValues = 0;
+        for (int i = 0; i < columns.getInsertedCount(); i++) {
+            Object[] values = columns.getInsertedValues(i);
+            maxValues = Math.max(maxValues, values != null ? values.length : 0);
+        }
+
+        int lastColumn = -1;
+        List<Row> rowsToRewrite = new ArrayList<>();
+        for (int r = 0; r <= lastRow; r++) {
+            Row row = sheet.getRow(r);
+            // 新列的值按行号写入，没有该行时创建
+            if (row == null && r < maxValues) {
+                row = sheet.createRow(r);
+            }
+            if (row != null) {
+                rowsToRewrite.add(row);
+                lastColumn = Math.max(lastColumn, row.getLastCellNum() - 1);
+            }
+        }
+        remapColumnWidths(sheet, columns, first, lastColumn);
+
+        for (Row row : rowsToRewrite) {
+            int rowLast = row.getLastCellNum() - 1;
+            int mappedLast = Math.max(rowLast >= first ? columns.mapLast(rowLast) : -1,
+                    columns.getInsertedCount() > 0 ? columns.getInsertedIndex(columns.getInsertedCount() - 1) : -1);
+            int end = Math.max(rowLast, mappedLast);
+            if (end < first) {
+                continue;
+            }
+            CellContent[] targets = new CellContent[end - first + 1];
+            for (int c = first; c <= rowLast; c++) {
+                Cell cell = row.getCell(c);
+                int mapped = cell != null ? columns.map(c) : -1;
+                if (mapped >= 0) {
+                    targets[mapped - first] = CellContent.of(cell);
+                }
+            }
+            int rowIndex = row.getRowNum();
+            for (int i = 0; i < columns.getInsertedCount(); i++) {
+                Object[] values = columns.getInsertedValues(i);
+                if (values != null && rowIndex < values.length) {
+                    targets[columns.getInsertedIndex(i) - first] = CellContent.ofValue(values[rowIndex], columns.getInsertedIndex(i));
+                }
+            }
+            for (int c = first; c <= end; c++) {
+                Cell cell = row.getCell(c);
+                CellContent content = targets[c - first];
+                if (content == null) {
+                    if (cell != null) {
+                        row.removeCell(cell);
+                    }
+                    continue;
+                }
+                content.writeTo(cell != null ? cell : row.createCell(c));
+            }
+        }
+    }
+
+    private void remapColumnWidths(Sheet sheet, IndexMapping columns, int first, int lastColumn) {
+        if (lastColumn < first) {
+            return;
+        }
+        int defaultWidth = sheet.getDefaultColumnWidth() * 256;
+        int[] widths = new int[lastColumn - first + 1];
+        for (int c = first; c <= lastColumn; c++) {
+            widths[c - first] = sheet.getColumnWidth(c);
+        }
+        int lastMapped = Math.max(columns.mapLast(lastColumn),
+                columns.getInsertedCount() > 0 ? columns.getInsertedIndex(columns.getInsertedCount() - 1) : -1);
+        int[] mappedWidths = new int[Math.max(lastColumn, lastMapped) - first + 1];
+        Arrays.fill(mappedWidths, defaultWidth);
+        for (int c = first; c <= lastColumn; c++) {
+            int mapped = columns.map(c);
+            if (mapped >= 0) {
+                mappedWidths[mapped - first] = widths[c - first];
+            }
+        }
+        for (int i = 0; i < mappedWidths.length; i++) {
+            if (sheet.getColumnWidth(first + i) != mappedWidths[i]) {
+                sheet.setColumnWidth(first + i, mappedWidths[i]);
+            }
+        }
+    }
+
+    /**
+     * 一行的内容快照：行高、行样式和各单元格
+     */
+    private static class RowContent {
+        private final short height;
+        private final CellStyle rowStyle;
+        private final List<CellContent> cells;
+
+        private RowContent(short height, CellStyle rowStyle, List<CellContent> cells) {
+            this.height = height;
+            this.rowStyle = rowStyle;
+            this.cells = cells;
+        }
+
+        static RowContent of(Sheet sheet, Row row) {
+            List<CellContent> cells = new ArrayList<>(Math.max(row.getPhysicalNumberOfCells(), 0));
+            for (Cell cell : row) {
+                cells.add(CellContent.of(cell));
+            }
+            short height = row.getHeight() == sheet.getDefaultRowHeight() ? -1 : row.getHeight();
+            return new RowContent(height, row.isFormatted() ? row.getRowStyle() : null, cells);
+        }
+
+        static RowContent ofValues(Object[] values) {
+            List<CellContent> cells = new ArrayList<>();
+            if (values != null) {
+                for (int i = 0; i < values.length; i++) {
+                    cells.add(CellContent.ofValue(values[i], i));
+                }
+            }
+            return new RowContent((short) -1, null, cells);
+        }
+
+        void writeTo(Sheet sheet, Row row) {
+            if (row.getHeight() != height && !(height == -1 && row.getHeight() == sheet.getDefaultRowHeight())) {
+                row.setHeight(height);
+            }
+            if (rowStyle != null) {
+                row.setRowStyle(rowStyle);
+            }
+            int next = 0;
+            List<Cell> stale = new ArrayList<>();
+            for (Cell cell : row) {
+                while (next < cells.size() && cells.get(next).column < cell.getColumnIndex()) {
+                    next++;
+                }
+                if (next >= cells.size() || cells.get(next).column != cell.getColumnIndex()) {
+                    stale.add(cell);
+                }
+            }
+            for (Cell cell : stale) {
+                row.removeCell(cell);
+            }
+            for (CellContent content : cells) {
+                Cell cell = row.getCell(content.column);
+                content.writeTo(cell != null ? cell : row.createCell(content.column));
+            }
+        }
+    }
+
+    /**
+     * 单元格内容快照，公式保存为（已改写引用的）公式文本
+     */
+    private static class CellContent {
+        private final int column;
+        private final CellStyle style;
+        private final CellType type;
+        private final Object value;
+
+        private CellContent(int column, CellStyle style, CellType type, Object value) {
+            this.column = column;
+            this.style = style;
+            this.type = type;
+            this.value = value;
+        }
+
+        static CellContent of(Cell cell) {
+            CellType type = cell.getCellType();
+            Object value;
+            switch (type) {
+                case STRING:
+                    value = cell.getRichStringCellValue();
+                    break;
+                case NUMERIC:
+                    value = cell.getNumericCellValue();
+                    break;
+                case BOOLEAN:
+                    value = cell.getBooleanCellValue();
+                    break;
+                case FORMULA:
+                    value = cell.getCellFormula();
+                    break;
+                case ERROR:
+                    value = cell.getErrorCellValue();
+                    break;
+                default:
+                    value = null;
+            }
+            return new CellContent(cell.getColumnIndex(), cell.getCellStyle(), type, value);
+        }
+
+        /**
+         * 新插入行/列的值，与ExcelService.insertRow的写入规则一致
+         */
+        static CellContent ofValue(Object value, int index) {
+            if (value == null) {
+                return new CellContent(index, null, CellType.STRING, "");
+            }
+            if (value instanceof Number) {
+                return new CellContent(index, null, CellType.NUMERIC, ((Number) value).doubleValue());
+            }
+            if (value instanceof Boolean) {
+                return new CellContent(index, null, CellType.BOOLEAN, value);
+            }
+            return new CellContent(index, null, CellType.STRING, value.toString());
+        }
+
+        void writeTo(Cell cell) {
+            if (cell.getCellType() == CellType.FORMULA && type != CellType.FORMULA) {
+                cell.removeFormula();
+            }
+            // 新插入的值使用默认样式，不沿用该位置原有单元格的样式
+            CellStyle target = style != null ? style : cell.getSheet().getWorkbook().getCellStyleAt(0);
+            if (cell.getCellStyle().getIndex() != target.getIndex()) {
+                cell.setCellStyle(target);
+            }
+            switch (type) {
+                case STRING:
+                    if (value instanceof RichTextString) {
+                        cell.setCellValue((RichTextString) value);
+                    } else {
+                        cell.setCellValue((String) value);
+                    }
+                    break;
+                case NUMERIC:
+                    cell.setCellValue((Double) value);
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue((Boolean) value);
+                    break;
+                case FORMULA:
+                    cell.setCellFormula((String) value);
+                    break;
+                case ERROR:
+                    cell.setCellErrorValue((Byte) value);
+                    break;
+                default:
+                    cell.setBlank();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.aiexcel.service.formula;
+
+/**
+ * 编译后的公式，不可变，可在多个请求之间复用
+ */
+public class CompiledFormula {
+
+    private final String text;
+    private final ExpressionNode root;
+
+    CompiledFormula(String text, ExpressionNode root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * 求值
+     * @throws NumberFormatException 引用的单元格不是数字
+     * @throws ArithmeticException 除数为0
+     */
+    public double evaluate(FormulaContext context) {
+        return root.evaluate(context);
+    }
+
+    /**
+     * 公式是否只是一个单元格引用（此时调用方通常需要原始值而不是数字）
+     */
+    public boolean isCellReference() {
+        return root instanceof ExpressionNodes.CellRef;
+    }
+
+    /**
+     * 单元格引用的行号，仅当isCellReference()为true时有效
+     */
+    public int getReferenceRow() {
+        return ((ExpressionNodes.CellRef) root).row;
+    }
+
+    /**
+     * 单元格引用的列号，仅当isCellReference()为true时有效
+     */
+    public int getReferenceColumn() {
+        return ((ExpressionNodes.CellRef) root).col;
+    }
+}
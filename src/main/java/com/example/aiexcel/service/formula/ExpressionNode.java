@@ -0,0 +1,9 @@
+package com.example.aiexcel.service.formula;
+
+/**
+ * 编译后公式的语法树节点，求值结果为double
+ */
+public interface ExpressionNode {
+
+    double evaluate(FormulaContext context);
+}
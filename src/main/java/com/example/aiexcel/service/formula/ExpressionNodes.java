@@ -0,0 +1,252 @@
+package com.example.aiexcel.service.formula;
+
+import java.util.List;
+
+/**
+ * 语法树节点的实现
+ */
+final class ExpressionNodes {
+
+    private ExpressionNodes() {
+    }
+
+    /**
+     * 数字常量
+     */
+    static final class Constant implements ExpressionNode {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            return value;
+        }
+    }
+
+    /**
+     * 单元格引用
+     */
+    static final class CellRef implements ExpressionNode {
+        final int row;
+        final int col;
+
+        CellRef(int row, int col) {
+            this.row = row;
+            this.col = col;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            return context.getNumber(row, col);
+        }
+    }
+
+    /**
+     * 区域引用，只能作为函数参数；单个单元格的区域可直接取值
+     */
+    static final class Range implements ExpressionNode {
+        final int firstRow;
+        final int firstCol;
+        final int lastRow;
+        final int lastCol;
+
+        Range(int firstRow, int firstCol, int lastRow, int lastCol) {
+            this.firstRow = Math.min(firstRow, lastRow);
+            this.firstCol = Math.min(firstCol, lastCol);
+            this.lastRow = Math.max(firstRow, lastRow);
+            this.lastCol = Math.max(firstCol, lastCol);
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            if (firstRow == lastRow && firstCol == lastCol) {
+                return context.getNumber(firstRow, firstCol);
+            }
+            throw new IllegalArgumentException("A range can only be used as a function argument");
+        }
+    }
+
+    /**
+     * 一元负号
+     */
+    static final class Negate implements ExpressionNode {
+        final ExpressionNode operand;
+
+        Negate(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            return -operand.evaluate(context);
+        }
+    }
+
+    /**
+     * 百分号
+     */
+    static final class Percent implements ExpressionNode {
+        final ExpressionNode operand;
+
+        Percent(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            return operand.evaluate(context) / 100;
+        }
+    }
+
+    /**
+     * 四则运算和乘方
+     */
+    static final class Binary implements ExpressionNode {
+        final char operator;
+        final ExpressionNode left;
+        final ExpressionNode right;
+
+        Binary(char operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            double a = left.evaluate(context);
+            double b = right.evaluate(context);
+            switch (operator) {
+                case '+':
+                    return a + b;
+                case '-':
+                    return a - b;
+                case '*':
+                    return a * b;
+                case '/':
+                    if (b == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    return a / b;
+                case '^':
+                    return Math.pow(a, b);
+                default:
+                    throw new IllegalStateException("Unknown operator: " + operator);
+            }
+        }
+    }
+
+    /**
+     * 比较运算，结果为1（真）或0（假）
+     */
+    static final class Compare implements ExpressionNode {
+        final String operator;
+        final ExpressionNode left;
+        final ExpressionNode right;
+
+        Compare(String operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            double a = left.evaluate(context);
+            double b = right.evaluate(context);
+            boolean result;
+            switch (operator) {
+                case "=":
+                    result = a == b;
+                    break;
+                case "<>":
+                    result = a != b;
+                    break;
+                case "<":
+                    result = a < b;
+                    break;
+                case "<=":
+                    result = a <= b;
+                    break;
+                case ">":
+                    result = a > b;
+                    break;
+                case ">=":
+                    result = a >= b;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator: " + operator);
+            }
+            return result ? 1 : 0;
+        }
+    }
+
+    /**
+     * IF(条件, 真值[, 假值])，条件非0为真，省略假值时为0
+     */
+    static final class If implements ExpressionNode {
+        final ExpressionNode condition;
+        final ExpressionNode whenTrue;
+        final ExpressionNode whenFalse;
+
+        If(ExpressionNode condition, ExpressionNode whenTrue, ExpressionNode whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            if (condition.evaluate(context) != 0) {
+                return whenTrue.evaluate(context);
+            }
+            return whenFalse != null ? whenFalse.evaluate(context) : 0;
+        }
+    }
+
+    /**
+     * SUM/AVERAGE/MIN/MAX等聚合函数，参数可以是区域或表达式
+     */
+    static final class Aggregate implements ExpressionNode {
+        final String function;
+        final ExpressionNode[] arguments;
+
+        Aggregate(String function, List<ExpressionNode> arguments) {
+            this.function = function;
+            this.arguments = arguments.toArray(new ExpressionNode[0]);
+        }
+
+        @Override
+        public double evaluate(FormulaContext context) {
+            RangeAccumulator accumulator = new RangeAccumulator();
+            for (ExpressionNode argument : arguments) {
+                if (argument instanceof Range) {
+                    Range range = (Range) argument;
+                    context.aggregate(range.firstRow, range.firstCol, range.lastRow, range.lastCol, accumulator);
+                } else {
+                    accumulator.add(argument.evaluate(context));
+                }
+            }
+            switch (function) {
+                case "SUM":
+                    return accumulator.getSum();
+                case "AVERAGE":
+                    if (accumulator.getCount() == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    return accumulator.getSum() / accumulator.getCount();
+                case "MIN":
+                    return accumulator.getMin();
+                case "MAX":
+                    return accumulator.getMax();
+                case "COUNT":
+                    return accumulator.getCount();
+                default:
+                    throw new IllegalStateException("Unknown function: " + function);
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.aiexcel.service.formula;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 公式编译器
+ * 把APPLY_FORMULA等命令中的表达式编译成语法树并按文本缓存，之后每次求值只需遍历语法树。
+ * 支持 + - * / ^ % 和比较运算的优先级、括号、单元格引用（可带$）、区域（A1:B5），
+ * 以及 SUM、AVERAGE、MIN、MAX、COUNT、IF 函数
+ */
+@Component
+public class FormulaCompiler {
+
+    private static final int MAX_CACHED_FORMULAS = 1024;
+    private static final Set<String> AGGREGATE_FUNCTIONS = Set.of("SUM", "AVERAGE", "MIN", "MAX", "COUNT");
+
+    private final Map<String, CompiledFormula> cache =
+            new LinkedHashMap<String, CompiledFormula>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledFormula> eldest) {
+                    return size() > MAX_CACHED_FORMULAS;
+                }
+            };
+
+    /**
+     * 编译公式，相同文本的公式只编译一次
+     * @param formula 公式文本，可带前导等号
+     * @return 编译后的公式
+     * @throws IllegalArgumentException 公式语法错误或包含不支持的函数
+     */
+    public CompiledFormula compile(String formula) {
+        if (formula == null || formula.trim().isEmpty()) {
+            throw new IllegalArgumentException("Formula cannot be null or empty");
+        }
+        String text = formula.trim();
+        if (text.startsWith("=")) {
+            text = text.substring(1).trim();
+        }
+        synchronized (cache) {
+            CompiledFormula compiled = cache.get(text);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        CompiledFormula compiled = new CompiledFormula(text, new Parser(text).parse());
+        synchronized (cache) {
+            cache.put(text, compiled);
+        }
+        return compiled;
+    }
+
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * 递归下降解析器，优先级从低到高：比较、加减、乘除、乘方、一元正负号、百分号
+     */
+    private static class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        ExpressionNode parse() {
+            ExpressionNode node = parseComparison();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            return node;
+        }
+
+        private ExpressionNode parseComparison() {
+            ExpressionNode left = parseAdditive();
+            skipWhitespace();
+            String operator = null;
+            if (text.startsWith("<>", pos) || text.startsWith("<=", pos) || text.startsWith(">=", pos)) {
+                operator = text.substring(pos, pos + 2);
+            } else if (pos < text.length() && "=<>".indexOf(text.charAt(pos)) >= 0) {
+                operator = String.valueOf(text.charAt(pos));
+            }
+            if (operator == null) {
+                return left;
+            }
+            pos += operator.length();
+            return new ExpressionNodes.Compare(operator, left, parseAdditive());
+        }
+
+        private ExpressionNode parseAdditive() {
+            ExpressionNode node = parseMultiplicative();
+            while (true) {
+                char c = peek();
+                if (c != '+' && c != '-') {
+                    return node;
+                }
+                pos++;
+                node = new ExpressionNodes.Binary(c, node, parseMultiplicative());
+            }
+        }
+
+        private ExpressionNode parseMultiplicative() {
+            ExpressionNode node = parsePower();
+            while (true) {
+                char c = peek();
+                if (c != '*' && c != '/') {
+                    return node;
+                }
+                pos++;
+                node = new ExpressionNodes.Binary(c, node, parsePower());
+            }
+        }
+
+        private ExpressionNode parsePower() {
+            ExpressionNode node = parseUnary();
+            while (peek() == '^') {
+                pos++;
+                // 与Excel一致，乘方从左到右结合
+                node = new ExpressionNodes.Binary('^', node, parseUnary());
+            }
+            return node;
+        }
+
+        private ExpressionNode parseUnary() {
+            char c = peek();
+            if (c == '-') {
+                pos++;
+                return new ExpressionNodes.Negate(parseUnary());
+            }
+            if (c == '+') {
+                pos++;
+                return parseUnary();
+            }
+            return parsePercent();
+        }
+
+        private ExpressionNode parsePercent() {
+            ExpressionNode node = parsePrimary();
+            while (peek() == '%') {
+                pos++;
+                node = new ExpressionNodes.Percent(node);
+            }
+            return node;
+        }
+
+        private ExpressionNode parsePrimary() {
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                ExpressionNode node = parseComparison();
+                expect(')');
+                return node;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                return parseNumber();
+            }
+            if (Character.isLetter(c) || c == '$') {
+                return parseIdentifier();
+            }
+            throw error(pos < text.length() ? "Unexpected character '" + c + "'" : "Unexpected end of formula");
+        }
+
+        private ExpressionNode parseNumber() {
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (pos < text.length() && (text.charAt(pos) == 'E' || text.charAt(pos) == 'e')) {
+                int exponent = pos + 1;
+                if (exponent < text.length() && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                    exponent++;
+                }
+                if (exponent < text.length() && Character.isDigit(text.charAt(exponent))) {
+                    pos = exponent;
+                    while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                        pos++;
+                    }
+                }
+            }
+            try {
+                return new ExpressionNodes.Constant(Double.parseDouble(text.substring(start, pos)));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + text.substring(start, pos) + "'");
+            }
+        }
+
+        /**
+         * 单元格引用、区域或函数调用
+         */
+        private ExpressionNode parseIdentifier() {
+            int start = pos;
+            int[] first = readCellReference();
+            if (first != null) {
+                if (peek() == ':') {
+                    pos++;
+                    skipWhitespace();
+                    int[] last = readCellReference();
+                    if (last == null) {
+                        throw error("Invalid range end");
+                    }
+                    return new ExpressionNodes.Range(first[0], first[1], last[0], last[1]);
+                }
+                return new ExpressionNodes.CellRef(first[0], first[1]);
+            }
+
+            pos = start;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            String name = text.substring(start, pos).toUpperCase();
+            if (name.isEmpty()) {
+                throw error("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            if (peek() != '(') {
+                throw error("Unknown name '" + name + "'");
+            }
+            pos++;
+            List<ExpressionNode> arguments = parseArguments();
+
+            if (AGGREGATE_FUNCTIONS.contains(name)) {
+                if (arguments.isEmpty()) {
+                    throw error(name + " requires at least one argument");
+                }
+                return new ExpressionNodes.Aggregate(name, arguments);
+            }
+            if (name.equals("IF")) {
+                if (arguments.size() < 2 || arguments.size() > 3) {
+                    throw error("IF requires 2 or 3 arguments");
+                }
+                return new ExpressionNodes.If(arguments.get(0), arguments.get(1),
+                        arguments.size() == 3 ? arguments.get(2) : null);
+            }
+            throw error("Unsupported function '" + name + "'");
+        }
+
+        private List<ExpressionNode> parseArguments() {
+            List<ExpressionNode> arguments = new ArrayList<>();
+            if (peek() == ')') {
+                pos++;
+                return arguments;
+            }
+            while (true) {
+                arguments.add(parseComparison());
+                char c = peek();
+                if (c == ',' || c == ';') {
+                    pos++;
+                } else if (c == ')') {
+                    pos++;
+                    return arguments;
+                } else {
+                    throw error("Expected ',' or ')'");
+                }
+            }
+        }
+
+        /**
+         * 读取形如 $A$1 的单元格引用，返回 [行, 列]；不是单元格引用时返回null且不移动位置
+         */
+        private int[] readCellReference() {
+            int start = pos;
+            int i = pos;
+            if (i < text.length() && text.charAt(i) == '$') {
+                i++;
+            }
+            int col = 0;
+            int letters = 0;
+            while (i < text.length() && Character.isLetter(text.charAt(i)) && letters < 4) {
+                col = col * 26 + (Character.toUpperCase(text.charAt(i)) - 'A' + 1);
+                i++;
+                letters++;
+            }
+            if (letters == 0) {
+                return null;
+            }
+            if (i < text.length() && text.charAt(i) == '$') {
+                i++;
+            }
+            int row = 0;
+            int digits = 0;
+            while (i < text.length() && Character.isDigit(text.charAt(i)) && digits < 8) {
+                row = row * 10 + (text.charAt(i) - '0');
+                i++;
+                digits++;
+            }
+            // 后面紧跟字母、数字或左括号说明是函数名（如LOG10）
+            if (digits == 0 || row == 0
+                    || (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '('))) {
+                pos = start;
+                return null;
+            }
+            pos = i;
+            return new int[]{row - 1, col - 1};
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void expect(char expected) {
+            if (peek() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in formula: " + text);
+        }
+    }
+}
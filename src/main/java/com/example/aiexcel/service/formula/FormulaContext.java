@@ -0,0 +1,17 @@
+package com.example.aiexcel.service.formula;
+
+/**
+ * 编译后的公式求值时读取单元格的上下文，行列从0开始
+ */
+public interface FormulaContext {
+
+    /**
+     * 单元格的数值，空单元格为0，无法转换为数字时抛出NumberFormatException
+     */
+    double getNumber(int rowIndex, int colIndex);
+
+    /**
+     * 把区域内的数值单元格累加到accumulator，文本和空单元格被忽略（与Excel的SUM/AVERAGE一致）
+     */
+    void aggregate(int firstRow, int firstCol, int lastRow, int lastCol, RangeAccumulator accumulator);
+}
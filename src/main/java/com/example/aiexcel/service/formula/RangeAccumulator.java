@@ -0,0 +1,45 @@
+package com.example.aiexcel.service.formula;
+
+/**
+ * 区域聚合的累加器，用基本类型保存总和、个数和最值
+ */
+public class RangeAccumulator {
+
+    private double sum;
+    private int count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        sum += value;
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 最小值，没有数值时为0（与Excel的MIN一致）
+     */
+    public double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * 最大值，没有数值时为0（与Excel的MAX一致）
+     */
+    public double getMax() {
+        return count == 0 ? 0 : max;
+    }
+}
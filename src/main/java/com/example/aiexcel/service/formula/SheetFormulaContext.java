@@ -0,0 +1,82 @@
+package com.example.aiexcel.service.formula;
+
+import org.apache.poi.ss.usermodel.*;
+
+/**
+ * 从POI工作表读取单元格的求值上下文
+ * 公式单元格使用传入的（通常是工作簿共享的）计算器求值
+ */
+public class SheetFormulaContext implements FormulaContext {
+
+    private final Sheet sheet;
+    private final FormulaEvaluator evaluator;
+
+    public SheetFormulaContext(Sheet sheet, FormulaEvaluator evaluator) {
+        this.sheet = sheet;
+        this.evaluator = evaluator;
+    }
+
+    @Override
+    public double getNumber(int rowIndex, int colIndex) {
+        Cell cell = getCell(rowIndex, colIndex);
+        if (cell == null) {
+            return 0;
+        }
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                return cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? 1 : 0;
+            case STRING:
+                String text = cell.getStringCellValue().trim();
+                return text.isEmpty() ? 0 : Double.parseDouble(text);
+            case FORMULA:
+                CellValue value = evaluator.evaluate(cell);
+                switch (value.getCellType()) {
+                    case NUMERIC:
+                        return value.getNumberValue();
+                    case BOOLEAN:
+                        return value.getBooleanValue() ? 1 : 0;
+                    case STRING:
+                        return Double.parseDouble(value.getStringValue().trim());
+                    default:
+                        throw new NumberFormatException("Cell " + cell.getAddress() + " does not contain a number");
+                }
+            case BLANK:
+                return 0;
+            default:
+                throw new NumberFormatException("Cell " + cell.getAddress() + " does not contain a number");
+        }
+    }
+
+    @Override
+    public void aggregate(int firstRow, int firstCol, int lastRow, int lastCol, RangeAccumulator accumulator) {
+        int last = Math.min(lastRow, sheet.getLastRowNum());
+        for (int r = Math.max(firstRow, sheet.getFirstRowNum()); r <= last; r++) {
+            Row row = sheet.getRow(r);
+            if (row == null) {
+                continue;
+            }
+            int lastCell = Math.min(lastCol, row.getLastCellNum() - 1);
+            for (int c = firstCol; c <= lastCell; c++) {
+                Cell cell = row.getCell(c);
+                if (cell == null) {
+                    continue;
+                }
+                if (cell.getCellType() == CellType.NUMERIC) {
+                    accumulator.add(cell.getNumericCellValue());
+                } else if (cell.getCellType() == CellType.FORMULA) {
+                    CellValue value = evaluator.evaluate(cell);
+                    if (value.getCellType() == CellType.NUMERIC) {
+                        accumulator.add(value.getNumberValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private Cell getCell(int rowIndex, int colIndex) {
+        Row row = sheet.getRow(rowIndex);
+        return row != null ? row.getCell(colIndex) : null;
+    }
+}
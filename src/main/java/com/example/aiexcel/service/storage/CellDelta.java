@@ -0,0 +1,297 @@
+package com.example.aiexcel.service.storage;
+
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 单元格级别的版本增量
+ * 记录两个版本之间值、公式或样式发生变化的单元格，回放时在基准工作簿上重新设置这些单元格。
+ * 增量只覆盖单元格内容：工作表、合并区域、列宽行高、样式表、批注、超链接、图形等结构发生变化时
+ * {@link #diff} 返回null，调用方应改为保存完整快照
+ */
+public final class CellDelta {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_REMOVED = 0;
+    private static final byte TYPE_BLANK = 1;
+    private static final byte TYPE_NUMERIC = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_FORMULA = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_ERROR = 6;
+
+    /**
+     * 每个单元格在内存中的估算开销（哈希表项、Long键和值对象），文本另计
+     */
+    private static final int BYTES_PER_CELL = 96;
+
+    private CellDelta() {
+    }
+
+    /**
+     * 工作簿中所有单元格的内容，以及结构指纹
+     */
+    public static final class Cells {
+        private final byte[] structure;
+        private final List<Map<Long, CellValue>> sheets;
+        private final long estimatedBytes;
+
+        private Cells(byte[] structure, List<Map<Long, CellValue>> sheets, long estimatedBytes) {
+            this.structure = structure;
+            this.sheets = sheets;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        /**
+         * 估算占用的内存字节数
+         */
+        public long estimatedBytes() {
+            return estimatedBytes;
+        }
+    }
+
+    private record CellValue(byte type, short style, double number, String text) {
+    }
+
+    /**
+     * 读取工作簿中的所有单元格
+     */
+    public static Cells capture(Workbook workbook) {
+        List<Map<Long, CellValue>> sheets = new ArrayList<>(workbook.getNumberOfSheets());
+        long bytes = 0;
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            Map<Long, CellValue> cells = new HashMap<>();
+            for (Row row : workbook.getSheetAt(i)) {
+                for (Cell cell : row) {
+                    CellValue value = valueOf(cell);
+                    cells.put(key(row.getRowNum(), cell.getColumnIndex()), value);
+                    bytes += BYTES_PER_CELL + (value.text() != null ? 40 + value.text().length() : 0);
+                }
+            }
+            sheets.add(cells);
+        }
+        return new Cells(structure(workbook), sheets, bytes);
+    }
+
+    /**
+     * 计算从before到after的增量；结构不同时返回null
+     */
+    public static byte[] diff(Cells before, Cells after) throws IOException {
+        if (!Arrays.equals(before.structure, after.structure)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(FORMAT_VERSION);
+            for (int sheet = 0; sheet < after.sheets.size(); sheet++) {
+                Map<Long, CellValue> oldCells = before.sheets.get(sheet);
+                Map<Long, CellValue> newCells = after.sheets.get(sheet);
+                List<Long> changed = new ArrayList<>();
+                for (Map.Entry<Long, CellValue> entry : newCells.entrySet()) {
+                    if (!entry.getValue().equals(oldCells.get(entry.getKey()))) {
+                        changed.add(entry.getKey());
+                    }
+                }
+                for (Long key : oldCells.keySet()) {
+                    if (!newCells.containsKey(key)) {
+                        changed.add(key);
+                    }
+                }
+                if (changed.isEmpty()) {
+                    continue;
+                }
+                changed.sort(null);
+                out.writeInt(sheet);
+                out.writeInt(changed.size());
+                for (Long key : changed) {
+                    out.writeLong(key);
+                    write(out, newCells.get(key));
+                }
+            }
+            out.writeInt(-1);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 在工作簿上回放增量，变化的单元格记入changes（可为null），用于之后重算公式
+     * @return 变化的单元格数
+     */
+    public static int apply(byte[] delta, Workbook workbook, WorkbookChangeSet changes) throws IOException {
+        int applied = 0;
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(delta)))) {
+            int format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported cell delta format " + format);
+            }
+            for (int sheetIndex = in.readInt(); sheetIndex >= 0; sheetIndex = in.readInt()) {
+                Sheet sheet = workbook.getSheetAt(sheetIndex);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long key = in.readLong();
+                    CellValue value = read(in);
+                    int rowIndex = (int) (key >>> 16);
+                    int colIndex = (int) (key & 0xffff);
+                    applyCell(workbook, sheet, rowIndex, colIndex, value);
+                    if (changes != null) {
+                        changes.markCell(sheet.getSheetName(), rowIndex, colIndex);
+                    }
+                    applied++;
+                }
+            }
+        }
+        return applied;
+    }
+
+    private static void applyCell(Workbook workbook, Sheet sheet, int rowIndex, int colIndex, CellValue value) {
+        Row row = sheet.getRow(rowIndex);
+        if (value == null) {
+            if (row != null && row.getCell(colIndex) != null) {
+                row.removeCell(row.getCell(colIndex));
+            }
+            return;
+        }
+        if (row == null) {
+            row = sheet.createRow(rowIndex);
+        }
+        Cell cell = row.getCell(colIndex);
+        if (cell == null) {
+            cell = row.createCell(colIndex);
+        }
+        cell.setCellStyle(workbook.getCellStyleAt(value.style()));
+        switch (value.type()) {
+            case TYPE_NUMERIC -> cell.setCellValue(value.number());
+            case TYPE_STRING -> cell.setCellValue(value.text());
+            case TYPE_FORMULA -> cell.setCellFormula(value.text());
+            case TYPE_BOOLEAN -> cell.setCellValue(value.number() != 0);
+            case TYPE_ERROR -> cell.setCellErrorValue((byte) value.number());
+            default -> cell.setBlank();
+        }
+    }
+
+    private static CellValue valueOf(Cell cell) {
+        short style = cell.getCellStyle().getIndex();
+        return switch (cell.getCellType()) {
+            case NUMERIC -> new CellValue(TYPE_NUMERIC, style, cell.getNumericCellValue(), null);
+            case STRING -> new CellValue(TYPE_STRING, style, 0, cell.getStringCellValue());
+            case FORMULA -> new CellValue(TYPE_FORMULA, style, 0, cell.getCellFormula());
+            case BOOLEAN -> new CellValue(TYPE_BOOLEAN, style, cell.getBooleanCellValue() ? 1 : 0, null);
+            case ERROR -> new CellValue(TYPE_ERROR, style, cell.getErrorCellValue(), null);
+            default -> new CellValue(TYPE_BLANK, style, 0, null);
+        };
+    }
+
+    private static void write(DataOutputStream out, CellValue value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_REMOVED);
+            return;
+        }
+        out.writeByte(value.type());
+        out.writeShort(value.style());
+        switch (value.type()) {
+            case TYPE_NUMERIC, TYPE_BOOLEAN, TYPE_ERROR -> out.writeDouble(value.number());
+            case TYPE_STRING, TYPE_FORMULA -> {
+                byte[] text = value.text().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static CellValue read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == TYPE_REMOVED) {
+            return null;
+        }
+        short style = in.readShort();
+        return switch (type) {
+            case TYPE_NUMERIC, TYPE_BOOLEAN, TYPE_ERROR -> new CellValue(type, style, in.readDouble(), null);
+            case TYPE_STRING, TYPE_FORMULA -> {
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                yield new CellValue(type, style, 0, new String(text, StandardCharsets.UTF_8));
+            }
+            default -> new CellValue(type, style, 0, null);
+        };
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 16) | column;
+    }
+
+    /**
+     * 增量无法表达的部分的指纹
+     */
+    private static byte[] structure(Workbook workbook) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(workbook.getClass().getName())
+                .append('|').append(workbook.getNumCellStyles())
+                .append('|').append(workbook.getNumberOfFonts())
+                .append('|').append(workbook.getAllNames().size());
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            Sheet sheet = workbook.getSheetAt(i);
+            sb.append("\nsheet|").append(sheet.getSheetName())
+                    .append('|').append(workbook.isSheetHidden(i))
+                    .append('|').append(sheet.getDefaultRowHeight())
+                    .append('|').append(sheet.getDefaultColumnWidth())
+                    .append('|').append(sheet.getHyperlinkList().size())
+                    .append('|').append(sheet.getCellComments().size())
+                    .append('|').append(sheet.getDataValidations().size())
+                    .append('|').append(sheet.getSheetConditionalFormatting().getNumConditionalFormattings())
+                    .append('|').append(sheet.getPaneInformation() == null ? "" : sheet.getPaneInformation().getVerticalSplitPosition()
+                            + "," + sheet.getPaneInformation().getHorizontalSplitPosition());
+            for (CellRangeAddress region : sheet.getMergedRegions()) {
+                sb.append('|').append(region.formatAsString());
+            }
+            Drawing<?> drawing = sheet.getDrawingPatriarch();
+            if (drawing != null) {
+                int shapes = 0;
+                for (Object ignored : drawing) {
+                    shapes++;
+                }
+                sb.append("|drawing ").append(shapes);
+            }
+            int maxColumn = 0;
+            for (Row row : sheet) {
+                maxColumn = Math.max(maxColumn, row.getLastCellNum());
+                if (row.getHeight() != sheet.getDefaultRowHeight() || row.getZeroHeight() || row.getRowStyle() != null) {
+                    sb.append("|r").append(row.getRowNum()).append(':').append(row.getHeight())
+                            .append(':').append(row.getZeroHeight())
+                            .append(':').append(row.getRowStyle() == null ? -1 : row.getRowStyle().getIndex());
+                }
+            }
+            for (int column = 0; column < maxColumn; column++) {
+                sb.append("|c").append(sheet.getColumnWidth(column)).append(':').append(sheet.isColumnHidden(column));
+            }
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.aiexcel.service.storage;
+
+import com.example.aiexcel.model.ContentChunk;
+import com.example.aiexcel.repository.ContentChunkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 按内容寻址的版本内容存储
+ * 内容按内容切分成数据块，每块以SHA-256为键、deflate压缩后保存在content_chunks表中，并按引用它的版本数计数；
+ * 版本只保存数据块清单。相近的两个版本只需写入发生变化的数据块。
+ * .xlsx等ZIP包先改写成不压缩的ZIP（条目顺序和内容不变，时间戳统一）再切分，使XML在版本之间可以去重并得到压缩；
+ * 读取时重新压缩成普通的ZIP包，得到的文件与原文件内容等价，但字节不一定相同
+ */
+@Service
+public class ChunkStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+
+    private static final String MANIFEST_PREFIX = "cdc1";
+    private static final String LAYOUT_RAW = "raw";
+    private static final String LAYOUT_ZIP = "zip";
+
+    /**
+     * 改写ZIP包时统一使用的条目时间（DOS时间范围内），避免每次保存的时间戳使数据块无法去重
+     */
+    private static final long ZIP_ENTRY_TIME = 946684800000L;
+
+    /**
+     * 每条IN查询携带的哈希数上限
+     */
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    @Autowired
+    private ContentChunkRepository chunkRepository;
+
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+
+    /**
+     * 保存内容，返回数据块清单；已存在的数据块只增加引用计数
+     */
+    public String store(byte[] content) throws IOException {
+        String layout = LAYOUT_RAW;
+        byte[] normalized = content;
+        if (isZip(content)) {
+            try {
+                normalized = toStoredZip(content);
+                layout = LAYOUT_ZIP;
+            } catch (IOException e) {
+                logger.debug("Content is not a readable ZIP package, storing as-is: {}", e.getMessage());
+            }
+        }
+
+        int[] ends = ContentChunker.boundaries(normalized);
+        List<String> hashes = new ArrayList<>(ends.length);
+        Map<String, int[]> ranges = new LinkedHashMap<>();
+        int start = 0;
+        for (int end : ends) {
+            String hash = sha256(normalized, start, end - start);
+            hashes.add(hash);
+            ranges.putIfAbsent(hash, new int[]{start, end});
+            start = end;
+        }
+
+        // 先在锁外查出已有的数据块并压缩新的数据块
+        Set<String> known = findExisting(ranges.keySet());
+        Map<String, ContentChunk> created = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : ranges.entrySet()) {
+            if (!known.contains(entry.getKey())) {
+                int[] range = entry.getValue();
+                created.put(entry.getKey(), compress(entry.getKey(), normalized, range[0], range[1] - range[0]));
+            }
+        }
+
+        Set<String> existing;
+        synchronized (this) {
+            // 其他请求可能在此期间写入了相同的数据块，或删除了不再被引用的数据块
+            existing = findExisting(ranges.keySet());
+            for (Map.Entry<String, int[]> entry : ranges.entrySet()) {
+                String hash = entry.getKey();
+                if (existing.contains(hash)) {
+                    created.remove(hash);
+                } else if (!created.containsKey(hash)) {
+                    int[] range = entry.getValue();
+                    created.put(hash, compress(hash, normalized, range[0], range[1] - range[0]));
+                }
+            }
+            for (List<String> batch : batches(existing)) {
+                chunkRepository.addToRefCount(batch, 1);
+            }
+            if (!created.isEmpty()) {
+                chunkRepository.saveAll(created.values());
+            }
+        }
+        long written = 0;
+        long reused = 0;
+        for (ContentChunk chunk : created.values()) {
+            written += chunk.getStoredSize();
+        }
+        for (String hash : existing) {
+            int[] range = ranges.get(hash);
+            reused += range[1] - range[0];
+        }
+        logicalBytes.addAndGet(content.length);
+        writtenBytes.addAndGet(written);
+        deduplicatedBytes.addAndGet(reused);
+        logger.debug("Stored {} bytes as {} chunks ({} new, {} bytes written, {} bytes deduplicated)",
+                content.length, hashes.size(), created.size(), written, reused);
+
+        return MANIFEST_PREFIX + ":" + layout + ":" + normalized.length + ":" + String.join(",", hashes);
+    }
+
+    /**
+     * 按清单还原内容
+     */
+    public byte[] load(String manifest) throws IOException {
+        Manifest parsed = Manifest.parse(manifest);
+        Map<String, ContentChunk> chunks = new HashMap<>();
+        for (List<String> batch : batches(new LinkedHashSet<>(parsed.hashes))) {
+            for (ContentChunk chunk : chunkRepository.findAllById(batch)) {
+                chunks.put(chunk.getHash(), chunk);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(parsed.length);
+        for (String hash : parsed.hashes) {
+            ContentChunk chunk = chunks.get(hash);
+            if (chunk == null) {
+                throw new IOException("Missing content chunk " + hash);
+            }
+            out.write(decompress(chunk));
+        }
+        byte[] content = out.toByteArray();
+        if (content.length != parsed.length) {
+            throw new IOException("Restored content has " + content.length + " bytes, expected " + parsed.length);
+        }
+        return LAYOUT_ZIP.equals(parsed.layout) ? toDeflatedZip(content) : content;
+    }
+
+    /**
+     * 另一个版本引用同一份内容（如恢复版本时），增加引用计数
+     */
+    public synchronized void retain(String manifest) {
+        for (List<String> batch : batches(new LinkedHashSet<>(Manifest.parse(manifest).hashes))) {
+            chunkRepository.addToRefCount(batch, 1);
+        }
+    }
+
+    /**
+     * 版本被删除时减少引用计数，删除不再被引用的数据块
+     * @return 删除的数据块数
+     */
+    public synchronized int release(String manifest) {
+        int deleted = 0;
+        for (List<String> batch : batches(new LinkedHashSet<>(Manifest.parse(manifest).hashes))) {
+            chunkRepository.addToRefCount(batch, -1);
+            deleted += chunkRepository.deleteUnreferenced(batch);
+        }
+        return deleted;
+    }
+
+    /**
+     * 判断字符串是否为数据块清单（旧版本保存的是Base64内容）
+     */
+    public static boolean isManifest(String value) {
+        return value != null && value.startsWith(MANIFEST_PREFIX + ":");
+    }
+
+    /**
+     * 存储统计：数据块数、实际占用、写入与去重的字节数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        List<Object[]> summary = chunkRepository.summarize();
+        if (!summary.isEmpty()) {
+            Object[] row = summary.get(0);
+            stats.put("chunks", ((Number) row[0]).longValue());
+            stats.put("storedBytes", ((Number) row[1]).longValue());
+            stats.put("rawChunkBytes", ((Number) row[2]).longValue());
+        }
+        stats.put("logicalBytes", logicalBytes.get());
+        stats.put("writtenBytes", writtenBytes.get());
+        stats.put("deduplicatedBytes", deduplicatedBytes.get());
+        return stats;
+    }
+
+    private Set<String> findExisting(Collection<String> hashes) {
+        Set<String> existing = new HashSet<>();
+        for (List<String> batch : batches(hashes)) {
+            existing.addAll(chunkRepository.findExistingHashes(batch));
+        }
+        return existing;
+    }
+
+    private static List<List<String>> batches(Collection<String> hashes) {
+        List<String> all = new ArrayList<>(hashes);
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += QUERY_BATCH_SIZE) {
+            batches.add(all.subList(i, Math.min(all.size(), i + QUERY_BATCH_SIZE)));
+        }
+        return batches;
+    }
+
+    private static ContentChunk compress(String hash, byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[length + 64];
+            int size = 0;
+            while (!deflater.finished() && size < buffer.length) {
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            if (deflater.finished() && size < length) {
+                return new ContentChunk(hash, Arrays.copyOf(buffer, size), length, true);
+            }
+        } finally {
+            deflater.end();
+        }
+        // 无法压缩的数据（如图片）原样保存
+        return new ContentChunk(hash, Arrays.copyOfRange(data, offset, offset + length), length, false);
+    }
+
+    private static byte[] decompress(ContentChunk chunk) throws IOException {
+        if (!Boolean.TRUE.equals(chunk.getCompressed())) {
+            return chunk.getData();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(chunk.getData());
+            byte[] result = new byte[chunk.getRawSize()];
+            int size = 0;
+            while (size < result.length && !inflater.finished()) {
+                int n = inflater.inflate(result, size, result.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != result.length) {
+                throw new IOException("Corrupt content chunk " + chunk.getHash());
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt content chunk " + chunk.getHash(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String sha256(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, offset, length);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static boolean isZip(byte[] content) {
+        return content.length >= 4 && content[0] == 'P' && content[1] == 'K' && content[2] == 3 && content[3] == 4;
+    }
+
+    /**
+     * 把ZIP包改写成不压缩的ZIP，保留条目顺序和内容
+     */
+    private static byte[] toStoredZip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length * 4);
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(content));
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            ZipEntry entry;
+            int entries = 0;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] data = in.readAllBytes();
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ZipEntry stored = new ZipEntry(entry.getName());
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(data.length);
+                stored.setCompressedSize(data.length);
+                stored.setCrc(crc.getValue());
+                stored.setTime(ZIP_ENTRY_TIME);
+                zip.putNextEntry(stored);
+                zip.write(data);
+                zip.closeEntry();
+                entries++;
+            }
+            if (entries == 0) {
+                throw new IOException("ZIP package has no entries");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 把不压缩的ZIP重新压缩成普通的ZIP包
+     */
+    private static byte[] toDeflatedZip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, content.length / 4));
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(content));
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                ZipEntry deflated = new ZipEntry(entry.getName());
+                deflated.setTime(ZIP_ENTRY_TIME);
+                zip.putNextEntry(deflated);
+                in.transferTo(zip);
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 数据块清单：cdc1:布局:内容长度:哈希,哈希,...
+     */
+    private static class Manifest {
+        private final String layout;
+        private final int length;
+        private final List<String> hashes;
+
+        private Manifest(String layout, int length, List<String> hashes) {
+            this.layout = layout;
+            this.length = length;
+            this.hashes = hashes;
+        }
+
+        static Manifest parse(String manifest) {
+            String[] parts = manifest == null ? new String[0] : manifest.split(":", 4);
+            if (parts.length != 4 || !MANIFEST_PREFIX.equals(parts[0])) {
+                throw new IllegalArgumentException("Not a chunk manifest");
+            }
+            List<String> hashes = parts[3].isEmpty() ? List.of() : List.of(parts[3].split(","));
+            return new Manifest(parts[1], Integer.parseInt(parts[2]), hashes);
+        }
+    }
+}
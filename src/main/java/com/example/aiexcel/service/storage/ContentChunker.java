@@ -0,0 +1,81 @@
+package com.example.aiexcel.service.storage;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * 按内容切分数据块（FastCDC）
+ * 用Gear滚动哈希寻找切分点，切分点只取决于附近的内容：在文件中间插入或删除内容时，只有附近的数据块会变化，
+ * 其余数据块与旧版本相同，可以去重。未到平均大小前使用更严格的掩码，使块大小集中在平均值附近
+ */
+public final class ContentChunker {
+
+    public static final int MIN_SIZE = 2 * 1024;
+    public static final int AVERAGE_SIZE = 8 * 1024;
+    public static final int MAX_SIZE = 64 * 1024;
+
+    /**
+     * 掩码取哈希的高位：Gear哈希每步左移一位，高位综合了最近64个字节的内容
+     */
+    private static final long MASK_STRICT = highBits(15);
+    private static final long MASK_LOOSE = highBits(11);
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // 固定种子，保证不同进程、不同版本之间的切分点一致
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private ContentChunker() {
+    }
+
+    /**
+     * 计算各数据块的结束位置（不含），最后一个元素等于内容长度；空内容返回空数组
+     */
+    public static int[] boundaries(byte[] data) {
+        int[] ends = new int[Math.max(4, data.length / AVERAGE_SIZE + 1)];
+        int count = 0;
+        int start = 0;
+        while (start < data.length) {
+            int end = nextBoundary(data, start);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[count++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    private static int nextBoundary(byte[] data, int start) {
+        int remaining = data.length - start;
+        if (remaining <= MIN_SIZE) {
+            return data.length;
+        }
+        int normal = start + Math.min(AVERAGE_SIZE, remaining);
+        int limit = start + Math.min(MAX_SIZE, remaining);
+        long hash = 0;
+        int i = start + MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_STRICT) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LOOSE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private static long highBits(int bits) {
+        return -1L << (64 - bits);
+    }
+}
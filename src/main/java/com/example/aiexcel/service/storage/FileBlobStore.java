@@ -0,0 +1,195 @@
+package com.example.aiexcel.service.storage;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按内容寻址的文件存储
+ * 文件以内容的SHA-256命名，按哈希前两级分目录保存在存储根目录下（ab/cd/abcd...），相同内容只保存一份。
+ * 写入时先流式写到临时目录并计算哈希，再原子地移动到最终位置，读者不会看到写了一半的文件。
+ * 提交和删除在本对象上同步；调用方需要把"提交+登记引用"、"删除引用+删除文件"各自放在同一个同步块中，
+ * 避免刚提交的文件被并发的删除清理掉
+ */
+@Service
+public class FileBlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBlobStore.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_DIR = "tmp";
+
+    @Value("${workspace.storage.root:data/workspace-files}")
+    private String rootDirectory;
+
+    private Path root;
+    private Path tempDirectory;
+
+    private final AtomicLong writtenFiles = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong deduplicatedFiles = new AtomicLong();
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+    private final AtomicLong deletedFiles = new AtomicLong();
+
+    /**
+     * 已写入临时文件、尚未提交的内容
+     */
+    public static final class StagedBlob {
+        private final Path tempFile;
+        private final String hash;
+        private final long size;
+
+        private StagedBlob(Path tempFile, String hash, long size) {
+            this.tempFile = tempFile;
+            this.hash = hash;
+            this.size = size;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(rootDirectory).toAbsolutePath().normalize();
+        tempDirectory = root.resolve(TEMP_DIR);
+        Files.createDirectories(tempDirectory);
+        // 上次进程退出时未提交的临时文件
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(tempDirectory)) {
+            for (Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+        logger.info("Workspace file store at {}", root);
+    }
+
+    /**
+     * 把内容写入临时文件并计算哈希，不占用与文件大小成正比的内存
+     */
+    public StagedBlob stage(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        Path tempFile = Files.createTempFile(tempDirectory, "upload-", ".tmp");
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                size += read;
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return new StagedBlob(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+    }
+
+    /**
+     * 把临时文件移动到按哈希确定的位置；相同内容已存在时丢弃临时文件
+     * @return 内容哈希
+     */
+    public synchronized String commit(StagedBlob staged) throws IOException {
+        Path target = resolve(staged.hash);
+        if (Files.exists(target)) {
+            Files.deleteIfExists(staged.tempFile);
+            deduplicatedFiles.incrementAndGet();
+            deduplicatedBytes.addAndGet(staged.size);
+            return staged.hash;
+        }
+        Files.createDirectories(target.getParent());
+        Files.move(staged.tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        writtenFiles.incrementAndGet();
+        writtenBytes.addAndGet(staged.size);
+        return staged.hash;
+    }
+
+    /**
+     * 放弃未提交的内容
+     */
+    public void discard(StagedBlob staged) {
+        try {
+            Files.deleteIfExists(staged.tempFile);
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged upload {}: {}", staged.tempFile, e.getMessage());
+        }
+    }
+
+    /**
+     * 删除内容，调用方需确认已没有引用
+     */
+    public synchronized boolean delete(String hash) throws IOException {
+        boolean deleted = Files.deleteIfExists(resolve(hash));
+        if (deleted) {
+            deletedFiles.incrementAndGet();
+        }
+        return deleted;
+    }
+
+    /**
+     * 内容在磁盘上的位置
+     */
+    public Path resolve(String hash) {
+        return root.resolve(relativePath(hash));
+    }
+
+    /**
+     * 相对存储根目录的路径，用于记录在文件元数据中
+     */
+    public String relativePath(String hash) {
+        if (hash == null || hash.length() != 64 || !hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        }
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    /**
+     * 本进程启动以来的写入与去重统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("root", root.toString());
+        stats.put("writtenFiles", writtenFiles.get());
+        stats.put("writtenBytes", writtenBytes.get());
+        stats.put("deduplicatedFiles", deduplicatedFiles.get());
+        stats.put("deduplicatedBytes", deduplicatedBytes.get());
+        stats.put("deletedFiles", deletedFiles.get());
+        return stats;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.example.aiexcel.service.FileManagerService;
 import java.util.List;
 import java.util.Map;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -19,6 +21,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @SuppressWarnings("unused")
 public class ExcelWebSocketHandler {
 
+    private static final Logger logger = LoggerFactory.getLogger(ExcelWebSocketHandler.class);
+
     private static AiExcelIntegrationService aiExcelIntegrationService;
     private static FileManagerService fileManagerService;
     
@@ -124,6 +128,9 @@ public class ExcelWebSocketHandler {
             } else if ("analyze_data".equals(messageType)) {
                 // 处理数据分析
                 handleDataAnalysis(excelData, command);
+            } else if ("chat_stream".equals(messageType)) {
+                // 流式AI聊天
+                handleChatStream(request.getMessage());
             }
             
         } catch (Exception e) {
@@ -180,6 +187,42 @@ public class ExcelWebSocketHandler {
         }
     }
 
+    /**
+     * 流式AI聊天：每收到一个片段就推送一条ai_chunk消息，结束时推送包含完整回答的ai_done
+     * 片段在AI流线程上同步发送，客户端接收变慢时上游读取也随之放慢
+     */
+    private void handleChatStream(String userMessage) throws IOException {
+        if (userMessage == null || userMessage.trim().isEmpty()) {
+            sendMessage(toJson("error", "Message is required"));
+            return;
+        }
+        if (aiExcelIntegrationService == null) {
+            sendMessage(toJson("error", "AI service is not available"));
+            return;
+        }
+
+        aiExcelIntegrationService.streamChatWithAI(userMessage, token -> sendMessage(toJson("ai_chunk", token)))
+                .whenComplete((aiResponse, error) -> {
+                    try {
+                        if (error == null) {
+                            sendMessage(toJson("ai_done", aiResponse));
+                        } else {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            sendMessage(toJson("error", "Error processing AI chat: " + cause.getMessage()));
+                        }
+                    } catch (IOException e) {
+                        logger.warn("推送AI流式结果失败: clientId={}", clientId, e);
+                    }
+                });
+    }
+
+    private static String toJson(String type, String message) throws IOException {
+        WebSocketMessage response = new WebSocketMessage();
+        response.setType(type);
+        response.setMessage(message);
+        return new ObjectMapper().writeValueAsString(response);
+    }
+
     @OnError
     public void onError(Session session, Throwable error) {
         System.out.println("发生错误");
@@ -188,8 +231,9 @@ public class ExcelWebSocketHandler {
 
     /**
      * 实现服务器主动推送
+     * 流式聊天的片段在其他线程上发送，同一会话的发送需要串行
      */
-    public void sendMessage(String message) throws IOException {
+    public synchronized void sendMessage(String message) throws IOException {
         this.session.getBasicRemote().sendText(message);
     }
 
@@ -0,0 +1,154 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiResponseCache;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
+import com.example.aiexcel.service.ai.impl.CachingAiService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI响应缓存测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行
+ */
+public class AiResponseCacheTest {
+
+    @Test
+    public void testDeterministicRequestsAreServedFromCache() {
+        CountingAiService upstream = new CountingAiService();
+        AiResponseCache cache = new AiResponseCache(1 << 20, 60, 0.0);
+        AiService service = new CachingAiService(upstream, cache);
+
+        AiResponse first = service.generateResponse(request(0.0, "分析这份报表"));
+        // 换行符和首尾空白不同的相同提示词命中同一缓存项
+        AiResponse second = service.generateResponse(request(0.0, "分析这份报表\r\n  "));
+        AiResponse async = service.generateResponseAsync(request(0.0, "分析这份报表")).join();
+        assertEquals(1, upstream.calls.get());
+        assertEquals(first.getChoices()[0].getMessage().getContent(), second.getChoices()[0].getMessage().getContent());
+        assertEquals(first.getChoices()[0].getMessage().getContent(), async.getChoices()[0].getMessage().getContent());
+        assertNotSame(second, async);
+
+        List<String> tokens = new ArrayList<>();
+        service.streamResponse(request(0.0, "分析这份报表"), tokens::add).join();
+        assertEquals(List.of("answer 1"), tokens);
+        assertEquals(1, upstream.calls.get());
+
+        // 温度未指定或高于阈值的请求不缓存
+        service.generateResponse(request(null, "分析这份报表"));
+        service.generateResponse(request(0.7, "分析这份报表"));
+        service.generateResponse(request(0.7, "分析这份报表"));
+        assertEquals(4, upstream.calls.get());
+        // 内容不同的请求不命中
+        service.generateResponse(request(0.0, "分析另一份报表"));
+        assertEquals(5, upstream.calls.get());
+
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(3L, cache.getStats().get("bypassed"));
+    }
+
+    @Test
+    public void testRequestsMarkedCacheableKeepTheirSamplingSettings() {
+        CountingAiService upstream = new CountingAiService();
+        AiResponseCache cache = new AiResponseCache(1 << 20, 60, 0.0);
+        AiService service = new CachingAiService(upstream, cache);
+
+        // 标记为可缓存的请求不需要把温度降到0，未指定或较高的温度都能命中
+        AiRequest defaultTemperature = request(null, "分析这份报表");
+        defaultTemperature.setCacheable(true);
+        AiRequest highTemperature = request(0.7, "分析这份报表");
+        highTemperature.setCacheable(true);
+        service.generateResponse(defaultTemperature);
+        service.generateResponse(defaultTemperature);
+        service.generateResponse(highTemperature);
+        service.generateResponse(highTemperature);
+        assertEquals(2, upstream.calls.get());
+        assertEquals(2, cache.getHits());
+        assertNull(defaultTemperature.getTemperature());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenOverBudget() {
+        // 每项约256 + 2 * 1000字节，预算只够两项
+        AiResponseCache cache = new AiResponseCache(5000, 60, 0.0);
+        String content = "x".repeat(1000);
+        String a = cache.keyOf(request(0.0, "a"));
+        String b = cache.keyOf(request(0.0, "b"));
+        String c = cache.keyOf(request(0.0, "c"));
+        cache.put(a, new AiResponse(content), 10);
+        cache.put(b, new AiResponse(content), 10);
+        assertNotNull(cache.get(a));
+        cache.put(c, new AiResponse(content), 10);
+
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(1L, cache.getStats().get("evictions"));
+        assertEquals(30L, cache.getStats().get("savedTimeMs"));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkCacheHit() {
+        AiResponseCache cache = new AiResponseCache(64 << 20, 60, 0.0);
+        AiService service = new CachingAiService(new CountingAiService(), cache);
+        // 与分析接口相近的提示词大小
+        AiRequest request = request(0.0, "Sheet1\tA\tB\tC\n".repeat(2000));
+        service.generateResponse(request);
+
+        int rounds = 20_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            service.generateResponse(request);
+        }
+        long nanos = (System.nanoTime() - start) / rounds;
+        System.out.printf("prompt=%d chars  cache hit=%.1f us%n",
+                request.getMessages().get(0).getContent().length(), nanos / 1000.0);
+        assertEquals(rounds, cache.getHits());
+    }
+
+    private AiRequest request(Double temperature, String prompt) {
+        AiRequest request = new AiRequest();
+        request.setTemperature(temperature);
+        request.setMessages(List.of(new AiRequest.Message("user", prompt)));
+        return request;
+    }
+
+    private static class CountingAiService implements AiService {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public AiResponse generateResponse(AiRequest request) {
+            return new AiResponse("answer " + calls.incrementAndGet());
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+            return CompletableFuture.completedFuture(generateResponse(request));
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request) {
+            return generateResponse(request);
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener) {
+            return generateResponseAsync(request);
+        }
+
+        @Override
+        public Integer testConnection() {
+            return 200;
+        }
+    }
+}
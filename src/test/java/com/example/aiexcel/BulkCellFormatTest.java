@@ -0,0 +1,221 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.ExcelPreviewService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 批量单元格格式的紧凑编码测试：样式表加游程编码，gzip压缩返回，解码后与原格式一致
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=1000 指定行数
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class BulkCellFormatTest {
+
+    private static final String RANGE = "{\"range\":{\"startRow\":0,\"startCol\":0,\"endRow\":80,\"endCol\":12}}";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ExcelPreviewService excelPreviewService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    public void testCompactEncodingMatchesFullFormat() throws Exception {
+        String handle = upload(createWorkbook(60, 10));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<FullFormat> full = restTemplate.postForEntity("/api/excel/bulk-cell-format?handle=" + handle,
+                new HttpEntity<>(RANGE, headers), FullFormat.class);
+        assertEquals(HttpStatus.OK, full.getStatusCode());
+        Map<String, Map<String, Object>> formatData = full.getBody().formatData();
+
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + "/api/excel/bulk-cell-format?encoding=compact&handle=" + handle))
+                .header("Content-Type", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofString(RANGE))
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        CompactFormat compact;
+        try (GZIPInputStream in = new GZIPInputStream(new java.io.ByteArrayInputStream(response.body()))) {
+            compact = objectMapper.readValue(in, CompactFormat.class);
+        }
+        assertEquals(true, compact.success());
+
+        // 表头、百分比列、文本列、空单元格、末尾空白列
+        List<Map<String, Object>> styles = compact.styles();
+        assertTrue(styles.size() <= 6, "styles: " + styles.size());
+        List<List<Integer>> styleRuns = compact.styleRuns();
+        List<List<String>> values = compact.values();
+        assertEquals(60, styleRuns.size());
+
+        Map<String, Map<String, Object>> decoded = new HashMap<>();
+        for (int r = 0; r < styleRuns.size(); r++) {
+            List<Integer> runs = styleRuns.get(r);
+            int col = 0;
+            for (int i = 0; i < runs.size(); i += 2) {
+                for (int n = 0; n < runs.get(i + 1); n++, col++) {
+                    Map<String, Object> cell = new HashMap<>(styles.get(runs.get(i)));
+                    cell.put("value", values.get(r).get(col));
+                    decoded.put(r + "_" + col, cell);
+                }
+            }
+            assertEquals(values.get(r).size(), col);
+        }
+        assertEquals(formatData, decoded);
+
+        // q=0表示不接受gzip，返回未压缩的JSON
+        HttpResponse<byte[]> identity = HttpClient.newHttpClient().send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + "/api/excel/bulk-cell-format?encoding=compact&handle=" + handle))
+                .header("Content-Type", "application/json")
+                .header("Accept-Encoding", "gzip;q=0, identity")
+                .POST(HttpRequest.BodyPublishers.ofString(RANGE))
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, identity.statusCode());
+        assertTrue(identity.headers().firstValue("Content-Encoding").isEmpty());
+        assertEquals(compact, objectMapper.readValue(identity.body(), CompactFormat.class));
+
+        restTemplate.delete("/api/workbooks/" + handle);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkCompactEncoding() throws Exception {
+        int rows = Integer.parseInt(System.getProperty("benchmark.rows", "1000"));
+        int columns = 50;
+        MockMultipartFile file = new MockMultipartFile("file", "bulk.xlsx", null, createWorkbook(rows, columns));
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            Map<String, Object> full = excelPreviewService.getBulkCellFormat(file, 0, 0, rows - 1, columns - 1);
+            long buildFull = System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] fullJson = objectMapper.writeValueAsBytes(full);
+            long writeFull = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Map<String, Object> compact = excelPreviewService.getBulkCellFormatCompact(file, 0, 0, rows - 1, columns - 1);
+            long buildCompact = System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] compactJson = objectMapper.writeValueAsBytes(compact);
+            long writeCompact = System.nanoTime() - start;
+            start = System.nanoTime();
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+                objectMapper.writeValue(gzip, compact);
+            }
+            long writeGzip = System.nanoTime() - start;
+
+            System.out.printf("cells=%d run %d%n", rows * columns, run + 1);
+            System.out.printf("  full     build %d ms, serialize %d ms, %d KB%n",
+                    buildFull / 1_000_000, writeFull / 1_000_000, fullJson.length >> 10);
+            System.out.printf("  compact  build %d ms, serialize %d ms, %d KB, gzip %d ms, %d KB (%d styles)%n",
+                    buildCompact / 1_000_000, writeCompact / 1_000_000, compactJson.length >> 10,
+                    writeGzip / 1_000_000, gzipped.size() >> 10, ((List<?>) compact.get("styles")).size());
+        }
+    }
+
+    /**
+     * 完整格式的响应
+     */
+    private record FullFormat(Map<String, Map<String, Object>> formatData) {
+    }
+
+    /**
+     * 紧凑编码的响应
+     */
+    private record CompactFormat(Boolean success, List<Map<String, Object>> styles,
+                                 List<List<Integer>> styleRuns, List<List<String>> values) {
+    }
+
+    private String upload(byte[] content) {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "bulk.xlsx";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        ResponseEntity<Map> upload = restTemplate.postForEntity("/api/workbooks",
+                new HttpEntity<>(form, headers), Map.class);
+        assertEquals(HttpStatus.OK, upload.getStatusCode());
+        return (String) upload.getBody().get("handle");
+    }
+
+    /**
+     * 加粗表头，第二列为百分比，其余为文本；每十行缺少最后一列
+     */
+    private static byte[] createWorkbook(int rows, int columns) throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Data");
+            CellStyle header = workbook.createCellStyle();
+            Font bold = workbook.createFont();
+            bold.setBold(true);
+            header.setFont(bold);
+            header.setAlignment(HorizontalAlignment.CENTER);
+            CellStyle percent = workbook.createCellStyle();
+            percent.setDataFormat(workbook.createDataFormat().getFormat("0.0%"));
+            Row headerRow = sheet.createRow(0);
+            for (int c = 0; c < columns; c++) {
+                Cell cell = headerRow.createCell(c);
+                cell.setCellValue("Column " + c);
+                cell.setCellStyle(header);
+            }
+            for (int r = 1; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                int width = r % 10 == 0 ? columns - 1 : columns;
+                for (int c = 0; c < width; c++) {
+                    if (c == 1) {
+                        Cell cell = row.createCell(c);
+                        cell.setCellValue(r / 100.0);
+                        cell.setCellStyle(percent);
+                    } else if (c != 3 || r % 4 != 0) {
+                        row.createCell(c).setCellValue("r" + r + "c" + c);
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        }
+    }
+}
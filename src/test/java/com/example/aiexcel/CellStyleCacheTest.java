@@ -0,0 +1,144 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.FormatOptions;
+import com.example.aiexcel.service.ExcelFormatService;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 样式驻留测试：范围格式化按不同外观创建样式，而不是按单元格
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.cells=100000 指定单元格数
+ */
+public class CellStyleCacheTest {
+
+    @Test
+    public void testRangeFormattingSharesStylesAndKeepsBaseFormat() throws Exception {
+        try (Workbook workbook = createWorkbook(200, 50)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            int stylesBefore = workbook.getNumCellStyles();
+            int fontsBefore = workbook.getNumberOfFonts();
+
+            new ExcelFormatService().formatRange(sheet, 0, 0, 199, 59, options());
+
+            // 原有样式：默认、百分比、日期，各叠加一次
+            assertEquals(stylesBefore + 3, workbook.getNumCellStyles());
+            assertEquals(fontsBefore + 1, workbook.getNumberOfFonts());
+            Cell percent = sheet.getRow(1).getCell(3);
+            Cell date = sheet.getRow(2).getCell(3);
+            Cell empty = sheet.getRow(0).getCell(55);
+            assertEquals("0.00%", percent.getCellStyle().getDataFormatString());
+            assertEquals("yyyy-mm-dd", date.getCellStyle().getDataFormatString());
+            for (Cell cell : new Cell[]{percent, date, empty}) {
+                assertEquals(HorizontalAlignment.CENTER, cell.getCellStyle().getAlignment());
+                assertTrue(workbook.getFontAt(cell.getCellStyle().getFontIndex()).getBold());
+            }
+            assertNotEquals(percent.getCellStyle().getIndex(), date.getCellStyle().getIndex());
+            assertEquals(percent.getCellStyle().getIndex(), sheet.getRow(4).getCell(0).getCellStyle().getIndex());
+
+            // 再次格式化时复用已有的粗体字体
+            new ExcelFormatService().formatRange(sheet, 0, 0, 9, 9, options());
+            assertEquals(fontsBefore + 1, workbook.getNumberOfFonts());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkAgainstStylePerCell() throws Exception {
+        int cells = Integer.parseInt(System.getProperty("benchmark.cells", "100000"));
+        int columns = 100;
+        int rows = cells / columns;
+        for (int run = 0; run < 3; run++) {
+            System.out.printf("cells=%d run %d%n", rows * columns, run + 1);
+            try (Workbook workbook = createWorkbook(rows, columns)) {
+                long start = System.nanoTime();
+                String outcome;
+                try {
+                    stylePerCell(workbook.getSheetAt(0), rows, columns, options());
+                    outcome = "ok";
+                } catch (IllegalStateException e) {
+                    // xlsx样式数量有上限
+                    outcome = e.getMessage();
+                }
+                long formatMillis = (System.nanoTime() - start) / 1_000_000;
+                report("  style per cell ", workbook, formatMillis, outcome);
+            }
+            try (Workbook workbook = createWorkbook(rows, columns)) {
+                long start = System.nanoTime();
+                new ExcelFormatService().formatRange(workbook.getSheetAt(0), 0, 0, rows - 1, columns - 1, options());
+                long formatMillis = (System.nanoTime() - start) / 1_000_000;
+                report("  interned styles", workbook, formatMillis, "ok");
+            }
+        }
+    }
+
+    /**
+     * 对照实现：原先的做法，每个单元格新建一个样式和一个字体
+     */
+    private static void stylePerCell(Sheet sheet, int rows, int columns, FormatOptions options) {
+        Workbook workbook = sheet.getWorkbook();
+        for (int r = 0; r < rows; r++) {
+            Row row = sheet.getRow(r);
+            for (int c = 0; c < columns; c++) {
+                Cell cell = row.getCell(c);
+                if (cell == null) {
+                    cell = row.createCell(c);
+                }
+                CellStyle style = workbook.createCellStyle();
+                style.cloneStyleFrom(cell.getCellStyle());
+                Font font = workbook.createFont();
+                font.setBold(options.getBold());
+                style.setFont(font);
+                style.setAlignment(HorizontalAlignment.CENTER);
+                cell.setCellStyle(style);
+            }
+        }
+    }
+
+    private static void report(String label, Workbook workbook, long formatMillis, String outcome) throws Exception {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        long saveMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%s format %d ms, save %d ms, %d KB, %d styles, %d fonts (%s)%n", label, formatMillis,
+                saveMillis, out.size() >> 10, workbook.getNumCellStyles(), workbook.getNumberOfFonts(), outcome);
+    }
+
+    private static FormatOptions options() {
+        FormatOptions options = new FormatOptions();
+        options.setBold(true);
+        options.setHorizontalAlignment("center");
+        return options;
+    }
+
+    /**
+     * 数值表格，每隔三行分别使用百分比和日期格式
+     */
+    private static Workbook createWorkbook(int rows, int columns) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        DataFormat format = workbook.createDataFormat();
+        CellStyle percent = workbook.createCellStyle();
+        percent.setDataFormat(format.getFormat("0.00%"));
+        CellStyle date = workbook.createCellStyle();
+        date.setDataFormat(format.getFormat("yyyy-mm-dd"));
+        for (int r = 0; r < rows; r++) {
+            Row row = sheet.createRow(r);
+            for (int c = 0; c < columns; c++) {
+                Cell cell = row.createCell(c);
+                cell.setCellValue(r * columns + c);
+                if (r % 3 == 1) {
+                    cell.setCellStyle(percent);
+                } else if (r % 3 == 2) {
+                    cell.setCellStyle(date);
+                }
+            }
+        }
+        return workbook;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.AiStreamListener;
+import com.example.aiexcel.service.ai.impl.CoalescingAiService;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 并发相同AI请求合并测试
+ */
+public class CoalescingAiServiceTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneUpstreamCall() throws Exception {
+        BlockingAiService upstream = new BlockingAiService();
+        CoalescingAiService service = new CoalescingAiService(upstream, CoalescingAiService.KeyStrategy.FULL);
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<AiResponse>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                // 一半走同步接口，一半走异步接口
+                boolean async = i % 2 == 1;
+                results.add(callers.submit(() -> async
+                        ? service.generateResponseAsync(request(0.0)).join()
+                        : service.generateResponse(request(0.0))));
+            }
+            awaitCoalesced(service, CALLERS - 1);
+            upstream.release.countDown();
+
+            for (Future<AiResponse> result : results) {
+                assertEquals("answer 1", result.get(5, TimeUnit.SECONDS).getChoices()[0].getMessage().getContent());
+            }
+            assertEquals(1, upstream.calls.get());
+            assertEquals(1, service.getUpstreamCalls());
+            assertEquals(CALLERS - 1, service.getCoalesced());
+            assertEquals(0, service.getStats().get("inFlight"));
+
+            // 上一次请求完成后不再合并
+            service.generateResponse(request(0.0));
+            assertEquals(2, upstream.calls.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testKeyStrategyAndFailurePropagation() throws Exception {
+        BlockingAiService upstream = new BlockingAiService();
+        upstream.failure = new RuntimeException("upstream unavailable");
+        CoalescingAiService service = new CoalescingAiService(upstream, CoalescingAiService.KeyStrategy.MESSAGES);
+
+        // MESSAGES策略下温度不同的请求也会合并
+        CompletableFuture<AiResponse> first = service.generateResponseAsync(request(0.0));
+        CompletableFuture<AiResponse> second = service.generateResponseAsync(request(0.7));
+        assertEquals(1, service.getCoalesced());
+        upstream.release.countDown();
+
+        Exception error = assertThrows(Exception.class, second::join);
+        assertEquals("upstream unavailable", error.getCause().getMessage());
+        assertThrows(Exception.class, first::join);
+        assertEquals(1, upstream.calls.get());
+    }
+
+    private void awaitCoalesced(CoalescingAiService service, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getCoalesced() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private AiRequest request(double temperature) {
+        AiRequest request = new AiRequest();
+        request.setTemperature(temperature);
+        request.setMessages(List.of(new AiRequest.Message("user", "suggest charts for Sheet1")));
+        return request;
+    }
+
+    /**
+     * 在release之前阻塞的上游服务
+     */
+    private static class BlockingAiService implements AiService {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        @Override
+        public AiResponse generateResponse(AiRequest request) {
+            return generateResponseAsync(request).join();
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+            int call = calls.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return new AiResponse("answer " + call);
+            });
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request) {
+            return generateResponse(request);
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> streamResponse(AiRequest request, AiStreamListener listener) {
+            return generateResponseAsync(request);
+        }
+
+        @Override
+        public Integer testConnection() {
+            return 200;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.ColumnarTable;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 列式表格测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=100000 -Dbenchmark.columns=10 指定规模
+ */
+public class ColumnarTableTest {
+
+    @Test
+    public void testBuilderEncodesColumnsByType() {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Sales", true);
+        builder.addRow(new Object[]{"Region", "Amount", "Date", null});
+        builder.addRow(new Object[]{"North", 10.0, new Date(1000L), true});
+        builder.addRow(new Object[]{"South", null, null});
+        builder.addRow(new Object[]{"North", 30.0, null, false});
+        ColumnarTable table = builder.build();
+
+        assertEquals(3, table.getRowCount());
+        assertEquals(4, table.getColumnCount());
+        assertEquals("D", table.getColumn(3).getName());
+
+        ColumnarTable.Column region = table.getColumn(" region ");
+        assertEquals(ColumnarTable.ValueType.TEXT, region.getType());
+        assertEquals(2, region.getDistinctCount());
+        assertEquals(region.getCode(0), region.getCode(2));
+        assertEquals("South", region.getString(1));
+
+        ColumnarTable.Column amount = table.getColumn("Amount");
+        assertEquals(ColumnarTable.ValueType.NUMBER, amount.getType());
+        assertTrue(amount.isNull(1));
+        assertTrue(Double.isNaN(amount.getDouble(1)));
+        ColumnarTable.NumericSummary summary = amount.summarize();
+        assertEquals(2, summary.getCount());
+        assertEquals(40.0, summary.getSum());
+        assertEquals(20.0, summary.getMean());
+
+        assertEquals(new Date(1000L), table.getColumn("Date").getValue(0));
+        assertEquals(Boolean.FALSE, table.getColumn(3).getValue(2));
+        assertEquals(3, table.countCells(ColumnarTable.ValueType.TEXT));
+
+        StringBuilder text = new StringBuilder();
+        table.appendText(text, false);
+        assertTrue(text.toString().startsWith("Sheet: Sales\nNorth\t10.0\t"));
+    }
+
+    @Test
+    public void testFromSheetCountsFormulasAndBlanks() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Data");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("a");
+            row.createCell(1).setCellValue(2);
+            row.createCell(2).setCellFormula("B1*2");
+            row.createCell(3);
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            sheet.createRow(2).createCell(1).setCellValue(5);
+
+            ColumnarTable table = ColumnarTable.fromSheet(sheet, false);
+
+            assertEquals(2, table.getRowCount());
+            assertEquals(1, table.countFormulaCells());
+            assertEquals(1, table.countFormulaResults(ColumnarTable.ValueType.NUMBER));
+            assertEquals(3, table.countCells(ColumnarTable.ValueType.NUMBER));
+            assertEquals(1, table.countBlankCells());
+            assertEquals(4.0, table.getColumn(2).getDouble(0));
+            assertTrue(table.getColumn(0).isNull(1));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkColumnarVersusBoxedRows() {
+        int rowCount = Integer.parseInt(System.getProperty("benchmark.rows", "100000"));
+        int columnCount = Integer.parseInt(System.getProperty("benchmark.columns", "10"));
+        System.out.printf("rows=%d columns=%d cells=%d%n", rowCount, columnCount, (long) rowCount * columnCount);
+
+        long before = usedMemory();
+        Object[][] rows = new Object[rowCount][];
+        for (int r = 0; r < rowCount; r++) {
+            rows[r] = createRow(r, columnCount);
+        }
+        long boxedBytes = usedMemory() - before;
+
+        before = usedMemory();
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Data", false);
+        for (int r = 0; r < rowCount; r++) {
+            builder.addRow(createRow(r, columnCount));
+        }
+        ColumnarTable table = builder.build();
+        long columnarBytes = usedMemory() - before;
+
+        System.out.printf("  Object[][]     measured=%d MB  per cell=%.1f B%n",
+                boxedBytes >> 20, (double) boxedBytes / ((long) rowCount * columnCount));
+        System.out.printf("  ColumnarTable  measured=%d MB  per cell=%.1f B  estimated=%d MB%n",
+                columnarBytes >> 20, (double) columnarBytes / ((long) rowCount * columnCount),
+                table.getEstimatedBytes() >> 20);
+
+        double boxedSum = 0;
+        double columnarSum = 0;
+        long boxedNanos = Long.MAX_VALUE;
+        long columnarNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            boxedSum = 0;
+            for (Object[] row : rows) {
+                for (Object value : row) {
+                    if (value instanceof Double) {
+                        boxedSum += (Double) value;
+                    }
+                }
+            }
+            boxedNanos = Math.min(boxedNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            columnarSum = 0;
+            for (ColumnarTable.Column column : table.getColumns()) {
+                if (column.getType() == ColumnarTable.ValueType.NUMBER) {
+                    columnarSum += column.summarize().getSum();
+                }
+            }
+            columnarNanos = Math.min(columnarNanos, System.nanoTime() - start);
+        }
+        assertEquals(boxedSum, columnarSum, Math.abs(boxedSum) * 1e-9);
+        System.out.printf("  numeric scan   Object[][]=%d us  ColumnarTable=%d us%n",
+                boxedNanos / 1000, columnarNanos / 1000);
+        assertNotNull(rows[rowCount - 1]);
+    }
+
+    /**
+     * 偶数列为数值，奇数列为取值有限的文本（类似地区、类别等维度列）
+     */
+    private Object[] createRow(int r, int columnCount) {
+        Object[] values = new Object[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            values[c] = c % 2 == 0 ? (double) (r * 31 + c) : new String("category" + (r + c) % 50);
+        }
+        return values;
+    }
+
+    private long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
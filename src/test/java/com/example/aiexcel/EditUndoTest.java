@@ -0,0 +1,85 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.command.EditRecorder;
+import com.example.aiexcel.service.command.RecordedEdit;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.formula.FormulaCompiler;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 命令日志撤销/重做测试
+ */
+public class EditUndoTest {
+
+    @Test
+    public void testUndoAndRedoRestoreCellAndStructuralEdits() throws Exception {
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        AiExcelCommandParser parser = new AiExcelCommandParser(excelService, new FormulaCompiler());
+        try (Workbook workbook = createWorkbook(30)) {
+            List<String> original = snapshot(workbook);
+
+            EditRecorder recorder = new EditRecorder();
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook,
+                    "[SET_CELL:B2:100] [INSERT_ROW:1:x,10] [DELETE_ROW:4] [APPLY_FORMULA:A1:SUM(B1:B3)] "
+                            + "[SET_CELL:B2:200] [DELETE_COLUMN:0] [INSERT_COLUMN:1:h1,h2] [SET_CELL:A40:tail]",
+                    new WorkbookChangeSet(), recorder);
+            assertTrue(results.stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+            RecordedEdit edit = recorder.finish();
+            assertEquals(6, edit.size());
+            List<String> edited = snapshot(workbook);
+            assertNotEquals(original, edited);
+
+            edit.undo(workbook, excelService, new WorkbookChangeSet());
+            assertEquals(original, snapshot(workbook));
+
+            edit.redo(workbook, excelService, new WorkbookChangeSet());
+            assertEquals(edited, snapshot(workbook));
+        }
+    }
+
+    /**
+     * 所有单元格的内容（公式单元格取公式文本）和合并区域
+     */
+    private List<String> snapshot(Workbook workbook) {
+        DataFormatter formatter = new DataFormatter();
+        List<String> cells = new ArrayList<>();
+        for (Sheet sheet : workbook) {
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    String text = cell.getCellType() == CellType.FORMULA ? "=" + cell.getCellFormula()
+                            : formatter.formatCellValue(cell);
+                    cells.add(sheet.getSheetName() + "!" + cell.getAddress() + " " + text);
+                }
+            }
+            for (CellRangeAddress region : sheet.getMergedRegions()) {
+                cells.add(sheet.getSheetName() + " merged " + region.formatAsString());
+            }
+        }
+        return cells;
+    }
+
+    private Workbook createWorkbook(int rowCount) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < rowCount; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("row" + i);
+            row.createCell(1).setCellValue(i);
+            row.createCell(2).setCellFormula("B" + (i + 1) + "*2");
+        }
+        sheet.addMergedRegion(new CellRangeAddress(20, 22, 1, 2));
+        workbook.createSheet("Summary").createRow(0).createCell(0)
+                .setCellFormula("SUM(Data!B1:B" + rowCount + ")+Data!B10");
+        return workbook;
+    }
+}
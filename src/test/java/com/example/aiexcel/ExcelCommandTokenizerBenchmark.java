@@ -0,0 +1,82 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.command.ExcelCommand;
+import com.example.aiexcel.service.command.ExcelCommandTokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单遍词法分析与原先六次正则扫描的JMH对比
+ * 由 ExcelCommandTokenizerTest#benchmarkTokenizerAgainstRegexScan 启动
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExcelCommandTokenizerBenchmark {
+
+    @Param("5000")
+    public int commands;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < commands; i++) {
+            builder.append("第").append(i).append("步：根据分析结果更新数据。");
+            switch (i % 6) {
+                case 0:
+                    builder.append("[SET_CELL:B").append(i + 1).append(":Value ").append(i).append(']');
+                    break;
+                case 1:
+                    builder.append("[APPLY_FORMULA:C").append(i + 1).append(":SUM(A1:A").append(i).append(")*2]");
+                    break;
+                case 2:
+                    builder.append("[INSERT_ROW:").append(i).append(":a,b,").append(i).append(']');
+                    break;
+                case 3:
+                    builder.append("[INSERT_COLUMN:").append(i % 20).append(":x,y,z]");
+                    break;
+                case 4:
+                    builder.append("[DELETE_ROW:").append(i).append(']');
+                    break;
+                default:
+                    builder.append("[DELETE_COLUMN:").append(i % 20).append(']');
+            }
+            builder.append('\n');
+        }
+        response = builder.toString();
+    }
+
+    @Benchmark
+    public List<ExcelCommand> singlePassTokenizer() {
+        return ExcelCommandTokenizer.tokenize(response);
+    }
+
+    @Benchmark
+    public void regexScanPerCommandType(Blackhole blackhole) {
+        // 原实现：每次调用编译六个正则，并对整个响应各扫描一遍
+        Pattern[] patterns = {
+                Pattern.compile("\\[SET_CELL:([A-Z]+\\d+):(.+?)\\]"),
+                Pattern.compile("\\[INSERT_ROW:(\\d+):(.+?)\\]"),
+                Pattern.compile("\\[INSERT_COLUMN:(\\d+):(.+?)\\]"),
+                Pattern.compile("\\[DELETE_ROW:(\\d+)\\]"),
+                Pattern.compile("\\[DELETE_COLUMN:(\\d+)\\]"),
+                Pattern.compile("\\[APPLY_FORMULA:([A-Z]+\\d+):(.+?)\\]")
+        };
+        for (Pattern pattern : patterns) {
+            Matcher matcher = pattern.matcher(response);
+            while (matcher.find()) {
+                blackhole.consume(matcher.group(1));
+                if (matcher.groupCount() > 1) {
+                    blackhole.consume(matcher.group(2));
+                }
+            }
+        }
+    }
+}
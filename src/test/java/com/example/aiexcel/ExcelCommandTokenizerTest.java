@@ -0,0 +1,86 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.command.ExcelCommand;
+import com.example.aiexcel.service.command.ExcelCommandTokenizer;
+import com.example.aiexcel.service.command.ExcelCommandType;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.formula.FormulaCompiler;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI响应命令词法分析测试
+ * JMH基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.commands=5000 指定命令数
+ */
+public class ExcelCommandTokenizerTest {
+
+    @Test
+    public void testCommandsAreTokenizedInSourceOrder() {
+        String response = "先删除空行 [DELETE_ROW:5]，然后设置 [SET_CELL:a1:x] [SET_CELL:B2:Hello World]\n"
+                + "[APPLY_FORMULA:C3:SUM(A1:A4)] [INSERT_ROW:3:1,2,] [SET_CELL:'My Sheet'!D4:42]"
+                + "[INSERT_COLUMN:x:1] [DELETE_COLUMN:1] [SET_CELL:E5:\n] [SET_CELL:F6:]";
+
+        List<ExcelCommand> commands = ExcelCommandTokenizer.tokenize(response);
+
+        assertEquals(6, commands.size());
+        assertEquals(ExcelCommandType.DELETE_ROW, commands.get(0).getType());
+        assertEquals("5", commands.get(0).getTarget());
+        assertNull(commands.get(0).getArgument());
+        assertEquals("B2=Hello World", commands.get(1).getParams());
+        assertEquals(ExcelCommandType.APPLY_FORMULA, commands.get(2).getType());
+        assertEquals("SUM(A1:A4)", commands.get(2).getArgument());
+        assertEquals("3:1,2,", commands.get(3).getParams());
+        assertEquals("My Sheet", commands.get(4).getSheetName());
+        assertEquals("D4", commands.get(4).getTarget());
+        assertEquals(ExcelCommandType.DELETE_COLUMN, commands.get(5).getType());
+        assertTrue(commands.get(0).getPosition() < commands.get(1).getPosition());
+    }
+
+    @Test
+    public void testCommandsExecuteInSourceOrderPerSheet() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet data = workbook.createSheet("Data");
+            workbook.createSheet("Summary");
+            data.createRow(0).createCell(0).setCellValue(5);
+            AiExcelCommandParser parser = new AiExcelCommandParser(new ExcelServiceImpl(), new FormulaCompiler());
+
+            // 公式在后续SET_CELL之前执行，因此读取到的是修改前的值
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook,
+                    "[APPLY_FORMULA:B1:A1*2] [SET_CELL:Summary!A1:total] [SET_CELL:A1:7] "
+                            + "[APPLY_FORMULA:C1:A1*2] [SET_CELL:Missing!A1:x]");
+
+            assertEquals(5, results.size());
+            assertEquals("B1=A1*2", results.get(0).getCommandParams());
+            assertEquals("Summary!A1=total", results.get(1).getCommandParams());
+            assertFalse(results.get(4).isSuccess());
+            assertEquals(10.0, data.getRow(0).getCell(1).getNumericCellValue());
+            assertEquals(14.0, data.getRow(0).getCell(2).getNumericCellValue());
+            assertEquals("total", workbook.getSheet("Summary").getRow(0).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkTokenizerAgainstRegexScan() throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ExcelCommandTokenizerBenchmark.class.getName())
+                .param("commands", System.getProperty("benchmark.commands", "5000"))
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .build()).run();
+    }
+}
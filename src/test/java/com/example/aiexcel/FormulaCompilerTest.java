@@ -0,0 +1,83 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.formula.CompiledFormula;
+import com.example.aiexcel.service.formula.FormulaCompiler;
+import com.example.aiexcel.service.formula.SheetFormulaContext;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 公式编译器测试
+ */
+public class FormulaCompilerTest {
+
+    private final FormulaCompiler compiler = new FormulaCompiler();
+
+    @Test
+    public void testPrecedenceRangesAndFunctions() throws Exception {
+        try (Workbook workbook = createWorkbook()) {
+            SheetFormulaContext context = new SheetFormulaContext(workbook.getSheetAt(0),
+                    workbook.getCreationHelper().createFormulaEvaluator());
+
+            assertEquals(14.0, compiler.compile("2+3*4").evaluate(context));
+            assertEquals(20.0, compiler.compile("=(2+3)*4").evaluate(context));
+            assertEquals(-8.0, compiler.compile("-2^3").evaluate(context));
+            assertEquals(0.5, compiler.compile("50%").evaluate(context));
+            // A1:A4 = 1,2,3,4；B1:B4 = 10,20,30,40
+            assertEquals(10.0, compiler.compile("SUM(A1:A4)").evaluate(context));
+            assertEquals(25.0, compiler.compile("AVERAGE($B$1:B4)").evaluate(context));
+            assertEquals(120.0, compiler.compile("SUM(A1:B4, 10)").evaluate(context));
+            assertEquals(42.0, compiler.compile("A2*B2+A1*2").evaluate(context));
+            assertEquals(1.0, compiler.compile("IF(A4>=4, 1, 2)").evaluate(context));
+            assertEquals(0.0, compiler.compile("IF(A1>A2, 1)").evaluate(context));
+            // C1是公式 =SUM(A1:A4)
+            assertEquals(20.0, compiler.compile("C1*2").evaluate(context));
+
+            assertThrows(ArithmeticException.class, () -> compiler.compile("A1/0").evaluate(context));
+            assertThrows(NumberFormatException.class, () -> compiler.compile("D1+1").evaluate(context));
+        }
+    }
+
+    @Test
+    public void testCompiledFormulasAreCachedByText() {
+        CompiledFormula first = compiler.compile("SUM(A1:A10)/2");
+        assertSame(first, compiler.compile("=SUM(A1:A10)/2"));
+        assertEquals(1, compiler.getCacheSize());
+        assertTrue(compiler.compile("B7").isCellReference());
+        assertThrows(IllegalArgumentException.class, () -> compiler.compile("SUM(A1:A2"));
+        assertThrows(IllegalArgumentException.class, () -> compiler.compile("VLOOKUP(A1, B1:C2, 2)"));
+    }
+
+    @Test
+    public void testApplyFormulaCommandUsesCompiledExpression() throws Exception {
+        try (Workbook workbook = createWorkbook()) {
+            AiExcelCommandParser parser = new AiExcelCommandParser(new ExcelServiceImpl(), compiler);
+            var results = parser.parseAndExecuteCommands(workbook,
+                    "[APPLY_FORMULA:E1:SUM(A1:A4)*(B1+B2)] [APPLY_FORMULA:E2:D1]");
+
+            assertTrue(results.stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+            assertEquals(300.0, workbook.getSheetAt(0).getRow(0).getCell(4).getNumericCellValue());
+            assertEquals("text", workbook.getSheetAt(0).getRow(1).getCell(4).getStringCellValue());
+        }
+    }
+
+    private Workbook createWorkbook() {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < 4; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue(i + 1);
+            row.createCell(1).setCellValue((i + 1) * 10);
+        }
+        sheet.getRow(0).createCell(2).setCellFormula("SUM(A1:A4)");
+        sheet.getRow(0).createCell(3).setCellValue("text");
+        return workbook;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 公式增量重算测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.formulas=50000 指定公式数
+ */
+public class FormulaRecalculationTest {
+
+    @Test
+    public void testIncrementalRecalculationUpdatesDependents() throws Exception {
+        try (Workbook workbook = createWorkbook(100)) {
+            ExcelServiceImpl excelService = new ExcelServiceImpl();
+            excelService.recalculateFormulas(workbook, null);
+            Sheet sheet = workbook.getSheet("Data");
+            Sheet summary = workbook.getSheet("Summary");
+            double totalBefore = summary.getRow(0).getCell(0).getNumericCellValue();
+
+            excelService.updateCell(workbook, "Data", 10, 0, 1000.0);
+            WorkbookChangeSet changes = new WorkbookChangeSet();
+            changes.markCell("Data", 10, 0);
+            int evaluated = excelService.recalculateFormulas(workbook, changes);
+
+            // B11、C11、D1以及跨工作表的汇总公式
+            assertEquals(4, evaluated);
+            assertEquals(CellType.FORMULA, sheet.getRow(10).getCell(1).getCellType());
+            assertEquals(2000.0, sheet.getRow(10).getCell(1).getNumericCellValue());
+            assertEquals(3000.0, sheet.getRow(10).getCell(2).getNumericCellValue());
+            assertEquals(totalBefore + 3 * (1000 - 9), summary.getRow(0).getCell(0).getNumericCellValue());
+            // 与全量重算结果一致
+            double incrementalTotal = sheet.getRow(0).getCell(3).getNumericCellValue();
+            excelService.recalculateFormulas(workbook, null);
+            assertEquals(incrementalTotal, sheet.getRow(0).getCell(3).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testStructuralChangeFallsBackToFullRecalculation() throws Exception {
+        try (Workbook workbook = createWorkbook(20)) {
+            ExcelServiceImpl excelService = new ExcelServiceImpl();
+            excelService.recalculateFormulas(workbook, null);
+
+            excelService.insertRow(workbook, "Data", 5, new Object[]{7.0});
+            WorkbookChangeSet changes = new WorkbookChangeSet();
+            changes.markStructural();
+            int evaluated = excelService.recalculateFormulas(workbook, changes);
+
+            assertEquals(20 * 2 + 2, evaluated);
+        }
+    }
+
+    @Test
+    public void testSharedRecalculatorIsKeptUntilReleased() throws Exception {
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        Workbook workbook = createWorkbook(20);
+        excelService.recalculateFormulas(workbook, null);
+        FormulaEvaluator evaluator = excelService.getFormulaEvaluator(workbook);
+        System.gc();
+        // GC不会丢弃依赖图，同一工作簿始终拿到同一个计算器
+        assertSame(evaluator, excelService.getFormulaEvaluator(workbook));
+
+        excelService.releaseFormulaEvaluator(workbook);
+        WeakReference<Workbook> reference = new WeakReference<>(workbook);
+        workbook = null;
+        evaluator = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkFullVersusIncrementalRecalculation() throws Exception {
+        int formulaCount = Integer.parseInt(System.getProperty("benchmark.formulas", "50000"));
+        try (Workbook workbook = createWorkbook(formulaCount / 2)) {
+            ExcelServiceImpl excelService = new ExcelServiceImpl();
+            System.out.printf("formulas=%d%n", formulaCount + 2);
+
+            long start = System.nanoTime();
+            excelService.recalculateFormulas(workbook, null);
+            System.out.printf("  full (first)   time=%d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            excelService.recalculateFormulas(workbook, null);
+            System.out.printf("  full           time=%d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            // 第一次增量重算包含构建依赖图的时间
+            for (int round = 0; round < 3; round++) {
+                WorkbookChangeSet changes = new WorkbookChangeSet();
+                for (int i = 0; i < 10; i++) {
+                    int rowIndex = 1 + (round * 997 + i * 1231) % (formulaCount / 2);
+                    excelService.updateCell(workbook, "Data", rowIndex, 0, (double) round + i);
+                    changes.markCell("Data", rowIndex, 0);
+                }
+                start = System.nanoTime();
+                int evaluated = excelService.recalculateFormulas(workbook, changes);
+                System.out.printf("  incremental    time=%d ms evaluated=%d%n",
+                        (System.nanoTime() - start) / 1_000_000, evaluated);
+            }
+        }
+    }
+
+    /**
+     * Data!A为数值，B=A*2，C=A+B，D1为C列求和，Summary!A1=Data!D1
+     */
+    private Workbook createWorkbook(int rows) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < rows; i++) {
+            Row row = sheet.createRow(i + 1);
+            row.createCell(0).setCellValue(i);
+            row.createCell(1).setCellFormula("A" + (i + 2) + "*2");
+            row.createCell(2).setCellFormula("A" + (i + 2) + "+B" + (i + 2));
+        }
+        Row header = sheet.createRow(0);
+        header.createCell(0).setCellValue("Value");
+        header.createCell(3).setCellFormula("SUM(C2:C" + (rows + 1) + ")");
+        workbook.createSheet("Summary").createRow(0).createCell(0).setCellFormula("Data!D1");
+        return workbook;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.OperationHistoryService;
+import com.example.aiexcel.service.command.EditRecorder;
+import com.example.aiexcel.service.excel.WorkbookChangeSet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 内存中编辑日志的淘汰测试：按估算内存和空闲时间淘汰的文件不能再撤销
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class OperationHistoryTest {
+
+    @Autowired
+    private OperationHistoryService operationHistoryService;
+
+    @Autowired
+    private AiExcelCommandParser aiExcelCommandParser;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSessionsAreEvictedByMemoryBudgetAndIdleTime() throws Exception {
+        long originalMaxBytes = (Long) ReflectionTestUtils.getField(operationHistoryService, "maxSessionBytes");
+        long originalTtl = (Long) ReflectionTestUtils.getField(operationHistoryService, "sessionTtlMinutes");
+        String first = "first_" + UUID.randomUUID();
+        String second = "second_" + UUID.randomUUID();
+        try (Workbook firstWorkbook = createWorkbook(200); Workbook secondWorkbook = createWorkbook(200)) {
+            // 一个会话约200行x2列，预算只容纳一个
+            ReflectionTestUtils.setField(operationHistoryService, "maxSessionBytes", 300_000L);
+            record(first, firstWorkbook);
+            record(second, secondWorkbook);
+            assertFalse(operationHistoryService.undoLastOperation(first));
+            assertTrue(operationHistoryService.undoLastOperation(second));
+            assertTrue(operationHistoryService.redoLastUndoneOperation(second));
+
+            // 过期时间为0时下一次访问即丢弃空闲的会话
+            ReflectionTestUtils.setField(operationHistoryService, "sessionTtlMinutes", 0L);
+            assertFalse(operationHistoryService.undoLastOperation(second));
+        } finally {
+            ReflectionTestUtils.setField(operationHistoryService, "maxSessionBytes", originalMaxBytes);
+            ReflectionTestUtils.setField(operationHistoryService, "sessionTtlMinutes", originalTtl);
+            operationHistoryService.clearOperationHistory(first);
+            operationHistoryService.clearOperationHistory(second);
+        }
+    }
+
+    private void record(String fileId, Workbook workbook) {
+        EditRecorder recorder = new EditRecorder();
+        aiExcelCommandParser.parseAndExecuteCommands(workbook, "[SET_CELL:B2:100]", new WorkbookChangeSet(), recorder);
+        assertNotNull(operationHistoryService.recordEdit(fileId, "AI_PROCESSING", "test", workbook,
+                recorder.finish(), tempDir.resolve(fileId + ".xlsx").toString()));
+    }
+
+    private Workbook createWorkbook(int rowCount) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < rowCount; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("row" + i);
+            row.createCell(1).setCellValue(i);
+        }
+        return workbook;
+    }
+}
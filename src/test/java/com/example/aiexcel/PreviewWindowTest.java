@@ -0,0 +1,123 @@
+package com.example.aiexcel;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分页预览测试：按窗口读取指定工作表，游标翻页
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class PreviewWindowTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testWindowAndCursorPaging() throws Exception {
+        String handle = upload(createWorkbook());
+
+        ResponseEntity<PreviewWindow> first = restTemplate.getForEntity(
+                "/api/excel/preview-window?handle=" + handle + "&sheet=Data&startRow=1&startCol=1&rows=40&cols=2", PreviewWindow.class);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        PreviewWindow window = first.getBody();
+        assertEquals("Data", window.sheetName());
+        assertEquals(1, window.sheetIndex());
+        assertEquals(101, window.totalRows());
+        assertEquals(3, window.totalColumns());
+        assertEquals(List.of("B", "C"), window.columns());
+        assertEquals(List.of("Amount", "Note"), window.headers());
+        List<List<String>> data = window.data();
+        assertEquals(40, data.size());
+        assertEquals(List.of("10", "note 1"), data.get(0));
+        // 第6行没有数据，以空值填充
+        assertEquals(List.of("", ""), data.get(5));
+        assertNotNull(window.previousCursor());
+
+        // 游标继续翻页，最后一页不足窗口大小
+        String cursor = window.nextCursor();
+        ResponseEntity<PreviewWindow> second = restTemplate.getForEntity(
+                "/api/excel/preview-window?handle=" + handle + "&cursor=" + cursor, PreviewWindow.class);
+        assertEquals(41, second.getBody().startRow());
+        cursor = second.getBody().nextCursor();
+        PreviewWindow last = restTemplate.getForEntity(
+                "/api/excel/preview-window?handle=" + handle + "&cursor=" + cursor, PreviewWindow.class).getBody();
+        assertEquals(81, last.startRow());
+        assertEquals(20, last.rowCount());
+        assertEquals(List.of("1000", "note 100"), last.data().get(19));
+        assertNull(last.nextCursor());
+
+        ResponseEntity<Map> missing = restTemplate.getForEntity(
+                "/api/excel/preview-window?handle=" + handle + "&sheet=Nope", Map.class);
+        assertEquals(HttpStatus.BAD_REQUEST, missing.getStatusCode());
+        ResponseEntity<Map> invalid = restTemplate.getForEntity(
+                "/api/excel/preview-window?handle=" + handle + "&cursor=bad", Map.class);
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+
+        restTemplate.delete("/api/workbooks/" + handle);
+    }
+
+    /**
+     * 预览窗口的响应
+     */
+    private record PreviewWindow(String sheetName, Integer sheetIndex, Integer totalRows, Integer totalColumns,
+                                 Integer startRow, Integer rowCount, List<String> columns, List<String> headers,
+                                 List<List<String>> data, String previousCursor, String nextCursor) {
+    }
+
+    private String upload(byte[] content) {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "window.xlsx";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        ResponseEntity<Map> upload = restTemplate.postForEntity("/api/workbooks",
+                new HttpEntity<>(form, headers), Map.class);
+        assertEquals(HttpStatus.OK, upload.getStatusCode());
+        return (String) upload.getBody().get("handle");
+    }
+
+    private byte[] createWorkbook() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            workbook.createSheet("Summary").createRow(0).createCell(0).setCellValue("Total");
+            var sheet = workbook.createSheet("Data");
+            var header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Amount");
+            header.createCell(2).setCellValue("Note");
+            for (int i = 1; i <= 100; i++) {
+                if (i == 6) {
+                    continue;
+                }
+                var row = sheet.createRow(i);
+                row.createCell(0).setCellValue("Customer " + i);
+                row.createCell(1).setCellValue(i * 10.0);
+                row.createCell(2).setCellValue("note " + i);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.impl.QwenAiService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 连接池异步客户端的并发测试
+ * 本地桩服务器模拟固定延迟的AI接口，统计服务端同时处理的请求数
+ */
+public class QwenAiServiceLoadTest {
+
+    private static final int LATENCY_MS = 200;
+    private static final String RESPONSE = "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"你好\"}}]}";
+
+    private volatile int latencyMs = LATENCY_MS;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private String previousBaseUrl;
+
+    @BeforeEach
+    public void startStubServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(100);
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat/completions", exchange -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                exchange.getRequestBody().readAllBytes();
+                Thread.sleep(latencyMs);
+                byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+        previousBaseUrl = System.getProperty("qwen.api.base-url");
+        System.setProperty("qwen.api.base-url", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1");
+    }
+
+    @AfterEach
+    public void stopStubServer() {
+        if (previousBaseUrl == null) {
+            System.clearProperty("qwen.api.base-url");
+        } else {
+            System.setProperty("qwen.api.base-url", previousBaseUrl);
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrencyScalesPastDefaultRouteLimit() {
+        int requests = 40;
+        long defaultPoolMillis = runConcurrently(5, requests);
+        int defaultPoolPeak = maxInFlight.getAndSet(0);
+        long largePoolMillis = runConcurrently(50, requests);
+        int largePoolPeak = maxInFlight.get();
+
+        System.out.printf("requests=%d latency=%d ms%n", requests, LATENCY_MS);
+        System.out.printf("  per-route limit 5   peak concurrency=%d  wall=%d ms%n", defaultPoolPeak, defaultPoolMillis);
+        System.out.printf("  per-route limit 50  peak concurrency=%d  wall=%d ms%n", largePoolPeak, largePoolMillis);
+
+        assertTrue(defaultPoolPeak <= 5);
+        assertTrue(largePoolPeak > 5, "peak concurrency " + largePoolPeak);
+        assertTrue(largePoolMillis < defaultPoolMillis);
+    }
+
+    @Test
+    public void testResponseTimeoutFailsFuture() {
+        // I/O反应器按秒级间隔检查超时，所以这里用秒级的延迟
+        latencyMs = 2500;
+        QwenAiService service = new QwenAiService("sk-test-key-for-stub", null, null, 10, 10, 1000, 1000, 4, 4);
+        try {
+            CompletableFuture<AiResponse> future = service.generateResponseAsync(request());
+            Exception error = assertThrows(Exception.class, future::join);
+            assertTrue(error.getCause() instanceof RuntimeException);
+            assertThrows(RuntimeException.class, () -> service.generateResponse(request()));
+        } finally {
+            service.close();
+        }
+    }
+
+    private long runConcurrently(int maxConnectionsPerRoute, int requests) {
+        QwenAiService service = new QwenAiService("sk-test-key-for-stub", null, null,
+                100, maxConnectionsPerRoute, 5000, 30000, 4, 4);
+        try {
+            // 预热一次，避免首个连接的建立时间计入
+            service.generateResponse(request());
+            maxInFlight.set(0);
+            long start = System.nanoTime();
+            List<CompletableFuture<AiResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(service.generateResponseAsync(request()));
+            }
+            for (CompletableFuture<AiResponse> future : futures) {
+                assertEquals("你好", future.join().getChoices()[0].getMessage().getContent());
+            }
+            return (System.nanoTime() - start) / 1_000_000;
+        } finally {
+            service.close();
+        }
+    }
+
+    private AiRequest request() {
+        AiRequest request = new AiRequest();
+        request.setMessages(List.of(new AiRequest.Message("user", "hello")));
+        return request;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.impl.QwenAiService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式响应测试
+ * 本地桩服务器按间隔逐个写出SSE片段，验证片段在上游结束前就已交给监听器
+ */
+public class QwenAiServiceStreamingTest {
+
+    private static final String[] TOKENS = {"你好", "，", "我是", "助手", "。"};
+    private static final int CHUNK_DELAY_MS = 100;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger chunksWritten = new AtomicInteger();
+    private final CountDownLatch serverFinished = new CountDownLatch(1);
+    private String previousBaseUrl;
+    private QwenAiService service;
+
+    @BeforeEach
+    public void startStubServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat/completions", exchange -> {
+            try {
+                exchange.getRequestBody().readAllBytes();
+                exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                write(out, ": keep-alive\n\n");
+                for (String token : TOKENS) {
+                    write(out, "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + token + "\"}}]}\n\n");
+                    chunksWritten.incrementAndGet();
+                    Thread.sleep(CHUNK_DELAY_MS);
+                }
+                write(out, "data: [DONE]\n\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 客户端提前关闭连接
+            } finally {
+                serverFinished.countDown();
+                exchange.close();
+            }
+        });
+        server.start();
+        previousBaseUrl = System.getProperty("qwen.api.base-url");
+        System.setProperty("qwen.api.base-url", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1");
+        service = new QwenAiService("sk-test-key-for-stub", null, null, 10, 10, 5000, 30000, 2, 2);
+    }
+
+    @AfterEach
+    public void stopStubServer() {
+        service.close();
+        if (previousBaseUrl == null) {
+            System.clearProperty("qwen.api.base-url");
+        } else {
+            System.setProperty("qwen.api.base-url", previousBaseUrl);
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testTokensArriveBeforeStreamEnds() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        List<Integer> writtenWhenReceived = new CopyOnWriteArrayList<>();
+
+        AiResponse response = service.streamResponse(request(), token -> {
+            received.add(token);
+            writtenWhenReceived.add(chunksWritten.get());
+        }).join();
+
+        assertEquals(List.of(TOKENS), received);
+        // 第一个片段到达时上游还没有写完全部片段
+        assertTrue(writtenWhenReceived.get(0) < TOKENS.length, "written " + writtenWhenReceived);
+        assertEquals("你好，我是助手。", response.getChoices()[0].getMessage().getContent());
+        assertEquals("你好，我是助手。", service.generateStreamingResponse(request()).getChoices()[0].getMessage().getContent());
+    }
+
+    @Test
+    public void testListenerFailureAbortsStream() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<AiResponse> future = service.streamResponse(request(), token -> {
+            if (calls.incrementAndGet() == 2) {
+                throw new IOException("client disconnected");
+            }
+        });
+
+        Exception error = assertThrows(Exception.class, future::join);
+        assertTrue(error.getCause().getMessage().contains("client disconnected"));
+        assertEquals(2, calls.get());
+        assertTrue(serverFinished.await(5, TimeUnit.SECONDS));
+    }
+
+    private void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private AiRequest request() {
+        AiRequest request = new AiRequest();
+        request.setMessages(List.of(new AiRequest.Message("user", "hello")));
+        return request;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.analysis.rfm.RfmEngine;
+import com.example.aiexcel.service.analysis.rfm.RfmResult;
+import com.example.aiexcel.service.analysis.rfm.RfmSegment;
+import com.example.aiexcel.service.excel.ColumnarTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地RFM计算测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.transactions=2000000 -Dbenchmark.customers=100000 指定规模
+ */
+public class RfmEngineTest {
+
+    private final RfmEngine engine = new RfmEngine();
+
+    @Test
+    public void testScoresAndSegmentsCustomers() {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Orders", true);
+        builder.addRow(new Object[]{"Order Date", "Customer ID", "Amount"});
+        // 客户1001：最近且频繁、高消费；C-05：很久以前只买过一次
+        for (int i = 0; i < 5; i++) {
+            builder.addRow(new Object[]{date(2024, 3, 1 + i), 1001.0, 500.0});
+        }
+        builder.addRow(new Object[]{"2024-03-04", "C-02", 120.0});
+        builder.addRow(new Object[]{"2024-02-01", "C-02", 80.0});
+        builder.addRow(new Object[]{date(2024, 1, 15), "C-03", 60.0});
+        builder.addRow(new Object[]{date(2023, 12, 1), "C-04", 300.0});
+        builder.addRow(new Object[]{date(2023, 12, 2), "C-04", 300.0});
+        builder.addRow(new Object[]{date(2023, 12, 3), "C-04", 300.0});
+        builder.addRow(new Object[]{date(2023, 6, 1), "C-05", 10.0});
+        builder.addRow(new Object[]{null, "C-06", 10.0});
+
+        RfmResult result = engine.analyze(builder.build());
+
+        assertEquals("Customer ID", result.getCustomerColumn());
+        assertEquals("Order Date", result.getDateColumn());
+        assertEquals("Amount", result.getAmountColumn());
+        assertEquals(5, result.getCustomerCount());
+        assertEquals(12, result.getTransactionCount());
+        assertEquals(1, result.getSkippedRows());
+        assertEquals(LocalDate.of(2024, 3, 6), result.getReferenceDate());
+
+        List<RfmResult.CustomerScore> top = result.getTopCustomers(5);
+        RfmResult.CustomerScore best = top.get(0);
+        assertEquals("1001", best.getCustomerId());
+        assertEquals(1, best.getRecencyDays());
+        assertEquals(5, best.getFrequency());
+        assertEquals(2500.0, best.getMonetary());
+        assertEquals("555", best.getRfmCode());
+        assertEquals(RfmSegment.CHAMPIONS, best.getSegment());
+
+        RfmResult.CustomerScore worst = top.get(4);
+        assertEquals("C-05", worst.getCustomerId());
+        assertEquals("111", worst.getRfmCode());
+        assertEquals(RfmSegment.HIBERNATING, worst.getSegment());
+
+        int segmented = result.getSegmentSummaries().stream().mapToInt(RfmResult.SegmentSummary::getCustomerCount).sum();
+        assertEquals(5, segmented);
+        String summary = result.toSummaryText();
+        assertTrue(summary.contains("Champions: 1 customers"));
+        assertFalse(summary.contains("C-05"));
+    }
+
+    @Test
+    public void testMissingColumnsAreReported() {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Notes", true);
+        builder.addRow(new Object[]{"Note"});
+        builder.addRow(new Object[]{"hello"});
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> engine.analyze(builder.build()));
+        assertTrue(error.getMessage().contains("Note"));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkMillionsOfTransactions() {
+        int transactions = Integer.parseInt(System.getProperty("benchmark.transactions", "2000000"));
+        int customers = Integer.parseInt(System.getProperty("benchmark.customers", "100000"));
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Orders", true);
+        builder.addRow(new Object[]{"Customer", "Date", "Amount"});
+        long base = LocalDate.of(2024, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        for (int i = 0; i < transactions; i++) {
+            int customer = (int) ((i * 2654435761L) % customers);
+            builder.addRow(new Object[]{"CUST-" + customer, new Date(base + (i % 365) * 86_400_000L), (double) (i % 997)});
+        }
+        ColumnarTable table = builder.build();
+        System.out.printf("transactions=%d customers=%d%n", transactions, customers);
+
+        long best = Long.MAX_VALUE;
+        RfmResult result = null;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            result = engine.analyze(table);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  local RFM  best=%d ms%n", best / 1_000_000);
+        System.out.printf("  summary sent to AI: %d chars%n", result.toSummaryText().length());
+        assertEquals(customers, result.getCustomerCount());
+    }
+
+    private Date date(int year, int month, int day) {
+        return Date.from(LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
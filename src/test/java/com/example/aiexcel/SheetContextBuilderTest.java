@@ -0,0 +1,136 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.SheetContextBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按token预算生成工作表上下文的测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=1000000 指定行数
+ */
+public class SheetContextBuilderTest {
+
+    @Test
+    public void testSmallSheetIsIncludedInFull() {
+        SheetContextBuilder builder = new SheetContextBuilder(6000, null);
+        builder.startSheet(0, "Sales");
+        builder.row(0, new Object[]{"Region", "Amount", "Paid"});
+        builder.row(1, new Object[]{"North", 120.0, true});
+        builder.row(2, new Object[]{"South", 80.5, false});
+        builder.row(3, new Object[]{"North", null, true});
+        builder.endSheet(0, "Sales");
+
+        String context = builder.build();
+        assertTrue(context.contains("Sheet: Sales (3 data rows x 3 columns, header in row 1)"), context);
+        assertTrue(context.contains("- A \"Region\": text, 3 values, 0 blank, 2 distinct, e.g. \"North\", \"South\""), context);
+        assertTrue(context.contains("- B \"Amount\": number, 2 values, 1 blank, min 80.5, max 120, mean 100.25, sum 200.5"), context);
+        assertTrue(context.contains("- C \"Paid\": boolean, 3 values, 0 blank, 2 true"), context);
+        assertTrue(context.contains("Rows:\nRow 2:\tNorth\t120\ttrue\nRow 3:\tSouth\t80.5\tfalse\nRow 4:\tNorth\t\ttrue\n"), context);
+    }
+
+    @Test
+    public void testLargeSheetStaysWithinBudget() {
+        int budget = 2000;
+        int rows = 100_000;
+        SheetContextBuilder builder = new SheetContextBuilder(budget, "把B5001改成0，并检查第77777行");
+        feed(builder, rows);
+
+        String context = builder.build();
+        assertTrue(SheetContextBuilder.estimateTokens(context) <= budget,
+                "tokens " + SheetContextBuilder.estimateTokens(context));
+        assertTrue(context.contains("(" + rows + " data rows x 4 columns"), context);
+        assertTrue(context.contains("- C \"Amount\": number, " + rows + " values, 0 blank, min 0, max 996"), context);
+        assertTrue(context.contains("- D \"Date\": date, " + rows + " values"), context);
+        // 命令引用的行完整保留
+        assertTrue(context.contains("Rows referenced by the request:\nRow 5001:\tORD-4999\t"), context);
+        assertTrue(context.contains("Row 77777:\tORD-77775\t"), context);
+        // 分层抽样不会与数据的周期重合：四个地区都出现在样本中，最后一行总是保留
+        String sample = context.substring(context.indexOf("Sample rows ("));
+        for (String region : new String[]{"North", "South", "East", "West"}) {
+            assertTrue(sample.contains("\t" + region + "\t"), region);
+        }
+        assertTrue(sample.contains("Row " + (rows + 1) + ":\tORD-" + (rows - 1) + "\t"), context);
+        // 相同输入生成相同的上下文
+        SheetContextBuilder again = new SheetContextBuilder(budget, "把B5001改成0，并检查第77777行");
+        feed(again, rows);
+        assertEquals(context, again.build());
+    }
+
+    @Test
+    public void testWideWorkbookStaysWithinBudget() {
+        int budget = 6000;
+        for (String command : new String[]{null, "rows 1-50 A1:B50"}) {
+            SheetContextBuilder builder = new SheetContextBuilder(budget, command);
+            for (int s = 0; s < 20; s++) {
+                builder.startSheet(s, "Sheet" + s);
+                Object[] header = new Object[60];
+                for (int c = 0; c < header.length; c++) {
+                    header[c] = "Column header number " + c;
+                }
+                builder.row(0, header);
+                for (int r = 1; r <= 200; r++) {
+                    Object[] values = new Object[60];
+                    for (int c = 0; c < values.length; c++) {
+                        values[c] = c % 2 == 0 ? (Object) ("text value " + r + "-" + c) : (double) (r * c);
+                    }
+                    builder.row(r, values);
+                }
+                builder.endSheet(s, "Sheet" + s);
+            }
+
+            String context = builder.build();
+            assertTrue(SheetContextBuilder.estimateTokens(context) <= budget,
+                    command + ": tokens " + SheetContextBuilder.estimateTokens(context));
+            // 每个工作表都有标题，放不下的列注明数量
+            for (int s = 0; s < 20; s++) {
+                assertTrue(context.contains("Sheet: Sheet" + s + " (200 data rows x 60 columns"), context);
+            }
+            assertTrue(context.contains(" more columns not shown"), context);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkContextVersusFullDump() {
+        int rows = Integer.parseInt(System.getProperty("benchmark.rows", "1000000"));
+        long start = System.nanoTime();
+        SheetContextBuilder builder = new SheetContextBuilder(6000, "SET_CELL:C500");
+        feed(builder, rows);
+        String context = builder.build();
+        long contextMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 对照：原先把每个单元格以制表符拼接的完整文本
+        start = System.nanoTime();
+        StringBuilder full = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            for (Object value : rowValues(i)) {
+                full.append(value).append('\t');
+            }
+            full.append('\n');
+        }
+        long fullMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("rows=%d%n", rows);
+        System.out.printf("  full dump  %,d est. tokens  %d ms%n", SheetContextBuilder.estimateTokens(full), fullMillis);
+        System.out.printf("  context    %,d est. tokens  %d ms%n", SheetContextBuilder.estimateTokens(context), contextMillis);
+        assertTrue(SheetContextBuilder.estimateTokens(context) <= 6000);
+    }
+
+    private void feed(SheetContextBuilder builder, int rows) {
+        builder.startSheet(0, "Orders");
+        builder.row(0, new Object[]{"Order", "Region", "Amount", "Date"});
+        for (int i = 0; i < rows; i++) {
+            builder.row(i + 1, rowValues(i));
+        }
+        builder.endSheet(0, "Orders");
+    }
+
+    private Object[] rowValues(int i) {
+        String[] regions = {"North", "South", "East", "West"};
+        return new Object[]{"ORD-" + i, regions[i % 4], (double) (i % 997), new Date(1704067200000L + (i % 365) * 86_400_000L)};
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.SheetRowHandler;
+import com.example.aiexcel.service.excel.WorkbookCache;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式读取（SAX）与DOM读取的一致性测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=10000,100000 指定行数
+ */
+public class StreamingWorkbookReaderTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    @Test
+    public void testStreamingReadMatchesDomRead() throws Exception {
+        byte[] content = createSampleWorkbook();
+        MockMultipartFile file = new MockMultipartFile("file", "sample.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", content);
+
+        Workbook workbook = excelService.loadWorkbook(new ByteArrayInputStream(content));
+        Object[][] domData = excelService.getExcelDataAsArray(workbook);
+        Object[][] streamData = excelService.getExcelDataAsArray(file);
+
+        assertEquals(domData.length, streamData.length);
+        for (int i = 0; i < domData.length; i++) {
+            assertArrayEquals(domData[i], streamData[i], "row " + i);
+        }
+        assertArrayEquals(excelService.getExcelHeaders(workbook), excelService.getExcelHeaders(file));
+
+        String dataString = excelService.getExcelDataAsString(file);
+        assertTrue(dataString.contains("Sheet: Orders"));
+        assertTrue(dataString.contains("Sheet: Notes"));
+        assertTrue(dataString.contains("Alice\t100.0\t"));
+        // 稀疏行中缺失的单元格不输出制表符，空白单元格与DOM方式一样输出空值，文本完全一致
+        assertTrue(dataString.contains("sparse\t\n"));
+        assertTrue(dataString.contains("a\t\tc\t\n"));
+        assertEquals(excelService.getExcelDataAsString(workbook), dataString);
+
+        // 经缓存的只读数据回放时空白单元格同样保留
+        ExcelServiceImpl cachedService = new ExcelServiceImpl();
+        cachedService.setWorkbookCache(new WorkbookCache(64 * 1024 * 1024, 8 * 1024 * 1024));
+        assertEquals(dataString, cachedService.getExcelDataAsString(file));
+        assertEquals(dataString, cachedService.getExcelDataAsString(file));
+    }
+
+    @Test
+    public void testCsvStreamingRead() throws Exception {
+        String csv = "Name,Amount\nAlice,100\n\"Smith, Bob\",25.5\n";
+        MockMultipartFile file = new MockMultipartFile("file", "data.csv", "text/csv", csv.getBytes());
+
+        Object[][] data = excelService.getExcelDataAsArray(file);
+        assertEquals(3, data.length);
+        assertEquals("Smith, Bob", data[2][0]);
+        assertEquals(25.5, data[2][1]);
+    }
+
+    private byte[] createSampleWorkbook() throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Orders");
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Amount");
+            header.createCell(2).setCellValue("Paid");
+            header.createCell(3).setCellValue("Date");
+            header.createCell(4).setCellValue("Double");
+
+            Object[][] rows = {{"Alice", 100.0, true}, {"Bob", 250.5, false}, {"Carol", 75.0, true}};
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue((String) rows[i][0]);
+                row.createCell(1).setCellValue((Double) rows[i][1]);
+                row.createCell(2).setCellValue((Boolean) rows[i][2]);
+                Cell dateCell = row.createCell(3);
+                dateCell.setCellValue(new Date(1700000000000L + i * 86400000L));
+                dateCell.setCellStyle(dateStyle);
+                row.createCell(4).setCellFormula("B" + (i + 2) + "*2");
+            }
+            // 中间留一个空行，再写一行稀疏数据
+            sheet.createRow(6).createCell(2).setCellValue("sparse");
+            // 只有样式没有值的空白单元格，文件中是不带<v>的<c>元素
+            Row blankRow = sheet.createRow(7);
+            blankRow.createCell(0).setCellValue("a");
+            blankRow.createCell(1).setCellStyle(dateStyle);
+            blankRow.createCell(2).setCellValue("c");
+
+            workbook.createSheet("Notes").createRow(0).createCell(0).setCellValue("second sheet");
+
+            // 写入公式的缓存结果，流式读取依赖这些缓存值
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkStreamingVersusDom() throws Exception {
+        String sizes = System.getProperty("benchmark.rows", "10000,100000,1000000");
+        for (String size : sizes.split(",")) {
+            int rowCount = Integer.parseInt(size.trim());
+            Path file = generateFile(rowCount);
+            try {
+                System.out.printf("rows=%d, file=%d KB%n", rowCount, Files.size(file) / 1024);
+                measure("streaming", file, () -> {
+                    long[] count = new long[1];
+                    try (InputStream in = Files.newInputStream(file)) {
+                        excelService.readWorkbook(in, (SheetRowHandler) (rowIndex, values) -> count[0]++);
+                    }
+                    return count[0];
+                });
+                measure("dom", file, () -> {
+                    try (InputStream in = Files.newInputStream(file);
+                         Workbook workbook = excelService.loadWorkbook(in)) {
+                        return workbook.getSheetAt(0).getPhysicalNumberOfRows();
+                    }
+                });
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private interface ReadTask {
+        long run() throws Exception;
+    }
+
+    private void measure(String label, Path file, ReadTask task) {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        try {
+            long rows = task.run();
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("  %-9s rows=%d time=%d ms peakHeap=%d MB%n", label, rows, elapsedMs, peakHeapMb());
+        } catch (OutOfMemoryError e) {
+            System.out.printf("  %-9s OutOfMemoryError after %d ms%n", label, (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            fail(label + " failed: " + e.getMessage());
+        }
+    }
+
+    private long peakHeapMb() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak / (1024 * 1024);
+    }
+
+    private Path generateFile(int rowCount) throws IOException {
+        Path file = Files.createTempFile("benchmark-" + rowCount + "-", ".xlsx");
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Data");
+            Row header = sheet.createRow(0);
+            String[] columns = {"OrderId", "Customer", "Region", "Amount", "Quantity", "Paid"};
+            for (int i = 0; i < columns.length; i++) {
+                header.createCell(i).setCellValue(columns[i]);
+            }
+            for (int r = 1; r <= rowCount; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue(r);
+                row.createCell(1).setCellValue("Customer " + (r % 5000));
+                row.createCell(2).setCellValue("Region " + (r % 12));
+                row.createCell(3).setCellValue(r * 1.25);
+                row.createCell(4).setCellValue(r % 17);
+                row.createCell(5).setCellValue(r % 2 == 0);
+            }
+            workbook.write(out);
+        } finally {
+            workbook.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.excel.StructuralEditPlan;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.formula.FormulaCompiler;
+import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.xssf.usermodel.XSSFDataValidation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 结构性修改计划测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，
+ * 可用 -Dbenchmark.rows=100000 -Dbenchmark.edits=1000 指定规模，-Dbenchmark.baselineEdits=3 指定逐个shiftRows的采样次数
+ */
+public class StructuralEditPlanTest {
+
+    @Test
+    public void testPlanComputesFinalIndexMapping() {
+        StructuralEditPlan plan = new StructuralEditPlan();
+        plan.insertRow(2, new Object[]{"a"});
+        plan.deleteRow(0);
+        plan.insertRow(1, new Object[]{"b"});
+        plan.deleteRow(4);
+
+        StructuralEditPlan.IndexMapping rows = plan.getRowMapping();
+        // 最终顺序：1, b, a, 2, 4, 5 ...
+        assertEquals(-1, rows.map(0));
+        assertEquals(0, rows.map(1));
+        assertEquals(3, rows.map(2));
+        assertEquals(-1, rows.map(3));
+        assertEquals(4, rows.map(4));
+        assertEquals(4, rows.mapFirst(3));
+        assertEquals(3, rows.mapLast(3));
+        assertEquals(2, rows.getInsertedCount());
+        assertEquals(1, rows.getInsertedIndex(0));
+        assertEquals("b", rows.getInsertedValues(0)[0]);
+        assertEquals(0, rows.firstChangedIndex());
+        assertTrue(plan.getColumnMapping().isIdentity());
+
+        plan.deleteColumn(1);
+        assertFalse(plan.acceptsRowEdits());
+        assertThrows(IllegalStateException.class, () -> plan.insertRow(0, null));
+    }
+
+    @Test
+    public void testBatchedRowEditsMatchSequentialShifts() throws Exception {
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        try (Workbook sequential = createWorkbook(40); Workbook batched = createWorkbook(40)) {
+            StructuralEditPlan plan = new StructuralEditPlan();
+            int[][] edits = {{1, 5}, {0, 12}, {1, 30}, {0, 2}, {1, 2}, {0, 35}};
+            for (int[] edit : edits) {
+                if (edit[0] == 1) {
+                    excelService.insertRow(sequential, "Data", edit[1], new Object[]{"new" + edit[1], 1.0});
+                    plan.insertRow(edit[1], new Object[]{"new" + edit[1], 1.0});
+                } else {
+                    excelService.deleteRow(sequential, "Data", edit[1]);
+                    plan.deleteRow(edit[1]);
+                }
+            }
+            excelService.applyStructuralEdits(batched, "Data", plan);
+
+            Sheet expected = sequential.getSheet("Data");
+            Sheet actual = batched.getSheet("Data");
+            assertEquals(expected.getLastRowNum(), actual.getLastRowNum());
+            DataFormatter formatter = new DataFormatter();
+            for (int r = 0; r <= expected.getLastRowNum(); r++) {
+                for (int c = 0; c < 3; c++) {
+                    Cell expectedCell = cell(expected, r, c);
+                    Cell actualCell = cell(actual, r, c);
+                    String expectedText = expectedCell == null ? null : expectedCell.getCellType() == CellType.FORMULA
+                            ? expectedCell.getCellFormula() : formatter.formatCellValue(expectedCell);
+                    String actualText = actualCell == null ? null : actualCell.getCellType() == CellType.FORMULA
+                            ? actualCell.getCellFormula() : formatter.formatCellValue(actualCell);
+                    assertEquals(expectedText, actualText, "row " + r + " col " + c);
+                }
+            }
+            assertEquals(sequential.getSheet("Summary").getRow(0).getCell(0).getCellFormula(),
+                    batched.getSheet("Summary").getRow(0).getCell(0).getCellFormula());
+            assertEquals(expected.getMergedRegion(0), actual.getMergedRegion(0));
+        }
+    }
+
+    @Test
+    public void testColumnEditsRemapFormulasAndDeletedReferences() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Data");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue(1);
+            row.createCell(1).setCellValue(2);
+            row.createCell(2).setCellValue(3);
+            row.createCell(3).setCellFormula("A1+C1");
+            row.createCell(4).setCellFormula("SUM(A1:C1)+B1");
+
+            StructuralEditPlan plan = new StructuralEditPlan();
+            plan.deleteColumn(1);
+            plan.insertColumn(0, new Object[]{"head"});
+            new ExcelServiceImpl().applyStructuralEdits(workbook, "Data", plan);
+
+            assertEquals("head", row.getCell(0).getStringCellValue());
+            assertEquals(1.0, row.getCell(1).getNumericCellValue());
+            assertEquals(3.0, row.getCell(2).getNumericCellValue());
+            assertEquals("B1+C1", row.getCell(3).getCellFormula());
+            assertEquals("SUM(B1:C1)+#REF!", row.getCell(4).getCellFormula());
+            assertNull(row.getCell(5));
+        }
+    }
+
+    @Test
+    public void testCommentsLinksFormatsAndValidationsMoveWithEdits() throws Exception {
+        try (XSSFWorkbook workbook = (XSSFWorkbook) createWorkbook(10)) {
+            XSSFSheet sheet = workbook.getSheet("Data");
+            CreationHelper helper = workbook.getCreationHelper();
+            Drawing<?> drawing = sheet.createDrawingPatriarch();
+            for (int r : new int[]{2, 3, 4, 8}) {
+                ClientAnchor anchor = helper.createClientAnchor();
+                anchor.setRow1(r);
+                anchor.setCol1(3);
+                Comment comment = drawing.createCellComment(anchor);
+                comment.setString(helper.createRichTextString("note" + r));
+                comment.setAddress(r, 0);
+                sheet.getRow(r).getCell(0).setCellComment(comment);
+            }
+            Hyperlink link = helper.createHyperlink(HyperlinkType.URL);
+            link.setAddress("https://example.com");
+            sheet.getRow(4).getCell(1).setHyperlink(link);
+            Hyperlink deletedLink = helper.createHyperlink(HyperlinkType.URL);
+            deletedLink.setAddress("https://example.org");
+            sheet.getRow(3).getCell(1).setHyperlink(deletedLink);
+            SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+            formatting.addConditionalFormatting(new CellRangeAddress[]{CellRangeAddress.valueOf("B5:B9")},
+                    formatting.createConditionalFormattingRule("B5>$B$10"));
+            DataValidationHelper validationHelper = sheet.getDataValidationHelper();
+            sheet.addValidationData(validationHelper.createValidation(
+                    validationHelper.createFormulaListConstraint("$A$6:$A$8"), new CellRangeAddressList(5, 7, 1, 1)));
+
+            StructuralEditPlan plan = new StructuralEditPlan();
+            plan.deleteRow(3);
+            plan.insertRow(0, new Object[]{"top"});
+            plan.insertRow(0, new Object[]{"top"});
+            new ExcelServiceImpl().applyStructuralEdits(workbook, "Data", plan);
+
+            // 原第3行被删除，原第2、4、8行移到第4、5、9行（从0开始）
+            assertEquals(Set.of(new CellAddress(4, 0), new CellAddress(5, 0), new CellAddress(9, 0)),
+                    sheet.getCellComments().keySet());
+            assertEquals("note2", sheet.getCellComment(new CellAddress(4, 0)).getString().getString());
+            assertEquals("note4", sheet.getCellComment(new CellAddress(5, 0)).getString().getString());
+            assertEquals(1, sheet.getHyperlinkList().size());
+            assertEquals("B6", sheet.getHyperlinkList().get(0).getCellRef());
+            assertEquals("B6:B10", formatting.getConditionalFormattingAt(0).getFormattingRanges()[0].formatAsString());
+            assertEquals("B6>$B$11", formatting.getConditionalFormattingAt(0).getRule(0).getFormula1());
+            XSSFDataValidation validation = sheet.getDataValidations().get(0);
+            assertEquals("B7:B9", validation.getRegions().getCellRangeAddress(0).formatAsString());
+            assertEquals("$A$7:$A$9", validation.getValidationConstraint().getFormula1());
+
+            StructuralEditPlan columnPlan = new StructuralEditPlan();
+            columnPlan.deleteColumn(0);
+            new ExcelServiceImpl().applyStructuralEdits(workbook, "Data", columnPlan);
+            assertTrue(sheet.getCellComments().isEmpty());
+            assertEquals("A6", sheet.getHyperlinkList().get(0).getCellRef());
+            assertEquals("A6:A10", formatting.getConditionalFormattingAt(0).getFormattingRanges()[0].formatAsString());
+            assertEquals("#REF!", sheet.getDataValidations().get(0).getValidationConstraint().getFormula1());
+
+            // 修改后的文件可以正常保存并重新打开
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            try (XSSFWorkbook reopened = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+                assertEquals(1, reopened.getSheet("Data").getHyperlinkList().size());
+            }
+        }
+    }
+
+    @Test
+    public void testParserAppliesConsecutiveStructuralCommandsOnce() throws Exception {
+        try (Workbook workbook = createWorkbook(5)) {
+            AiExcelCommandParser parser = new AiExcelCommandParser(new ExcelServiceImpl(), new FormulaCompiler());
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook,
+                    "[INSERT_ROW:1:x,10] [INSERT_ROW:1:y,20] [DELETE_ROW:3] [SET_CELL:A2:z] [INSERT_ROW:99999999999:a]");
+
+            assertEquals(5, results.size());
+            assertTrue(results.subList(0, 4).stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+            assertEquals("Successfully inserted row at 1", results.get(0).getMessage());
+            assertEquals("Successfully deleted row 3", results.get(2).getMessage());
+            assertEquals("Invalid row index format: 99999999999", results.get(4).getMessage());
+            Sheet sheet = workbook.getSheet("Data");
+            assertEquals("z", sheet.getRow(1).getCell(0).getStringCellValue());
+            assertEquals("x", sheet.getRow(2).getCell(0).getStringCellValue());
+            assertEquals(10.0, sheet.getRow(2).getCell(1).getNumericCellValue());
+            // 两次插入后第3行是原来的row1，已被删除
+            assertEquals("row2", sheet.getRow(3).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkBatchedVersusSequentialRowEdits() throws Exception {
+        int rowCount = Integer.parseInt(System.getProperty("benchmark.rows", "100000"));
+        int editCount = Integer.parseInt(System.getProperty("benchmark.edits", "1000"));
+        int baselineEdits = Integer.parseInt(System.getProperty("benchmark.baselineEdits", "3"));
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        System.out.printf("rows=%d edits=%d%n", rowCount, editCount);
+
+        try (Workbook workbook = createWorkbook(rowCount)) {
+            // 逐个执行时每次都要移动其后的所有行，只采样少量操作并按平均值估算
+            long start = System.nanoTime();
+            for (int i = 0; i < baselineEdits; i++) {
+                excelService.insertRow(workbook, "Data", rowCount / 2 + i, new Object[]{"seq" + i});
+            }
+            long perEdit = (System.nanoTime() - start) / Math.max(baselineEdits, 1);
+            System.out.printf("  sequential shiftRows  per edit=%d ms  estimated total=%d s%n",
+                    perEdit / 1_000_000, perEdit * editCount / 1_000_000_000L);
+        }
+
+        try (Workbook workbook = createWorkbook(rowCount)) {
+            StructuralEditPlan plan = new StructuralEditPlan();
+            for (int i = 0; i < editCount; i++) {
+                int index = 1 + (i * 7919) % (rowCount - editCount);
+                if (i % 2 == 0) {
+                    plan.insertRow(index, new Object[]{"batch" + i, i});
+                } else {
+                    plan.deleteRow(index);
+                }
+            }
+            long start = System.nanoTime();
+            excelService.applyStructuralEdits(workbook, "Data", plan);
+            System.out.printf("  batched plan          total=%d ms%n", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Data表：A列文本、B列数值、C列引用B列的公式，另有合并区域和跨表汇总公式
+     */
+    private Workbook createWorkbook(int rowCount) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < rowCount; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("row" + i);
+            row.createCell(1).setCellValue(i);
+            row.createCell(2).setCellFormula("B" + (i + 1) + "*2");
+        }
+        sheet.addMergedRegion(new CellRangeAddress(20, 22, 0, 1));
+        workbook.createSheet("Summary").createRow(0).createCell(0)
+                .setCellFormula("SUM(Data!B1:B" + rowCount + ")+Data!B10");
+        return workbook;
+    }
+
+    private Cell cell(Sheet sheet, int rowIndex, int colIndex) {
+        Row row = sheet.getRow(rowIndex);
+        return row != null ? row.getCell(colIndex) : null;
+    }
+}
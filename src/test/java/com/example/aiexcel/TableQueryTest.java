@@ -0,0 +1,191 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.ColumnarTable;
+import com.example.aiexcel.service.excel.TableQuery;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 列式表格上的本地排序和筛选测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=1000000 指定行数
+ */
+public class TableQueryTest {
+
+    @Test
+    public void testMultiKeySortWithMixedTypes() {
+        ColumnarTable table = table(
+                new Object[]{"Region", "Amount", "Note"},
+                new Object[]{"south", 80.0, "b"},
+                new Object[]{"North", 120.0, "a"},
+                new Object[]{null, 10.0, "c"},
+                new Object[]{"North", null, "d"},
+                new Object[]{"South", 80.0, "e"},
+                new Object[]{"north", 50.0, "f"});
+
+        // 地区升序（不区分大小写，空值最后），金额降序（空值仍在最后），其余保持原顺序
+        List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, "region, B", "asc, DESC");
+        int[] sorted = TableQuery.sort(table, TableQuery.allRows(table), keys);
+        assertEquals("a f d b e c", notes(table, sorted));
+
+        // 列名后直接跟方向
+        keys = TableQuery.parseSortKeys(table, "Amount desc", null);
+        assertEquals("a b e f c d", notes(table, TableQuery.sort(table, TableQuery.allRows(table), keys)));
+
+        assertNull(TableQuery.parseSortKeys(table, "销售额最高的在前", "desc"));
+    }
+
+    @Test
+    public void testFilterConditions() {
+        long day = 86_400_000L;
+        long jan5 = LocalDate.of(2024, 1, 5).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        ColumnarTable table = table(
+                new Object[]{"Region", "Amount", "Date", "Note"},
+                new Object[]{"North", 120.0, new Date(jan5), "a"},
+                new Object[]{"South", 80.5, new Date(jan5 + day / 2), "b"},
+                new Object[]{"north-east", 1000.0, new Date(jan5 + day), "c"},
+                new Object[]{null, null, null, "d"},
+                new Object[]{"West", 80.5, new Date(jan5 - day), "e"});
+
+        assertEquals("a", filter(table, "Region", "equals", "NORTH"));
+        assertEquals("a c", filter(table, "A", "starts_with", "north"));
+        assertEquals("b c d e", filter(table, "Region", "<>", "North"));
+        assertEquals("a c", filter(table, "Amount", ">", "100"));
+        assertEquals("a b e", filter(table, "Amount", "介于", "80.5,120"));
+        assertEquals("c", filter(table, "Amount", "contains", "000"));
+        assertEquals("a b", filter(table, "Date", "equals", "2024-01-05"));
+        assertEquals("c", filter(table, "Date", "greater_than", "2024-01-05"));
+        assertEquals("d", filter(table, "Region", "is empty", ""));
+        assertEquals("a b c e", filter(table, "Amount", "not_empty", ""));
+        assertNull(TableQuery.Condition.from("看起来像异常的行"));
+        assertThrows(IllegalArgumentException.class, () -> filter(table, "Amount", "between", "100"));
+    }
+
+    @Test
+    public void testSortPathsMatchStableReference() throws Exception {
+        int rows = 50_000;
+        ColumnarTable table = randomTable(rows);
+        // 组合数少（计数排序）、组合数多（打包成long排序）、合成键溢出（归并排序）三种情况
+        String[][] cases = {
+                {"Region,Amount", "asc,desc"},
+                {"Score,Amount", "desc,asc"},
+                {"Score,Price,Qty,Amount,Region", "asc,desc,asc,desc,asc"}};
+        for (String[] sortCase : cases) {
+            List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, sortCase[0], sortCase[1]);
+            int[] sorted = TableQuery.sort(table, TableQuery.allRows(table), keys);
+            int[] expected = IntStream.range(0, rows).boxed().sorted(reference(table, keys))
+                    .mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(expected, sorted, sortCase[0]);
+        }
+
+        List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, "Region,Amount", "asc,desc");
+        // 筛选后的行再排序，写出的工作簿按结果顺序排列
+        int[] filtered = TableQuery.rows(TableQuery.filter(table, 0, TableQuery.Condition.EQUALS, "East"));
+        int[] result = TableQuery.sort(table, filtered, keys);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TableQuery.writeXlsx(table, result, out, 100);
+        try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(out.toByteArray()))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(result.length, sheet.getLastRowNum());
+            assertEquals("Region", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals("East", sheet.getRow(1).getCell(0).getStringCellValue());
+            assertEquals(table.getColumn(1).getDouble(result[0]), sheet.getRow(1).getCell(1).getNumericCellValue());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkSortAndFilter() {
+        int rows = Integer.parseInt(System.getProperty("benchmark.rows", "1000000"));
+        ColumnarTable table = randomTable(rows);
+        List<TableQuery.SortKey> keys = TableQuery.parseSortKeys(table, "Region,Amount", "asc,desc");
+        List<TableQuery.SortKey> wideKeys = TableQuery.parseSortKeys(table, "Score,Price", "desc,asc");
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            int[] sorted = TableQuery.sort(table, TableQuery.allRows(table), keys);
+            long sortMillis = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            TableQuery.sort(table, TableQuery.allRows(table), wideKeys);
+            long wideSortMillis = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            long[] bitmap = TableQuery.filter(table, 1, TableQuery.Condition.GREATER_THAN, "500");
+            int matched = TableQuery.count(bitmap);
+            long numberFilterMillis = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            int textMatched = TableQuery.count(TableQuery.filter(table, 0, TableQuery.Condition.CONTAINS, "st"));
+            long textFilterMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("rows=%d run %d%n", rows, i + 1);
+            System.out.printf("  sort Region,Amount %d ms (first row %d)%n", sortMillis, sorted[0]);
+            System.out.printf("  sort Score,Price   %d ms%n", wideSortMillis);
+            System.out.printf("  filter Amount>500  %d ms (%,d rows)%n", numberFilterMillis, matched);
+            System.out.printf("  filter contains    %d ms (%,d rows)%n", textFilterMillis, textMatched);
+        }
+    }
+
+    private static ColumnarTable table(Object[]... rows) {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Sheet1", true);
+        for (Object[] row : rows) {
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+
+    private static ColumnarTable randomTable(int rows) {
+        String[] regions = {"North", "South", "East", "West", "north", "Central"};
+        SplittableRandom random = new SplittableRandom(42);
+        ColumnarTable.Builder builder = new ColumnarTable.Builder("Orders", true);
+        builder.addRow(new Object[]{"Region", "Amount", "Score", "Price", "Qty"});
+        for (int i = 0; i < rows; i++) {
+            builder.addRow(new Object[]{regions[random.nextInt(regions.length)], (double) random.nextInt(1000),
+                    random.nextInt(20_000) / 7.0, (double) random.nextInt(5000), (double) random.nextInt(5000)});
+        }
+        return builder.build();
+    }
+
+    /**
+     * 用装箱值实现的参照比较器（随机表格中没有空值和布尔值）
+     */
+    private static Comparator<Integer> reference(ColumnarTable table, List<TableQuery.SortKey> keys) {
+        Comparator<Integer> comparator = (a, b) -> 0;
+        for (TableQuery.SortKey key : keys) {
+            ColumnarTable.Column column = table.getColumn(key.getColumn());
+            Comparator<Integer> next = column.getType() == ColumnarTable.ValueType.TEXT
+                    ? Comparator.comparing(column::getString, String.CASE_INSENSITIVE_ORDER)
+                    : Comparator.comparingDouble(column::getDouble);
+            comparator = comparator.thenComparing(key.isAscending() ? next : next.reversed());
+        }
+        return comparator;
+    }
+
+    private static String notes(ColumnarTable table, int[] rows) {
+        ColumnarTable.Column note = table.getColumn(table.getColumnCount() - 1);
+        return Arrays.stream(rows).mapToObj(note::getString).collect(Collectors.joining(" "));
+    }
+
+    private static String filter(ColumnarTable table, String column, String condition, String value) {
+        long[] bitmap = TableQuery.filter(table, TableQuery.resolveColumn(table, column),
+                TableQuery.Condition.from(condition), value);
+        return notes(table, TableQuery.rows(bitmap));
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.service.VersionService;
+import com.example.aiexcel.service.storage.ChunkStore;
+import com.example.aiexcel.service.storage.ContentChunker;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 版本内容去重存储与增量版本测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.versions=1000 指定版本数
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class VersionStorageTest {
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private ChunkStore chunkStore;
+
+    @Test
+    public void testChunkBoundariesSurviveInsertion() {
+        byte[] original = new byte[512 * 1024];
+        new SplittableRandom(7).nextBytes(original);
+        // 在开头插入100个字节，之后的切分点应随内容平移
+        byte[] shifted = new byte[original.length + 100];
+        System.arraycopy(original, 0, shifted, 100, original.length);
+
+        int[] before = ContentChunker.boundaries(original);
+        int[] after = ContentChunker.boundaries(shifted);
+        assertEquals(original.length, before[before.length - 1]);
+        long shared = Arrays.stream(after).filter(end -> Arrays.binarySearch(before, end - 100) >= 0).count();
+        assertTrue(shared >= after.length - 2, "shared " + shared + " of " + after.length);
+        for (int i = 1; i < before.length - 1; i++) {
+            int size = before[i] - before[i - 1];
+            assertTrue(size >= ContentChunker.MIN_SIZE && size <= ContentChunker.MAX_SIZE);
+        }
+    }
+
+    @Test
+    public void testNearIdenticalVersionsShareChunks() throws Exception {
+        String fileId = "storage-" + UUID.randomUUID();
+        FileVersion first;
+        FileVersion second;
+        // 上传的文件总是保存完整内容，由数据块去重
+        try (Workbook workbook = createWorkbook(20_000)) {
+            first = versionService.createVersion(fileId, upload(workbook), "initial", "tester");
+            long writtenBefore = written();
+            workbook.getSheetAt(0).getRow(19_000).getCell(1).setCellValue(-1);
+            second = versionService.createVersion(fileId, upload(workbook), "edit one cell", "tester");
+            long writtenForEdit = written() - writtenBefore;
+            // 只改一个单元格，新写入的内容应远小于文件本身
+            assertTrue(writtenForEdit < second.getFileSize() / 4,
+                    "wrote " + writtenForEdit + " bytes for a " + second.getFileSize() + " byte file");
+        }
+        assertEquals(1, first.getVersionNumber());
+        assertEquals(2, second.getVersionNumber());
+        assertNull(second.getFileContent());
+        assertTrue(ChunkStore.isManifest(second.getContentManifest()));
+
+        try (Workbook restored = versionService.createWorkbookFromVersion(second)) {
+            Sheet sheet = restored.getSheetAt(0);
+            assertEquals(-1, sheet.getRow(19_000).getCell(1).getNumericCellValue());
+            assertEquals("item-18999", sheet.getRow(18_999).getCell(0).getStringCellValue());
+        }
+        try (Workbook restored = versionService.createWorkbookFromVersion(first)) {
+            assertEquals(19_000, restored.getSheetAt(0).getRow(19_000).getCell(1).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testReleaseKeepsChunksStillReferenced() throws Exception {
+        byte[] content = new byte[100 * 1024];
+        new SplittableRandom(11).nextBytes(content);
+        String first = chunkStore.store(content);
+        String second = chunkStore.store(content);
+        assertEquals(first, second);
+
+        // 仍有一个引用时不删除数据块
+        assertEquals(0, chunkStore.release(first));
+        assertArrayEquals(content, chunkStore.load(second));
+        assertTrue(chunkStore.release(second) > 0);
+        assertThrows(IOException.class, () -> chunkStore.load(second));
+    }
+
+    @Test
+    public void testDeltaVersionsReplayFromSnapshot() throws Exception {
+        String fileId = "delta-" + UUID.randomUUID();
+        try (Workbook workbook = createWorkbook(2_000)) {
+            workbook.getSheetAt(0).getRow(0).createCell(2).setCellFormula("SUM(B1:B10)");
+            FileVersion v1 = versionService.createVersionFromWorkbook(fileId, workbook, "initial", "tester", "orders.xlsx");
+            assertNotNull(v1.getContentManifest());
+
+            workbook.getSheetAt(0).getRow(1).getCell(1).setCellValue(1001);
+            workbook.getSheetAt(0).getRow(5).removeCell(workbook.getSheetAt(0).getRow(5).getCell(0));
+            FileVersion v2 = versionService.createVersionFromWorkbook(fileId, workbook, "edit", "tester", "orders.xlsx");
+            assertEquals(1, v2.getBaseVersionNumber());
+            assertNull(v2.getContentManifest());
+            assertTrue(v2.getCellDelta().length < 200, "delta of " + v2.getCellDelta().length + " bytes");
+
+            // 新增样式属于结构变化，保存完整快照
+            CellStyle bold = workbook.createCellStyle();
+            workbook.getSheetAt(0).getRow(2).getCell(0).setCellStyle(bold);
+            FileVersion v3 = versionService.createVersionFromWorkbook(fileId, workbook, "style", "tester", "orders.xlsx");
+            assertNotNull(v3.getContentManifest());
+
+            workbook.getSheetAt(0).getRow(3).getCell(0).setCellValue("renamed");
+            FileVersion v4 = versionService.createVersionFromWorkbook(fileId, workbook, "edit", "tester", "orders.xlsx");
+            workbook.getSheetAt(0).createRow(2_500).createCell(0).setCellValue("appended");
+            FileVersion v5 = versionService.createVersionFromWorkbook(fileId, workbook, "append", "tester", "orders.xlsx");
+            assertEquals(3, v4.getBaseVersionNumber());
+            assertEquals(4, v5.getBaseVersionNumber());
+        }
+
+        try (Workbook restored = versionService.createWorkbookFromVersion(versionService.getVersion(fileId, 2))) {
+            Sheet sheet = restored.getSheetAt(0);
+            assertEquals(1001, sheet.getRow(1).getCell(1).getNumericCellValue());
+            assertNull(sheet.getRow(5).getCell(0));
+            // 回放后重算公式缓存值：0 + 1001 + 2 + ... + 9
+            assertEquals(1045, sheet.getRow(0).getCell(2).getNumericCellValue());
+        }
+
+        // 删除版本2、3后，版本4转成快照，版本5仍可回放
+        assertEquals(2, versionService.cleanupOldVersions(fileId, 2));
+        assertNotNull(versionService.getVersion(fileId, 4).getContentManifest());
+        try (Workbook restored = versionService.createWorkbookFromVersion(versionService.getVersion(fileId, 5))) {
+            Sheet sheet = restored.getSheetAt(0);
+            assertEquals("renamed", sheet.getRow(3).getCell(0).getStringCellValue());
+            assertEquals("appended", sheet.getRow(2_500).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testLatestCellsAreBoundedByMemory() throws Exception {
+        long originalMaxBytes = (Long) ReflectionTestUtils.getField(versionService, "maxLatestCellsBytes");
+        String first = "bounded-a-" + UUID.randomUUID();
+        String second = "bounded-b-" + UUID.randomUUID();
+        try (Workbook workbook = createWorkbook(1_000)) {
+            // 预算只容纳一个文件的单元格内容
+            ReflectionTestUtils.setField(versionService, "maxLatestCellsBytes", 300_000L);
+            versionService.createVersionFromWorkbook(first, workbook, "initial", "tester", "a.xlsx");
+            versionService.createVersionFromWorkbook(second, workbook, "initial", "tester", "b.xlsx");
+            Map<?, ?> latestCells = (Map<?, ?>) ReflectionTestUtils.getField(versionService, "latestCells");
+            synchronized (latestCells) {
+                assertFalse(latestCells.containsKey(first));
+                assertTrue(latestCells.containsKey(second));
+            }
+            long bytes = (Long) ReflectionTestUtils.getField(versionService, "latestCellsBytes");
+            assertTrue(bytes > 0 && bytes <= 300_000L, "cached " + bytes + " bytes");
+
+            // 被淘汰的文件回放版本链后仍保存增量
+            workbook.getSheetAt(0).getRow(10).getCell(1).setCellValue(-1);
+            FileVersion next = versionService.createVersionFromWorkbook(first, workbook, "edit", "tester", "a.xlsx");
+            assertEquals(1, next.getBaseVersionNumber());
+        } finally {
+            ReflectionTestUtils.setField(versionService, "maxLatestCellsBytes", originalMaxBytes);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCompareDeltaVersions() throws Exception {
+        String fileId = "compare-" + UUID.randomUUID();
+        try (Workbook workbook = createWorkbook(2_000)) {
+            workbook.getSheetAt(0).getRow(0).createCell(2).setCellFormula("SUM(B1:B10)");
+            versionService.createVersionFromWorkbook(fileId, workbook, "initial", "tester", "orders.xlsx");
+            workbook.getSheetAt(0).getRow(1).getCell(1).setCellValue(1001);
+            FileVersion v2 = versionService.createVersionFromWorkbook(fileId, workbook, "edit", "tester", "orders.xlsx");
+            workbook.getSheetAt(0).createRow(2_500).createCell(0).setCellValue("appended");
+            FileVersion v3 = versionService.createVersionFromWorkbook(fileId, workbook, "append", "tester", "orders.xlsx");
+            assertNotNull(v2.getCellDelta());
+            assertNotNull(v3.getCellDelta());
+        }
+
+        // 快照与增量版本比较：公式单元格的结果按回放后重算的值比较
+        Map<String, Object> diff = versionService.compareVersions(fileId, 1, 2);
+        assertEquals(false, diff.get("identical"));
+        Map<String, Object> sheet = ((List<Map<String, Object>>) diff.get("sheets")).get(0);
+        assertEquals(List.of(1, 2), sheet.get("changedRows"));
+        List<Map<String, Object>> cells = (List<Map<String, Object>>) sheet.get("cells");
+        assertEquals("C1", cells.get(0).get("address"));
+        assertEquals(1045.0, cells.get(0).get("newValue"));
+        assertEquals("B2", cells.get(1).get("address"));
+        assertEquals(1001.0, cells.get(1).get("newValue"));
+
+        // 两个增量版本之间比较
+        diff = versionService.compareVersions(fileId, 2, 3);
+        sheet = ((List<Map<String, Object>>) diff.get("sheets")).get(0);
+        assertEquals(List.of(2_501), sheet.get("addedRows"));
+        assertEquals(List.of(), sheet.get("changedRows"));
+        assertEquals(true, versionService.compareVersions(fileId, 3, 3).get("identical"));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkDeltaVersions() throws Exception {
+        int versions = Integer.parseInt(System.getProperty("benchmark.versions", "1000"));
+        int originalInterval = (Integer) ReflectionTestUtils.getField(versionService, "snapshotInterval");
+        try {
+            for (int interval : new int[]{1, 10, originalInterval, 50}) {
+                ReflectionTestUtils.setField(versionService, "snapshotInterval", interval);
+                runDeltaBenchmark(versions, interval);
+            }
+        } finally {
+            ReflectionTestUtils.setField(versionService, "snapshotInterval", originalInterval);
+        }
+    }
+
+    private void runDeltaBenchmark(int versions, int interval) throws Exception {
+        String fileId = "bench-" + interval + "-" + UUID.randomUUID();
+        SplittableRandom random = new SplittableRandom(3);
+        long writtenBefore = written();
+        long deltaBytes = 0;
+        long createNanos = 0;
+        try (Workbook workbook = createWorkbook(5_000)) {
+            for (int v = 0; v < versions; v++) {
+                for (int edit = 0; edit < 3; edit++) {
+                    workbook.getSheetAt(0).getRow(random.nextInt(5_000)).getCell(1).setCellValue(random.nextInt(100_000));
+                }
+                long start = System.nanoTime();
+                FileVersion version = versionService.createVersionFromWorkbook(fileId, workbook, "edit", "bench", "bench.xlsx");
+                createNanos += System.nanoTime() - start;
+                if (version.getCellDelta() != null) {
+                    deltaBytes += version.getCellDelta().length;
+                }
+            }
+        }
+        long snapshotBytes = written() - writtenBefore;
+
+        // 读取最后一个快照周期内的每个版本，覆盖从0到interval-1的回放深度
+        int reads = Math.min(interval, versions);
+        long readNanos = 0;
+        for (int v = versions - reads + 1; v <= versions; v++) {
+            long start = System.nanoTime();
+            versionService.getVersionContent(versionService.getVersion(fileId, v));
+            readNanos += System.nanoTime() - start;
+        }
+        System.out.printf("interval=%d versions=%d%n", interval, versions);
+        System.out.printf("  stored     %,d bytes (snapshots %,d, deltas %,d)%n", snapshotBytes + deltaBytes, snapshotBytes, deltaBytes);
+        System.out.printf("  create     %.1f ms/version%n", createNanos / 1e6 / versions);
+        System.out.printf("  read       %.1f ms/version (avg over %d versions)%n", readNanos / 1e6 / reads, reads);
+    }
+
+    private long written() {
+        Map<String, Object> stats = chunkStore.getStats();
+        return ((Number) stats.get("writtenBytes")).longValue();
+    }
+
+    private static MockMultipartFile upload(Workbook workbook) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        return new MockMultipartFile("file", "orders.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+    }
+
+    private static Workbook createWorkbook(int rows) {
+        Workbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Orders");
+        for (int i = 0; i < rows; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("item-" + i);
+            row.createCell(1).setCellValue(i);
+        }
+        return workbook;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.impl.QwenAiService;
+import com.example.aiexcel.service.concurrent.TaskScope;
+import com.example.aiexcel.service.concurrent.VirtualThreads;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 大量并发AI请求的负载测试
+ * 桩服务器延迟后再响应（由定时线程完成，不为每个请求占用线程），统计服务端同时挂起的请求数和JVM的平台线程数。
+ * 阻塞调用分别在虚拟线程（Java 21及以上）和Tomcat默认大小的平台线程池上运行，异步调用不占用等待线程。
+ * 负载测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.requests=2000 指定请求数
+ */
+public class VirtualThreadLoadTest {
+
+    private static final int LATENCY_MS = 1000;
+    private static final String RESPONSE = "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"你好\"}}]}";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ScheduledExecutorService responder;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private String previousBaseUrl;
+
+    @BeforeEach
+    public void startStubServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8192);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        responder = Executors.newScheduledThreadPool(2);
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat/completions", exchange -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            exchange.getRequestBody().readAllBytes();
+            responder.schedule(() -> {
+                try {
+                    byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    // 每个请求使用新连接，避免桩服务器回收空闲连接时客户端复用到已关闭的连接
+                    exchange.getResponseHeaders().add("Connection", "close");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                } catch (Exception e) {
+                    // 客户端已断开
+                } finally {
+                    inFlight.decrementAndGet();
+                    exchange.close();
+                }
+            }, LATENCY_MS, TimeUnit.MILLISECONDS);
+        });
+        server.start();
+        previousBaseUrl = System.getProperty("qwen.api.base-url");
+        System.setProperty("qwen.api.base-url", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1");
+    }
+
+    @AfterEach
+    public void stopStubServer() {
+        if (previousBaseUrl == null) {
+            System.clearProperty("qwen.api.base-url");
+        } else {
+            System.setProperty("qwen.api.base-url", previousBaseUrl);
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        responder.shutdownNow();
+    }
+
+    @Test
+    public void testTaskScopeCancelsSiblingsOnFailure() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch interrupted = new CountDownLatch(1);
+            Future<String> slow;
+            try (TaskScope scope = new TaskScope(executor)) {
+                slow = scope.fork(() -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return "slow";
+                });
+                scope.fork(() -> {
+                    // 等慢任务开始运行后再失败，尚未开始的任务被取消时不会收到中断
+                    started.await();
+                    throw new IllegalStateException("boom");
+                });
+                ExecutionException error = assertThrows(ExecutionException.class, scope::join);
+                assertTrue(error.getCause() instanceof IllegalStateException);
+            }
+            assertTrue(slow.isCancelled());
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+            try (TaskScope scope = new TaskScope(executor)) {
+                Future<Integer> a = scope.fork(() -> 1);
+                Future<Integer> b = scope.fork(() -> 2);
+                scope.join();
+                assertEquals(3, a.get() + b.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void loadTestConcurrentAiRequests() throws Exception {
+        int requests = Integer.parseInt(System.getProperty("benchmark.requests", "2000"));
+        QwenAiService service = new QwenAiService("sk-test-key-for-stub", null, null,
+                requests, requests, 30000, 60000, 4, 4);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try {
+            service.generateResponse(request());
+            System.out.printf("requests=%d latency=%d ms, Java %s%n", requests, LATENCY_MS, Runtime.version());
+
+            // 异步调用：等待响应期间不占用线程
+            run("async client          ", requests, threads, () -> {
+                List<CompletableFuture<AiResponse>> futures = new ArrayList<>();
+                for (int i = 0; i < requests; i++) {
+                    futures.add(service.generateResponseAsync(request()));
+                }
+                for (CompletableFuture<AiResponse> future : futures) {
+                    assertEquals("你好", future.join().getChoices()[0].getMessage().getContent());
+                }
+                return null;
+            });
+
+            // 阻塞调用，每个请求一个虚拟线程
+            if (VirtualThreads.isSupported()) {
+                ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("load-");
+                try {
+                    run("blocking, virtual     ", requests, threads, () -> blockingCalls(service, executor, requests));
+                } finally {
+                    executor.shutdownNow();
+                }
+            } else {
+                System.out.println("  blocking, virtual      skipped, virtual threads require Java 21");
+            }
+
+            // 阻塞调用，平台线程数与Tomcat默认的最大线程数相同
+            ExecutorService pool = Executors.newFixedThreadPool(200);
+            try {
+                run("blocking, 200 threads ", requests, threads, () -> blockingCalls(service, pool, requests));
+            } finally {
+                pool.shutdownNow();
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    private void run(String label, int requests, ThreadMXBean threads, Callable<Void> body) throws Exception {
+        System.gc();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        maxInFlight.set(0);
+        long start = System.nanoTime();
+        body.call();
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("  %s peak in-flight=%d  wall=%d ms  platform threads %d -> peak %d%n",
+                label, maxInFlight.get(), wallMillis, threadsBefore, threads.getPeakThreadCount());
+        assertTrue(maxInFlight.get() <= requests);
+    }
+
+    private Void blockingCalls(QwenAiService service, ExecutorService executor, int requests) throws Exception {
+        List<Future<AiResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> service.generateResponse(request())));
+        }
+        for (Future<AiResponse> future : futures) {
+            assertEquals("你好", future.get().getChoices()[0].getMessage().getContent());
+        }
+        return null;
+    }
+
+    private AiRequest request() {
+        AiRequest request = new AiRequest();
+        request.setMessages(List.of(new AiRequest.Message("user", "hello")));
+        return request;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.WorkbookCache;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 已解析工作簿缓存测试
+ */
+public class WorkbookCacheTest {
+
+    @Test
+    public void testRepeatedReadsHitCache() throws Exception {
+        WorkbookCache cache = new WorkbookCache(64 * 1024 * 1024, 8 * 1024 * 1024);
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        excelService.setWorkbookCache(cache);
+
+        MockMultipartFile file = createFile("Orders", 50);
+        String first = excelService.getExcelDataAsString(file);
+        String second = excelService.getExcelDataAsString(file);
+        String[] headers = excelService.getExcelHeaders(file);
+
+        assertEquals(first, second);
+        assertEquals("Name", headers[0]);
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testMutatingCallersGetTheirOwnCopy() throws Exception {
+        WorkbookCache cache = new WorkbookCache(64 * 1024 * 1024, 8 * 1024 * 1024);
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        excelService.setWorkbookCache(cache);
+        MockMultipartFile file = createFile("Orders", 10);
+
+        Workbook shared = excelService.readWorkbookReadOnly(file, workbook -> workbook);
+        assertSame(shared, excelService.readWorkbookReadOnly(file, workbook -> workbook));
+
+        // 需要修改的副本总是重新解析，不查缓存也不计算内容哈希
+        long lookups = cache.getHits() + cache.getMisses();
+        Workbook copy = excelService.loadWorkbook(file);
+        assertNotSame(shared, copy);
+        assertEquals(lookups, cache.getHits() + cache.getMisses());
+        copy.getSheetAt(0).getRow(1).getCell(0).setCellValue("changed");
+        assertEquals("Customer 1", excelService.readWorkbookReadOnly(file,
+                workbook -> workbook.getSheetAt(0).getRow(1).getCell(0).getStringCellValue()));
+    }
+
+    @Test
+    public void testSharedWorkbookIsNotReadConcurrently() throws Exception {
+        WorkbookCache cache = new WorkbookCache(64 * 1024 * 1024, 8 * 1024 * 1024);
+        ExcelServiceImpl excelService = new ExcelServiceImpl();
+        excelService.setWorkbookCache(cache);
+        MockMultipartFile file = createFile("Orders", 10);
+
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> excelService.readWorkbookReadOnly(file, workbook -> {
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                        return workbook.getSheetAt(0).getRow(1).getCell(0).getStringCellValue();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                })));
+            }
+            for (Future<String> result : results) {
+                assertEquals("Customer 1", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, maxActive.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        byte[] first = createFile("First", 10).getBytes();
+        byte[] second = createFile("Second", 10).getBytes();
+        byte[] third = createFile("Third", 10).getBytes();
+        WorkbookCache cache = new WorkbookCache(first.length + second.length + 100, 1024 * 1024);
+
+        cache.getOrCreate(first, "first.xlsx");
+        cache.getOrCreate(second, "second.xlsx");
+        cache.getOrCreate(first, "first.xlsx");
+        cache.getOrCreate(third, "third.xlsx");
+
+        assertEquals(1L, cache.getStats().get("evictions"));
+        // first最近被访问过，应当保留；second被淘汰
+        cache.getOrCreate(first, "first.xlsx");
+        assertEquals(2, cache.getHits());
+        cache.getOrCreate(second, "second.xlsx");
+        assertEquals(4, cache.getMisses());
+    }
+
+    private MockMultipartFile createFile(String sheetName, int rows) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            var sheet = workbook.createSheet(sheetName);
+            var header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Amount");
+            for (int i = 1; i <= rows; i++) {
+                var row = sheet.createRow(i);
+                row.createCell(0).setCellValue("Customer " + i);
+                row.createCell(1).setCellValue(i * 10.0);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return new MockMultipartFile("file", sheetName + ".xlsx",
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+}
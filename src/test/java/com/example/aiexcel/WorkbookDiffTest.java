@@ -0,0 +1,176 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.WorkbookDiff;
+import com.example.aiexcel.service.excel.impl.StreamingWorkbookReader;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 版本比较测试
+ * 基准测试默认跳过，使用 -Dbenchmark=true 运行，可用 -Dbenchmark.rows=100000 指定行数
+ */
+public class WorkbookDiffTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testChangedAddedRemovedAndMovedRows() throws Exception {
+        Map<String, Object[][]> before = new LinkedHashMap<>();
+        before.put("Orders", new Object[][]{
+                {"Name", "Amount"}, {"a", 1.0}, {"b", 2.0}, {"c", 3.0}, {"d", 4.0}});
+        before.put("Old", new Object[][]{{"x"}});
+        Map<String, Object[][]> after = new LinkedHashMap<>();
+        after.put("Orders", new Object[][]{
+                {"Name", "Amount", "Note"}, {"a", 1.0}, {"b", 20.0}, {"c", 3.0}, {"d", 4.0}, {"e", 5.0}});
+        after.put("New", new Object[][]{{"y"}, {"z"}});
+
+        Map<String, Object> diff = WorkbookDiff.compare(source(before), source(after), 100);
+        assertEquals(false, diff.get("identical"));
+        Map<String, Integer> summary = (Map<String, Integer>) diff.get("summary");
+        assertEquals(1, summary.get("addedSheets"));
+        assertEquals(1, summary.get("removedSheets"));
+        assertEquals(2, summary.get("changedRows"));
+        assertEquals(1, summary.get("addedRows"));
+        assertEquals(1, summary.get("addedCells"));
+        assertEquals(1, summary.get("changedCells"));
+
+        Map<String, Object> orders = ((List<Map<String, Object>>) diff.get("sheets")).get(0);
+        assertEquals(List.of(6), orders.get("addedRows"));
+        List<Map<String, Object>> cells = (List<Map<String, Object>>) orders.get("cells");
+        assertEquals("C1", cells.get(0).get("address"));
+        assertEquals("added", cells.get(0).get("change"));
+        assertEquals("B3", cells.get(1).get("address"));
+        assertEquals(2.0, cells.get(1).get("oldValue"));
+        assertEquals(20.0, cells.get(1).get("newValue"));
+        assertEquals(false, diff.get("truncated"));
+
+        // 在开头插入一行：其余行只算移动，不算修改
+        Map<String, Object[][]> shifted = new LinkedHashMap<>();
+        shifted.put("Orders", new Object[][]{
+                {"inserted"}, {"Name", "Amount"}, {"a", 1.0}, {"b", 2.0}, {"c", 3.0}, {"d", 4.0}});
+        shifted.put("Old", new Object[][]{{"x"}});
+        diff = WorkbookDiff.compare(source(before), source(shifted), 100);
+        summary = (Map<String, Integer>) diff.get("summary");
+        assertEquals(1, summary.get("addedRows"));
+        assertEquals(5, summary.get("movedRows"));
+        assertEquals(0, summary.get("changedRows"));
+
+        assertEquals(true, WorkbookDiff.compare(source(before), source(before), 100).get("identical"));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkAgainstFullCellWalk() throws Exception {
+        int rows = Integer.parseInt(System.getProperty("benchmark.rows", "100000"));
+        File before = Files.createTempFile("diff-before-", ".xlsx").toFile();
+        File after = Files.createTempFile("diff-after-", ".xlsx").toFile();
+        try {
+            writeSheet(before, rows, -1);
+            writeSheet(after, rows, 37);
+            StreamingWorkbookReader reader = new StreamingWorkbookReader();
+
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                Map<String, Object> diff = WorkbookDiff.compare(handler -> reader.read(before, handler),
+                        handler -> reader.read(after, handler), 1000);
+                long rowHashMillis = (System.nanoTime() - start) / 1_000_000;
+
+                System.out.printf("rows=%d run %d%n", rows, run + 1);
+                System.out.printf("  row-hash diff   %d ms %s%n", rowHashMillis, diff.get("summary"));
+
+                start = System.nanoTime();
+                try {
+                    int naiveChanges = fullCellWalk(before, after);
+                    long naiveMillis = (System.nanoTime() - start) / 1_000_000;
+                    System.out.printf("  full cell walk  %d ms (%d changed cells)%n", naiveMillis, naiveChanges);
+                } catch (OutOfMemoryError e) {
+                    // 两个工作簿的DOM同时在内存中，大表格在默认堆大小下放不下
+                    System.out.printf("  full cell walk  out of memory after %d ms (max heap %d MB)%n",
+                            (System.nanoTime() - start) / 1_000_000, Runtime.getRuntime().maxMemory() >> 20);
+                }
+            }
+        } finally {
+            before.delete();
+            after.delete();
+        }
+    }
+
+    /**
+     * 对照实现：两个工作簿都完整加载，逐个单元格比较
+     */
+    private static int fullCellWalk(File before, File after) throws Exception {
+        DataFormatter formatter = new DataFormatter();
+        int changes = 0;
+        try (Workbook a = new XSSFWorkbook(before); Workbook b = new XSSFWorkbook(after)) {
+            Sheet sheetA = a.getSheetAt(0);
+            Sheet sheetB = b.getSheetAt(0);
+            int lastRow = Math.max(sheetA.getLastRowNum(), sheetB.getLastRowNum());
+            for (int r = 0; r <= lastRow; r++) {
+                Row rowA = sheetA.getRow(r);
+                Row rowB = sheetB.getRow(r);
+                int lastCol = Math.max(rowA == null ? 0 : rowA.getLastCellNum(), rowB == null ? 0 : rowB.getLastCellNum());
+                for (int c = 0; c < lastCol; c++) {
+                    Cell cellA = rowA == null ? null : rowA.getCell(c);
+                    Cell cellB = rowB == null ? null : rowB.getCell(c);
+                    if (!formatter.formatCellValue(cellA).equals(formatter.formatCellValue(cellB))) {
+                        changes++;
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 10列的订单表；changeEvery大于0时每隔这么多行修改一个金额
+     */
+    private static void writeSheet(File file, int rows, int changeEvery) throws Exception {
+        SplittableRandom random = new SplittableRandom(5);
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100); OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Orders");
+            for (int r = 0; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue("order-" + r);
+                for (int c = 1; c < 10; c++) {
+                    double value = random.nextInt(10_000);
+                    row.createCell(c).setCellValue(changeEvery > 0 && c == 3 && r % changeEvery == 0 ? -value : value);
+                }
+            }
+            workbook.write(out);
+            workbook.dispose();
+        }
+    }
+
+    private static WorkbookDiff.Source source(Map<String, Object[][]> sheets) {
+        return handler -> {
+            int sheetIndex = 0;
+            for (Map.Entry<String, Object[][]> sheet : sheets.entrySet()) {
+                if (handler.startSheet(sheetIndex, sheet.getKey())) {
+                    Object[][] rows = sheet.getValue();
+                    for (int r = 0; r < rows.length; r++) {
+                        handler.row(r, rows[r]);
+                    }
+                    handler.endSheet(sheetIndex, sheet.getKey());
+                }
+                sheetIndex++;
+            }
+        };
+    }
+}
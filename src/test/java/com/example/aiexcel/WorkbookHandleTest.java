@@ -0,0 +1,86 @@
+package com.example.aiexcel;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 工作簿句柄测试：上传一次，之后用句柄代替file参数
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class WorkbookHandleTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testHandleReplacesFileParameter() throws Exception {
+        MockMultipartFile file = createFile();
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("file", new ByteArrayResource(file.getBytes()) {
+            @Override
+            public String getFilename() {
+                return file.getOriginalFilename();
+            }
+        });
+        HttpHeaders uploadHeaders = new HttpHeaders();
+        uploadHeaders.setContentType(MediaType.MULTIPART_FORM_DATA);
+        ResponseEntity<Map> upload = restTemplate.postForEntity("/api/workbooks",
+                new HttpEntity<>(form, uploadHeaders), Map.class);
+        assertEquals(HttpStatus.OK, upload.getStatusCode());
+        String handle = (String) upload.getBody().get("handle");
+        assertNotNull(handle);
+
+        ResponseEntity<Map> byParam = restTemplate.getForEntity("/api/excel/preview?handle=" + handle, Map.class);
+        assertEquals(HttpStatus.OK, byParam.getStatusCode());
+        assertEquals(List.of("Name", "Amount"), byParam.getBody().get("headers"));
+
+        HttpHeaders handleHeaders = new HttpHeaders();
+        handleHeaders.set("X-Workbook-Handle", handle);
+        ResponseEntity<Map> byHeader = restTemplate.exchange("/api/excel/preview", HttpMethod.GET,
+                new HttpEntity<>(handleHeaders), Map.class);
+        assertEquals(HttpStatus.OK, byHeader.getStatusCode());
+        assertEquals(6, byHeader.getBody().get("rowCount"));
+
+        restTemplate.delete("/api/workbooks/" + handle);
+        ResponseEntity<Map> released = restTemplate.getForEntity("/api/excel/preview?handle=" + handle, Map.class);
+        assertEquals(HttpStatus.NOT_FOUND, released.getStatusCode());
+        assertEquals(false, released.getBody().get("success"));
+    }
+
+    private MockMultipartFile createFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            var sheet = workbook.createSheet("Orders");
+            var header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Amount");
+            for (int i = 1; i <= 5; i++) {
+                var row = sheet.createRow(i);
+                row.createCell(0).setCellValue("Customer " + i);
+                row.createCell(1).setCellValue(i * 10.0);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return new MockMultipartFile("file", "orders.xlsx",
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+}
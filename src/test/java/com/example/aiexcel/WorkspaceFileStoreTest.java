@@ -0,0 +1,70 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.FileWorkspace;
+import com.example.aiexcel.model.WorkspaceFile;
+import com.example.aiexcel.service.FileManagerService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 工作区文件存储测试：内容落盘、按哈希去重、直接从磁盘下载
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = AiExcelIntegrationApplication.class
+)
+@ActiveProfiles("test")
+public class WorkspaceFileStoreTest {
+
+    @Autowired
+    private FileManagerService fileManagerService;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testIdenticalUploadsShareContentAndDownloadFromDisk() throws Exception {
+        String userId = "store-" + UUID.randomUUID();
+        FileWorkspace workspace = fileManagerService.createWorkspace("files", null, userId, null);
+        byte[] content = new byte[300 * 1024];
+        new SplittableRandom(17).nextBytes(content);
+
+        long deduplicatedBefore = (Long) fileManagerService.getStorageStats().get("deduplicatedFiles");
+        WorkspaceFile first = fileManagerService.uploadFileToWorkspace(
+                new MockMultipartFile("file", "报表.xlsx", null, content), workspace.getId(), userId, null);
+        WorkspaceFile second = fileManagerService.uploadFileToWorkspace(
+                new MockMultipartFile("file", "copy.xlsx", null, content), workspace.getId(), userId, null);
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(deduplicatedBefore + 1, fileManagerService.getStorageStats().get("deduplicatedFiles"));
+        Path path = fileManagerService.getContentPath(first);
+        assertEquals(content.length, Files.size(path));
+
+        ResponseEntity<byte[]> download = restTemplate.getForEntity("/api/files/file/" + first.getId() + "/download", byte[].class);
+        assertEquals(HttpStatus.OK, download.getStatusCode());
+        assertArrayEquals(content, download.getBody());
+        assertTrue(download.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION).contains("UTF-8''"));
+
+        ResponseEntity<Map> missing = restTemplate.getForEntity("/api/files/file/-1/download", Map.class);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+
+        // 删除工作区后内容不再被引用，随之删除
+        assertTrue(fileManagerService.deleteWorkspace(workspace.getId(), userId));
+        assertFalse(Files.exists(path));
+    }
+}